@@ -395,15 +395,32 @@ public class AlignmentUtils {
 			stateCount[i] = 0;
 		}
 
-		for (int i = 0; i < a.getSequenceCount(); i++)
-		{
-			for (int j = 0; j < a.getSiteCount(); j++)
+		if(a instanceof SitePattern&&((SitePattern)a).getDataType()==dt&&((SitePattern)a).pattern!=null) {
+			//Count each pattern once, by weight (a SitePattern without sites has no pattern array)
+			final SitePattern sp = (SitePattern)a;
+			for (int i = 0; i < sp.getSequenceCount(); i++)
 			{
-				int state = dt.getState(a.getData(i,j));
-				if(dt.isUnknownState(state)) {
-					state = stateCount.length -1;
+				final byte[] states = sp.pattern[i];
+				for (int j = 0; j < sp.numPatterns; j++)
+				{
+					int state = states[j];
+					if(state<0||state>numStates||dt.isUnknownState(state)) {
+						state = numStates;
+					}
+					stateCount[state] += sp.weight[j];
+				}
+			}
+		} else {
+			for (int i = 0; i < a.getSequenceCount(); i++)
+			{
+				for (int j = 0; j < a.getSiteCount(); j++)
+				{
+					int state = dt.getState(a.getData(i,j));
+					if(dt.isUnknownState(state)) {
+						state = stateCount.length -1;
+					}
+					stateCount[state] += 1;
 				}
-				stateCount[state] += 1;
 			}
 		}
 
@@ -0,0 +1,121 @@
+// BootstrapWeights.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.alignment;
+
+/**
+ * <p>Title: BootstrapWeights</p>
+ * <p>Description: Generates bootstrap replicates of an alignment as weights, rather than as alignments (see
+ * BootstrappedAlignment). Each replicate draws as many sites as the alignment has, with replacement, and gives
+ * the number of times each pattern of a SitePattern was drawn (which together are a multinomial draw with the
+ * pattern frequencies). The patterns themselves are never copied or recompressed, so the weights can be given
+ * straight to a likelihood calculation over the patterns (such as a pattern searcher in pal.treesearch) for
+ * each replicate.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.math.*;
+
+public final class BootstrapWeights {
+	private final SitePattern patterns_;
+	private final MersenneTwisterFast random_;
+
+	/**
+	 * @param patterns the site patterns of the alignment being bootstrapped
+	 */
+	public BootstrapWeights(SitePattern patterns) {
+		this(patterns,new MersenneTwisterFast());
+	}
+	/**
+	 * @param patterns the site patterns of the alignment being bootstrapped
+	 * @param random the source of random numbers (for repeatable replicates)
+	 */
+	public BootstrapWeights(SitePattern patterns, MersenneTwisterFast random) {
+		this.patterns_ = patterns;
+		this.random_ = random;
+	}
+	/**
+	 * @return the site patterns being bootstrapped
+	 */
+	public SitePattern getSitePattern() { return patterns_; }
+
+	/**
+	 * Draw the pattern weights of the next replicate
+	 * @param store where the weights are put (may be null, or too small, in which case a new array is created)
+	 * @return the weight of each pattern (store if it was used)
+	 */
+	public int[] getNextPatternWeights(int[] store) {
+		return drawPatternWeights(patterns_,random_,store);
+	}
+	/**
+	 * Draw the site weights of the next replicate (for calculations over the sites rather than the patterns)
+	 * @param store where the weights are put (may be null, or too small, in which case a new array is created)
+	 * @return the number of times each site is drawn (store if it was used)
+	 */
+	public int[] getNextSiteWeights(int[] store) {
+		return drawSiteWeights(patterns_.getSiteCount(),random_,store);
+	}
+
+	/**
+	 * Draw the next replicate as a SitePattern. The replicate shares the patterns (and identifiers) of the
+	 * bootstrapped site patterns, with new weights and a new site to pattern alias.
+	 * @return the site patterns of the replicate
+	 */
+	public SitePattern getNextSitePattern() {
+		final int numberOfSites = patterns_.getSiteCount();
+		final int numberOfPatterns = patterns_.getNumberOfPatterns();
+		final int[] baseAlias = patterns_.alias;
+		final int[] alias = new int[numberOfSites];
+		final int[] weight = new int[numberOfPatterns];
+		for(int i = 0 ; i < numberOfSites ; i++) {
+			final int pattern = baseAlias[random_.nextInt(numberOfSites)];
+			alias[i] = pattern;
+			weight[pattern]++;
+		}
+		return new SitePattern(patterns_.getDataType(),numberOfSites,patterns_.getSequenceCount(),patterns_,numberOfPatterns,alias,weight,patterns_.pattern);
+	}
+
+	/**
+	 * Draw the pattern weights of a bootstrap replicate
+	 * @param patterns the site patterns
+	 * @param random the source of random numbers
+	 * @param store where the weights are put (may be null, or too small, in which case a new array is created)
+	 * @return the weight of each pattern (store if it was used)
+	 */
+	public static final int[] drawPatternWeights(SitePattern patterns, MersenneTwisterFast random, int[] store) {
+		final int numberOfPatterns = patterns.getNumberOfPatterns();
+		if(store==null||store.length<numberOfPatterns) {
+			store = new int[numberOfPatterns];
+		} else {
+			java.util.Arrays.fill(store,0,numberOfPatterns,0);
+		}
+		final int numberOfSites = patterns.getSiteCount();
+		final int[] alias = patterns.alias;
+		for(int i = 0 ; i < numberOfSites ; i++) {
+			store[alias[random.nextInt(numberOfSites)]]++;
+		}
+		return store;
+	}
+	/**
+	 * Draw the site weights of a bootstrap replicate
+	 * @param numberOfSites the number of sites
+	 * @param random the source of random numbers
+	 * @param store where the weights are put (may be null, or too small, in which case a new array is created)
+	 * @return the number of times each site is drawn (store if it was used)
+	 */
+	public static final int[] drawSiteWeights(int numberOfSites, MersenneTwisterFast random, int[] store) {
+		if(store==null||store.length<numberOfSites) {
+			store = new int[numberOfSites];
+		} else {
+			java.util.Arrays.fill(store,0,numberOfSites,0);
+		}
+		for(int i = 0 ; i < numberOfSites ; i++) {
+			store[random.nextInt(numberOfSites)]++;
+		}
+		return store;
+	}
+}
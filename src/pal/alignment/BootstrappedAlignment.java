@@ -30,6 +30,17 @@ public class BootstrappedAlignment extends AbstractAlignment
 	 * @param raw original alignment
 	 */
 	public BootstrappedAlignment(Alignment raw)
+	{
+		this(raw, new MersenneTwisterFast());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param raw original alignment
+	 * @param random source of random numbers (for repeatable replicates)
+	 */
+	public BootstrappedAlignment(Alignment raw, MersenneTwisterFast random)
 	{
 		rawAlignment = raw;
 
@@ -39,7 +50,7 @@ public class BootstrappedAlignment extends AbstractAlignment
 		setDataType(raw.getDataType());
 
 		alias = new int[numSites];
-		urn = new UrnModel(numSites);
+		this.random = random;
 
 		bootstrap();
 	}
@@ -53,12 +64,15 @@ public class BootstrappedAlignment extends AbstractAlignment
 	}
 
 
-	/** bootstrap alignment */
+	/**
+	 * bootstrap alignment (see BootstrapWeights for replicates that
+	 * reuse the site patterns of the raw alignment)
+	 */
 	public void bootstrap()
 	{
 		for (int i = 0; i < numSites; i++)
 		{
-			alias[i] = urn.drawPutBack();
+			alias[i] = random.nextInt(numSites);
 		}
 	}
 
@@ -67,7 +81,7 @@ public class BootstrappedAlignment extends AbstractAlignment
 	// Private stuff
 	//
 
-	private UrnModel urn;
+	private MersenneTwisterFast random;
 	private Alignment rawAlignment;
 	private int[] alias;
 
@@ -0,0 +1,336 @@
+// MappedAlignment.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.alignment;
+
+/**
+ * <p>Title: MappedAlignment</p>
+ * <p>Description: An alignment stored in a compact binary file, and read through a memory mapping of that file
+ * (so the data is never copied onto the heap, opening the file costs little regardless of its size, and
+ * several virtual machines reading the same file share the operating system page cache).</p>
+ * <p>Files are written with write(). A file holds the identifiers, the data type (by type id, see
+ * DataType.Utils.getInstance()), the states of each sequence packed into 64 bit words (with as few bits as
+ * the number of states needs: 2 for nucleotides, 5 for amino acids), and the site patterns of the alignment
+ * (the pattern of each site, and the weight of each pattern) so getSitePattern() does not need to compare
+ * sites. Characters that are not the character of a state (gaps, unknown and ambiguous characters, and
+ * other spellings of states such as lower case) are stored separately, by sequence, so getData() returns exactly
+ * the characters written.</p>
+ * <p>File layout (all values big endian): a header of ten ints (magic number, version, data type id, number of
+ * sequences, number of sites, bits per state, number of patterns, number of exceptions, length of identifier
+ * block, unused); the identifiers (DataOutput.writeUTF() each, padded to 8 bytes); the pattern of each site
+ * and weight of each pattern (ints, padded to 8 bytes); the packed states (longs, one row of words per
+ * sequence, the first site in the low bits); the index of the first exception of each sequence (numberOfSequences+1
+ * ints); the site of each exception (ints); and the character of each exception (chars).</p>
+ * <p>A single mapping is used, so files are limited to 2GB. Reading is thread safe. Serialization writes a
+ * SimpleAlignment copy.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+import pal.datatype.*;
+import pal.misc.*;
+
+public final class MappedAlignment extends AbstractAlignment {
+	private static final long serialVersionUID = 379771911713347561L;
+
+	private static final int MAGIC = 0x50414c41;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 40;
+
+	private final transient ByteBuffer buffer_;
+	private final int bitsPerState_;
+	private final int statesPerWord_;
+	private final long stateMask_;
+	private final int wordsPerRow_;
+	private final int numberOfPatterns_;
+	private final int aliasOffset_;
+	private final int weightOffset_;
+	private final int stateOffset_;
+	private final int exceptionSiteOffset_;
+	private final int exceptionCharOffset_;
+	//The first exception of each sequence (and the number of exceptions at the end)
+	private final int[] exceptionStarts_;
+	//The character of each packed state
+	private final char[] stateChars_;
+
+	/**
+	 * Open a file written by write()
+	 * @param file the file
+	 * @throws AlignmentParseException if the file is not a mapped alignment file
+	 */
+	public MappedAlignment(File file) throws IOException, AlignmentParseException {
+		final RandomAccessFile raf = new RandomAccessFile(file,"r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final long size = channel.size();
+			if(size>Integer.MAX_VALUE) {
+				throw new AlignmentParseException("File too large to map:"+size);
+			}
+			if(size<HEADER_SIZE) {
+				throw new AlignmentParseException("Not a mapped alignment file:"+file);
+			}
+			this.buffer_ = channel.map(FileChannel.MapMode.READ_ONLY,0,size);
+		} finally {
+			raf.close();
+		}
+		if(buffer_.getInt(0)!=MAGIC) {
+			throw new AlignmentParseException("Not a mapped alignment file:"+file);
+		}
+		if(buffer_.getInt(4)!=VERSION) {
+			throw new AlignmentParseException("Unsupported mapped alignment version:"+buffer_.getInt(4));
+		}
+		final DataType dataType;
+		try {
+			dataType = DataType.Utils.getInstance(buffer_.getInt(8));
+		} catch(IllegalArgumentException e) {
+			throw new AlignmentParseException(e.getMessage());
+		}
+		setDataType(dataType);
+		this.numSeqs = buffer_.getInt(12);
+		this.numSites = buffer_.getInt(16);
+		this.bitsPerState_ = buffer_.getInt(20);
+		this.numberOfPatterns_ = buffer_.getInt(24);
+		final int numberOfExceptions = buffer_.getInt(28);
+		final int identifierBytes = buffer_.getInt(32);
+
+		this.statesPerWord_ = 64/bitsPerState_;
+		this.stateMask_ = (1L<<bitsPerState_)-1;
+		this.wordsPerRow_ = (numSites+statesPerWord_-1)/statesPerWord_;
+		this.aliasOffset_ = pad(HEADER_SIZE+identifierBytes);
+		this.weightOffset_ = aliasOffset_+4*numSites;
+		this.stateOffset_ = pad(weightOffset_+4*numberOfPatterns_);
+		final long exceptionStartOffset = stateOffset_+8L*numSeqs*wordsPerRow_;
+		final long end = exceptionStartOffset+4L*(numSeqs+1)+6L*numberOfExceptions;
+		if(end!=buffer_.capacity()) {
+			throw new AlignmentParseException("Mapped alignment file has wrong length:"+buffer_.capacity()+", expected "+end);
+		}
+		this.exceptionSiteOffset_ = (int)exceptionStartOffset+4*(numSeqs+1);
+		this.exceptionCharOffset_ = exceptionSiteOffset_+4*numberOfExceptions;
+
+		final byte[] identifierBlock = new byte[identifierBytes];
+		buffer_.position(HEADER_SIZE);
+		buffer_.get(identifierBlock);
+		final DataInputStream ids = new DataInputStream(new ByteArrayInputStream(identifierBlock));
+		final Identifier[] identifiers = new Identifier[numSeqs];
+		for(int i = 0 ; i < numSeqs ; i++) {
+			identifiers[i] = new Identifier(ids.readUTF());
+		}
+		this.idGroup = new SimpleIdGroup(identifiers);
+
+		this.exceptionStarts_ = new int[numSeqs+1];
+		for(int i = 0 ; i <= numSeqs ; i++) {
+			exceptionStarts_[i] = buffer_.getInt((int)exceptionStartOffset+4*i);
+		}
+		this.stateChars_ = new char[1<<Math.min(bitsPerState_,16)];
+		final int numberOfStates = dataType.getNumStates();
+		for(int state = 0 ; state < numberOfStates ; state++) {
+			stateChars_[state] = dataType.getChar(state);
+		}
+	}
+
+	/**
+	 * @return the number of bits used for each packed state
+	 */
+	public final int getBitsPerState() { return bitsPerState_; }
+
+	public char getData(int seq, int site) {
+		final int start = exceptionStarts_[seq];
+		final int end = exceptionStarts_[seq+1];
+		if(start!=end) {
+			final int exception = findException(start,end,site);
+			if(exception>=0) {
+				return buffer_.getChar(exceptionCharOffset_+2*exception);
+			}
+		}
+		return stateChars_[getPackedState(seq,site)];
+	}
+	private final int getPackedState(int seq, int site) {
+		final int word = seq*wordsPerRow_+site/statesPerWord_;
+		final long bits = buffer_.getLong(stateOffset_+8*word);
+		return (int)((bits>>>((site%statesPerWord_)*bitsPerState_))&stateMask_);
+	}
+	/**
+	 * @return the index of the exception at a site, between start (inclusive) and end (exclusive), or -1 if none
+	 */
+	private final int findException(int start, int end, int site) {
+		int low = start, high = end-1;
+		while(low<=high) {
+			final int middle = (low+high)>>>1;
+			final int middleSite = buffer_.getInt(exceptionSiteOffset_+4*middle);
+			if(middleSite<site) {
+				low = middle+1;
+			} else if(middleSite>site) {
+				high = middle-1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the site patterns stored in the file (the states of each pattern are read from the first site of the pattern)
+	 */
+	public SitePattern getSitePattern() {
+		final int numberOfStates = getDataType().getNumStates();
+		final int[] alias = new int[numSites];
+		final int[] weight = new int[numberOfPatterns_];
+		final int[] firstSites = new int[numberOfPatterns_];
+		for(int i = 0 ; i < numberOfPatterns_ ; i++) {
+			firstSites[i] = -1;
+			weight[i] = buffer_.getInt(weightOffset_+4*i);
+		}
+		for(int site = 0 ; site < numSites ; site++) {
+			final int pattern = buffer_.getInt(aliasOffset_+4*site);
+			alias[site] = pattern;
+			if(firstSites[pattern]<0) {
+				firstSites[pattern] = site;
+			}
+		}
+		final byte[][] pattern = new byte[numSeqs][numberOfPatterns_];
+		for(int seq = 0 ; seq < numSeqs ; seq++) {
+			final byte[] row = pattern[seq];
+			final int start = exceptionStarts_[seq];
+			final int end = exceptionStarts_[seq+1];
+			for(int i = 0 ; i < numberOfPatterns_ ; i++) {
+				final int site = firstSites[i];
+				final int exception = (start==end ? -1 : findException(start,end,site));
+				if(exception<0) {
+					row[i] = (byte)getPackedState(seq,site);
+				} else {
+					final int state = getState(buffer_.getChar(exceptionCharOffset_+2*exception));
+					row[i] = (byte)(state<0||state>=numberOfStates||isUnknownState(state) ? numberOfStates : state);
+				}
+			}
+		}
+		return new SitePattern(getDataType(),numSites,numSeqs,new SimpleIdGroup(idGroup),numberOfPatterns_,alias,weight,pattern);
+	}
+
+	private Object writeReplace() throws ObjectStreamException {
+		return new SimpleAlignment(this);
+	}
+
+	private static int pad(int offset) {
+		return (offset+7)&~7;
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Write an alignment in the mapped alignment format
+	 * @param alignment the alignment (its data type must have a type id known to DataType.Utils.getInstance())
+	 * @param file the file to write
+	 */
+	public static void write(Alignment alignment, File file) throws IOException {
+		final DataType dataType = alignment.getDataType();
+		//Check the type id can be read back
+		DataType.Utils.getInstance(dataType.getTypeID());
+		final int numberOfSequences = alignment.getSequenceCount();
+		final int numberOfSites = alignment.getSiteCount();
+		final int numberOfStates = dataType.getNumStates();
+		int bitsPerState = 1;
+		while((1<<bitsPerState)<numberOfStates) {
+			bitsPerState++;
+		}
+		final int statesPerWord = 64/bitsPerState;
+		final int wordsPerRow = (numberOfSites+statesPerWord-1)/statesPerWord;
+		final SitePattern sitePattern = SitePattern.getSitePattern(alignment);
+
+		final ByteArrayOutputStream identifierBlock = new ByteArrayOutputStream();
+		final DataOutputStream ids = new DataOutputStream(identifierBlock);
+		for(int i = 0 ; i < numberOfSequences ; i++) {
+			ids.writeUTF(alignment.getIdentifier(i).getName());
+		}
+		ids.close();
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),65536));
+		final int[] exceptionStarts = new int[numberOfSequences+1];
+		int[] exceptionSites = new int[16];
+		char[] exceptionChars = new char[16];
+		int numberOfExceptions = 0;
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dataType.getTypeID());
+			out.writeInt(numberOfSequences);
+			out.writeInt(numberOfSites);
+			out.writeInt(bitsPerState);
+			out.writeInt(sitePattern.numPatterns);
+			//The number of exceptions, filled in later
+			out.writeInt(0);
+			out.writeInt(identifierBlock.size());
+			out.writeInt(0);
+			identifierBlock.writeTo(out);
+			writePadding(out,HEADER_SIZE+identifierBlock.size());
+			for(int site = 0 ; site < numberOfSites ; site++) {
+				out.writeInt(sitePattern.alias[site]);
+			}
+			for(int i = 0 ; i < sitePattern.numPatterns ; i++) {
+				out.writeInt(sitePattern.weight[i]);
+			}
+			writePadding(out,4*(numberOfSites+sitePattern.numPatterns));
+			for(int seq = 0 ; seq < numberOfSequences ; seq++) {
+				exceptionStarts[seq] = numberOfExceptions;
+				long word = 0;
+				int shift = 0;
+				for(int site = 0 ; site < numberOfSites ; site++) {
+					final char c = alignment.getData(seq,site);
+					final int state = dataType.getState(c);
+					if(state>=0&&state<numberOfStates&&dataType.getChar(state)==c) {
+						word |= ((long)state)<<shift;
+					} else {
+						if(numberOfExceptions==exceptionSites.length) {
+							final int[] newSites = new int[numberOfExceptions*2];
+							System.arraycopy(exceptionSites,0,newSites,0,numberOfExceptions);
+							exceptionSites = newSites;
+							final char[] newChars = new char[numberOfExceptions*2];
+							System.arraycopy(exceptionChars,0,newChars,0,numberOfExceptions);
+							exceptionChars = newChars;
+						}
+						exceptionSites[numberOfExceptions] = site;
+						exceptionChars[numberOfExceptions++] = c;
+					}
+					shift+=bitsPerState;
+					if(shift+bitsPerState>64) {
+						out.writeLong(word);
+						word = 0;
+						shift = 0;
+					}
+				}
+				if(shift>0) {
+					out.writeLong(word);
+				}
+			}
+			exceptionStarts[numberOfSequences] = numberOfExceptions;
+			for(int i = 0 ; i <= numberOfSequences ; i++) {
+				out.writeInt(exceptionStarts[i]);
+			}
+			for(int i = 0 ; i < numberOfExceptions ; i++) {
+				out.writeInt(exceptionSites[i]);
+			}
+			for(int i = 0 ; i < numberOfExceptions ; i++) {
+				out.writeChar(exceptionChars[i]);
+			}
+		} finally {
+			out.close();
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file,"rw");
+		try {
+			raf.seek(28);
+			raf.writeInt(numberOfExceptions);
+		} finally {
+			raf.close();
+		}
+	}
+	private static void writePadding(DataOutputStream out, int length) throws IOException {
+		for(int i = length ; i < pad(length) ; i++) {
+			out.writeByte(0);
+		}
+	}
+}
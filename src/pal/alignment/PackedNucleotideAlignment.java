@@ -0,0 +1,242 @@
+// PackedNucleotideAlignment.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.alignment;
+
+/**
+ * <p>Title: PackedNucleotideAlignment</p>
+ * <p>Description: A nucleotide alignment (Nucleotides or IUPACNucleotides data type) stored with two bits per
+ * base, 32 bases to a 64 bit word (the first site of a word in the low bits). Characters that are not one of the
+ * four bases (gaps, unknown and ambiguous characters, and other spellings such as lower case) are stored
+ * separately, in a sorted list of sites for each sequence, so getData() returns exactly the characters given.
+ * An alignment with few such characters takes about an eighth of the memory of one held as chars.</p>
+ * <p>Besides getData() the states are available in bulk: the packed words, and a mask of the sites that are
+ * not plain bases, of a sequence (for word at a time comparison of sequences), and the states of a sequence or
+ * of a site as bytes.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.datatype.*;
+import pal.misc.*;
+
+public final class PackedNucleotideAlignment extends AbstractAlignment {
+	private static final long serialVersionUID = 1785370234260099678L;
+
+	/**
+	 * The number of bases in each packed word
+	 */
+	public static final int BASES_PER_WORD = 32;
+
+	private static final int[] NO_SITES = new int[0];
+	private static final char[] NO_CHARS = new char[0];
+
+	private final int wordsPerSequence_;
+	//The packed bases of all sequences, one after another
+	private final long[] words_;
+	//The sites (ascending) and characters of the non base characters of each sequence
+	private final int[][] exceptionSites_;
+	private final char[][] exceptionChars_;
+	//The character of each base
+	private final char[] baseChars_ = new char[4];
+
+	/**
+	 * Create a packed copy of an alignment
+	 * @param a the alignment (must have a Nucleotides or IUPACNucleotides data type)
+	 */
+	public PackedNucleotideAlignment(Alignment a) {
+		this(new SimpleIdGroup(a),a.getDataType(),a.getSequenceCount(),a.getSiteCount());
+		final char[] sequence = new char[numSites];
+		for(int seq = 0 ; seq < numSeqs ; seq++) {
+			for(int site = 0 ; site < numSites ; site++) {
+				sequence[site] = a.getData(seq,site);
+			}
+			pack(seq,sequence);
+		}
+	}
+	/**
+	 * @param ids the identifiers of the sequences
+	 * @param sequences the aligned sequences (all the same length)
+	 * @param dataType a Nucleotides or IUPACNucleotides data type
+	 */
+	public PackedNucleotideAlignment(IdGroup ids, String[] sequences, DataType dataType) {
+		this(ids,dataType,sequences.length,(sequences.length==0 ? 0 : sequences[0].length()));
+		for(int seq = 0 ; seq < numSeqs ; seq++) {
+			if(sequences[seq].length()!=numSites) {
+				throw new IllegalArgumentException("Sequence "+seq+" has "+sequences[seq].length()+" sites, expected "+numSites);
+			}
+			pack(seq,sequences[seq].toCharArray());
+		}
+	}
+	private PackedNucleotideAlignment(IdGroup ids, DataType dataType, int numberOfSequences, int numberOfSites) {
+		if(!(dataType instanceof Nucleotides)&&!(dataType instanceof IUPACNucleotides)) {
+			throw new IllegalArgumentException("Nucleotide data type required:"+dataType);
+		}
+		setDataType(dataType);
+		this.idGroup = ids;
+		this.numSeqs = numberOfSequences;
+		this.numSites = numberOfSites;
+		this.wordsPerSequence_ = (numberOfSites+BASES_PER_WORD-1)/BASES_PER_WORD;
+		this.words_ = new long[numberOfSequences*wordsPerSequence_];
+		this.exceptionSites_ = new int[numberOfSequences][];
+		this.exceptionChars_ = new char[numberOfSequences][];
+		for(int state = 0 ; state < 4 ; state++) {
+			baseChars_[state] = dataType.getChar(state);
+		}
+	}
+	private void pack(int seq, char[] sequence) {
+		final DataType dataType = getDataType();
+		final int offset = seq*wordsPerSequence_;
+		int numberOfExceptions = 0;
+		int[] sites = NO_SITES;
+		char[] chars = NO_CHARS;
+		for(int site = 0 ; site < numSites ; site++) {
+			final char c = sequence[site];
+			final int state = dataType.getState(c);
+			if(state>=0&&state<4&&baseChars_[state]==c) {
+				words_[offset+site/BASES_PER_WORD] |= ((long)state)<<((site%BASES_PER_WORD)*2);
+			} else {
+				if(numberOfExceptions==sites.length) {
+					final int capacity = Math.max(16,numberOfExceptions*2);
+					final int[] newSites = new int[capacity];
+					System.arraycopy(sites,0,newSites,0,numberOfExceptions);
+					sites = newSites;
+					final char[] newChars = new char[capacity];
+					System.arraycopy(chars,0,newChars,0,numberOfExceptions);
+					chars = newChars;
+				}
+				sites[numberOfExceptions] = site;
+				chars[numberOfExceptions++] = c;
+			}
+		}
+		if(numberOfExceptions<sites.length) {
+			final int[] newSites = new int[numberOfExceptions];
+			System.arraycopy(sites,0,newSites,0,numberOfExceptions);
+			sites = newSites;
+			final char[] newChars = new char[numberOfExceptions];
+			System.arraycopy(chars,0,newChars,0,numberOfExceptions);
+			chars = newChars;
+		}
+		exceptionSites_[seq] = sites;
+		exceptionChars_[seq] = chars;
+	}
+
+	public char getData(int seq, int site) {
+		final int[] sites = exceptionSites_[seq];
+		if(sites.length!=0) {
+			final int exception = java.util.Arrays.binarySearch(sites,site);
+			if(exception>=0) {
+				return exceptionChars_[seq][exception];
+			}
+		}
+		return baseChars_[getBase(seq,site)];
+	}
+	private final int getBase(int seq, int site) {
+		return (int)(words_[seq*wordsPerSequence_+site/BASES_PER_WORD]>>>((site%BASES_PER_WORD)*2))&3;
+	}
+
+	/**
+	 * @return the number of packed words for each sequence
+	 */
+	public final int getWordsPerSequence() { return wordsPerSequence_; }
+	/**
+	 * @param seq the sequence
+	 * @return the number of sites of a sequence that are not plain bases
+	 */
+	public final int getNumberOfExceptions(int seq) { return exceptionSites_[seq].length; }
+
+	/**
+	 * Get the packed bases of a sequence (two bits a base, the first site in the low bits of a word, sites that
+	 * are not plain bases have zero bits)
+	 * @param seq the sequence
+	 * @param store where the words are put (may be null, or too small, in which case a new array is created)
+	 * @return the words (store if it was used)
+	 */
+	public long[] getPackedSequence(int seq, long[] store) {
+		if(store==null||store.length<wordsPerSequence_) {
+			store = new long[wordsPerSequence_];
+		}
+		System.arraycopy(words_,seq*wordsPerSequence_,store,0,wordsPerSequence_);
+		return store;
+	}
+	/**
+	 * Get a mask of the sites of a sequence that are not plain bases (gaps, unknown and ambiguous characters), one
+	 * bit a site, 64 sites to a word (the first site in the low bit)
+	 * @param seq the sequence
+	 * @param store where the mask is put (may be null, or too small, in which case a new array is created)
+	 * @return the mask (store if it was used)
+	 */
+	public long[] getExceptionMask(int seq, long[] store) {
+		final int numberOfWords = (numSites+63)/64;
+		if(store==null||store.length<numberOfWords) {
+			store = new long[numberOfWords];
+		} else {
+			java.util.Arrays.fill(store,0,numberOfWords,0);
+		}
+		final int[] sites = exceptionSites_[seq];
+		for(int i = 0 ; i < sites.length ; i++) {
+			store[sites[i]>>>6] |= 1L<<(sites[i]&63);
+		}
+		return store;
+	}
+	/**
+	 * Get the states of a sequence, with the number of states of the data type for gaps and unknown characters
+	 * (as in SitePattern)
+	 * @param seq the sequence
+	 * @param store where the states are put (may be null, or too small, in which case a new array is created)
+	 * @return the states (store if it was used)
+	 */
+	public byte[] getSequenceStates(int seq, byte[] store) {
+		if(store==null||store.length<numSites) {
+			store = new byte[numSites];
+		}
+		final int offset = seq*wordsPerSequence_;
+		for(int word = 0 ; word < wordsPerSequence_ ; word++) {
+			long bits = words_[offset+word];
+			final int end = Math.min(numSites,(word+1)*BASES_PER_WORD);
+			for(int site = word*BASES_PER_WORD ; site < end ; site++) {
+				store[site] = (byte)(bits&3);
+				bits>>>=2;
+			}
+		}
+		final int[] sites = exceptionSites_[seq];
+		final char[] chars = exceptionChars_[seq];
+		for(int i = 0 ; i < sites.length ; i++) {
+			store[sites[i]] = (byte)getExceptionState(chars[i]);
+		}
+		return store;
+	}
+	/**
+	 * Get the states of a site, with the number of states of the data type for gaps and unknown characters
+	 * (as in SitePattern)
+	 * @param site the site
+	 * @param store where the states are put (may be null, or too small, in which case a new array is created)
+	 * @return the states (store if it was used)
+	 */
+	public byte[] getSiteStates(int site, byte[] store) {
+		if(store==null||store.length<numSeqs) {
+			store = new byte[numSeqs];
+		}
+		final int word = site/BASES_PER_WORD;
+		final int shift = (site%BASES_PER_WORD)*2;
+		for(int seq = 0 ; seq < numSeqs ; seq++) {
+			store[seq] = (byte)((words_[seq*wordsPerSequence_+word]>>>shift)&3);
+			final int[] sites = exceptionSites_[seq];
+			if(sites.length!=0) {
+				final int exception = java.util.Arrays.binarySearch(sites,site);
+				if(exception>=0) {
+					store[seq] = (byte)getExceptionState(exceptionChars_[seq][exception]);
+				}
+			}
+		}
+		return store;
+	}
+	private final int getExceptionState(char c) {
+		final int numberOfStates = getDataType().getNumStates();
+		final int state = getState(c);
+		return (state<0||state>=numberOfStates||isUnknownState(state) ? numberOfStates : state);
+	}
+}
@@ -0,0 +1,344 @@
+// SitePatternBuilder.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.alignment;
+
+/**
+ * <p>Title: SitePatternBuilder</p>
+ * <p>Description: Builds a SitePattern from sequences given one at a time, one state at a time, without
+ * holding the sequences. After each sequence the sites are partitioned into the patterns of the sequences so
+ * far: a pattern is split when its sites differ in the new sequence. Only the current pattern of each site
+ * and, for each sequence, its state in each pattern (as the pattern was when the sequence was added) are kept,
+ * so memory is O(sites + sequences*patterns) rather than O(sequences*sites). The cost of adding a state is
+ * constant.</p>
+ * <p>States follow the SitePattern convention: 0..numberOfStates-1, with numberOfStates used for gaps and
+ * unknown states. Patterns are numbered in order of creation. Sequences may still be added after build(), and a
+ * builder may start from an existing SitePattern (to extend it with new sequences, in which case the existing
+ * patterns keep their numbers, and are only split where the new sequences differ).</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import java.util.*;
+
+import pal.datatype.*;
+import pal.misc.*;
+
+public final class SitePatternBuilder {
+	private final DataType dataType_;
+	private final int numberOfStates_;
+	private final int stateRange_;
+
+	//The number of sites (-1 until the end of the first sequence)
+	private int numberOfSites_;
+	private final Vector<Identifier> identifiers_ = new Vector<Identifier>();
+
+	private int[] sitePatterns_;
+	private int numberOfPatterns_ = 1;
+	//The pattern each pattern was split from, and the sequence that split it (-1 for the initial pattern)
+	private int[] patternParents_ = new int[16];
+	private int[] patternBirths_ = new int[16];
+	//For each sequence, the state in each pattern that existed after the sequence was added
+	private byte[][] sequencePatternStates_ = new byte[16][];
+
+	//The current sequence
+	private boolean inSequence_ = false;
+	private int currentSite_ = 0;
+	private byte[] currentPatternStates_ = new byte[16];
+	//The child pattern of [pattern*stateRange_+state] (valid if the matching stamp is the current stamp)
+	private int[] children_ = new int[0];
+	private int[] childStamps_ = new int[0];
+	//Whether a pattern has kept its number in the current sequence (valid if the matching stamp is the current stamp)
+	private int[] keptStamps_ = new int[16];
+
+	/**
+	 * Create a builder where the number of sites is set by the first sequence
+	 * @param dataType the data type of the sequences
+	 */
+	public SitePatternBuilder(DataType dataType) {
+		this(dataType,-1);
+	}
+	/**
+	 * @param dataType the data type of the sequences
+	 * @param numberOfSites the number of sites in each sequence
+	 */
+	public SitePatternBuilder(DataType dataType, int numberOfSites) {
+		this.dataType_ = dataType;
+		this.numberOfStates_ = dataType.getNumStates();
+		this.stateRange_ = numberOfStates_+1;
+		if(numberOfStates_>Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many states for byte patterns:"+numberOfStates_);
+		}
+		this.numberOfSites_ = numberOfSites;
+		this.sitePatterns_ = new int[Math.max(numberOfSites,16)];
+		patternParents_[0] = 0;
+		patternBirths_[0] = -1;
+	}
+	/**
+	 * Create a builder that starts with the sequences of an existing SitePattern (which is not changed)
+	 * @param base the site patterns to extend
+	 */
+	public SitePatternBuilder(SitePattern base) {
+		this(base.getDataType(),base.getSiteCount());
+		final int numberOfSequences = base.getSequenceCount();
+		final int numberOfPatterns = base.getNumberOfPatterns();
+		if(numberOfSequences==0||numberOfPatterns==0) {
+			for(int i = 0 ; i < numberOfSequences ; i++) {
+				addSequence(base.getIdentifier(i),"");
+			}
+			return;
+		}
+		System.arraycopy(base.alias,0,sitePatterns_,0,numberOfSites_);
+		final int capacity = Math.max(numberOfPatterns,16);
+		this.patternParents_ = new int[capacity];
+		this.patternBirths_ = new int[capacity];
+		this.keptStamps_ = new int[capacity];
+		this.currentPatternStates_ = new byte[capacity];
+		for(int i = 0 ; i < numberOfPatterns ; i++) {
+			patternParents_[i] = i;
+			patternBirths_[i] = -1;
+		}
+		this.numberOfPatterns_ = numberOfPatterns;
+		this.sequencePatternStates_ = new byte[Math.max(numberOfSequences*2,16)][];
+		for(int i = 0 ; i < numberOfSequences ; i++) {
+			identifiers_.addElement(base.getIdentifier(i));
+			final byte[] states = new byte[numberOfPatterns];
+			System.arraycopy(base.pattern[i],0,states,0,numberOfPatterns);
+			sequencePatternStates_[i] = states;
+		}
+	}
+
+	public final DataType getDataType() { return dataType_; }
+	/**
+	 * @return the number of sites, or -1 if not yet known
+	 */
+	public final int getNumberOfSites() { return numberOfSites_; }
+	/**
+	 * @return the number of completed sequences
+	 */
+	public final int getNumberOfSequences() { return identifiers_.size()-(inSequence_ ? 1 : 0); }
+	/**
+	 * @return the number of patterns of the completed sequences
+	 */
+	public final int getNumberOfPatterns() { return numberOfPatterns_; }
+
+	/**
+	 * @return the state used for a residue character (numberOfStates for gaps and unknown states)
+	 */
+	public final int getPatternState(char residue) {
+		final int state = dataType_.getState(residue);
+		if(state<0||state>=numberOfStates_||dataType_.isUnknownState(state)) {
+			return numberOfStates_;
+		}
+		return state;
+	}
+
+	/**
+	 * Start a new sequence
+	 * @param id the identifier of the sequence
+	 * @throws IllegalStateException if the previous sequence has not been ended
+	 */
+	public void startSequence(Identifier id) {
+		if(inSequence_) {
+			throw new IllegalStateException("Previous sequence not ended");
+		}
+		final int stamp = identifiers_.size()+1;
+		identifiers_.addElement(id);
+		this.inSequence_ = true;
+		this.currentSite_ = 0;
+		final int required = numberOfPatterns_*stateRange_;
+		if(children_.length<required) {
+			final int capacity = Math.max(required,children_.length*2);
+			final int[] newStamps = new int[capacity];
+			System.arraycopy(childStamps_,0,newStamps,0,childStamps_.length);
+			this.children_ = new int[capacity];
+			this.childStamps_ = newStamps;
+		}
+		//Stamps are sequence numbers, so nothing needs clearing
+		if(stamp==Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many sequences");
+		}
+	}
+	/**
+	 * Add the next residue of the current sequence
+	 * @param residue the residue character
+	 */
+	public final void addResidue(char residue) {
+		addState(getPatternState(residue));
+	}
+	/**
+	 * Add the next state of the current sequence
+	 * @param state the state (0..numberOfStates, where numberOfStates is a gap or unknown state)
+	 * @throws IllegalArgumentException if the sequence is too long, or the state is out of range
+	 */
+	public final void addState(int state) {
+		if(!inSequence_) {
+			throw new IllegalStateException("No sequence started");
+		}
+		if(state<0||state>numberOfStates_) {
+			throw new IllegalArgumentException("Invalid state:"+state);
+		}
+		final int site = currentSite_;
+		if(numberOfSites_>=0) {
+			if(site==numberOfSites_) {
+				throw new IllegalArgumentException("Sequence "+identifiers_.lastElement()+" is longer than "+numberOfSites_+" sites");
+			}
+		} else if(site==sitePatterns_.length) {
+			//First sequence of unknown length, all sites are in the initial pattern
+			final int[] newSitePatterns = new int[sitePatterns_.length*2];
+			System.arraycopy(sitePatterns_,0,newSitePatterns,0,site);
+			this.sitePatterns_ = newSitePatterns;
+		}
+		final int stamp = identifiers_.size();
+		final int parent = sitePatterns_[site];
+		final int key = parent*stateRange_+state;
+		int child;
+		if(childStamps_[key]==stamp) {
+			child = children_[key];
+		} else {
+			if(keptStamps_[parent]!=stamp) {
+				//The first state seen for a pattern keeps the pattern number
+				keptStamps_[parent] = stamp;
+				child = parent;
+			} else {
+				child = createPattern(parent,stamp-1);
+			}
+			children_[key] = child;
+			childStamps_[key] = stamp;
+			currentPatternStates_[child] = (byte)state;
+		}
+		sitePatterns_[site] = child;
+		currentSite_ = site+1;
+	}
+	private final int createPattern(int parent, int sequence) {
+		final int pattern = numberOfPatterns_++;
+		if(pattern==patternParents_.length) {
+			final int capacity = pattern*2;
+			this.patternParents_ = grow(patternParents_,capacity);
+			this.patternBirths_ = grow(patternBirths_,capacity);
+			this.keptStamps_ = grow(keptStamps_,capacity);
+			final byte[] newStates = new byte[capacity];
+			System.arraycopy(currentPatternStates_,0,newStates,0,pattern);
+			this.currentPatternStates_ = newStates;
+		}
+		patternParents_[pattern] = parent;
+		patternBirths_[pattern] = sequence;
+		return pattern;
+	}
+	private static final int[] grow(int[] array, int capacity) {
+		final int[] result = new int[capacity];
+		System.arraycopy(array,0,result,0,array.length);
+		return result;
+	}
+	/**
+	 * End the current sequence
+	 * @throws IllegalArgumentException if the sequence is shorter than the number of sites
+	 */
+	public void endSequence() {
+		if(!inSequence_) {
+			throw new IllegalStateException("No sequence started");
+		}
+		if(numberOfSites_<0) {
+			this.numberOfSites_ = currentSite_;
+		} else if(currentSite_!=numberOfSites_) {
+			throw new IllegalArgumentException("Sequence "+identifiers_.lastElement()+" has "+currentSite_+" sites, expected "+numberOfSites_);
+		}
+		final int sequence = identifiers_.size()-1;
+		if(sequence==sequencePatternStates_.length) {
+			final byte[][] newStates = new byte[sequence*2][];
+			System.arraycopy(sequencePatternStates_,0,newStates,0,sequence);
+			this.sequencePatternStates_ = newStates;
+		}
+		final byte[] states = new byte[numberOfPatterns_];
+		System.arraycopy(currentPatternStates_,0,states,0,numberOfPatterns_);
+		sequencePatternStates_[sequence] = states;
+		this.inSequence_ = false;
+	}
+	/**
+	 * Add a complete sequence
+	 * @param id the identifier of the sequence
+	 * @param residues the residues of the sequence
+	 */
+	public void addSequence(Identifier id, String residues) {
+		startSequence(id);
+		final int length = residues.length();
+		for(int i = 0 ; i < length ; i++) {
+			addResidue(residues.charAt(i));
+		}
+		endSequence();
+	}
+
+	/**
+	 * Add all the sequences of an alignment
+	 * @param a the alignment (with the same number of sites as the other sequences)
+	 */
+	public void addSequences(Alignment a) {
+		final int numberOfSequences = a.getSequenceCount();
+		final int numberOfSites = a.getSiteCount();
+		for(int i = 0 ; i < numberOfSequences ; i++) {
+			startSequence(a.getIdentifier(i));
+			for(int site = 0 ; site < numberOfSites ; site++) {
+				addResidue(a.getData(i,site));
+			}
+			endSequence();
+		}
+	}
+
+	/**
+	 * Create the site patterns of the completed sequences
+	 * @return a new SitePattern
+	 * @throws IllegalStateException if a sequence has been started but not ended
+	 */
+	public SitePattern build() {
+		if(inSequence_) {
+			throw new IllegalStateException("Current sequence not ended");
+		}
+		final int numberOfSequences = identifiers_.size();
+		final int numberOfSites = Math.max(numberOfSites_,0);
+		final Identifier[] ids = new Identifier[numberOfSequences];
+		identifiers_.copyInto(ids);
+		if(numberOfSequences==0||numberOfSites==0) {
+			return new SitePattern(dataType_,numberOfSites,numberOfSequences,new SimpleIdGroup(ids),0,new int[numberOfSites],new int[0],new byte[numberOfSequences][0]);
+		}
+		final int numberOfPatterns = numberOfPatterns_;
+		final int[] alias = new int[numberOfSites];
+		final int[] weight = new int[numberOfPatterns];
+		for(int site = 0 ; site < numberOfSites ; site++) {
+			final int pattern = sitePatterns_[site];
+			alias[site] = pattern;
+			weight[pattern]++;
+		}
+		//Work back through the sequences, following each pattern back to the pattern it was split from
+		final byte[][] pattern = new byte[numberOfSequences][numberOfPatterns];
+		final int[] ancestors = new int[numberOfPatterns];
+		for(int i = 0 ; i < numberOfPatterns ; i++) { ancestors[i] = i; }
+		for(int sequence = numberOfSequences-1 ; sequence >= 0 ; sequence--) {
+			final byte[] states = sequencePatternStates_[sequence];
+			final byte[] row = pattern[sequence];
+			for(int i = 0 ; i < numberOfPatterns ; i++) {
+				int ancestor = ancestors[i];
+				while(patternBirths_[ancestor]>sequence) {
+					ancestor = patternParents_[ancestor];
+				}
+				ancestors[i] = ancestor;
+				row[i] = states[ancestor];
+			}
+		}
+		return new SitePattern(dataType_,numberOfSites,numberOfSequences,new SimpleIdGroup(ids),numberOfPatterns,alias,weight,pattern);
+	}
+
+	/**
+	 * Extend site patterns with new sequences
+	 * @param base the existing site patterns (not changed)
+	 * @param newSequences the sequences to add (with the same number of sites as base)
+	 * @return the site patterns of the sequences of base followed by the new sequences
+	 */
+	public static final SitePattern extend(SitePattern base, Alignment newSequences) {
+		final SitePatternBuilder builder = new SitePatternBuilder(base);
+		builder.addSequences(newSequences);
+		return builder.build();
+	}
+}
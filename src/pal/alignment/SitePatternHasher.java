@@ -0,0 +1,291 @@
+// SitePatternHasher.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.alignment;
+
+/**
+ * <p>Title: SitePatternHasher</p>
+ * <p>Description: Finds the site patterns of an alignment by hashing the sites, rather than sorting them (as
+ * the SitePattern(Alignment) constructor does). A 64 bit hash of each site is built up a sequence at a time
+ * (so the alignment is read in sequence order), sites are grouped by hash, and the grouping is then verified,
+ * again a sequence at a time, against the first site of each group (any site that differs, through a hash
+ * collision, is moved to the right pattern). The cost is O(sequences*sites) with each character read twice.
+ * The hashing can be split over blocks of sites, and the verification over blocks of sequences, to run
+ * concurrently on a WorkerPool.</p>
+ * <p>The resulting SitePattern is the same as that from the SitePattern(Alignment) constructor except for the
+ * order of the patterns, which here is the order of the first site of each pattern.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.datatype.*;
+import pal.util.*;
+
+public final class SitePatternHasher {
+	private static final long HASH_PRIME = 0x100000001b3L;
+	private static final long HASH_SEED = 0xcbf29ce484222325L;
+	//The smallest block of sites (or sequences) worth a task
+	private static final int MINIMUM_BLOCK_SIZE = 256;
+
+	private final Alignment alignment_;
+	private final DataType dataType_;
+	private final int numberOfStates_;
+	private final int numberOfSequences_;
+	private final int numberOfSites_;
+	//The pattern state of each character below 128
+	private final byte[] asciiStates_ = new byte[128];
+
+	private final long[] siteHashes_;
+	private final int[] alias_;
+	private int numberOfPatterns_ = 0;
+	private int[] firstSites_;
+	private int[] weights_;
+	private byte[][] pattern_;
+	//Sites that differ from the first site of their pattern (hash collisions)
+	private final boolean[] mismatched_;
+
+	private SitePatternHasher(Alignment alignment, DataType dataType) {
+		this.alignment_ = alignment;
+		this.dataType_ = dataType;
+		this.numberOfStates_ = dataType.getNumStates();
+		this.numberOfSequences_ = alignment.getSequenceCount();
+		this.numberOfSites_ = alignment.getSiteCount();
+		for(char c = 0 ; c < 128 ; c++) {
+			asciiStates_[c] = (byte)lookupState(c);
+		}
+		this.siteHashes_ = new long[numberOfSites_];
+		this.alias_ = new int[numberOfSites_];
+		this.mismatched_ = new boolean[numberOfSites_];
+	}
+
+	/**
+	 * Find the site patterns of an alignment
+	 * @param a the alignment
+	 * @return the site patterns
+	 */
+	public static final SitePattern getSitePattern(Alignment a) {
+		return getSitePattern(a,1);
+	}
+	/**
+	 * Find the site patterns of an alignment, using a number of threads (from a shared WorkerPool)
+	 * @param a the alignment (getData() must be safe to call concurrently)
+	 * @param numberOfThreads the number of threads
+	 * @return the site patterns
+	 */
+	public static final SitePattern getSitePattern(Alignment a, int numberOfThreads) {
+		DataType dt = a.getDataType();
+		if(dt==null) {
+			System.out.println("Warning: Input alignment for SitePatternHasher has null datatype");
+			dt = AlignmentUtils.getSuitableInstance(a);
+		}
+		final SitePatternHasher hasher = new SitePatternHasher(a,dt);
+		final WorkerPool pool = (numberOfThreads>1 ? WorkerPool.getSharedPool(numberOfThreads) : null);
+		return hasher.build(pool,numberOfThreads);
+	}
+
+	private SitePattern build(WorkerPool pool, int numberOfThreads) {
+		if(numberOfSequences_==0||numberOfSites_==0) {
+			return new SitePattern(dataType_,numberOfSites_,numberOfSequences_,alignment_,0,alias_,new int[0],new byte[numberOfSequences_][0]);
+		}
+		//Hash the sites
+		final int siteBlocks = getNumberOfBlocks(numberOfSites_,numberOfThreads);
+		final Runnable[] hashTasks = new Runnable[siteBlocks];
+		for(int i = 0 ; i < siteBlocks ; i++) {
+			hashTasks[i] = new HashTask(numberOfSites_*i/siteBlocks,numberOfSites_*(i+1)/siteBlocks);
+		}
+		run(pool,hashTasks);
+		groupSites();
+		//Fill in the patterns, and check the grouping
+		this.pattern_ = new byte[numberOfSequences_][numberOfPatterns_];
+		final int sequenceBlocks = getNumberOfBlocks(numberOfSequences_,numberOfThreads);
+		final Runnable[] verifyTasks = new Runnable[sequenceBlocks];
+		for(int i = 0 ; i < sequenceBlocks ; i++) {
+			verifyTasks[i] = new VerifyTask(numberOfSequences_*i/sequenceBlocks,numberOfSequences_*(i+1)/sequenceBlocks);
+		}
+		run(pool,verifyTasks);
+		separateMismatchedSites();
+		final int[] weight = new int[numberOfPatterns_];
+		System.arraycopy(weights_,0,weight,0,numberOfPatterns_);
+		return new SitePattern(dataType_,numberOfSites_,numberOfSequences_,alignment_,numberOfPatterns_,alias_,weight,pattern_);
+	}
+	private static void run(WorkerPool pool, Runnable[] tasks) {
+		if(pool==null) {
+			for(int i = 0 ; i < tasks.length ; i++) { tasks[i].run(); }
+		} else {
+			pool.execute(tasks);
+		}
+	}
+	private static int getNumberOfBlocks(int size, int numberOfThreads) {
+		return Math.max(1,Math.min(numberOfThreads,size/MINIMUM_BLOCK_SIZE));
+	}
+
+	private final int lookupState(char c) {
+		final int state = dataType_.getState(c);
+		if(dataType_.isUnknownState(state)) {
+			return numberOfStates_;
+		}
+		return state;
+	}
+	/**
+	 * @return the pattern state of a character (as SitePattern)
+	 */
+	private final int getPatternState(int seq, int site) {
+		final char c = alignment_.getData(seq,site);
+		return (c<128 ? asciiStates_[c] : lookupState(c));
+	}
+
+	/**
+	 * Give each distinct hash a pattern, in order of first site
+	 */
+	private void groupSites() {
+		int capacity = 16;
+		while(capacity<numberOfSites_*2) {
+			capacity<<=1;
+		}
+		final int mask = capacity-1;
+		final int[] table = new int[capacity];
+		this.firstSites_ = new int[16];
+		this.weights_ = new int[16];
+		for(int site = 0 ; site < numberOfSites_ ; site++) {
+			final long hash = siteHashes_[site];
+			int slot = (int)(hash^(hash>>>32))&mask;
+			int entry;
+			while((entry = table[slot])!=0&&siteHashes_[firstSites_[entry-1]]!=hash) {
+				slot = (slot+1)&mask;
+			}
+			int pattern;
+			if(entry==0) {
+				pattern = createPattern(site);
+				table[slot] = pattern+1;
+			} else {
+				pattern = entry-1;
+				weights_[pattern]++;
+			}
+			alias_[site] = pattern;
+		}
+	}
+	private int createPattern(int firstSite) {
+		final int pattern = numberOfPatterns_++;
+		if(pattern==firstSites_.length) {
+			final int[] newFirstSites = new int[pattern*2];
+			System.arraycopy(firstSites_,0,newFirstSites,0,pattern);
+			this.firstSites_ = newFirstSites;
+			final int[] newWeights = new int[pattern*2];
+			System.arraycopy(weights_,0,newWeights,0,pattern);
+			this.weights_ = newWeights;
+		}
+		firstSites_[pattern] = firstSite;
+		weights_[pattern] = 1;
+		return pattern;
+	}
+
+	/**
+	 * Move each site that differs from the first site of its pattern to a pattern it matches (creating new
+	 * patterns as needed). Only happens with hash collisions, so efficiency is not a concern.
+	 */
+	private void separateMismatchedSites() {
+		final int firstNewPattern = numberOfPatterns_;
+		java.util.Vector<byte[]> newColumns = null;
+		for(int site = 0 ; site < numberOfSites_ ; site++) {
+			if(!mismatched_[site]) {
+				continue;
+			}
+			final byte[] column = new byte[numberOfSequences_];
+			for(int seq = 0 ; seq < numberOfSequences_ ; seq++) {
+				column[seq] = (byte)getPatternState(seq,site);
+			}
+			int match = -1;
+			for(int pattern = 0 ; pattern < numberOfPatterns_&&match<0 ; pattern++) {
+				if(siteHashes_[firstSites_[pattern]]!=siteHashes_[site]) {
+					continue;
+				}
+				boolean same = true;
+				for(int seq = 0 ; seq < numberOfSequences_&&same ; seq++) {
+					final byte state = (pattern<firstNewPattern ? pattern_[seq][pattern] : (newColumns.elementAt(pattern-firstNewPattern))[seq]);
+					same = (state==column[seq]);
+				}
+				if(same) {
+					match = pattern;
+				}
+			}
+			weights_[alias_[site]]--;
+			if(match<0) {
+				match = createPattern(site);
+				if(newColumns==null) {
+					newColumns = new java.util.Vector<byte[]>();
+				}
+				newColumns.addElement(column);
+			} else {
+				weights_[match]++;
+			}
+			alias_[site] = match;
+		}
+		if(newColumns!=null) {
+			final byte[][] pattern = new byte[numberOfSequences_][numberOfPatterns_];
+			for(int seq = 0 ; seq < numberOfSequences_ ; seq++) {
+				System.arraycopy(pattern_[seq],0,pattern[seq],0,firstNewPattern);
+				for(int i = firstNewPattern ; i < numberOfPatterns_ ; i++) {
+					pattern[seq][i] = (newColumns.elementAt(i-firstNewPattern))[seq];
+				}
+			}
+			this.pattern_ = pattern;
+		}
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Hashes a block of sites, a sequence at a time
+	 */
+	private final class HashTask implements Runnable {
+		private final int startSite_;
+		private final int endSite_;
+		public HashTask(int startSite, int endSite) {
+			this.startSite_ = startSite;
+			this.endSite_ = endSite;
+		}
+		public void run() {
+			final long[] hashes = siteHashes_;
+			for(int site = startSite_ ; site < endSite_ ; site++) {
+				hashes[site] = HASH_SEED;
+			}
+			for(int seq = 0 ; seq < numberOfSequences_ ; seq++) {
+				for(int site = startSite_ ; site < endSite_ ; site++) {
+					hashes[site] = (hashes[site]^(getPatternState(seq,site)+1))*HASH_PRIME;
+				}
+			}
+		}
+	}
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Fills in the patterns of a block of sequences, and marks sites that differ from the first site of their
+	 * pattern
+	 */
+	private final class VerifyTask implements Runnable {
+		private final int startSequence_;
+		private final int endSequence_;
+		public VerifyTask(int startSequence, int endSequence) {
+			this.startSequence_ = startSequence;
+			this.endSequence_ = endSequence;
+		}
+		public void run() {
+			final byte[] states = new byte[numberOfSites_];
+			for(int seq = startSequence_ ; seq < endSequence_ ; seq++) {
+				for(int site = 0 ; site < numberOfSites_ ; site++) {
+					states[site] = (byte)getPatternState(seq,site);
+				}
+				final byte[] row = pattern_[seq];
+				for(int pattern = 0 ; pattern < numberOfPatterns_ ; pattern++) {
+					row[pattern] = states[firstSites_[pattern]];
+				}
+				for(int site = 0 ; site < numberOfSites_ ; site++) {
+					if(states[site]!=row[alias_[site]]) {
+						mismatched_[site] = true;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,428 @@
+// StreamingAlignmentReader.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.alignment;
+
+/**
+ * <p>Title: StreamingAlignmentReader</p>
+ * <p>Description: Reads aligned FASTA and PHYLIP files straight into a SitePattern. The input is read a byte
+ * at a time (through a lookup table from bytes to states, built with DataType.getState()), and the site patterns
+ * are compressed as the residues arrive, so neither the text of the sequences nor a full alignment is ever held
+ * (see SitePatternBuilder). This allows alignments of very many sequences to be read in little more memory than
+ * the resulting SitePattern.</p>
+ * <p>Files are assumed to be ASCII. Whitespace within sequences is ignored, all other characters are converted with
+ * the data type (gaps and characters the data type does not know become the gap/unknown state). PHYLIP files are
+ * read in the relaxed form: names are the first whitespace delimited token of a line, rather than exactly ten
+ * characters. Interleaved PHYLIP files are compressed a column at a time, once a block has been read for every
+ * sequence.</p>
+ * <p>The number of bytes read, and the time taken, by the last read are available (for measuring throughput).
+ * Instances are not thread safe.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import java.io.*;
+
+import pal.datatype.*;
+import pal.misc.*;
+
+public final class StreamingAlignmentReader {
+	private static final int BUFFER_SIZE = 65536;
+	//Marks whitespace in the state table
+	private static final int SKIP = -1;
+
+	private final DataType dataType_;
+	//The pattern state of each byte
+	private final int[] stateTable_ = new int[256];
+
+	//The input of the current read
+	private InputStream in_ = null;
+	private final byte[] buffer_ = new byte[BUFFER_SIZE];
+	private int position_ = 0;
+	private int limit_ = 0;
+
+	//Statistics of the last read
+	private long bytesRead_ = 0;
+	private long elapsedMillis_ = 0;
+
+	/**
+	 * @param dataType the data type of the sequences
+	 */
+	public StreamingAlignmentReader(DataType dataType) {
+		this.dataType_ = dataType;
+		final SitePatternBuilder lookup = new SitePatternBuilder(dataType);
+		for(int b = 0 ; b < 256 ; b++) {
+			stateTable_[b] = (isWhitespace(b) ? SKIP : lookup.getPatternState((char)b));
+		}
+	}
+
+	public final DataType getDataType() { return dataType_; }
+	/**
+	 * @return the number of bytes read by the last read
+	 */
+	public final long getBytesRead() { return bytesRead_; }
+	/**
+	 * @return the time taken by the last read, in milliseconds
+	 */
+	public final long getElapsedMillis() { return elapsedMillis_; }
+	/**
+	 * @return the throughput of the last read, in bytes per second
+	 */
+	public final double getBytesPerSecond() {
+		return bytesRead_*1000.0/Math.max(elapsedMillis_,1);
+	}
+
+	/**
+	 * Read aligned FASTA sequences
+	 * @param in the input (not closed)
+	 * @return the site patterns of the sequences
+	 * @throws AlignmentParseException if the sequences are not all the same length, or there is sequence data before the first header
+	 */
+	public SitePattern readFasta(InputStream in) throws IOException, AlignmentParseException {
+		start(in);
+		final SitePatternBuilder builder = new SitePatternBuilder(dataType_);
+		try {
+			boolean lineStart = true;
+			boolean inSequence = false;
+			int c;
+			while((c = read())>=0) {
+				if(c=='>'&&lineStart) {
+					if(inSequence) {
+						builder.endSequence();
+					}
+					builder.startSequence(new Identifier(readLine().trim()));
+					inSequence = true;
+					//readLine() consumes the end of line
+					continue;
+				}
+				lineStart = (c=='\n'||c=='\r');
+				final int state = stateTable_[c];
+				if(state!=SKIP) {
+					if(!inSequence) {
+						throw new AlignmentParseException("Sequence data before first FASTA header");
+					}
+					builder.addState(state);
+				}
+			}
+			if(inSequence) {
+				builder.endSequence();
+			}
+		} catch(IllegalArgumentException e) {
+			throw new AlignmentParseException(e.getMessage());
+		}
+		final SitePattern result = builder.build();
+		finish();
+		return result;
+	}
+
+	/**
+	 * Read a PHYLIP alignment
+	 * @param in the input (not closed)
+	 * @param interleaved true if the file is in interleaved format, false if sequential
+	 * @return the site patterns of the sequences
+	 * @throws AlignmentParseException if the header is invalid, or the sequences do not match the header
+	 */
+	public SitePattern readPhylip(InputStream in, boolean interleaved) throws IOException, AlignmentParseException {
+		start(in);
+		final int numberOfSequences = readInteger();
+		final int numberOfSites = readInteger();
+		readLine();
+		final SitePattern result;
+		try {
+			result = (interleaved ?
+				readPhylipInterleaved(numberOfSequences,numberOfSites) :
+				readPhylipSequential(numberOfSequences,numberOfSites));
+		} catch(IllegalArgumentException e) {
+			throw new AlignmentParseException(e.getMessage());
+		}
+		finish();
+		return result;
+	}
+	private SitePattern readPhylipSequential(int numberOfSequences, int numberOfSites) throws IOException, AlignmentParseException {
+		final SitePatternBuilder builder = new SitePatternBuilder(dataType_,numberOfSites);
+		for(int i = 0 ; i < numberOfSequences ; i++) {
+			builder.startSequence(new Identifier(readName(i)));
+			for(int site = 0 ; site < numberOfSites ; ) {
+				final int c = read();
+				if(c<0) {
+					throw new AlignmentParseException("Unexpected end of input in sequence "+(i+1));
+				}
+				final int state = stateTable_[c];
+				if(state!=SKIP) {
+					builder.addState(state);
+					site++;
+				}
+			}
+			builder.endSequence();
+		}
+		return builder.build();
+	}
+	private SitePattern readPhylipInterleaved(int numberOfSequences, int numberOfSites) throws IOException, AlignmentParseException {
+		final Identifier[] ids = new Identifier[numberOfSequences];
+		final ColumnCompressor compressor = new ColumnCompressor(numberOfSequences,numberOfSites);
+		//The residues of the current block (not yet compressed) for each sequence
+		final byte[][] pending = new byte[numberOfSequences][64];
+		final int[] pendingLengths = new int[numberOfSequences];
+		int flushed = 0;
+		boolean firstBlock = true;
+		do {
+			for(int i = 0 ; i < numberOfSequences ; i++) {
+				if(firstBlock) {
+					ids[i] = new Identifier(readName(i));
+				} else if(skipBlankLines()<0) {
+					throw new AlignmentParseException("Unexpected end of input in sequence "+(i+1));
+				}
+				//The rest of the line
+				int c;
+				while((c = read())>=0&&c!='\n'&&c!='\r') {
+					final int state = stateTable_[c];
+					if(state!=SKIP) {
+						if(pendingLengths[i]==pending[i].length) {
+							final byte[] newPending = new byte[pending[i].length*2];
+							System.arraycopy(pending[i],0,newPending,0,pendingLengths[i]);
+							pending[i] = newPending;
+						}
+						pending[i][pendingLengths[i]++] = (byte)state;
+					}
+				}
+				if(flushed+pendingLengths[i]>numberOfSites) {
+					throw new AlignmentParseException("Sequence "+ids[i]+" is longer than "+numberOfSites+" sites");
+				}
+			}
+			firstBlock = false;
+			//Compress the columns complete in every sequence
+			int complete = numberOfSites-flushed;
+			for(int i = 0 ; i < numberOfSequences ; i++) {
+				complete = Math.min(complete,pendingLengths[i]);
+			}
+			for(int site = 0 ; site < complete ; site++) {
+				compressor.addColumn(pending,site);
+			}
+			for(int i = 0 ; i < numberOfSequences ; i++) {
+				final int remaining = pendingLengths[i]-complete;
+				System.arraycopy(pending[i],complete,pending[i],0,remaining);
+				pendingLengths[i] = remaining;
+			}
+			flushed+=complete;
+		} while(flushed<numberOfSites);
+		return compressor.build(dataType_,new SimpleIdGroup(ids));
+	}
+
+	/**
+	 * @return the name at the start of the next non blank line
+	 */
+	private String readName(int sequence) throws IOException, AlignmentParseException {
+		int c = skipWhitespace();
+		if(c<0) {
+			throw new AlignmentParseException("Unexpected end of input, expecting sequence "+(sequence+1));
+		}
+		final StringBuffer sb = new StringBuffer();
+		while(c>=0&&!isWhitespace(c)) {
+			sb.append((char)c);
+			c = read();
+		}
+		if(c=='\n'||c=='\r') {
+			unread();
+		}
+		return sb.toString();
+	}
+	private int readInteger() throws IOException, AlignmentParseException {
+		int c = skipWhitespace();
+		if(c<'0'||c>'9') {
+			throw new AlignmentParseException("Invalid PHYLIP header");
+		}
+		int value = 0;
+		while(c>='0'&&c<='9') {
+			value = value*10+(c-'0');
+			c = read();
+		}
+		if(c>=0) {
+			unread();
+		}
+		return value;
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+// Byte input
+	private void start(InputStream in) {
+		this.in_ = in;
+		this.position_ = 0;
+		this.limit_ = 0;
+		this.bytesRead_ = 0;
+		this.elapsedMillis_ = System.currentTimeMillis();
+	}
+	private void finish() {
+		this.elapsedMillis_ = System.currentTimeMillis()-elapsedMillis_;
+		this.in_ = null;
+	}
+	/**
+	 * @return the next byte, or -1 at the end of the input
+	 */
+	private final int read() throws IOException {
+		if(position_==limit_) {
+			final int count = in_.read(buffer_,0,BUFFER_SIZE);
+			if(count<=0) {
+				return -1;
+			}
+			bytesRead_+=count;
+			this.position_ = 0;
+			this.limit_ = count;
+		}
+		return buffer_[position_++]&0xff;
+	}
+	/**
+	 * Step back one byte (only valid directly after a read() that did not return -1)
+	 */
+	private final void unread() {
+		if(position_>0) {
+			position_--;
+		}
+	}
+	/**
+	 * @return the first byte that is not whitespace, or -1 at the end of the input
+	 */
+	private int skipWhitespace() throws IOException {
+		int c;
+		while((c = read())>=0&&isWhitespace(c)) { }
+		return c;
+	}
+	/**
+	 * Skip blank lines, leaving the input at the start of the next line with content
+	 * @return the first byte of that line, or -1 at the end of the input
+	 */
+	private int skipBlankLines() throws IOException {
+		final int c = skipWhitespace();
+		if(c>=0) {
+			unread();
+		}
+		return c;
+	}
+	/**
+	 * @return the rest of the current line (the end of line is consumed)
+	 */
+	private String readLine() throws IOException {
+		final StringBuffer sb = new StringBuffer();
+		int c;
+		while((c = read())>=0&&c!='\n'&&c!='\r') {
+			sb.append((char)c);
+		}
+		return sb.toString();
+	}
+	private static boolean isWhitespace(int c) {
+		return c==' '||c=='\t'||c=='\n'||c=='\r'||c=='\f';
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Compresses an alignment given a column at a time, by hashing the columns
+	 */
+	private static final class ColumnCompressor {
+		private final int numberOfSequences_;
+		private final int numberOfSites_;
+		private final int[] alias_;
+		private int numberOfAddedSites_ = 0;
+
+		//The columns of the patterns, one after another
+		private byte[] patternColumns_;
+		private int[] patternHashes_;
+		private int[] weights_;
+		private int numberOfPatterns_ = 0;
+		//Open addressing table of pattern+1 (0 for empty)
+		private int[] table_ = new int[64];
+
+		private final byte[] column_;
+
+		public ColumnCompressor(int numberOfSequences, int numberOfSites) {
+			this.numberOfSequences_ = numberOfSequences;
+			this.numberOfSites_ = numberOfSites;
+			this.alias_ = new int[numberOfSites];
+			this.patternColumns_ = new byte[16*numberOfSequences];
+			this.patternHashes_ = new int[16];
+			this.weights_ = new int[16];
+			this.column_ = new byte[numberOfSequences];
+		}
+		public void addColumn(byte[][] states, int site) {
+			int hash = 0;
+			for(int i = 0 ; i < numberOfSequences_ ; i++) {
+				final byte b = states[i][site];
+				column_[i] = b;
+				hash = hash*31+b;
+			}
+			final int mask = table_.length-1;
+			int slot = mix(hash)&mask;
+			int entry;
+			while((entry = table_[slot])!=0) {
+				final int pattern = entry-1;
+				if(patternHashes_[pattern]==hash&&isColumn(pattern)) {
+					weights_[pattern]++;
+					alias_[numberOfAddedSites_++] = pattern;
+					return;
+				}
+				slot = (slot+1)&mask;
+			}
+			final int pattern = numberOfPatterns_++;
+			if(pattern==weights_.length) {
+				final int capacity = pattern*2;
+				final byte[] newColumns = new byte[capacity*numberOfSequences_];
+				System.arraycopy(patternColumns_,0,newColumns,0,pattern*numberOfSequences_);
+				this.patternColumns_ = newColumns;
+				final int[] newHashes = new int[capacity];
+				System.arraycopy(patternHashes_,0,newHashes,0,pattern);
+				this.patternHashes_ = newHashes;
+				final int[] newWeights = new int[capacity];
+				System.arraycopy(weights_,0,newWeights,0,pattern);
+				this.weights_ = newWeights;
+			}
+			System.arraycopy(column_,0,patternColumns_,pattern*numberOfSequences_,numberOfSequences_);
+			patternHashes_[pattern] = hash;
+			weights_[pattern] = 1;
+			alias_[numberOfAddedSites_++] = pattern;
+			table_[slot] = pattern+1;
+			if(numberOfPatterns_*2>table_.length) {
+				rehash();
+			}
+		}
+		private boolean isColumn(int pattern) {
+			final int offset = pattern*numberOfSequences_;
+			for(int i = 0 ; i < numberOfSequences_ ; i++) {
+				if(patternColumns_[offset+i]!=column_[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		private void rehash() {
+			this.table_ = new int[table_.length*2];
+			final int mask = table_.length-1;
+			for(int pattern = 0 ; pattern < numberOfPatterns_ ; pattern++) {
+				int slot = mix(patternHashes_[pattern])&mask;
+				while(table_[slot]!=0) {
+					slot = (slot+1)&mask;
+				}
+				table_[slot] = pattern+1;
+			}
+		}
+		private static int mix(int hash) {
+			hash ^= (hash>>>16);
+			hash *= 0x85ebca6b;
+			hash ^= (hash>>>13);
+			return hash;
+		}
+		public SitePattern build(DataType dataType, IdGroup ids) {
+			final int numberOfPatterns = numberOfPatterns_;
+			final byte[][] pattern = new byte[numberOfSequences_][numberOfPatterns];
+			for(int p = 0 ; p < numberOfPatterns ; p++) {
+				final int offset = p*numberOfSequences_;
+				for(int i = 0 ; i < numberOfSequences_ ; i++) {
+					pattern[i][p] = patternColumns_[offset+i];
+				}
+			}
+			final int[] weight = new int[numberOfPatterns];
+			System.arraycopy(weights_,0,weight,0,numberOfPatterns);
+			return new SitePattern(dataType,numberOfSites_,numberOfSequences_,ids,numberOfPatterns,alias_,weight,pattern);
+		}
+	}
+}
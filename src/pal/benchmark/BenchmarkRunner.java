@@ -0,0 +1,127 @@
+// BenchmarkRunner.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.benchmark;
+
+/**
+ * <p>Title: BenchmarkRunner</p>
+ * <p>Description: Measures the throughput of a kernel (a unit of work that can be repeated). A run consists
+ * of a number of warmup iterations (so the virtual machine can compile the kernel), which are discarded,
+ * followed by a number of measurement iterations. Each iteration calls the kernel repeatedly for (at least) a fixed
+ * time, and gives one throughput figure (calls per second). The results of the kernel are accumulated, so
+ * the work cannot be optimised away.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+public final class BenchmarkRunner {
+	private final int numberOfWarmupIterations_;
+	private final int numberOfMeasurementIterations_;
+	private final long iterationTimeMillis_;
+
+	//Kernel results end up here
+	private volatile double sink_ = 0;
+
+	/**
+	 * @param numberOfWarmupIterations the number of iterations run before measurement
+	 * @param numberOfMeasurementIterations the number of iterations measured
+	 * @param iterationTimeMillis the (minimum) length of an iteration in milliseconds
+	 */
+	public BenchmarkRunner(int numberOfWarmupIterations, int numberOfMeasurementIterations, long iterationTimeMillis) {
+		if(numberOfWarmupIterations<0) {
+			throw new IllegalArgumentException("Invalid number of warmup iterations:"+numberOfWarmupIterations);
+		}
+		if(numberOfMeasurementIterations<1) {
+			throw new IllegalArgumentException("Invalid number of measurement iterations:"+numberOfMeasurementIterations);
+		}
+		if(iterationTimeMillis<1) {
+			throw new IllegalArgumentException("Invalid iteration time:"+iterationTimeMillis);
+		}
+		this.numberOfWarmupIterations_ = numberOfWarmupIterations;
+		this.numberOfMeasurementIterations_ = numberOfMeasurementIterations;
+		this.iterationTimeMillis_ = iterationTimeMillis;
+	}
+
+	/**
+	 * Measure the throughput of a kernel
+	 * @param kernel the kernel
+	 * @return the result
+	 */
+	public Result run(Kernel kernel) {
+		for(int i = 0 ; i < numberOfWarmupIterations_ ; i++) {
+			runIteration(kernel);
+		}
+		final double[] throughputs = new double[numberOfMeasurementIterations_];
+		for(int i = 0 ; i < numberOfMeasurementIterations_ ; i++) {
+			throughputs[i] = runIteration(kernel);
+		}
+		return new Result(throughputs);
+	}
+	/**
+	 * @return the throughput (calls per second) of one iteration
+	 */
+	private double runIteration(Kernel kernel) {
+		double total = 0;
+		long count = 0;
+		final long start = System.currentTimeMillis();
+		final long end = start+iterationTimeMillis_;
+		long now;
+		do {
+			total+=kernel.run();
+			count++;
+			now = System.currentTimeMillis();
+		} while(now<end);
+		sink_ += total;
+		return count*1000.0/(now-start);
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * A unit of work to be measured
+	 */
+	public static interface Kernel {
+		/**
+		 * Do the work once
+		 * @return a result of the work (so it cannot be optimised away)
+		 */
+		public double run();
+	}
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * The throughputs measured for a kernel
+	 */
+	public static final class Result {
+		private final double[] throughputs_;
+		private final double mean_;
+		private final double standardDeviation_;
+		public Result(double[] throughputs) {
+			this.throughputs_ = pal.misc.Utils.getCopy(throughputs);
+			double total = 0;
+			for(int i = 0 ; i < throughputs.length ; i++) {
+				total+=throughputs[i];
+			}
+			this.mean_ = total/throughputs.length;
+			double squares = 0;
+			for(int i = 0 ; i < throughputs.length ; i++) {
+				final double d = throughputs[i]-mean_;
+				squares+=d*d;
+			}
+			this.standardDeviation_ = (throughputs.length>1 ? Math.sqrt(squares/(throughputs.length-1)) : 0);
+		}
+		/**
+		 * @return the mean throughput, in calls per second
+		 */
+		public double getMeanThroughput() { return mean_; }
+		/**
+		 * @return the sample standard deviation of the throughput over the measurement iterations
+		 */
+		public double getThroughputStandardDeviation() { return standardDeviation_; }
+		/**
+		 * @return the throughput of each measurement iteration
+		 */
+		public double[] getThroughputs() { return pal.misc.Utils.getCopy(throughputs_); }
+	}
+}
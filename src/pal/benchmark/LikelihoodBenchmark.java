@@ -0,0 +1,220 @@
+// LikelihoodBenchmark.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.benchmark;
+
+/**
+ * <p>Title: LikelihoodBenchmark</p>
+ * <p>Description: Throughput benchmarks for the likelihood kernels. For each combination of number of taxa,
+ * number of sites, number of rate categories, and number of states, a random tree is generated and an
+ * alignment simulated on it (with SimulatedAlignment), and then the calculation of the log likelihood of the
+ * tree (from scratch) is measured for each calculator that applies: SimpleLHCalculator (both layouts),
+ * FastFourStateLHCalculator and SimpleModelFastFourStateLHCalculator (four states only, the latter with one
+ * category only), TipStateLHCalculator, ParallelLHCalculator, and GeneralLikelihoodCalculator. The LHCalculator kernels are measured through
+ * UnrootedMLSearcher.calculateLogLikelihood(), which is also measured with its default factory.
+ * All random choices come from a single seed, so the data sets (and so the work measured) are reproducible.</p>
+ * <p>Usage: java pal.benchmark.LikelihoodBenchmark [-taxa 16,64] [-sites 500,5000] [-categories 1,4]
+ * [-states 4,20] [-seed 1] [-warmup 3] [-iterations 5] [-time 1000] [-threads n]<br>
+ * Results are printed one per line (tab separated), in calls per second.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.alignment.*;
+import pal.eval.*;
+import pal.io.*;
+import pal.math.*;
+import pal.misc.*;
+import pal.substmodel.*;
+import pal.tree.*;
+import pal.treesearch.*;
+import pal.util.*;
+
+public final class LikelihoodBenchmark {
+	//The mean length of the branches of the generated trees
+	private static final double MEAN_BRANCH_LENGTH = 0.1;
+	private static final double KAPPA = 2.0;
+	private static final double GAMMA_SHAPE = 0.5;
+
+	private static final int[] DEFAULT_TAXA = { 16, 64 };
+	private static final int[] DEFAULT_SITES = { 500, 5000 };
+	private static final int[] DEFAULT_CATEGORIES = { 1, 4 };
+	private static final int[] DEFAULT_STATES = { 4, 20 };
+
+	private final BenchmarkRunner runner_;
+	private final int numberOfThreads_;
+
+	/**
+	 * @param runner the means of measuring each kernel
+	 * @param numberOfThreads the number of threads used by the parallel calculator
+	 */
+	public LikelihoodBenchmark(BenchmarkRunner runner, int numberOfThreads) {
+		this.runner_ = runner;
+		this.numberOfThreads_ = numberOfThreads;
+	}
+
+	/**
+	 * Run the benchmarks for one data set
+	 * @param numberOfTaxa the number of sequences
+	 * @param numberOfSites the length of the sequences
+	 * @param numberOfCategories the number of gamma rate categories
+	 * @param numberOfStates 4 for nucleotides (HKY model) or 20 for amino acids (WAG model)
+	 * @param seed the seed used to generate the tree and alignment
+	 * @param out where results are printed
+	 */
+	public void run(int numberOfTaxa, int numberOfSites, int numberOfCategories, int numberOfStates, long seed, java.io.PrintStream out) {
+		final MersenneTwisterFast random = new MersenneTwisterFast(seed);
+		final SubstitutionModel model = createModel(numberOfCategories,numberOfStates);
+		final Tree tree = createRandomTree(numberOfTaxa,random);
+		final SimulatedAlignment alignment = new SimulatedAlignment(numberOfSites,tree,model,random);
+		alignment.simulate();
+		final int numberOfPatterns = new SitePattern(alignment).getNumberOfPatterns();
+
+		final String setting = numberOfTaxa+"\t"+numberOfSites+"\t"+numberOfPatterns+"\t"+numberOfCategories+"\t"+numberOfStates;
+		final boolean fourStates = (numberOfStates==4);
+		report("SimpleLHCalculator",setting,new SearcherKernel(tree,alignment,model,SimpleLHCalculator.getFactory()),out);
+		report("SimpleLHCalculator(contiguous)",setting,new SearcherKernel(tree,alignment,model,SimpleLHCalculator.getContiguousFactory()),out);
+		if(fourStates) {
+			report("FastFourStateLHCalculator",setting,new SearcherKernel(tree,alignment,model,FastFourStateLHCalculator.getFactory()),out);
+			if(numberOfCategories==1) {
+				report("SimpleModelFastFourStateLHCalculator",setting,new SearcherKernel(tree,alignment,model,SimpleModelFastFourStateLHCalculator.getFactory()),out);
+			}
+		}
+		report("TipStateLHCalculator",setting,new SearcherKernel(tree,alignment,model,TipStateLHCalculator.getFactory()),out);
+		report("ParallelLHCalculator("+numberOfThreads_+")",setting,new SearcherKernel(tree,alignment,model,ParallelLHCalculator.getFactory(SimpleLHCalculator.getContiguousFactory(),numberOfThreads_)),out);
+		report("GeneralLikelihoodCalculator",setting,new GeneralKernel(tree,alignment,model),out);
+		report("UnrootedMLSearcher",setting,new SearcherKernel(tree,alignment,model),out);
+	}
+	private void report(String name, String setting, BenchmarkRunner.Kernel kernel, java.io.PrintStream out) {
+		final BenchmarkRunner.Result r = runner_.run(kernel);
+		final FormattedOutput fo = FormattedOutput.getInstance();
+		out.println(name+"\t"+setting+"\t"+fo.getDecimalString(r.getMeanThroughput(),3)+"\t"+fo.getDecimalString(r.getThroughputStandardDeviation(),3));
+	}
+
+	/**
+	 * @return a random (rooted, bifurcating) tree, with exponentially distributed branch lengths
+	 */
+	private static Tree createRandomTree(int numberOfTaxa, MersenneTwisterFast random) {
+		if(numberOfTaxa<3) {
+			throw new IllegalArgumentException("At least three taxa required:"+numberOfTaxa);
+		}
+		Node[] nodes = new Node[numberOfTaxa];
+		for(int i = 0 ; i < numberOfTaxa ; i++) {
+			nodes[i] = NodeFactory.createNodeBranchLength(randomBranchLength(random),new Identifier("t"+i));
+		}
+		//Randomly join pairs of sub trees until two are left
+		for(int remaining = numberOfTaxa ; remaining > 2 ; remaining--) {
+			final int first = random.nextInt(remaining);
+			int second = random.nextInt(remaining-1);
+			if(second>=first) { second++; }
+			final Node joined = NodeFactory.createNodeBranchLength(randomBranchLength(random),new Node[] { nodes[first], nodes[second] });
+			nodes[Math.min(first,second)] = joined;
+			nodes[Math.max(first,second)] = nodes[remaining-1];
+		}
+		return new SimpleTree(NodeFactory.createNode(new Node[] { nodes[0], nodes[1] }));
+	}
+	private static double randomBranchLength(MersenneTwisterFast random) {
+		return -MEAN_BRANCH_LENGTH*Math.log(1-random.nextDouble());
+	}
+	private static SubstitutionModel createModel(int numberOfCategories, int numberOfStates) {
+		final RateMatrix rm;
+		if(numberOfStates==4) {
+			rm = new HKY(KAPPA,new double[] { 0.1, 0.2, 0.3, 0.4 });
+		} else if(numberOfStates==20) {
+			rm = new WAG(WAG.getOriginalFrequencies());
+		} else {
+			throw new IllegalArgumentException("Number of states must be 4 or 20:"+numberOfStates);
+		}
+		if(numberOfCategories==1) {
+			return SubstitutionModel.Utils.createSubstitutionModel(rm);
+		}
+		return SubstitutionModel.Utils.createSubstitutionModel(rm,new GammaRates(numberOfCategories,GAMMA_SHAPE));
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Calculates the log likelihood with an UnrootedMLSearcher (the model is treated as changed on each call, so
+	 * nothing is reused between calls)
+	 */
+	private static final class SearcherKernel implements BenchmarkRunner.Kernel {
+		private final UnrootedMLSearcher searcher_;
+		public SearcherKernel(Tree tree, Alignment alignment, SubstitutionModel model) {
+			this.searcher_ = new UnrootedMLSearcher(tree,alignment,model);
+		}
+		public SearcherKernel(Tree tree, Alignment alignment, SubstitutionModel model, LHCalculator.Factory factory) {
+			this.searcher_ = new UnrootedMLSearcher(tree.getRoot(),alignment,model,factory);
+		}
+		public double run() {
+			return searcher_.calculateLogLikelihood();
+		}
+	}
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Calculates the log likelihood with a GeneralLikelihoodCalculator (marking the model as changed before each
+	 * call, so cached partial likelihoods are not reused)
+	 */
+	private static final class GeneralKernel implements BenchmarkRunner.Kernel {
+		private final GeneralLikelihoodCalculator calculator_;
+		public GeneralKernel(Tree tree, Alignment alignment, SubstitutionModel model) {
+			this.calculator_ = new GeneralLikelihoodCalculator(alignment,tree,model);
+		}
+		public double run() {
+			calculator_.parametersChanged(null);
+			return calculator_.calculateLogLikelihood();
+		}
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	private static int[] getIntegers(String[] args, String name, int[] defaultValues) {
+		final String value = getArgument(args,name);
+		if(value==null) {
+			return defaultValues;
+		}
+		final java.util.StringTokenizer st = new java.util.StringTokenizer(value,",");
+		final int[] result = new int[st.countTokens()];
+		for(int i = 0 ; i < result.length ; i++) {
+			result[i] = Integer.parseInt(st.nextToken().trim());
+		}
+		return result;
+	}
+	private static long getLong(String[] args, String name, long defaultValue) {
+		final String value = getArgument(args,name);
+		return (value==null ? defaultValue : Long.parseLong(value));
+	}
+	private static String getArgument(String[] args, String name) {
+		for(int i = 0 ; i < args.length-1 ; i++) {
+			if(args[i].equals("-"+name)) {
+				return args[i+1];
+			}
+		}
+		return null;
+	}
+
+	public static void main(String[] args) {
+		final int[] taxa = getIntegers(args,"taxa",DEFAULT_TAXA);
+		final int[] sites = getIntegers(args,"sites",DEFAULT_SITES);
+		final int[] categories = getIntegers(args,"categories",DEFAULT_CATEGORIES);
+		final int[] states = getIntegers(args,"states",DEFAULT_STATES);
+		final long seed = getLong(args,"seed",1);
+		final BenchmarkRunner runner = new BenchmarkRunner(
+			(int)getLong(args,"warmup",3),
+			(int)getLong(args,"iterations",5),
+			getLong(args,"time",1000)
+		);
+		final int numberOfThreads = (int)getLong(args,"threads",WorkerPool.getDefaultNumberOfThreads());
+		final LikelihoodBenchmark benchmark = new LikelihoodBenchmark(runner,numberOfThreads);
+		System.out.println("kernel\ttaxa\tsites\tpatterns\tcategories\tstates\tcalls/s\tsd");
+		for(int a = 0 ; a < states.length ; a++) {
+			for(int b = 0 ; b < categories.length ; b++) {
+				for(int c = 0 ; c < taxa.length ; c++) {
+					for(int d = 0 ; d < sites.length ; d++) {
+						benchmark.run(taxa[c],sites[d],categories[b],states[a],seed,System.out);
+					}
+				}
+			}
+		}
+	}
+}
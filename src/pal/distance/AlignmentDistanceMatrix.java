@@ -93,6 +93,18 @@ public class AlignmentDistanceMatrix extends DistanceMatrix implements Serializa
 	public AlignmentDistanceMatrix(SitePattern sp, SubstitutionModel m, AlgorithmCallback callback) {
 		super(computeDistances(sp,m,callback),sp);
 	}
+	/**
+	 * compute distances on a number of threads at once
+	 *
+	 * @param sp site pattern
+	 * @param m  evolutionary model (null for observed distances)
+	 * @param numberOfThreads the number of threads (from a shared WorkerPool) to use
+	 * @param callback An algorithm callback to monitor progress
+	 *
+	 */
+	public AlignmentDistanceMatrix(SitePattern sp, SubstitutionModel m, int numberOfThreads, AlgorithmCallback callback) {
+		super(computeDistances(sp,m,numberOfThreads,callback),sp);
+	}
 
 
 
@@ -124,6 +136,18 @@ public class AlignmentDistanceMatrix extends DistanceMatrix implements Serializa
 		setIdGroup(sp);
 		setDistances(computeDistances(sp,model, callback));
 	}
+	/**
+	 * recompute distances under new site pattern, on a number of threads at once
+	 *
+	 * @param sp site pattern
+	 * @param model evolutionary model (null for observed distances)
+	 * @param numberOfThreads the number of threads to use
+	 */
+	public void recompute(SitePattern sp, SubstitutionModel model, int numberOfThreads, AlgorithmCallback callback)
+	{
+		setIdGroup(sp);
+		setDistances(computeDistances(sp,model,numberOfThreads,callback));
+	}
 
 	private static final double[][] computeDistances(SitePattern sp, SubstitutionModel m, AlgorithmCallback callback) {
 		int numSeqs = sp.getSequenceCount();
@@ -150,4 +174,132 @@ public class AlignmentDistanceMatrix extends DistanceMatrix implements Serializa
 		if(callback!=null) { 	callback.clearProgress();  }
 		return distance;
 	}
+
+	/**
+	 * The upper triangle of the matrix is cut into square tiles (so each thread works on a few sequences at a time)
+	 * which are handed out to the threads in turn. Each thread has its own PairwiseDistance, with its own view of the
+	 * model (a snapshot view if the model supports snapshots, otherwise a clone).
+	 */
+	private static final double[][] computeDistances(SitePattern sp, SubstitutionModel m, int numberOfThreads, AlgorithmCallback callback) {
+		final int numSeqs = sp.getSequenceCount();
+		final Tiles tiles = new Tiles(numSeqs,callback);
+		//The pool is of the number of threads asked for (shared pools are kept for each size), but no more tasks
+		//than tiles are run on it
+		final int numberOfTasks = Math.min(numberOfThreads,tiles.getNumberOfTiles());
+		if(numberOfTasks<=1) {
+			return computeDistances(sp,m,callback);
+		}
+		final double[][] distance = new double[numSeqs][numSeqs];
+		final SubstitutionModelSnapshot snapshot = (m==null ? null : SubstitutionModel.Utils.createSnapshot(m));
+		final Runnable[] tasks = new Runnable[numberOfTasks];
+		for(int i = 0 ; i < numberOfTasks ; i++) {
+			final PairwiseDistance pwd;
+			if(m==null) {
+				pwd = new PairwiseDistance(sp);
+			} else if(snapshot!=null) {
+				pwd = new PairwiseDistance(sp,snapshot.getView());
+			} else {
+				pwd = new PairwiseDistance(sp,(SubstitutionModel)m.clone());
+			}
+			tasks[i] = new TileTask(tiles,pwd,distance);
+		}
+		WorkerPool.getSharedPool(numberOfThreads).execute(tasks);
+		if(tiles.isStopped()) {
+			return null;
+		}
+		if(callback!=null) { 	callback.clearProgress();  }
+		return distance;
+	}
+
+	//
+	// Private stuff
+	//
+
+	/**
+	 * The tiles of the upper triangle, handed out in order, and the progress over them
+	 */
+	private static final class Tiles {
+		private static final int TILE_SIZE = 32;
+
+		private final int numSeqs_;
+		private final int tilesPerSide_;
+		private final int numberOfTiles_;
+		private final double numberOfPairs_;
+		private final AlgorithmCallback callback_;
+		private int nextTile_ = 0;
+		private long pairsCompleted_ = 0;
+		private boolean stopped_ = false;
+
+		public Tiles(int numSeqs, AlgorithmCallback callback) {
+			this.numSeqs_ = numSeqs;
+			this.tilesPerSide_ = (numSeqs+TILE_SIZE-1)/TILE_SIZE;
+			this.numberOfTiles_ = tilesPerSide_*(tilesPerSide_+1)/2;
+			this.numberOfPairs_ = numSeqs*(double)(numSeqs-1)/2;
+			this.callback_ = callback;
+		}
+		public final int getNumberOfTiles() { return numberOfTiles_; }
+		/**
+		 * @param store where the first and last (exclusive) rows, and then columns, of the next tile are put
+		 * @return false if there are no more tiles (or a stop was requested)
+		 */
+		public synchronized boolean nextTile(int[] store) {
+			if(isPleaseStop()||nextTile_==numberOfTiles_) {
+				return false;
+			}
+			//Tiles are numbered along each row of tiles in turn
+			int row = 0, tile = nextTile_++;
+			while(tile>=tilesPerSide_-row) {
+				tile-=tilesPerSide_-row;
+				row++;
+			}
+			final int column = row+tile;
+			store[0] = row*TILE_SIZE;
+			store[1] = Math.min(numSeqs_,store[0]+TILE_SIZE);
+			store[2] = column*TILE_SIZE;
+			store[3] = Math.min(numSeqs_,store[2]+TILE_SIZE);
+			return true;
+		}
+		public synchronized boolean isPleaseStop() {
+			if(!stopped_&&callback_!=null&&callback_.isPleaseStop()) {
+				stopped_ = true;
+			}
+			return stopped_;
+		}
+		public synchronized void pairsCompleted(int numberOfPairs) {
+			pairsCompleted_+=numberOfPairs;
+			if(callback_!=null) {
+				callback_.updateProgress(pairsCompleted_/numberOfPairs_);
+			}
+		}
+		public synchronized boolean isStopped() { return stopped_; }
+	}
+
+	/**
+	 * Fills tiles, with its own PairwiseDistance
+	 */
+	private static final class TileTask implements Runnable {
+		private final Tiles tiles_;
+		private final PairwiseDistance pwd_;
+		private final double[][] distance_;
+		public TileTask(Tiles tiles, PairwiseDistance pwd, double[][] distance) {
+			this.tiles_ = tiles;
+			this.pwd_ = pwd;
+			this.distance_ = distance;
+		}
+		public void run() {
+			final int[] tile = new int[4];
+			while(tiles_.nextTile(tile)) {
+				int pairs = 0;
+				for (int i = tile[0]; i < tile[1]; i++) {
+					if(tiles_.isPleaseStop()) { return; }
+					for (int j = Math.max(i+1,tile[2]); j < tile[3]; j++) {
+						distance_[i][j] = pwd_.getDistance(i, j);
+						distance_[j][i] = distance_[i][j];
+						pairs++;
+					}
+				}
+				tiles_.pairsCompleted(pairs);
+			}
+		}
+	}
 }
@@ -22,6 +22,9 @@ import pal.misc.*;
  * - computation of (weighted) squared distance to other distance matrix
  * - Fills in all of array...
  *
+ * Subclasses may hold the distances elsewhere (see MappedDistanceMatrix) by overriding getSize(), getDistance(),
+ * setDistance() and addDistance(), which all other methods use.
+ *
  * @version $Id: DistanceMatrix.java,v 1.11 2003/07/20 02:36:08 matt Exp $
  *
  * @author Korbinian Strimmer
@@ -77,7 +80,7 @@ public class DistanceMatrix implements Serializable, IdGroup
 	 * but uses the same idGroup.
 	 */
 	public DistanceMatrix(DistanceMatrix dm) {
-		distance = pal.misc.Utils.getCopy(dm.distance);
+		distance = dm.getClonedDistances();
 		idGroup = dm.getIdGroup();
 	}
 
@@ -95,7 +98,7 @@ public class DistanceMatrix implements Serializable, IdGroup
 
 			for (int j = 0; j < i; j++) {
 				index2 = dm.whichIdNumber(subset.getIdentifier(j).getName());
-				distance[i][j] = dm.distance[index1][index2];
+				distance[i][j] = dm.getDistance(index1,index2);
 				distance[j][i] = distance[i][j];
 			}
 		}
@@ -105,17 +108,18 @@ public class DistanceMatrix implements Serializable, IdGroup
 	/** print alignment (PHYLIP format) */
 	public void printPHYLIP(PrintWriter out)
 	{
+		final int size = getSize();
 		// PHYLIP header line
-		out.println("  " + distance.length);
+		out.println("  " + size);
 		FormattedOutput format = FormattedOutput.getInstance();
 
-		for (int i = 0; i < distance.length; i++)
+		for (int i = 0; i < size; i++)
 		{
 			format.displayLabel(out,
 				idGroup.getIdentifier(i).getName(), 10);
 			out.print("      ");
 
-			for (int j = 0; j < distance.length; j++)
+			for (int j = 0; j < size; j++)
 			{
 				// Chunks of 6 blocks each
 				if (j % 6 == 0 && j != 0)
@@ -125,7 +129,7 @@ public class DistanceMatrix implements Serializable, IdGroup
 				}
 
 				out.print("  ");
-				format.displayDecimal(out, distance[i][j], 5);
+				format.displayDecimal(out, getDistance(i,j), 5);
 			}
 			out.println();
 		}
@@ -143,18 +147,20 @@ public class DistanceMatrix implements Serializable, IdGroup
 	/** compute squared distance to second distance matrix */
 	public double squaredDistance(DistanceMatrix mat, boolean weighted)
 	{
+		final int size = getSize();
 		double sum = 0;
-		for (int i = 0; i < distance.length-1; i++)
+		for (int i = 0; i < size-1; i++)
 		{
-			for (int j = i+1; j < distance.length ; j++)
+			for (int j = i+1; j < size ; j++)
 			{
-				double diff = distance[i][j] - mat.distance[i][j];
+				final double d = getDistance(i,j);
+				double diff = d - mat.getDistance(i,j);
 				double weight;
 				if (weighted)
 				{
 					// Fitch-Margoliash weight
 					// (variances proportional to distances)
-					weight = 1.0/(distance[i][j]*distance[i][j]);
+					weight = 1.0/(d*d);
 				}
 				else
 				{
@@ -172,13 +178,14 @@ public class DistanceMatrix implements Serializable, IdGroup
 	/** compute absolute distance to second distance matrix */
 	public double absoluteDistance(DistanceMatrix mat)
 	{
+		final int size = getSize();
 		double sum = 0;
-		for (int i = 0; i < distance.length-1; i++)
+		for (int i = 0; i < size-1; i++)
 		{
-			for (int j = i+1; j < distance.length; j++)
+			for (int j = i+1; j < size; j++)
 			{
 				double diff =
-					Math.abs(distance[i][j] - mat.distance[i][j]);
+					Math.abs(getDistance(i,j) - mat.getDistance(i,j));
 
 				sum += diff;
 			}
@@ -198,15 +205,32 @@ public class DistanceMatrix implements Serializable, IdGroup
 	 * Returns the distances as a 2-dimensional array of doubles. Matrix is cloned first so it can be altered freely.
 	 */
 	public final double[][] getClonedDistances() {
-		return pal.misc.Utils.getCopy(distance);
+		return copyDistances();
 	}
 	/**
 	 * Returns the distances as a 2-dimensional array of doubles (in the actual array used to store the distances)
 	 */
 	protected final double[][] getDistances() {
-		return pal.misc.Utils.getCopy(distance);
+		return copyDistances();
+	}
+	private double[][] copyDistances() {
+		if(distance!=null) {
+			return pal.misc.Utils.getCopy(distance);
+		}
+		final int size = getSize();
+		final double[][] copy = new double[size][size];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				copy[i][j] = getDistance(i,j);
+			}
+		}
+		return copy;
 	}
-	public final double getDistance(final int row, final int col) {
+	/**
+	 * Returns the distance between two members (tree builders read distances through this, rather than cloning
+	 * the distances, so they also work on matrices not held on the heap)
+	 */
+	public double getDistance(final int row, final int col) {
 		return distance[row][col];
 	}
 
@@ -230,12 +254,13 @@ public class DistanceMatrix implements Serializable, IdGroup
 	 * Returns the mean pairwise distance of this matrix
 	 */
 	public double meanDistance() {
+		final int size = getSize();
 		double dist = 0.0;
 		int count = 0;
-		for (int i = 0; i < distance.length; i++) {
-			for (int j = 0; j < distance[i].length; j++) {
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
 				if (i != j) {
-					dist += distance[i][j];
+					dist += getDistance(i,j);
 					count += 1;
 				}
 			}
@@ -262,15 +287,16 @@ public class DistanceMatrix implements Serializable, IdGroup
 	 */
 	public boolean isSymmetric()
 	{
-		for (int i = 0; i < distance.length; i++)
+		final int size = getSize();
+		for (int i = 0; i < size; i++)
 		{
-			if (distance[i][i] != 0) return false;
+			if (getDistance(i,i) != 0) return false;
 		}
-		for (int i = 0; i < distance.length-1; i++)
+		for (int i = 0; i < size-1; i++)
 		{
-			for (int j = i+1; j < distance.length; j++)
+			for (int j = i+1; j < size; j++)
 			{
-				if (distance[i][j] != distance[j][i]) return false;
+				if (getDistance(i,j) != getDistance(j,i)) return false;
 			}
 		}
 		return true;
@@ -310,9 +336,10 @@ public class DistanceMatrix implements Serializable, IdGroup
 	public int getClosestIndex(int fromIndex, int[] exclusion) {
 		double min = Double.POSITIVE_INFINITY;
 		int index = -1;
-		for(int i = 0 ; i < distance.length ; i++) {
+		final int size = getSize();
+		for(int i = 0 ; i < size ; i++) {
 			if(i!=fromIndex&&!isIn(i,exclusion)) {
-				double d = distance[fromIndex][i];
+				double d = getDistance(fromIndex,i);
 				if(d<min) {
 					min = d; index = i;
 				}
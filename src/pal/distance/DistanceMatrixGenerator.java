@@ -29,6 +29,17 @@ public interface DistanceMatrixGenerator {
 		public static DistanceMatrixGenerator createEvolutionary(Alignment a, SubstitutionModel sm) {
 			return new Evolutionary(a,sm);
 		}
+		/**
+		 * Create a generator of distance matrices for bootstrap replicates of a set of site patterns. Each replicate
+		 * shares the patterns of the base, with new weights (see BootstrapWeights), so no alignment is copied.
+		 * @param patterns the site patterns of the alignment being bootstrapped
+		 * @param sm the substitution model for maximum likelihood distances, or null for observed distances
+		 * @param random the source of random numbers (all the randomness of the replicates comes from here)
+		 * @return an appropriate generator
+		 */
+		public static DistanceMatrixGenerator createBootstrap(SitePattern patterns, SubstitutionModel sm, pal.math.MersenneTwisterFast random) {
+			return new Bootstrap(patterns,sm,random);
+		}
 		/**
 		 * Silly idea stuff
 		 */
@@ -52,6 +63,18 @@ public interface DistanceMatrixGenerator {
 			}
 		}
 		// - - - - -- - - - -- - - - - - -- - - - -- - - - -- - - - - -- - - - --
+		private static final class Bootstrap implements DistanceMatrixGenerator {
+			private final BootstrapWeights weights_;
+			private final SubstitutionModel model_;
+			public Bootstrap(SitePattern patterns, SubstitutionModel model, pal.math.MersenneTwisterFast random) {
+				this.weights_ = new BootstrapWeights(patterns,random);
+				this.model_ = model;
+			}
+			public DistanceMatrix generateNextMatrix(AlgorithmCallback callback) {
+				return new AlignmentDistanceMatrix(weights_.getNextSitePattern(),model_,callback);
+			}
+		}
+		// - - - - -- - - - -- - - - - - -- - - - -- - - - -- - - - - -- - - - --
 		private static final class Evolutionary implements DistanceMatrixGenerator {
 			private final Alignment alignment_;
 			private final SubstitutionModel model_;
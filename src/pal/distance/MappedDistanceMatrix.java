@@ -0,0 +1,245 @@
+// MappedDistanceMatrix.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.distance;
+
+/**
+ * <p>Title: MappedDistanceMatrix</p>
+ * <p>Description: A symmetric distance matrix stored in a binary file, and read (and written) through a memory
+ * mapping of that file, so the distances are never held on the heap. Only the upper triangle (with the diagonal)
+ * is stored, as doubles or, to halve the file, as floats (distances set are then rounded to float precision).
+ * getDistance(), setDistance() and addDistance() behave as those of DistanceMatrix (setting a distance sets both
+ * triangles). The tree builders (NeighborJoiningTree, RapidNeighborJoiningTree, ClusterTree) read distances
+ * through getDistance() and never clone the whole matrix.</p>
+ * <p>Files are written with write(), holding given distances or all zero distances (to be set once opened for
+ * writing). File layout (all values big endian): a header of eight ints (magic number, version, number of
+ * members, bytes per distance (4 or 8), length of identifier block, three unused); the identifiers
+ * (DataOutput.writeUTF() each, padded to 8 bytes); and the distances of each row from the diagonal on (row i
+ * holding columns i to n-1).</p>
+ * <p>The file is mapped in pieces, so files may be larger than 2GB. Reading is thread safe; writing is thread
+ * safe only for different pairs of members. Changes are written to the file by the operating system, or by
+ * force(). Serialization writes a DistanceMatrix copy.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+import pal.misc.*;
+
+public final class MappedDistanceMatrix extends DistanceMatrix {
+	private static final long serialVersionUID = 1220991140030031120L;
+
+	private static final int MAGIC = 0x50414c44;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	//Each mapped piece holds 2^PIECE_BITS distances
+	private static final int PIECE_BITS = 27;
+	private static final long PIECE_MASK = (1L<<PIECE_BITS)-1;
+
+	private final int size_;
+	private final boolean singlePrecision_;
+	private final boolean readOnly_;
+	//The index of the diagonal distance of each row
+	private final long[] rowStarts_;
+	private final transient MappedByteBuffer[] pieces_;
+	//Views of the pieces, one of which is null
+	private final transient DoubleBuffer[] doublePieces_;
+	private final transient FloatBuffer[] floatPieces_;
+
+	/**
+	 * Open a file written by write()
+	 * @param file the file
+	 * @param readOnly if true setDistance() and addDistance() throw a ReadOnlyBufferException
+	 * @throws IOException if the file cannot be read, or is not a mapped distance matrix file
+	 */
+	public MappedDistanceMatrix(File file, boolean readOnly) throws IOException {
+		this.readOnly_ = readOnly;
+		final RandomAccessFile raf = new RandomAccessFile(file,(readOnly ? "r" : "rw"));
+		try {
+			if(raf.length()<HEADER_SIZE||raf.readInt()!=MAGIC) {
+				throw new IOException("Not a mapped distance matrix file:"+file);
+			}
+			final int version = raf.readInt();
+			if(version!=VERSION) {
+				throw new IOException("Unsupported mapped distance matrix version:"+version);
+			}
+			this.size_ = raf.readInt();
+			final int bytesPerDistance = raf.readInt();
+			if(bytesPerDistance!=4&&bytesPerDistance!=8) {
+				throw new IOException("Invalid bytes per distance:"+bytesPerDistance);
+			}
+			this.singlePrecision_ = (bytesPerDistance==4);
+			final int identifierBytes = raf.readInt();
+			raf.seek(HEADER_SIZE);
+			final Identifier[] identifiers = new Identifier[size_];
+			for(int i = 0 ; i < size_ ; i++) {
+				identifiers[i] = new Identifier(raf.readUTF());
+			}
+			setIdGroup(new SimpleIdGroup(identifiers));
+
+			this.rowStarts_ = getRowStarts(size_);
+			final long numberOfDistances = getNumberOfDistances(size_);
+			final long dataOffset = pad(HEADER_SIZE+identifierBytes);
+			final long end = dataOffset+numberOfDistances*bytesPerDistance;
+			if(end!=raf.length()) {
+				throw new IOException("Mapped distance matrix file has wrong length:"+raf.length()+", expected "+end);
+			}
+			final int numberOfPieces = (int)((numberOfDistances+PIECE_MASK)>>>PIECE_BITS);
+			this.pieces_ = new MappedByteBuffer[numberOfPieces];
+			this.doublePieces_ = (singlePrecision_ ? null : new DoubleBuffer[numberOfPieces]);
+			this.floatPieces_ = (singlePrecision_ ? new FloatBuffer[numberOfPieces] : null);
+			final FileChannel channel = raf.getChannel();
+			for(int p = 0 ; p < numberOfPieces ; p++) {
+				final long first = ((long)p)<<PIECE_BITS;
+				final long length = Math.min(PIECE_MASK+1,numberOfDistances-first)*bytesPerDistance;
+				pieces_[p] = channel.map(
+					(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE),
+					dataOffset+first*bytesPerDistance,length);
+				if(singlePrecision_) {
+					floatPieces_[p] = pieces_[p].asFloatBuffer();
+				} else {
+					doublePieces_[p] = pieces_[p].asDoubleBuffer();
+				}
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	public int getSize() { return size_; }
+	/**
+	 * @return true if distances are stored as floats
+	 */
+	public boolean isSinglePrecision() { return singlePrecision_; }
+	public boolean isReadOnly() { return readOnly_; }
+
+	public double getDistance(final int row, final int col) {
+		final long index = getIndex(row,col);
+		final int piece = (int)(index>>>PIECE_BITS);
+		final int offset = (int)(index&PIECE_MASK);
+		return (singlePrecision_ ? floatPieces_[piece].get(offset) : doublePieces_[piece].get(offset));
+	}
+	public void setDistance(int i, int j, double dist) {
+		final long index = getIndex(i,j);
+		final int piece = (int)(index>>>PIECE_BITS);
+		final int offset = (int)(index&PIECE_MASK);
+		if(singlePrecision_) {
+			floatPieces_[piece].put(offset,(float)dist);
+		} else {
+			doublePieces_[piece].put(offset,dist);
+		}
+	}
+	public void addDistance(int i, int j, double delta) {
+		setDistance(i,j,getDistance(i,j)+delta);
+	}
+	/**
+	 * Write changed distances to the file
+	 */
+	public void force() {
+		if(!readOnly_) {
+			for(int p = 0 ; p < pieces_.length ; p++) {
+				pieces_[p].force();
+			}
+		}
+	}
+
+	private long getIndex(int row, int col) {
+		return (row<=col ? rowStarts_[row]+(col-row) : rowStarts_[col]+(row-col));
+	}
+	private Object writeReplace() throws ObjectStreamException {
+		return new DistanceMatrix(getClonedDistances(),new SimpleIdGroup(this));
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Write a distance matrix in the mapped distance matrix format (only the upper triangle is written)
+	 * @param source the distances
+	 * @param file the file to write
+	 * @param singlePrecision if true distances are stored as floats
+	 */
+	public static void write(DistanceMatrix source, File file, boolean singlePrecision) throws IOException {
+		final int size = source.getSize();
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),65536));
+		try {
+			writeHeader(out,source,singlePrecision);
+			for(int i = 0 ; i < size ; i++) {
+				for(int j = i ; j < size ; j++) {
+					if(singlePrecision) {
+						out.writeFloat((float)source.getDistance(i,j));
+					} else {
+						out.writeDouble(source.getDistance(i,j));
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+	/**
+	 * Write a distance matrix of all zero distances in the mapped distance matrix format (to be filled in once
+	 * opened for writing)
+	 * @param ids the members of the matrix
+	 * @param file the file to write
+	 * @param singlePrecision if true distances are stored as floats
+	 */
+	public static void write(IdGroup ids, File file, boolean singlePrecision) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),65536));
+		final int headerLength;
+		try {
+			headerLength = writeHeader(out,ids,singlePrecision);
+		} finally {
+			out.close();
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file,"rw");
+		try {
+			raf.setLength(headerLength+getNumberOfDistances(ids.getIdCount())*(singlePrecision ? 4 : 8));
+		} finally {
+			raf.close();
+		}
+	}
+	/**
+	 * @return the length of the header (with the identifiers and padding)
+	 */
+	private static int writeHeader(DataOutputStream out, IdGroup ids, boolean singlePrecision) throws IOException {
+		final int size = ids.getIdCount();
+		final ByteArrayOutputStream identifierBlock = new ByteArrayOutputStream();
+		final DataOutputStream idOut = new DataOutputStream(identifierBlock);
+		for(int i = 0 ; i < size ; i++) {
+			idOut.writeUTF(ids.getIdentifier(i).getName());
+		}
+		idOut.close();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(size);
+		out.writeInt(singlePrecision ? 4 : 8);
+		out.writeInt(identifierBlock.size());
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(0);
+		identifierBlock.writeTo(out);
+		final int length = HEADER_SIZE+identifierBlock.size();
+		for(int i = length ; i < pad(length) ; i++) {
+			out.writeByte(0);
+		}
+		return pad(length);
+	}
+	private static long[] getRowStarts(int size) {
+		final long[] rowStarts = new long[size];
+		for(int i = 1 ; i < size ; i++) {
+			rowStarts[i] = rowStarts[i-1]+(size-i+1);
+		}
+		return rowStarts;
+	}
+	private static long getNumberOfDistances(int size) {
+		return (long)size*(size+1)/2;
+	}
+	private static int pad(int offset) {
+		return (offset+7)&~7;
+	}
+}
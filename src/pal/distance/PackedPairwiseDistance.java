@@ -0,0 +1,310 @@
+// PackedPairwiseDistance.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.distance;
+
+/**
+ * <p>Title: PackedPairwiseDistance</p>
+ * <p>Description: Counts the differences between pairs of sequences of a SitePattern 64 patterns at a time. Each
+ * sequence is held bit sliced: a mask of the patterns at which its state is known, and the bits of its states
+ * as planes of masks (two planes for nucleotides, five for amino acids), so the patterns at which two sequences
+ * differ are found with a few exclusive ors. The pattern weights are held as planes in the same way (the patterns
+ * whose weights have each bit set), so the weighted count of a mask is a sum of shifted bit counts, and no pattern
+ * is looked at on its own.</p>
+ * <p>As PairwiseDistance, a pattern at which either state is unknown is taken as no difference. From the counts come
+ * observed (p) distances, and Jukes-Cantor, and for nucleotides Kimura two parameter and Tamura-Nei (1993),
+ * corrected distances, for example as quick distances for large neighbour joining trees, or as starting points for
+ * maximum likelihood distances. A PackedPairwiseDistance is not changed after construction, so may be used by many
+ * threads at once.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.alignment.*;
+import pal.datatype.*;
+import pal.misc.*;
+
+public final class PackedPairwiseDistance {
+	/** The proportion of differences among the sites at which both states are known */
+	public static final int P_DISTANCE = 0;
+	/** The Jukes-Cantor correction of the p distance (for the number of states of the data type) */
+	public static final int JUKES_CANTOR = 1;
+	/** The Kimura two parameter distance (nucleotides only) */
+	public static final int KIMURA_TWO_PARAMETER = 2;
+	/** The Tamura-Nei (1993) distance, with the base frequencies of the whole site pattern (nucleotides only) */
+	public static final int TAMURA_NEI = 3;
+
+	/** Index of the weighted number of sites at which both states are known, in the counts of getCounts() */
+	public static final int COMPARED_SITES = 0;
+	/** Index of the weighted number of differences, in the counts of getCounts() */
+	public static final int DIFFERENCES = 1;
+	/** Index of the weighted number of A-G differences (nucleotides only), in the counts of getCounts() */
+	public static final int PURINE_TRANSITIONS = 2;
+	/** Index of the weighted number of C-T differences (nucleotides only), in the counts of getCounts() */
+	public static final int PYRIMIDINE_TRANSITIONS = 3;
+
+	private static final int PATTERNS_PER_WORD = 64;
+
+	private final IdGroup ids_;
+	private final int numberOfSequences_;
+	private final int numberOfSites_;
+	private final int numberOfStates_;
+	private final int wordsPerSequence_;
+	private final int numberOfStatePlanes_;
+	private final int numberOfWeightPlanes_;
+	private final boolean nucleotide_;
+	//For each sequence the known mask, then each state plane (wordsPerSequence_ words each)
+	private final long[][] sequences_;
+	//The patterns whose weights have each bit set (wordsPerSequence_ words each)
+	private final long[] weightPlanes_;
+	//The frequencies of A, C, G and T over all sequences (nucleotides only)
+	private final double[] frequencies_;
+
+	/**
+	 * @param sp the site pattern
+	 */
+	public PackedPairwiseDistance(SitePattern sp) {
+		final DataType dt = sp.getDataType();
+		this.ids_ = sp;
+		this.numberOfSequences_ = sp.getSequenceCount();
+		this.numberOfSites_ = sp.getSiteCount();
+		this.numberOfStates_ = dt.getNumStates();
+		this.nucleotide_ = (dt instanceof Nucleotides)&&numberOfStates_==4;
+		final int numberOfPatterns = sp.numPatterns;
+		final byte[][] pattern = sp.pattern;
+		this.wordsPerSequence_ = (numberOfPatterns+PATTERNS_PER_WORD-1)/PATTERNS_PER_WORD;
+
+		int largestState = Math.max(1,numberOfStates_-1);
+		for(int s = 0 ; s < numberOfSequences_ ; s++) {
+			for(int p = 0 ; p < numberOfPatterns ; p++) {
+				final int state = pattern[s][p];
+				if(!dt.isUnknownState(state)&&state>largestState) { largestState = state; }
+			}
+		}
+		this.numberOfStatePlanes_ = getNumberOfBits(largestState);
+
+		this.sequences_ = new long[numberOfSequences_][(numberOfStatePlanes_+1)*wordsPerSequence_];
+		final double[] stateCounts = new double[4];
+		for(int s = 0 ; s < numberOfSequences_ ; s++) {
+			final long[] words = sequences_[s];
+			for(int p = 0 ; p < numberOfPatterns ; p++) {
+				final int state = pattern[s][p];
+				if(dt.isUnknownState(state)) {
+					continue;
+				}
+				final int word = p/PATTERNS_PER_WORD;
+				final long bit = 1L<<(p%PATTERNS_PER_WORD);
+				words[word] |= bit;
+				for(int plane = 0 ; plane < numberOfStatePlanes_ ; plane++) {
+					if((state&(1<<plane))!=0) {
+						words[(plane+1)*wordsPerSequence_+word] |= bit;
+					}
+				}
+				if(nucleotide_) {
+					stateCounts[state]+=sp.weight[p];
+				}
+			}
+		}
+
+		int largestWeight = 1;
+		for(int p = 0 ; p < numberOfPatterns ; p++) {
+			largestWeight = Math.max(largestWeight,sp.weight[p]);
+		}
+		this.numberOfWeightPlanes_ = getNumberOfBits(largestWeight);
+		this.weightPlanes_ = new long[numberOfWeightPlanes_*wordsPerSequence_];
+		for(int p = 0 ; p < numberOfPatterns ; p++) {
+			final int weight = sp.weight[p];
+			for(int plane = 0 ; plane < numberOfWeightPlanes_ ; plane++) {
+				if((weight&(1<<plane))!=0) {
+					weightPlanes_[plane*wordsPerSequence_+p/PATTERNS_PER_WORD] |= 1L<<(p%PATTERNS_PER_WORD);
+				}
+			}
+		}
+
+		if(nucleotide_) {
+			final double total = stateCounts[0]+stateCounts[1]+stateCounts[2]+stateCounts[3];
+			this.frequencies_ = new double[4];
+			for(int i = 0 ; i < 4 ; i++) {
+				frequencies_[i] = (total==0 ? 0.25 : stateCounts[i]/total);
+			}
+		} else {
+			this.frequencies_ = null;
+		}
+	}
+
+	/**
+	 * @return the number of sequences
+	 */
+	public final int getNumberOfSequences() { return numberOfSequences_; }
+	/**
+	 * @return true if the data are nucleotides (so transitions are counted)
+	 */
+	public final boolean isNucleotide() { return nucleotide_; }
+
+	/**
+	 * Count the (weighted) sites compared, differences and transitions between two sequences
+	 * @param s1 the first sequence
+	 * @param s2 the second sequence
+	 * @param store where the counts are put (may be null, or too small, in which case a new array is created)
+	 * @return the counts (store if it was used), indexed by COMPARED_SITES, DIFFERENCES, PURINE_TRANSITIONS and
+	 * PYRIMIDINE_TRANSITIONS (the transitions are zero if the data are not nucleotides)
+	 */
+	public int[] getCounts(int s1, int s2, int[] store) {
+		if(store==null||store.length<4) {
+			store = new int[4];
+		}
+		final long[] a = sequences_[s1];
+		final long[] b = sequences_[s2];
+		final int words = wordsPerSequence_;
+		int compared = 0, differences = 0, purineTransitions = 0, pyrimidineTransitions = 0;
+		for(int w = 0 ; w < words ; w++) {
+			final long known = a[w]&b[w];
+			long different = 0;
+			for(int plane = 1 ; plane <= numberOfStatePlanes_ ; plane++) {
+				final int offset = plane*words+w;
+				different |= a[offset]^b[offset];
+			}
+			different &= known;
+			compared+=getWeight(known,w);
+			differences+=getWeight(different,w);
+			if(nucleotide_&&different!=0) {
+				//The low bit of a state separates the pyrimidines (C and T) from the purines (A and G)
+				final long pyrimidineA = a[words+w];
+				final long transitions = different&~(pyrimidineA^b[words+w]);
+				purineTransitions+=getWeight(transitions&~pyrimidineA,w);
+				pyrimidineTransitions+=getWeight(transitions&pyrimidineA,w);
+			}
+		}
+		store[COMPARED_SITES] = compared;
+		store[DIFFERENCES] = differences;
+		store[PURINE_TRANSITIONS] = purineTransitions;
+		store[PYRIMIDINE_TRANSITIONS] = pyrimidineTransitions;
+		return store;
+	}
+	/**
+	 * @param s1 the first sequence
+	 * @param s2 the second sequence
+	 * @return the number of differences over the number of sites (as PairwiseDistance)
+	 */
+	public double getObservedDistance(int s1, int s2) {
+		final long[] a = sequences_[s1];
+		final long[] b = sequences_[s2];
+		final int words = wordsPerSequence_;
+		int differences = 0;
+		for(int w = 0 ; w < words ; w++) {
+			long different = 0;
+			for(int plane = 1 ; plane <= numberOfStatePlanes_ ; plane++) {
+				final int offset = plane*words+w;
+				different |= a[offset]^b[offset];
+			}
+			differences+=getWeight(different&a[w]&b[w],w);
+		}
+		return (double)differences/(double)numberOfSites_;
+	}
+	/**
+	 * @param method the distance (P_DISTANCE, JUKES_CANTOR, KIMURA_TWO_PARAMETER or TAMURA_NEI)
+	 * @param s1 the first sequence
+	 * @param s2 the second sequence
+	 * @return the distance (no more than BranchLimits.MAXARC, which is given for saturated pairs)
+	 * @throws IllegalArgumentException if the method needs nucleotides and the data are not
+	 */
+	public double getDistance(int method, int s1, int s2) {
+		return getDistance(method,getCounts(s1,s2,null));
+	}
+	/**
+	 * @param method the distance (P_DISTANCE, JUKES_CANTOR, KIMURA_TWO_PARAMETER or TAMURA_NEI)
+	 * @return the distances between all pairs of sequences
+	 */
+	public DistanceMatrix getDistanceMatrix(int method) {
+		final double[][] distances = new double[numberOfSequences_][numberOfSequences_];
+		final int[] counts = new int[4];
+		for(int i = 0 ; i < numberOfSequences_ ; i++) {
+			for(int j = i+1 ; j < numberOfSequences_ ; j++) {
+				distances[i][j] = distances[j][i] = getDistance(method,getCounts(i,j,counts));
+			}
+		}
+		return new DistanceMatrix(distances,ids_);
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+	private double getDistance(int method, int[] counts) {
+		if((method==KIMURA_TWO_PARAMETER||method==TAMURA_NEI)&&!nucleotide_) {
+			throw new IllegalArgumentException("Distance method needs nucleotides:"+method);
+		}
+		final double compared = counts[COMPARED_SITES];
+		if(compared==0||counts[DIFFERENCES]==0) {
+			return 0;
+		}
+		final double p = counts[DIFFERENCES]/compared;
+		switch(method) {
+			case P_DISTANCE : {
+				return p;
+			}
+			case JUKES_CANTOR : {
+				final double b = (numberOfStates_-1)/(double)numberOfStates_;
+				return limit(1-p/b,-b*Math.log(1-p/b));
+			}
+			case KIMURA_TWO_PARAMETER : {
+				final double transitions = (counts[PURINE_TRANSITIONS]+counts[PYRIMIDINE_TRANSITIONS])/compared;
+				final double transversions = p-transitions;
+				final double w1 = 1-2*transitions-transversions;
+				final double w2 = 1-2*transversions;
+				return limit(Math.min(w1,w2),-0.5*Math.log(w1)-0.25*Math.log(w2));
+			}
+			case TAMURA_NEI : {
+				final double piA = frequencies_[Nucleotides.A_STATE], piC = frequencies_[Nucleotides.C_STATE];
+				final double piG = frequencies_[Nucleotides.G_STATE], piT = frequencies_[Nucleotides.UT_STATE];
+				final double piR = piA+piG, piY = piC+piT;
+				if(piA*piG==0||piC*piT==0) {
+					//The purine or pyrimidine transition rate cannot be estimated
+					return getDistance(KIMURA_TWO_PARAMETER,counts);
+				}
+				final double p1 = counts[PURINE_TRANSITIONS]/compared;
+				final double p2 = counts[PYRIMIDINE_TRANSITIONS]/compared;
+				final double q = p-p1-p2;
+				final double k1 = 2*piA*piG/piR, k2 = 2*piC*piT/piY;
+				final double k3 = 2*(piR*piY-piA*piG*piY/piR-piC*piT*piR/piY);
+				final double w1 = 1-p1/k1-q/(2*piR);
+				final double w2 = 1-p2/k2-q/(2*piY);
+				final double w3 = 1-q/(2*piR*piY);
+				return limit(Math.min(w1,Math.min(w2,w3)),-k1*Math.log(w1)-k2*Math.log(w2)-k3*Math.log(w3));
+			}
+			default : {
+				throw new IllegalArgumentException("Unknown distance method:"+method);
+			}
+		}
+	}
+	/**
+	 * @param smallestLogArgument the smallest argument of a log in the distance (if not positive the pair is saturated)
+	 */
+	private static double limit(double smallestLogArgument, double distance) {
+		if(smallestLogArgument<=0||distance>BranchLimits.MAXARC) {
+			return BranchLimits.MAXARC;
+		}
+		return distance;
+	}
+	/**
+	 * @return the total weight of the patterns in a mask of a word
+	 */
+	private int getWeight(long mask, int word) {
+		if(mask==0) {
+			return 0;
+		}
+		int weight = 0;
+		for(int plane = 0 ; plane < numberOfWeightPlanes_ ; plane++) {
+			weight+=Long.bitCount(mask&weightPlanes_[plane*wordsPerSequence_+word])<<plane;
+		}
+		return weight;
+	}
+	private static int getNumberOfBits(int value) {
+		int bits = 1;
+		while((value>>>bits)!=0) {
+			bits++;
+		}
+		return bits;
+	}
+}
@@ -48,6 +48,8 @@ public class PairwiseDistance implements java.io.Serializable
 	private UnivariateMinimum um;
 	private SequencePairLikelihood of;
 	private DataType patternDataType_;
+	//Built when first needed (not serialized)
+	private PackedPairwiseDistance packed_;
 
 	//
 	// Serialization code
@@ -155,6 +157,7 @@ public class PairwiseDistance implements java.io.Serializable
 
 		if (modelBased) of.updateSitePattern(sp);
 		patternDataType_ = sp.getDataType();
+		packed_ = null;
 
 	}
 
@@ -168,7 +171,10 @@ public class PairwiseDistance implements java.io.Serializable
 	 */
 	public double getDistance(int s1, int s2)
 	{
-		return getDistance(sitePattern.pattern[s1], sitePattern.pattern[s2]);
+		// observed distance counted 64 patterns at a time
+		if (packed_ == null) packed_ = new PackedPairwiseDistance(sitePattern);
+
+		return getDistance(packed_.getObservedDistance(s1, s2), sitePattern.pattern[s1], sitePattern.pattern[s2]);
 	}
 
 	/**
@@ -182,7 +188,11 @@ public class PairwiseDistance implements java.io.Serializable
 	 */
 	public double getDistance(byte[] s1, byte[] s2)
 	{
-		double dist = getObservedDistance(s1, s2);
+		return getDistance(getObservedDistance(s1, s2), s1, s2);
+	}
+
+	private double getDistance(double dist, byte[] s1, byte[] s2)
+	{
 
 		if (modelBased && dist != 0.0)
 		{
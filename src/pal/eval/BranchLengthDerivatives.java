@@ -0,0 +1,246 @@
+// BranchLengthDerivatives.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.eval;
+
+import pal.math.*;
+import pal.substmodel.*;
+
+/**
+ * <p>Title: BranchLengthDerivatives</p>
+ * <p>Description: Calculates the log likelihood across a branch together with the first and second derivatives
+ * of the log likelihood with respect to the branch length, given the flat conditional probabilities either side
+ * of the branch. Derivatives are analytic (dP/dt = QP, from the eigen decomposition of the rate matrix) for
+ * substitution models that support snapshots (see SubstitutionModelSnapshot), otherwise they are found by
+ * finite differences of the log likelihood. Works with both contiguous and non-contiguous stores, and with tip
+ * stores (if the left store is a tip store the transition probabilities and derivatives are applied to each
+ * state once, rather than to each pattern). The snapshot of a model is reused while the parameters of the model
+ * are unchanged, so a model should not be altered other than through its parameters while in use.
+ * Like the LHCalculator.External objects that use it, this class is not thread safe.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+
+public final class BranchLengthDerivatives implements java.io.Serializable {
+	private static final long serialVersionUID = 8791127833513879926L;
+
+	private final int numberOfCategories_;
+	private final int numberOfStates_;
+	private final double[][][] transitionProbabilityStore_;
+	private final double[][][] firstDerivativeStore_;
+	private final double[][][] secondDerivativeStore_;
+	//The above applied to each row of a left tip store (allocated when first needed)
+	private double[][][] tipProbabilityStore_ = null;
+	private double[][][] tipFirstDerivativeStore_ = null;
+	private double[][][] tipSecondDerivativeStore_ = null;
+	//The snapshot of the last model seen, and the parameters of that model when the snapshot was created
+	private transient SubstitutionModel snapshotModel_ = null;
+	private transient double[] snapshotParameters_ = null;
+	private transient SubstitutionModelSnapshot snapshot_ = null;
+
+	public BranchLengthDerivatives(int numberOfCategories, int numberOfStates) {
+		this.numberOfCategories_ = numberOfCategories;
+		this.numberOfStates_ = numberOfStates;
+		this.transitionProbabilityStore_ = new double[numberOfCategories][numberOfStates][numberOfStates];
+		this.firstDerivativeStore_ = new double[numberOfCategories][numberOfStates][numberOfStates];
+		this.secondDerivativeStore_ = new double[numberOfCategories][numberOfStates][numberOfStates];
+	}
+
+	/**
+	 * Obtain a snapshot of a model, reusing the previous snapshot if the model, and its parameters, are unchanged
+	 * since it was created (so a snapshot is created once for each model state, rather than for each evaluation)
+	 * @param model the substitution model
+	 * @return the snapshot, or null if the model does not support snapshots
+	 */
+	private final SubstitutionModelSnapshot getSnapshot(SubstitutionModel model) {
+		final int numberOfParameters = model.getNumParameters();
+		boolean changed = (model!=snapshotModel_||snapshotParameters_.length!=numberOfParameters);
+		if(changed) {
+			snapshotParameters_ = new double[numberOfParameters];
+		}
+		for(int i = 0 ; i < numberOfParameters ; i++) {
+			final double value = model.getParameter(i);
+			if(Double.doubleToLongBits(value)!=Double.doubleToLongBits(snapshotParameters_[i])) {
+				snapshotParameters_[i] = value;
+				changed = true;
+			}
+		}
+		if(changed) {
+			snapshotModel_ = model;
+			snapshot_ = SubstitutionModel.Utils.createSnapshot(model);
+		}
+		return snapshot_;
+	}
+
+	/**
+	 * Calculate the log likelihood, and derivatives, across a branch
+	 * @param calculator used for finite difference calculation if the model does not support snapshots
+	 * @param distance the branch length
+	 * @param model the substitution model
+	 * @param centerPattern the pattern information
+	 * @param leftFlatConditionalProbabilities the flat conditionals on one side of the branch
+	 * @param rightFlatConditionalProbabilities the flat conditionals on the other side of the branch
+	 * @param tempStore may be used internally (only for finite differences)
+	 * @param derivativeStore after call holds the first ([0]) and second ([1]) derivatives of the log likelihood
+	 * @return the log likelihood
+	 */
+	public double calculateLogLikelihoodAndDerivatives(LHCalculator.External calculator, double distance, SubstitutionModel model, PatternInfo centerPattern,
+		ConditionalProbabilityStore leftFlatConditionalProbabilities, ConditionalProbabilityStore rightFlatConditionalProbabilities,
+		ConditionalProbabilityStore tempStore, double[] derivativeStore) {
+		final SubstitutionModelSnapshot snapshot = getSnapshot(model);
+		if(snapshot==null) {
+			return calculateNumerically(calculator,distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore,derivativeStore);
+		}
+		snapshot.getTransitionProbabilityDerivatives(distance,transitionProbabilityStore_,firstDerivativeStore_,secondDerivativeStore_);
+		final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+		final double[] probabilities = model.getTransitionCategoryProbabilities();
+		final int[] patternWeights = centerPattern.getPatternWeights();
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+
+		final boolean leftTip = leftFlatConditionalProbabilities.isTip();
+		final boolean rightTip = rightFlatConditionalProbabilities.isTip();
+		final int[] leftStates = (leftTip ? leftFlatConditionalProbabilities.getTipStates() : null);
+		final int[] rightStates = (rightTip ? rightFlatConditionalProbabilities.getTipStates() : null);
+		final double[][][] rightTable = (rightTip ? rightFlatConditionalProbabilities.getCurrentTipTable() : null);
+		if(leftTip) {
+			fillTipProducts(leftFlatConditionalProbabilities.getCurrentTipTable());
+		}
+		final boolean leftContiguous = leftFlatConditionalProbabilities.isContiguous();
+		final boolean rightContiguous = rightFlatConditionalProbabilities.isContiguous();
+		final double[] leftValues = (leftContiguous&&!leftTip ? leftFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities() : null);
+		final double[] rightValues = (rightContiguous&&!rightTip ? rightFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities() : null);
+		final int leftStride = (leftContiguous ? leftFlatConditionalProbabilities.getContiguousCategoryStride() : 0);
+		final int rightStride = (rightContiguous ? rightFlatConditionalProbabilities.getContiguousCategoryStride() : 0);
+
+		double logLikelihood = 0;
+		double first = 0;
+		double second = 0;
+		int patternAccess = 0;
+		for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+			final int leftPattern = patternLookup[patternAccess++];
+			final int rightPattern = patternLookup[patternAccess++];
+			double total = 0, firstTotal = 0, secondTotal = 0;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				final double[][] firstProb = firstDerivativeStore_[cat];
+				final double[][] secondProb = secondDerivativeStore_[cat];
+				final double[] right;
+				final int rightOffset;
+				if(rightTip) {
+					right = rightTable[cat][rightStates[rightPattern]]; rightOffset = 0;
+				} else if(rightContiguous) {
+					right = rightValues; rightOffset = cat*rightStride+rightPattern*numberOfStates_;
+				} else {
+					right = rightFlatConditionalProbabilities.getCurrentConditionalProbabilities(cat)[rightPattern]; rightOffset = 0;
+				}
+				double prob = 0, firstProbTotal = 0, secondProbTotal = 0;
+				if(leftTip) {
+					final int leftState = leftStates[leftPattern];
+					final double[] p = tipProbabilityStore_[cat][leftState];
+					final double[] d1 = tipFirstDerivativeStore_[cat][leftState];
+					final double[] d2 = tipSecondDerivativeStore_[cat][leftState];
+					for(int startState = 0 ; startState < numberOfStates_ ; startState++) {
+						final double fr = equilibriumFrequencies[startState]*right[rightOffset+startState];
+						prob += p[startState]*fr;
+						firstProbTotal += d1[startState]*fr;
+						secondProbTotal += d2[startState]*fr;
+					}
+					total += probabilities[cat]*prob;
+					firstTotal += probabilities[cat]*firstProbTotal;
+					secondTotal += probabilities[cat]*secondProbTotal;
+					continue;
+				}
+				final double[] left;
+				final int leftOffset;
+				if(leftContiguous) {
+					left = leftValues; leftOffset = cat*leftStride+leftPattern*numberOfStates_;
+				} else {
+					left = leftFlatConditionalProbabilities.getCurrentConditionalProbabilities(cat)[leftPattern]; leftOffset = 0;
+				}
+				for(int startState = 0 ; startState < numberOfStates_ ; startState++) {
+					final double[] p = transProb[startState];
+					final double[] d1 = firstProb[startState];
+					final double[] d2 = secondProb[startState];
+					double probTotal = 0, firstStateTotal = 0, secondStateTotal = 0;
+					for(int endState = 0 ; endState < numberOfStates_ ; endState++) {
+						final double l = left[leftOffset+endState];
+						probTotal += p[endState]*l;
+						firstStateTotal += d1[endState]*l;
+						secondStateTotal += d2[endState]*l;
+					}
+					final double r = right[rightOffset+startState];
+					final double f = equilibriumFrequencies[startState];
+					prob += f*(probTotal*r);
+					firstProbTotal += f*(firstStateTotal*r);
+					secondProbTotal += f*(secondStateTotal*r);
+				}
+				total += probabilities[cat]*prob;
+				firstTotal += probabilities[cat]*firstProbTotal;
+				secondTotal += probabilities[cat]*secondProbTotal;
+			}
+			final int weight = patternWeights[pattern];
+			final double ratio = firstTotal/total;
+			logLikelihood += Math.log(total)*weight;
+			first += ratio*weight;
+			second += (secondTotal/total-ratio*ratio)*weight;
+		}
+		derivativeStore[0] = first;
+		derivativeStore[1] = second;
+		return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
+	}
+
+	/**
+	 * Apply the transition probabilities, and their derivatives, to each row of the table of a tip store
+	 */
+	private final void fillTipProducts(double[][][] table) {
+		if(tipProbabilityStore_==null) {
+			this.tipProbabilityStore_ = new double[numberOfCategories_][numberOfStates_+1][numberOfStates_];
+			this.tipFirstDerivativeStore_ = new double[numberOfCategories_][numberOfStates_+1][numberOfStates_];
+			this.tipSecondDerivativeStore_ = new double[numberOfCategories_][numberOfStates_+1][numberOfStates_];
+		}
+		for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+			for(int row = 0 ; row <= numberOfStates_ ; row++) {
+				final double[] values = table[cat][row];
+				for(int startState = 0 ; startState < numberOfStates_ ; startState++) {
+					final double[] p = transitionProbabilityStore_[cat][startState];
+					final double[] d1 = firstDerivativeStore_[cat][startState];
+					final double[] d2 = secondDerivativeStore_[cat][startState];
+					double probTotal = 0, firstStateTotal = 0, secondStateTotal = 0;
+					for(int endState = 0 ; endState < numberOfStates_ ; endState++) {
+						final double l = values[endState];
+						probTotal += p[endState]*l;
+						firstStateTotal += d1[endState]*l;
+						secondStateTotal += d2[endState]*l;
+					}
+					tipProbabilityStore_[cat][row][startState] = probTotal;
+					tipFirstDerivativeStore_[cat][row][startState] = firstStateTotal;
+					tipSecondDerivativeStore_[cat][row][startState] = secondStateTotal;
+				}
+			}
+		}
+	}
+
+	private final double calculateNumerically(LHCalculator.External calculator, double distance, SubstitutionModel model, PatternInfo centerPattern,
+		ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore tempStore, double[] derivativeStore) {
+		final double h = MachineAccuracy.SQRT_SQRT_EPSILON*(Math.abs(distance)+1.0);
+		final double f = calculator.calculateLogLikelihood(distance,model,centerPattern,left,right,tempStore);
+		if(distance>h) {
+			final double fPlus = calculator.calculateLogLikelihood(distance+h,model,centerPattern,left,right,tempStore);
+			final double fMinus = calculator.calculateLogLikelihood(distance-h,model,centerPattern,left,right,tempStore);
+			derivativeStore[0] = (fPlus-fMinus)/(2.0*h);
+			derivativeStore[1] = (fPlus-2.0*f+fMinus)/(h*h);
+		} else {
+			//Too close to zero for centered differences
+			final double f1 = calculator.calculateLogLikelihood(distance+h,model,centerPattern,left,right,tempStore);
+			final double f2 = calculator.calculateLogLikelihood(distance+2*h,model,centerPattern,left,right,tempStore);
+			derivativeStore[0] = (-3.0*f+4.0*f1-f2)/(2.0*h);
+			derivativeStore[1] = (f-2.0*f1+f2)/(h*h);
+		}
+		return f;
+	}
+}
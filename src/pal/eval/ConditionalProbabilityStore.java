@@ -13,6 +13,17 @@ package pal.eval;
  * the conditional likelihood. Things stored include the conditional likelihood,
  * an scale factors and whether the current conditional likelihoods were created
  * from cached data.</p>
+ * <p>Scaling: to avoid underflow on large trees the calculators call updateScaling() after
+ * combining two subtrees. If the largest conditional for a pattern drops below SCALING_THRESHOLD
+ * the conditionals for that pattern (across all categories) are multiplied up, and the log of the
+ * factor needed to recover the true values is recorded for that pattern (see getPatternLogScalingFactors()).
+ * The log likelihood methods add these factors back in. Leaf stores are never scaled.</p>
+ * <p>Tip stores: a contiguous store may instead be created as a tip store (see createTip()), holding
+ * the conditionals of a leaf with no ambiguities. A tip store records the state at each pattern and a small
+ * table, for each category, of the conditionals for each state (and for a gap), so its contents take
+ * O(categories*states*states) space regardless of the number of patterns. Calculators that know about tip
+ * stores (see TipStateLHCalculator) index the table directly. For other users the per pattern contiguous array is
+ * built from the table when first asked for (and rebuilt after the table changes).</p>
  * @author Matthew Goode
  * @version 1.0
  */
@@ -21,6 +32,8 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
   private final int numberOfCategories_;
   private final int numberOfStates_;
   private final double[][][] store_;
+  private double[] contiguousStore_;
+  private final boolean isContiguous_;
   private int patternCapacity_;
 
 	private final ExtraProcessor extraProcessor_;
@@ -28,22 +41,56 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
   private boolean isBasedOnCachedData_ = false;
 	private boolean fix_ = false;
 
+	/**
+	 * Conditionals for a pattern are rescaled when the largest value (over all categories and states) falls below this (2^-256)
+	 */
+	public static final double SCALING_THRESHOLD = Math.pow(2,-256);
+	private static final double SCALING_FACTOR = Math.pow(2,256);
+	private static final double LOG_SCALING_FACTOR = Math.log(SCALING_FACTOR);
+
+	private double[] patternLogScalingFactors_ = null;
+	private boolean isScaled_ = false;
+
+	//Tip store information (tipStates_ is null if this is not a tip store)
+	private int[] tipStates_ = null;
+	private double[][][] tipTable_ = null;
+	private boolean isTipMaterialised_ = false;
+
 	private ConditionalProbabilityStore(ConditionalProbabilityStore toCopy) {
 	  this.numberOfCategories_ = toCopy.numberOfCategories_;
 		this.numberOfStates_ = toCopy.numberOfStates_;
-		this.store_ = pal.misc.Utils.getCopy(toCopy.store_);
+		this.isContiguous_ = toCopy.isContiguous_;
+		this.store_ = (toCopy.store_ == null ? null : pal.misc.Utils.getCopy(toCopy.store_));
+		this.contiguousStore_ = (toCopy.contiguousStore_ == null ? null : pal.misc.Utils.getCopy(toCopy.contiguousStore_));
 		this.patternCapacity_ = toCopy.patternCapacity_;
 		this.extraProcessor_ = (toCopy.extraProcessor_ == null ? null : toCopy.extraProcessor_.getCopy());
 		this.isBasedOnCachedData_ = toCopy.isBasedOnCachedData_;
 		this.fix_ = toCopy.fix_;
+		this.patternLogScalingFactors_ = (toCopy.patternLogScalingFactors_ == null ? null : pal.misc.Utils.getCopy(toCopy.patternLogScalingFactors_));
+		this.isScaled_ = toCopy.isScaled_;
+		this.tipStates_ = toCopy.tipStates_;
+		this.tipTable_ = (toCopy.tipTable_ == null ? null : pal.misc.Utils.getCopy(toCopy.tipTable_));
+		this.isTipMaterialised_ = toCopy.isTipMaterialised_;
 	}
   public ConditionalProbabilityStore(int numberOfCategories, int numberOfStates) {
     this(numberOfCategories,numberOfStates,null);
   }
   public ConditionalProbabilityStore(int numberOfCategories, int numberOfStates, ExtraProcessor extraProcessor) {
+    this(numberOfCategories,numberOfStates,extraProcessor,false);
+  }
+	/**
+	 * Construct a store
+	 * @param numberOfCategories the number of transition categories
+	 * @param numberOfStates the number of states
+	 * @param extraProcessor an extra processor (may be null)
+	 * @param contiguous if true the conditionals are held in a single double array (see getContiguousConditionalProbabilityAccess()) rather than as an array of arrays of arrays
+	 */
+  public ConditionalProbabilityStore(int numberOfCategories, int numberOfStates, ExtraProcessor extraProcessor, boolean contiguous) {
     this.numberOfCategories_ = numberOfCategories;
     this.numberOfStates_ = numberOfStates;
-    this.store_ = new double[numberOfCategories][][];
+		this.isContiguous_ = contiguous;
+    this.store_ = (contiguous ? null : new double[numberOfCategories][][]);
+		this.contiguousStore_ = null;
     this.patternCapacity_ = 0;
 		this.extraProcessor_ = extraProcessor;
 		if(extraProcessor_!=null) {
@@ -51,6 +98,48 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 			this.extraProcessor_.setNewNumberOfPatterns( 0 );
 		}
   }
+	/**
+	 * Create a store that holds conditionals in a single contiguous array
+	 * @param numberOfCategories the number of transition categories
+	 * @param numberOfStates the number of states
+	 * @return a new contiguous store
+	 */
+	public static final ConditionalProbabilityStore createContiguous(int numberOfCategories, int numberOfStates) {
+	  return new ConditionalProbabilityStore(numberOfCategories,numberOfStates,null,true);
+	}
+	/**
+	 * Create a tip store, for the conditionals at a leaf with no ambiguities. The table (see getTipTableAccess()) initially
+	 * holds the flat conditionals (one for the state of the pattern, zero otherwise, and one for all states at a gap).
+	 * @param numberOfCategories the number of transition categories
+	 * @param numberOfStates the number of states
+	 * @param patternStateMatchup the state at each pattern (numberOfStates for a gap)
+	 * @param numberOfPatterns the number of patterns
+	 * @return a new (contiguous) tip store
+	 */
+	public static final ConditionalProbabilityStore createTip(int numberOfCategories, int numberOfStates, int[] patternStateMatchup, int numberOfPatterns) {
+		final ConditionalProbabilityStore store = new ConditionalProbabilityStore(numberOfCategories,numberOfStates,null,true);
+		final int[] states = new int[numberOfPatterns];
+		for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+			final int state = patternStateMatchup[pattern];
+			if(state<0||state>numberOfStates) {
+				throw new IllegalArgumentException("Invalid state "+state+" at pattern "+pattern);
+			}
+			states[pattern] = state;
+		}
+		final double[][][] table = new double[numberOfCategories][numberOfStates+1][numberOfStates];
+		for(int cat = 0 ; cat < numberOfCategories ; cat++) {
+			for(int state = 0 ; state < numberOfStates ; state++) {
+				table[cat][state][state] = 1;
+				table[cat][numberOfStates][state] = 1;
+			}
+		}
+		store.tipStates_ = states;
+		store.tipTable_ = table;
+		store.patternCapacity_ = numberOfPatterns;
+		store.fix_ = true;
+		store.isBasedOnCachedData_ = true;
+		return store;
+	}
 	/**
 	 * Cloning
 	 * @return a copy of this conditional probability store
@@ -72,7 +161,9 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 			if(fix_) {
 			  throw new IllegalArgumentException("Cannot resize to accomodate "+numberOfPatterns+" patterns (store has been fixed)");
 			}
-      if(createStateArray) {
+			if(isContiguous_) {
+			  this.contiguousStore_ = new double[numberOfCategories_*numberOfPatterns*numberOfStates_];
+			} else if(createStateArray) {
 				for( int i = 0; i<numberOfCategories_; i++ ) {
           this.store_[i] = new double[numberOfPatterns][numberOfStates_];
         }
@@ -90,19 +181,131 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 
   public int getPatternCapacity() {  return patternCapacity_;  }
 
+	private final void checkNotContiguous() {
+	  if(isContiguous_) {
+		  throw new IllegalStateException("Store uses contiguous storage (use the contiguous access methods)");
+		}
+	}
+	private final void checkContiguous() {
+	  if(!isContiguous_) {
+		  throw new IllegalStateException("Store does not use contiguous storage");
+		}
+	}
+	/**
+	 * @return true if this store holds conditionals in a single array (see getContiguousConditionalProbabilityAccess())
+	 */
+	public final boolean isContiguous() { return isContiguous_; }
+
+	/**
+	 * @return true if this is a tip store (see createTip())
+	 */
+	public final boolean isTip() { return tipStates_!=null; }
+	/**
+	 * @return the state at each pattern of this tip store (the number of states for a gap). Should not be altered.
+	 * @throws IllegalStateException if this is not a tip store
+	 */
+	public final int[] getTipStates() {
+		checkTip();
+		return tipStates_;
+	}
+	/**
+	 * Used for getting access to the table of a tip store when the data is not to be directly changed.
+	 * @return the conditionals for each state, in the form [category][state][state], where the row for a state of
+	 * the number of states is for gaps. The conditionals for category c and pattern p are the row [c][getTipStates()[p]].
+	 * @throws IllegalStateException if this is not a tip store
+	 */
+	public final double[][][] getCurrentTipTable() {
+		checkTip();
+		return tipTable_;
+	}
+	/**
+	 * Use this when accessing the table of a tip store for the purpose of changing the contents (see getCurrentTipTable()).
+	 * @param resultsBasedOnCachedData An indication of whether the new conditionals about to be stored are based on cached data
+	 * @return the table of conditionals, in the form [category][state][state]
+	 * @throws IllegalStateException if this is not a tip store
+	 */
+	public final synchronized double[][][] getTipTableAccess(boolean resultsBasedOnCachedData) {
+		checkTip();
+		this.isTipMaterialised_ = false;
+		this.isBasedOnCachedData_ = resultsBasedOnCachedData;
+		return tipTable_;
+	}
+	private final void checkTip() {
+		if(tipStates_==null) {
+			throw new IllegalStateException("Store is not a tip store");
+		}
+	}
+	/**
+	 * Build the per pattern conditionals of a tip store from the table, if not already done
+	 */
+	private final synchronized void materialiseTip() {
+		if(isTipMaterialised_) { return; }
+		final int numberOfPatterns = tipStates_.length;
+		if(contiguousStore_==null) {
+			this.contiguousStore_ = new double[numberOfCategories_*numberOfPatterns*numberOfStates_];
+		}
+		int index = 0;
+		for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+			final double[][] categoryTable = tipTable_[cat];
+			for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+				System.arraycopy(categoryTable[tipStates_[pattern]],0,contiguousStore_,index,numberOfStates_);
+				index+=numberOfStates_;
+			}
+		}
+		this.isTipMaterialised_ = true;
+	}
+
+	/**
+	 * The offset between the start of successive categories in the contiguous array. The value
+	 * for category c, pattern p, and state s is found at index (c*stride + p*numberOfStates + s).
+	 * @return the category stride (only valid after an access method has been called, as resizing changes the stride)
+	 */
+	public final int getContiguousCategoryStride() { return patternCapacity_*numberOfStates_; }
+
+	/**
+	 * Used for getting access to the internal contiguous store when the data is not to be directly changed.
+	 * @return the conditionals laid out category major, with a fixed stride (see getContiguousCategoryStride())
+	 * @throws IllegalStateException if this store does not use contiguous storage
+	 */
+	public final double[] getCurrentContiguousConditionalProbabilities() {
+	  checkContiguous();
+		if(tipStates_!=null) { materialiseTip(); }
+		return contiguousStore_;
+	}
+	/**
+	 * Use this when access the internal contiguous store for the purpose of changing the contents.
+	 * @param numberOfPatterns An indication of how much space will be required. The result will always be big enough to accomodate the requested number of patterns.
+	 * @param resultsBasedOnCachedData An indication of whether the new conditionals about to be stored are based on cached data
+	 * @return the conditionals laid out category major, with a fixed stride (see getContiguousCategoryStride())
+	 * @throws IllegalStateException if this store does not use contiguous storage
+	 * @note a tip store given to this method stops being a tip store
+	 */
+	public final double[] getContiguousConditionalProbabilityAccess(int numberOfPatterns, boolean resultsBasedOnCachedData) {
+	  checkContiguous();
+		if(tipStates_!=null) {
+			this.tipStates_ = null;
+			this.tipTable_ = null;
+			this.fix_ = false;
+			if(contiguousStore_==null) { this.patternCapacity_ = 0; }
+		}
+		ensureSize(numberOfPatterns,true);
+		this.isBasedOnCachedData_ = resultsBasedOnCachedData;
+		return contiguousStore_;
+	}
+
   /**
    * Used for getting access to the internal conditional probability store when
    * the data is not to be directly changed.
    * @return An array of arrays of arrays, in the form [category][pattern][state]
    */
-  public double[][][] getCurrentConditionalProbabilities() { return store_;  }
+  public double[][][] getCurrentConditionalProbabilities() { checkNotContiguous(); return store_;  }
   /**
    * Used for getting access to the internal conditional probability store when
    * the data is not to be directly changed.
    * @param category the transition category of interest
    * @return An array of arrays in the form [pattern][state]
    */
-  public double[][] getCurrentConditionalProbabilities(int category) { return store_[category]; }
+  public double[][] getCurrentConditionalProbabilities(int category) { checkNotContiguous(); return store_[category]; }
 
   /**
    * Use this when access the internal conditional likelihood store for the purpose
@@ -112,6 +315,7 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
    * @return
    */
   public double[][][] getConditionalProbabilityAccess(int numberOfPatterns, boolean resultsBasedOnCachedData) {
+		checkNotContiguous();
     ensureSize(numberOfPatterns,true);
     this.isBasedOnCachedData_ = resultsBasedOnCachedData;
     return store_;
@@ -125,6 +329,7 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 	 * @throws IllegalArgumentException if incompatible number of patterns
    */
   public double[][][] getConditionalProbabilityAccessNoChangeData(int numberOfPatterns, boolean resultsBasedOnCachedData) {
+		checkNotContiguous();
     if(numberOfPatterns>patternCapacity_) {
 		  throw new IllegalArgumentException("Cannot provided for requested number of patterns. Asked for "+numberOfPatterns+" can only give "+patternCapacity_);
 		}
@@ -140,22 +345,295 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
    * @return
    */
   public double[][][] getIncompleteConditionalProbabilityAccess(int numberOfPatterns, boolean resultsBasedOnCachedData, boolean fix) {
+		checkNotContiguous();
     ensureSize(numberOfPatterns,false);
     this.isBasedOnCachedData_ = resultsBasedOnCachedData;
     this.fix_ = fix;
 		return store_;
   }
+// ==================== Scaling ====================================================
+	/**
+	 * @return true if any pattern in this store has a non zero scaling factor
+	 */
+	public final boolean isScaled() { return isScaled_; }
+	/**
+	 * The natural log of the factor each pattern's conditionals must be multiplied by to get the true (unscaled) values.
+	 * @return the scaling factors for each pattern, or null if this store is not scaled (see isScaled()).
+	 */
+	public final double[] getPatternLogScalingFactors() {
+		return (isScaled_ ? patternLogScalingFactors_ : null);
+	}
+	/**
+	 * Mark the current contents as unscaled
+	 */
+	public final void clearScaling() { this.isScaled_ = false; }
+
+	/**
+	 * Make the scaling of this store the same as another store. Used when the conditionals
+	 * of the other store are extended over a branch into this store.
+	 * @param base the store whose conditionals were used to create the contents of this store (may be this store)
+	 * @param numberOfPatterns the number of patterns
+	 */
+	public final void copyScaling(ConditionalProbabilityStore base, int numberOfPatterns) {
+		if(base==this) { return; }
+		if(base.isScaled_) {
+			ensureScalingCapacity(numberOfPatterns);
+			System.arraycopy(base.patternLogScalingFactors_,0,patternLogScalingFactors_,0,numberOfPatterns);
+			this.isScaled_ = true;
+		} else {
+			this.isScaled_ = false;
+		}
+	}
+	/**
+	 * Update the scaling of this store after the conditionals of two sub trees have been combined to create the current contents.
+	 * The scaling factors of the sub trees are combined, and then any pattern whose conditionals have become too small is rescaled.
+	 * @param centerPattern the pattern information relating this store to the left and right stores
+	 * @param left the store of the left subtree (must not be this store)
+	 * @param right the store of the right subtree (must not be this store)
+	 */
+	public final void updateScaling(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right) {
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		if(left.isScaled_||right.isScaled_) {
+			ensureScalingCapacity(numberOfPatterns);
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final double[] leftFactors = (left.isScaled_ ? left.patternLogScalingFactors_ : null);
+			final double[] rightFactors = (right.isScaled_ ? right.patternLogScalingFactors_ : null);
+			int patternAccess = 0;
+			for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+				final int leftPattern = patternLookup[patternAccess++];
+				final int rightPattern = patternLookup[patternAccess++];
+				double factor = 0;
+				if(leftFactors!=null) { factor+=leftFactors[leftPattern]; }
+				if(rightFactors!=null) { factor+=rightFactors[rightPattern]; }
+				patternLogScalingFactors_[pattern] = factor;
+			}
+			this.isScaled_ = true;
+		} else {
+			this.isScaled_ = false;
+		}
+		rescale(numberOfPatterns);
+	}
+	private final void ensureScalingCapacity(int numberOfPatterns) {
+		if(patternLogScalingFactors_==null||patternLogScalingFactors_.length<numberOfPatterns) {
+			this.patternLogScalingFactors_ = new double[Math.max(numberOfPatterns,patternCapacity_)];
+		}
+	}
+	/**
+	 * Rescale any patterns whose largest conditional is below the scaling threshold
+	 */
+	private final void rescale(int numberOfPatterns) {
+		for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+			final double logFactor = rescalePattern(pattern);
+			if(logFactor!=0) {
+				if(!isScaled_) {
+					ensureScalingCapacity(numberOfPatterns);
+					java.util.Arrays.fill(patternLogScalingFactors_,0,numberOfPatterns,0);
+					this.isScaled_ = true;
+				}
+				patternLogScalingFactors_[pattern]+=logFactor;
+			}
+		}
+	}
+	/**
+	 * Rescale a pattern if it's largest conditional is below the scaling threshold
+	 * @return the log of the factor needed to recover the true values (zero if not rescaled)
+	 */
+	private final double rescalePattern(int pattern) {
+		double max = 0;
+		if(isContiguous_) {
+			final int stride = patternCapacity_*numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final int base = cat*stride+pattern*numberOfStates_;
+				for(int state = 0 ; state < numberOfStates_ ; state++) {
+					if(contiguousStore_[base+state]>max) { max = contiguousStore_[base+state]; }
+				}
+			}
+		} else {
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[] stateArray = store_[cat][pattern];
+				for(int state = 0 ; state < numberOfStates_ ; state++) {
+					if(stateArray[state]>max) { max = stateArray[state]; }
+				}
+			}
+		}
+		if(max<SCALING_THRESHOLD&&max>0) {
+			double multiplier = 1;
+			double logFactor = 0;
+			while(max*multiplier<SCALING_THRESHOLD) {
+				multiplier*=SCALING_FACTOR;
+				logFactor-=LOG_SCALING_FACTOR;
+			}
+			scalePattern(pattern,multiplier);
+			return logFactor;
+		}
+		return 0;
+	}
+	/**
+	 * Allocate space for scaling factors, prior to calls to updateScaling() for a range of patterns
+	 * (which may be made concurrently for disjoint ranges).
+	 * @param numberOfPatterns the number of patterns
+	 */
+	public final void prepareScaling(int numberOfPatterns) {
+		ensureScalingCapacity(numberOfPatterns);
+	}
+	/**
+	 * Set whether this store is scaled. Used after updating the scaling by pattern range.
+	 * @param isScaled true if any of the pattern ranges reported a non zero scaling factor
+	 */
+	public final void setScaled(boolean isScaled) {
+		this.isScaled_ = isScaled;
+	}
+	/**
+	 * Update the scaling of a range of patterns of this store (see updateScaling(PatternInfo, ConditionalProbabilityStore, ConditionalProbabilityStore)).
+	 * The scaling factors for every pattern in the range are written. Disjoint ranges may be updated concurrently,
+	 * after which setScaled() should be called.
+	 * @param centerPattern the pattern information relating this store to the left and right stores
+	 * @param left the store of the left subtree (must not be this store)
+	 * @param right the store of the right subtree (must not be this store)
+	 * @param startPattern the first pattern of the range
+	 * @param endPattern one past the last pattern of the range
+	 * @return true if any pattern in the range has a non zero scaling factor
+	 * @note prepareScaling() must be called first
+	 */
+	public final boolean updateScaling(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, int startPattern, int endPattern) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final double[] leftFactors = (left.isScaled_ ? left.patternLogScalingFactors_ : null);
+		final double[] rightFactors = (right.isScaled_ ? right.patternLogScalingFactors_ : null);
+		boolean isScaled = false;
+		int patternAccess = startPattern*2;
+		for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+			final int leftPattern = patternLookup[patternAccess++];
+			final int rightPattern = patternLookup[patternAccess++];
+			double factor = rescalePattern(pattern);
+			if(leftFactors!=null) { factor+=leftFactors[leftPattern]; }
+			if(rightFactors!=null) { factor+=rightFactors[rightPattern]; }
+			patternLogScalingFactors_[pattern] = factor;
+			if(factor!=0) { isScaled = true; }
+		}
+		return isScaled;
+	}
+	private final void scalePattern(int pattern, double multiplier) {
+		if(isContiguous_) {
+			final int stride = patternCapacity_*numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final int base = cat*stride+pattern*numberOfStates_;
+				for(int state = 0 ; state < numberOfStates_ ; state++) {
+					contiguousStore_[base+state]*=multiplier;
+				}
+			}
+		} else {
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[] stateArray = store_[cat][pattern];
+				for(int state = 0 ; state < numberOfStates_ ; state++) {
+					stateArray[state]*=multiplier;
+				}
+			}
+		}
+	}
+	/**
+	 * @param patternWeights the weights of each pattern (may be null, in which case all patterns have a weight of one)
+	 * @param numberOfPatterns the number of patterns
+	 * @return the weighted sum of the log scaling factors of this store (zero if not scaled)
+	 */
+	public final double getLogScalingTotal(int[] patternWeights, int numberOfPatterns) {
+		if(!isScaled_) { return 0; }
+		double total = 0;
+		for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+			total+=(patternWeights==null ? patternLogScalingFactors_[pattern] : patternLogScalingFactors_[pattern]*patternWeights[pattern]);
+		}
+		return total;
+	}
+	/**
+	 * Calculate the weighted sum of the log scaling factors that would apply to the combination of two stores
+	 * (as used for calculating the log likelihood over the branch between two subtrees).
+	 * @param centerPattern the pattern information relating the left and right stores
+	 * @param left the store of the left subtree
+	 * @param right the store of the right subtree
+	 * @return the weighted total of the combined log scaling factors (zero if neither store is scaled)
+	 */
+	public static final double getLogScalingTotal(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right) {
+		if(!left.isScaled_&&!right.isScaled_) { return 0; }
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int[] patternWeights = centerPattern.getPatternWeights();
+		final double[] leftFactors = (left.isScaled_ ? left.patternLogScalingFactors_ : null);
+		final double[] rightFactors = (right.isScaled_ ? right.patternLogScalingFactors_ : null);
+		double total = 0;
+		int patternAccess = 0;
+		for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+			final int leftPattern = patternLookup[patternAccess++];
+			final int rightPattern = patternLookup[patternAccess++];
+			double factor = 0;
+			if(leftFactors!=null) { factor+=leftFactors[leftPattern]; }
+			if(rightFactors!=null) { factor+=rightFactors[rightPattern]; }
+			total+=factor*patternWeights[pattern];
+		}
+		return total;
+	}
+	/**
+	 * Find the log scaling factor of each pattern of the combination of two stores (the factors summed, with pattern
+	 * weights, by getLogScalingTotal(PatternInfo, ConditionalProbabilityStore, ConditionalProbabilityStore))
+	 * @param centerPattern the pattern information relating the left and right stores
+	 * @param left the store of the left subtree
+	 * @param right the store of the right subtree
+	 * @return the log scaling factor of each pattern of centerPattern, or null if neither store is scaled
+	 */
+	public static final double[] getPatternLogScalingFactors(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right) {
+		if(!left.isScaled_&&!right.isScaled_) { return null; }
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final double[] leftFactors = (left.isScaled_ ? left.patternLogScalingFactors_ : null);
+		final double[] rightFactors = (right.isScaled_ ? right.patternLogScalingFactors_ : null);
+		final double[] result = new double[numberOfPatterns];
+		int patternAccess = 0;
+		for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+			final int leftPattern = patternLookup[patternAccess++];
+			final int rightPattern = patternLookup[patternAccess++];
+			double factor = 0;
+			if(leftFactors!=null) { factor+=leftFactors[leftPattern]; }
+			if(rightFactors!=null) { factor+=rightFactors[rightPattern]; }
+			result[pattern] = factor;
+		}
+		return result;
+	}
+// =================================================================================
+	/**
+	 * @return the sum over states of the conditional probabilities (multiplied by equilibriumFrequencies if not null) for a particular category and pattern
+	 */
+	private final double getStateTotal(int cat, int pattern, double[] equilibriumFrequencies) {
+		double prob = 0;
+		if(isContiguous_) {
+			final int base = cat*patternCapacity_*numberOfStates_+pattern*numberOfStates_;
+			if(equilibriumFrequencies==null) {
+				for( int state = 0; state<numberOfStates_; state++ ) {
+					prob += contiguousStore_[base+state];
+				}
+			} else {
+				for( int state = 0; state<numberOfStates_; state++ ) {
+					prob += equilibriumFrequencies[state]*contiguousStore_[base+state];
+				}
+			}
+		} else {
+			final double[] stateArray = store_[cat][pattern];
+			if(equilibriumFrequencies==null) {
+				for( int state = 0; state<numberOfStates_; state++ ) {
+					prob += stateArray[state];
+				}
+			} else {
+				for( int state = 0; state<numberOfStates_; state++ ) {
+					prob += equilibriumFrequencies[state]*stateArray[state];
+				}
+			}
+		}
+		return prob;
+	}
 	public double calculateLogLikelihood(double[] categoryProbabilities, double[] equilibriumFrequencies, int[] patternWeights, int numberOfPatterns) {
+		if(tipStates_!=null) { materialiseTip(); }
 		double logLikelihood = 0;
     for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
       double total = 0;
       for( int cat = 0; cat<numberOfCategories_; cat++ ) {
-				double prob = 0;
-				final double[] stateArray = store_[cat][pattern];
-				for(int state = 0 ; state < numberOfStates_ ; state++) {
-				  prob+=equilibriumFrequencies[state]*stateArray[state];
-				}
-        total += categoryProbabilities[cat]*prob;
+        total += categoryProbabilities[cat]*getStateTotal(cat,pattern,equilibriumFrequencies);
       }
 		  if(patternWeights!=null) {
 				logLikelihood += Math.log( total )*patternWeights[pattern];
@@ -163,7 +641,7 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 				logLikelihood += Math.log( total );
 			}
     }
-    return logLikelihood;
+    return logLikelihood+getLogScalingTotal(patternWeights,numberOfPatterns);
 	}
 
 	public double calculateLogLikelihood(double[] categoryProbabilities, double[] equilibriumFrequencies, int numberOfPatterns) {
@@ -171,19 +649,17 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 	}
 
 	public double[] calculatePatternLogLikelihoods(double[] categoryProbabilities, double[] equilibriumFrequencies, int numberOfPatterns) {
+		if(tipStates_!=null) { materialiseTip(); }
     double[] result = new double[numberOfPatterns];
 		for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
 			double total = 0;
       for( int cat = 0; cat<numberOfCategories_; cat++ ) {
-				double prob = 0;
-				final double[] stateArray = store_[cat][pattern];
-				for(int state = 0 ; state < numberOfStates_ ; state++) {
-				  prob+=equilibriumFrequencies[state]*stateArray[state];
-				}
-
-    		total += categoryProbabilities[cat]*prob;
+    		total += categoryProbabilities[cat]*getStateTotal(cat,pattern,equilibriumFrequencies);
       }
 			result[pattern] = Math.log(total);
+			if(isScaled_) {
+				result[pattern]+=patternLogScalingFactors_[pattern];
+			}
 	  }
     return result;
 
@@ -196,25 +672,14 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 	 * @param equilibriumFrequencies the prior probabibilities of seeing a particular state
 	 * @param numberOfPatterns The number of patterns
 	 * @return the related conditional probability array organised [category][pattern]
+	 * @note if this store is scaled the values for each pattern are relative to the pattern scaling factor (see getPatternLogScalingFactors())
 	 */
 	public double[][] calculateCategoryPatternConditionalProbabilities( double[] categoryProbabilities, double[] equilibriumFrequencies, int numberOfPatterns ) {
-		double logLikelihood = 0;
-		int patternIndex = 0;
+		if(tipStates_!=null) { materialiseTip(); }
 		double[][] result = new double[numberOfCategories_][numberOfPatterns];
 		for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
-			double total = 0;
 			for( int cat = 0; cat<numberOfCategories_; cat++ ) {
-				double prob = 0;
-				final double[] stateArray = store_[cat][pattern];
-				if(equilibriumFrequencies==null) {
-					for( int state = 0; state<numberOfStates_; state++ ) {
-						prob += stateArray[state];
-					}
-				} else {
-					for( int state = 0; state<numberOfStates_; state++ ) {
-						prob += equilibriumFrequencies[state]*stateArray[state];
-					}
-				}
+				final double prob = getStateTotal(cat,pattern,equilibriumFrequencies);
 				if(categoryProbabilities==null) {
 			  	result[cat][pattern] = prob;
 				} else {
@@ -230,11 +695,27 @@ public final class ConditionalProbabilityStore implements java.io.Serializable {
 	public String toString() {	return toString(patternCapacity_);	}
 
 	public String toString(int numberOfPatterns) {
+		if(tipStates_!=null) { materialiseTip(); }
 		StringBuffer sb = new StringBuffer();
 		for(int i = 0 ; i < numberOfCategories_ ; i++) {
 			sb.append(i);
 			sb.append(":");
-			sb.append(pal.misc.Utils.toString(store_[i]));
+			if(isContiguous_) {
+				final int stride = patternCapacity_*numberOfStates_;
+				sb.append('\n');
+				for(int p = 0 ; p < numberOfPatterns ; p++) {
+					sb.append(p);
+					sb.append(":");
+					final int base = i*stride+p*numberOfStates_;
+					for(int s = 0 ; s < numberOfStates_ ; s++) {
+						sb.append(contiguousStore_[base+s]);
+						sb.append(' ');
+					}
+					sb.append('\n');
+				}
+			} else {
+				sb.append(pal.misc.Utils.toString(store_[i]));
+			}
 			sb.append("\n");
 
 		}
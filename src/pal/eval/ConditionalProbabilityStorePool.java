@@ -0,0 +1,145 @@
+// ConditionalProbabilityStorePool.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.eval;
+
+/**
+ * <p>Title: ConditionalProbabilityStorePool</p>
+ * <p>Description: A pool of reusable (non leaf) conditional probability stores, for temporary partial
+ * likelihoods. All stores are created by the one LHCalculator.Generator, so all have the layout expected
+ * by its calculators. Stores are handed out from a free list (acquire() and release() are constant time),
+ * and new stores are created whenever the free list is empty, so the pool never runs out.</p>
+ * <p>The memory budget limits the memory held by idle stores: a released store is only kept for
+ * reuse if the stores already idle in the shared free list fit within the budget, otherwise it is left
+ * to the garbage collector. The pool may be shared between threads. Each thread also keeps a small cache
+ * of idle stores of its own (of at most THREAD_CACHE_SIZE stores, not counted against the budget), which
+ * is used before the shared free list, so threads that acquire and release stores in turn rarely contend.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+public final class ConditionalProbabilityStorePool {
+	/**
+	 * The number of idle stores each thread keeps for itself
+	 */
+	public static final int THREAD_CACHE_SIZE = 8;
+
+	private static final int BYTES_PER_DOUBLE = 8;
+
+	private final LHCalculator.Generator generator_;
+	private final long bytesPerStore_;
+
+	private final ThreadLocal<StoreStack> threadCache_ = new ThreadLocal<StoreStack>() {
+		protected StoreStack initialValue() { return new StoreStack(THREAD_CACHE_SIZE); }
+	};
+
+	//Guarded by this
+	private final StoreStack shared_;
+	private int maximumNumberShared_;
+	private int numberOfStoresCreated_ = 0;
+
+	/**
+	 * @param generator the source of new stores
+	 * @param numberOfCategories the number of categories of the stores created by generator
+	 * @param numberOfStates the number of states of the stores created by generator
+	 * @param maximumNumberOfPatterns the largest number of patterns a store will hold
+	 * @param memoryBudget the (approximate) number of bytes that may be held by idle stores in the shared free list
+	 */
+	public ConditionalProbabilityStorePool(LHCalculator.Generator generator, int numberOfCategories, int numberOfStates, int maximumNumberOfPatterns, long memoryBudget) {
+		if(memoryBudget<0) {
+			throw new IllegalArgumentException("Negative memory budget:"+memoryBudget);
+		}
+		this.generator_ = generator;
+		this.bytesPerStore_ = Math.max(1L,(long)numberOfCategories*maximumNumberOfPatterns*numberOfStates*BYTES_PER_DOUBLE);
+		this.shared_ = new StoreStack(16);
+		setMemoryBudget(memoryBudget);
+	}
+	/**
+	 * Change the memory budget. Idle stores over the new budget are dropped.
+	 * @param memoryBudget the (approximate) number of bytes that may be held by idle stores in the shared free list
+	 */
+	public synchronized void setMemoryBudget(long memoryBudget) {
+		if(memoryBudget<0) {
+			throw new IllegalArgumentException("Negative memory budget:"+memoryBudget);
+		}
+		this.maximumNumberShared_ = (int)Math.min(Integer.MAX_VALUE,memoryBudget/bytesPerStore_);
+		while(shared_.size()>maximumNumberShared_) {
+			shared_.pop();
+		}
+	}
+	/**
+	 * @return a store for the sole use of the caller until it is released (the contents are undefined)
+	 */
+	public ConditionalProbabilityStore acquire() {
+		final StoreStack local = threadCache_.get();
+		if(local.size()>0) {
+			return local.pop();
+		}
+		synchronized(this) {
+			if(shared_.size()>0) {
+				return shared_.pop();
+			}
+			numberOfStoresCreated_++;
+		}
+		return generator_.createAppropriateConditionalProbabilityStore(false);
+	}
+	/**
+	 * Return a store to the pool. The store must not be used by the caller afterwards.
+	 * @param store a store obtained from acquire()
+	 */
+	public void release(ConditionalProbabilityStore store) {
+		store.clearScaling();
+		store.setBasedOnCachedData(false);
+		final StoreStack local = threadCache_.get();
+		if(local.size()<THREAD_CACHE_SIZE) {
+			local.push(store);
+			return;
+		}
+		synchronized(this) {
+			if(shared_.size()<maximumNumberShared_) {
+				shared_.push(store);
+			}
+		}
+	}
+	/**
+	 * @return the (approximate) number of bytes held by each store, as counted against the memory budget
+	 */
+	public long getBytesPerStore() { return bytesPerStore_; }
+	/**
+	 * @return the number of stores created by the pool so far
+	 */
+	public synchronized int getNumberOfStoresCreated() { return numberOfStoresCreated_; }
+	/**
+	 * @return the number of idle stores in the shared free list (not including those cached by threads)
+	 */
+	public synchronized int getNumberOfSharedIdleStores() { return shared_.size(); }
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * A growable stack of stores
+	 */
+	private static final class StoreStack {
+		private ConditionalProbabilityStore[] stores_;
+		private int size_ = 0;
+		public StoreStack(int initialCapacity) {
+			this.stores_ = new ConditionalProbabilityStore[initialCapacity];
+		}
+		public final int size() { return size_; }
+		public final void push(ConditionalProbabilityStore store) {
+			if(size_==stores_.length) {
+				final ConditionalProbabilityStore[] newStores = new ConditionalProbabilityStore[stores_.length*2];
+				System.arraycopy(stores_,0,newStores,0,size_);
+				stores_ = newStores;
+			}
+			stores_[size_++] = store;
+		}
+		public final ConditionalProbabilityStore pop() {
+			final ConditionalProbabilityStore store = stores_[--size_];
+			stores_[size_] = null;
+			return store;
+		}
+	}
+}
@@ -30,8 +30,13 @@ public final class FastFourStateLHCalculator implements LHCalculator {
 
 			model.getTransitionProbabilities( distance, transitionProbabilityStore );
 
+			resultConditionalProbabilities.copyScaling(baseConditionalProbabilities,numberOfPatterns);
+			if(resultConditionalProbabilities.isContiguous()) {
+				calculateSingleExtendedIndirectContiguousImpl(numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities,transitionProbabilityStore,numberOfCategories);
+				return;
+			}
       double[][][] baseStoreValues = baseConditionalProbabilities.getCurrentConditionalProbabilities();
-			double[][][] resultStoreValues = baseConditionalProbabilities.getConditionalProbabilityAccess(numberOfPatterns,false);
+			double[][][] resultStoreValues = resultConditionalProbabilities.getConditionalProbabilityAccess(numberOfPatterns,false);
 			for( int category = 0; category<numberOfCategories; category++ ) {
         final double[][] basePatternStateProbabilities = baseStoreValues[category];
         final double[][] resultPatternStateProbabilities = resultStoreValues[category];
@@ -44,22 +49,22 @@ public final class FastFourStateLHCalculator implements LHCalculator {
           final double[] speedupArray2 = transProb[2];
           final double[] speedupArray3 = transProb[3];
           resultStateProbabilities[0]=
-						speedupArray0[1]*baseStateProbabilities[0]+
+						speedupArray0[0]*baseStateProbabilities[0]+
             speedupArray0[1]*baseStateProbabilities[1]+
             speedupArray0[2]*baseStateProbabilities[2]+
             speedupArray0[3]*baseStateProbabilities[3];
 					resultStateProbabilities[1] =
-						speedupArray1[1]*baseStateProbabilities[0]+
+						speedupArray1[0]*baseStateProbabilities[0]+
             speedupArray1[1]*baseStateProbabilities[1]+
             speedupArray1[2]*baseStateProbabilities[2]+
             speedupArray1[3]*baseStateProbabilities[3];
 					resultStateProbabilities[2] =
-						speedupArray2[1]*baseStateProbabilities[0]+
+						speedupArray2[0]*baseStateProbabilities[0]+
             speedupArray2[1]*baseStateProbabilities[1]+
             speedupArray2[2]*baseStateProbabilities[2]+
             speedupArray2[3]*baseStateProbabilities[3];
 					resultStateProbabilities[3] =
-						speedupArray3[1]*baseStateProbabilities[0]+
+						speedupArray3[0]*baseStateProbabilities[0]+
             speedupArray3[1]*baseStateProbabilities[1]+
             speedupArray3[2]*baseStateProbabilities[2]+
             speedupArray3[3]*baseStateProbabilities[3];
@@ -74,6 +79,11 @@ public final class FastFourStateLHCalculator implements LHCalculator {
                                                rightConditionalProbabilityProbabilties,
                                                final ConditionalProbabilityStore resultStore,
                                                final int numberOfCategories ) {
+		if(resultStore.isContiguous()) {
+			calculateFlatContiguousImpl(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties,resultStore,numberOfCategories);
+			resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
+			return;
+		}
     final int[] patternLookup = centerPattern.getPatternLookup();
     final int numberOfPatterns = centerPattern.getNumberOfPatterns();
     final double[][][] resultStoreValues = resultStore.
@@ -103,6 +113,7 @@ public final class FastFourStateLHCalculator implements LHCalculator {
 
       }
     }
+		resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
   }
 
   private static final void calculateExtendedImpl( double[][][]
@@ -115,6 +126,11 @@ public final class FastFourStateLHCalculator implements LHCalculator {
     final ConditionalProbabilityStore
     resultStore,
     int numberOfCategories ) {
+		if(resultStore.isContiguous()) {
+			calculateExtendedContiguousImpl(transitionProbabilityStore,centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties,resultStore,numberOfCategories);
+			resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
+			return;
+		}
     final int[] patternLookup = centerPattern.getPatternLookup();
     final int numberOfPatterns = centerPattern.getNumberOfPatterns();
     double[][][] resultStoreValues = resultStore.getConditionalProbabilityAccess(
@@ -153,8 +169,112 @@ public final class FastFourStateLHCalculator implements LHCalculator {
         myStateProbabilities[3] = sa3[0]*es0+sa3[1]*es1+sa3[2]*es2+sa3[3]*es3;
       }
     }
+		resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
   }
 
+// -=-=-=-=-=-=-=-=-=-=
+// Contiguous storage versions (see ConditionalProbabilityStore.isContiguous())
+// -=-=-=-=-=-=-=-=-=-=
+	private final static void calculateSingleExtendedIndirectContiguousImpl(
+			int numberOfPatterns,
+			ConditionalProbabilityStore baseConditionalProbabilities,
+			ConditionalProbabilityStore resultConditionalProbabilities,
+			double[][][] transitionProbabilityStore,
+			int numberOfCategories
+		) {
+		final double[] baseValues = baseConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+		final double[] resultValues = resultConditionalProbabilities.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+		final int baseStride = baseConditionalProbabilities.getContiguousCategoryStride();
+		final int resultStride = resultConditionalProbabilities.getContiguousCategoryStride();
+		for( int category = 0; category<numberOfCategories; category++ ) {
+			final double[][] transProb = transitionProbabilityStore[category];
+			final double[] sa0 = transProb[0];
+			final double[] sa1 = transProb[1];
+			final double[] sa2 = transProb[2];
+			final double[] sa3 = transProb[3];
+			int baseIndex = category*baseStride;
+			int resultIndex = category*resultStride;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final double b0 = baseValues[baseIndex++];
+				final double b1 = baseValues[baseIndex++];
+				final double b2 = baseValues[baseIndex++];
+				final double b3 = baseValues[baseIndex++];
+				resultValues[resultIndex++] = sa0[0]*b0+sa0[1]*b1+sa0[2]*b2+sa0[3]*b3;
+				resultValues[resultIndex++] = sa1[0]*b0+sa1[1]*b1+sa1[2]*b2+sa1[3]*b3;
+				resultValues[resultIndex++] = sa2[0]*b0+sa2[1]*b1+sa2[2]*b2+sa2[3]*b3;
+				resultValues[resultIndex++] = sa3[0]*b0+sa3[1]*b1+sa3[2]*b2+sa3[3]*b3;
+			}
+		}
+	}
+
+	private static final void calculateFlatContiguousImpl( PatternInfo centerPattern,
+		final ConditionalProbabilityStore leftConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore rightConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore resultStore,
+		final int numberOfCategories ) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] leftValues = leftConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] rightValues = rightConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final int resultStride = resultStore.getContiguousCategoryStride();
+		final int leftStride = leftConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		final int rightStride = rightConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		for( int category = 0; category<numberOfCategories; category++ ) {
+			int patternAccess = 0;
+			int resultIndex = category*resultStride;
+			final int leftBase = category*leftStride;
+			final int rightBase = category*rightStride;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final int leftIndex = leftBase+( patternLookup[patternAccess++]<<2 );
+				final int rightIndex = rightBase+( patternLookup[patternAccess++]<<2 );
+				resultValues[resultIndex++] = leftValues[leftIndex]*rightValues[rightIndex];
+				resultValues[resultIndex++] = leftValues[leftIndex+1]*rightValues[rightIndex+1];
+				resultValues[resultIndex++] = leftValues[leftIndex+2]*rightValues[rightIndex+2];
+				resultValues[resultIndex++] = leftValues[leftIndex+3]*rightValues[rightIndex+3];
+			}
+		}
+	}
+
+	private static final void calculateExtendedContiguousImpl( double[][][] transitionProbabilityStore,
+		PatternInfo centerPattern,
+		final ConditionalProbabilityStore leftConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore rightConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore resultStore,
+		int numberOfCategories ) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] leftValues = leftConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] rightValues = rightConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final int resultStride = resultStore.getContiguousCategoryStride();
+		final int leftStride = leftConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		final int rightStride = rightConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		for( int category = 0; category<numberOfCategories; category++ ) {
+			int patternAccess = 0;
+			int resultIndex = category*resultStride;
+			final int leftBase = category*leftStride;
+			final int rightBase = category*rightStride;
+			final double[][] transProb = transitionProbabilityStore[category];
+			final double[] sa0 = transProb[0];
+			final double[] sa1 = transProb[1];
+			final double[] sa2 = transProb[2];
+			final double[] sa3 = transProb[3];
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final int leftIndex = leftBase+( patternLookup[patternAccess++]<<2 );
+				final int rightIndex = rightBase+( patternLookup[patternAccess++]<<2 );
+				final double es0 = leftValues[leftIndex]*rightValues[rightIndex];
+				final double es1 = leftValues[leftIndex+1]*rightValues[rightIndex+1];
+				final double es2 = leftValues[leftIndex+2]*rightValues[rightIndex+2];
+				final double es3 = leftValues[leftIndex+3]*rightValues[rightIndex+3];
+				resultValues[resultIndex++] = sa0[0]*es0+sa0[1]*es1+sa0[2]*es2+sa0[3]*es3;
+				resultValues[resultIndex++] = sa1[0]*es0+sa1[1]*es1+sa1[2]*es2+sa1[3]*es3;
+				resultValues[resultIndex++] = sa2[0]*es0+sa2[1]*es1+sa2[2]*es2+sa2[3]*es3;
+				resultValues[resultIndex++] = sa3[0]*es0+sa3[1]*es1+sa3[2]*es2+sa3[3]*es3;
+			}
+		}
+	}
+
   // Class Internal Impl
   private final static class InternalImpl implements Internal {
     private final int numberOfCategories_;
@@ -255,7 +375,11 @@ public final class FastFourStateLHCalculator implements LHCalculator {
                                     ConditionalProbabilityStore conditionalProbabilities
                                   ) {
 			model.getTransitionProbabilities( distance, transitionProbabilityStore_ );
-
+			if(conditionalProbabilities.isContiguous()) {
+				//Safe to use the same store for base and result as each pattern is read before written
+				calculateSingleExtendedIndirectContiguousImpl(numberOfPatterns,conditionalProbabilities,conditionalProbabilities,transitionProbabilityStore_,numberOfCategories_);
+				return;
+			}
       double[][][] baseStoreValues = conditionalProbabilities.getCurrentConditionalProbabilities();
 			for( int category = 0; category<numberOfCategories_; category++ ) {
         final double[][] basePatternStateProbabilities = baseStoreValues[category];
@@ -267,22 +391,22 @@ public final class FastFourStateLHCalculator implements LHCalculator {
           final double[] speedupArray2 = transProb[2];
           final double[] speedupArray3 = transProb[3];
           double probTotal0 =
-						speedupArray0[1]*baseStateProbabilities[0]+
+						speedupArray0[0]*baseStateProbabilities[0]+
             speedupArray0[1]*baseStateProbabilities[1]+
             speedupArray0[2]*baseStateProbabilities[2]+
             speedupArray0[3]*baseStateProbabilities[3];
 					double probTotal1 =
-						speedupArray1[1]*baseStateProbabilities[0]+
+						speedupArray1[0]*baseStateProbabilities[0]+
             speedupArray1[1]*baseStateProbabilities[1]+
             speedupArray1[2]*baseStateProbabilities[2]+
             speedupArray1[3]*baseStateProbabilities[3];
 					double probTotal2 =
-						speedupArray2[1]*baseStateProbabilities[0]+
+						speedupArray2[0]*baseStateProbabilities[0]+
             speedupArray2[1]*baseStateProbabilities[1]+
             speedupArray2[2]*baseStateProbabilities[2]+
             speedupArray2[3]*baseStateProbabilities[3];
 					double probTotal3 =
-						speedupArray3[1]*baseStateProbabilities[0]+
+						speedupArray3[0]*baseStateProbabilities[0]+
             speedupArray3[1]*baseStateProbabilities[1]+
             speedupArray3[2]*baseStateProbabilities[2]+
             speedupArray3[3]*baseStateProbabilities[3];
@@ -298,6 +422,9 @@ public final class FastFourStateLHCalculator implements LHCalculator {
 		  SubstitutionModel model, int[] patternWeights, int numberOfPatterns,
       ConditionalProbabilityStore conditionalProbabilityStore
 		) {
+			if(conditionalProbabilityStore.isContiguous()) {
+				return calculateLogLikelihoodContiguous(model,patternWeights,numberOfPatterns,conditionalProbabilityStore.getCurrentContiguousConditionalProbabilities(),conditionalProbabilityStore.getContiguousCategoryStride())+conditionalProbabilityStore.getLogScalingTotal(patternWeights,numberOfPatterns);
+			}
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
       final double[] probabilities = model.getTransitionCategoryProbabilities();
 			double logLikelihood = 0;
@@ -317,7 +444,7 @@ public final class FastFourStateLHCalculator implements LHCalculator {
         }
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+conditionalProbabilityStore.getLogScalingTotal(patternWeights,numberOfPatterns);
     }
 
     public void calculateSingleExtendedIndirect(
@@ -342,6 +469,72 @@ public final class FastFourStateLHCalculator implements LHCalculator {
                          numberOfCategories_ );
     }
 
+		private final double calculateLogLikelihoodContiguous( SubstitutionModel model, int[] patternWeights, int numberOfPatterns, double[] values, int categoryStride ) {
+			final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+			final double[] probabilities = model.getTransitionCategoryProbabilities();
+			final double ef0 = equilibriumFrequencies[0];
+			final double ef1 = equilibriumFrequencies[1];
+			final double ef2 = equilibriumFrequencies[2];
+			final double ef3 = equilibriumFrequencies[3];
+			double logLikelihood = 0;
+			int patternBase = 0;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				double total = 0;
+				int index = patternBase;
+				for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+					total += probabilities[cat]*
+						( ef0*values[index]+ef1*values[index+1]+ef2*values[index+2]+ef3*values[index+3] );
+					index+=categoryStride;
+				}
+				logLikelihood += Math.log( total )*patternWeights[pattern];
+				patternBase+=FOUR_STATES;
+			}
+			return logLikelihood;
+		}
+
+		private final double[] getContiguousResultStoreValues(double distance,
+			SubstitutionModel model,
+			PatternInfo centerPattern,
+			ConditionalProbabilityStore leftFlatConditionalProbabilities,
+			ConditionalProbabilityStore rightFlatConditionalProbabilities,
+			ConditionalProbabilityStore tempStore
+			) {
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+
+			model.getTransitionProbabilities( distance, transitionProbabilityStore_ );
+			final double[] resultValues = tempStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+			final double[] leftValues = leftFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+			final double[] rightValues = rightFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+			final int resultStride = tempStore.getContiguousCategoryStride();
+			final int leftStride = leftFlatConditionalProbabilities.getContiguousCategoryStride();
+			final int rightStride = rightFlatConditionalProbabilities.getContiguousCategoryStride();
+			for( int category = 0; category<numberOfCategories_; category++ ) {
+				int patternAccess = 0;
+				int resultIndex = category*resultStride;
+				final int leftBase = category*leftStride;
+				final int rightBase = category*rightStride;
+				final double[][] transProb = transitionProbabilityStore_[category];
+				final double[] sa0 = transProb[0];
+				final double[] sa1 = transProb[1];
+				final double[] sa2 = transProb[2];
+				final double[] sa3 = transProb[3];
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					final int leftIndex = leftBase+( patternLookup[patternAccess++]<<2 );
+					final int rightIndex = rightBase+( patternLookup[patternAccess++]<<2 );
+					final double l0 = leftValues[leftIndex];
+					final double l1 = leftValues[leftIndex+1];
+					final double l2 = leftValues[leftIndex+2];
+					final double l3 = leftValues[leftIndex+3];
+					resultValues[resultIndex++] = ( sa0[0]*l0+sa0[1]*l1+sa0[2]*l2+sa0[3]*l3 )*rightValues[rightIndex];
+					resultValues[resultIndex++] = ( sa1[0]*l0+sa1[1]*l1+sa1[2]*l2+sa1[3]*l3 )*rightValues[rightIndex+1];
+					resultValues[resultIndex++] = ( sa2[0]*l0+sa2[1]*l1+sa2[2]*l2+sa2[3]*l3 )*rightValues[rightIndex+2];
+					resultValues[resultIndex++] = ( sa3[0]*l0+sa3[1]*l1+sa3[2]*l2+sa3[3]*l3 )*rightValues[rightIndex+3];
+				}
+			}
+			return resultValues;
+		}
+
     private final double[][][] getResultStoreValues(double distance,
       SubstitutionModel model,
       PatternInfo centerPattern,
@@ -411,6 +604,24 @@ public final class FastFourStateLHCalculator implements LHCalculator {
       ) {
       final int numberOfPatterns = centerPattern.getNumberOfPatterns();
       final int[] patternWeights = centerPattern.getPatternWeights();
+			if(tempStore.isContiguous()) {
+				final double[] resultValues = getContiguousResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
+				final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+				final int stride = tempStore.getContiguousCategoryStride();
+				for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+					final double[] patternLogLikelihoodStore = categoryPatternLogLikelihoodStore[cat];
+					int index = cat*stride;
+					for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+						patternLogLikelihoodStore[pattern] =
+							equilibriumFrequencies[0]*resultValues[index]+
+							equilibriumFrequencies[1]*resultValues[index+1]+
+							equilibriumFrequencies[2]*resultValues[index+2]+
+							equilibriumFrequencies[3]*resultValues[index+3];
+						index+=FOUR_STATES;
+					}
+				}
+				return;
+			}
       double[][][] resultStoreValues = getResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
       for( int cat = 0; cat<numberOfCategories_; cat++ ) {
@@ -438,6 +649,10 @@ public final class FastFourStateLHCalculator implements LHCalculator {
                                              ) {
       final int numberOfPatterns = centerPattern.getNumberOfPatterns();
       final int[] patternWeights = centerPattern.getPatternWeights();
+			if(tempStore.isContiguous()) {
+				final double[] resultValues = getContiguousResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
+				return calculateLogLikelihoodContiguous(model,patternWeights,numberOfPatterns,resultValues,tempStore.getContiguousCategoryStride())+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
+			}
       double[][][] resultStoreValues = getResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
 
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
@@ -456,7 +671,7 @@ public final class FastFourStateLHCalculator implements LHCalculator {
         }
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
     }
 
     protected final void calculateCategoryPatternProbabilities( SubstitutionModel model,
@@ -469,7 +684,28 @@ public final class FastFourStateLHCalculator implements LHCalculator {
       final int[] patternLookup = centerPattern.getPatternLookup();
       final int[] patternWeights = centerPattern.getPatternWeights();
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
-
+			if(leftConditionalProbabilities.isContiguous()) {
+				final double[] leftValues = leftConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+				final double[] rightValues = rightConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+				final int leftStride = leftConditionalProbabilities.getContiguousCategoryStride();
+				final int rightStride = rightConditionalProbabilities.getContiguousCategoryStride();
+				for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+					final double[] patternLikelihoodStore = categoryPatternLikelihoodStore[cat];
+					final int leftBase = cat*leftStride;
+					final int rightBase = cat*rightStride;
+					int patternIndex = 0;
+					for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+						final int left = leftBase+( patternLookup[patternIndex++]<<2 );
+						final int right = rightBase+( patternLookup[patternIndex++]<<2 );
+						patternLikelihoodStore[pattern] =
+							equilibriumFrequencies[0]*( leftValues[left]*rightValues[right] )+
+							equilibriumFrequencies[1]*( leftValues[left+1]*rightValues[right+1] )+
+							equilibriumFrequencies[2]*( leftValues[left+2]*rightValues[right+2] )+
+							equilibriumFrequencies[3]*( leftValues[left+3]*rightValues[right+3] );
+					}
+				}
+				return;
+			}
       double[][][] leftValues = leftConditionalProbabilities.
                                 getCurrentConditionalProbabilities();
       double[][][] rightValues = rightConditionalProbabilities.
@@ -506,6 +742,29 @@ public final class FastFourStateLHCalculator implements LHCalculator {
       final double[] probabilities = model.getTransitionCategoryProbabilities();
       double logLikelihood = 0;
       int patternIndex = 0;
+			if(leftConditionalProbabilities.isContiguous()) {
+				final double[] leftValues = leftConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+				final double[] rightValues = rightConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+				final int leftStride = leftConditionalProbabilities.getContiguousCategoryStride();
+				final int rightStride = rightConditionalProbabilities.getContiguousCategoryStride();
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					double total = 0;
+					int left = patternLookup[patternIndex++]<<2;
+					int right = patternLookup[patternIndex++]<<2;
+					for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+						double prob =
+							equilibriumFrequencies[0]*( leftValues[left]*rightValues[right] )+
+							equilibriumFrequencies[1]*( leftValues[left+1]*rightValues[right+1] )+
+							equilibriumFrequencies[2]*( leftValues[left+2]*rightValues[right+2] )+
+							equilibriumFrequencies[3]*( leftValues[left+3]*rightValues[right+3] );
+						total += probabilities[cat]*prob;
+						left+=leftStride;
+						right+=rightStride;
+					}
+					logLikelihood += Math.log( total )*patternWeights[pattern];
+				}
+				return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
+			}
       double[][][] leftValues = leftConditionalProbabilities.
                                 getCurrentConditionalProbabilities();
       double[][][] rightValues = rightConditionalProbabilities.
@@ -527,7 +786,7 @@ public final class FastFourStateLHCalculator implements LHCalculator {
         }
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
     }
 
   }
@@ -541,7 +800,7 @@ public final class FastFourStateLHCalculator implements LHCalculator {
    * @return
    */
   public static final Factory getFactory( Factory fallbackFactory ) {
-    return new SimpleFactory( fallbackFactory );
+    return new SimpleFactory( fallbackFactory, false );
   }
 
   /**
@@ -549,19 +808,34 @@ public final class FastFourStateLHCalculator implements LHCalculator {
    * @return
    */
   public static final Factory getFactory() {
-    return new SimpleFactory( SimpleLHCalculator.getFactory() );
+    return new SimpleFactory( SimpleLHCalculator.getFactory(), false );
+  }
+  /**
+   * @param fallbackFactory A LHCalculator.Factory that can be used if the number of states is not four
+   * @return a factory for calculators that use contiguous conditional probability stores
+   */
+  public static final Factory getContiguousFactory( Factory fallbackFactory ) {
+    return new SimpleFactory( fallbackFactory, true );
+  }
+  /**
+   * @return a factory for calculators that use contiguous conditional probability stores (a single array per store, rather than one array per pattern)
+   */
+  public static final Factory getContiguousFactory() {
+    return new SimpleFactory( SimpleLHCalculator.getContiguousFactory(), true );
   }
 
 // -=-=--==-=-=-=---=-==-=--==-=-=-=-
   private static final class SimpleFactory implements Factory {
     private final Factory fallbackFactory_;
-    public SimpleFactory( Factory fallbackFactory ) {
+		private final boolean contiguous_;
+    public SimpleFactory( Factory fallbackFactory, boolean contiguous ) {
       this.fallbackFactory_ = fallbackFactory;
+			this.contiguous_ = contiguous;
     }
 
     public Generator createSeries( int numberOfCategories, DataType dt ) {
       if( dt.getNumStates()==4 ) {
-        return new SimpleGenerator( numberOfCategories );
+        return new SimpleGenerator( numberOfCategories, contiguous_ );
       }
       return fallbackFactory_.createSeries( numberOfCategories, dt );
     }
@@ -572,8 +846,10 @@ public final class FastFourStateLHCalculator implements LHCalculator {
   private static final class SimpleGenerator implements Generator {
     private final int numberOfCategories_;
     private final double[] endStateProbabilityStore_ = new double[4];
-		public SimpleGenerator( int numberOfCategories ) {
+		private final boolean contiguous_;
+		public SimpleGenerator( int numberOfCategories, boolean contiguous ) {
       this.numberOfCategories_ = numberOfCategories;
+			this.contiguous_ = contiguous;
     }
 		public Leaf createNewLeaf(int[] patternStateMatchup, int numberOfPatterns) {
 		  return new SimpleLeafCalculator(patternStateMatchup,numberOfPatterns, 4, numberOfCategories_, this);
@@ -606,7 +882,7 @@ public final class FastFourStateLHCalculator implements LHCalculator {
     }
 
     public ConditionalProbabilityStore createAppropriateConditionalProbabilityStore(  boolean isForLeaf ) {
-      return new ConditionalProbabilityStore( numberOfCategories_, 4 );
+      return new ConditionalProbabilityStore( numberOfCategories_, 4, null, contiguous_ );
     }
 		public boolean isAllowCaching() { return true; }
 
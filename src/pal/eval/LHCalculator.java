@@ -101,6 +101,25 @@ public interface LHCalculator {
                                        ConditionalProbabilityStore tempStore
                                        );
 
+    /**
+     * Calculate the likelihood, and the first and second derivatives of the likelihood with respect to distance, given two sub trees (left, right) and their flat (unextend) likeihood probabilities
+     * @param distance
+     * @param model
+     * @param centerPattern the pattern information
+     * @param leftFlatConditionalProbabilities
+     * @param rightFlatConditionalProbabilities
+		 * @param tempStore may be used internally to calculate likelihood
+		 * @param derivativeStore after call holds the first ([0]) and second ([1]) derivatives of the log likelihood with respect to distance
+		 * @return the log likelihood
+     */
+    public double calculateLogLikelihoodAndDerivatives( double distance, SubstitutionModel model,
+                                       PatternInfo centerPattern,
+                                       ConditionalProbabilityStore leftFlatConditionalProbabilities,
+                                       ConditionalProbabilityStore rightFlatConditionalProbabilities,
+                                       ConditionalProbabilityStore tempStore,
+                                       double[] derivativeStore
+                                       );
+
     /**
      * Calculate the likelihood given two sub trees (left, right) and their extended likeihood probabilities
      * @param model
@@ -256,7 +275,23 @@ public interface LHCalculator {
 
   }
 // ======================================================================================
-	public abstract class AbstractExternal {
+	public abstract class AbstractExternal implements External {
+			private static final long serialVersionUID = 7991846291010587244L;
+			private transient BranchLengthDerivatives derivatives_ = null;
+
+			public final double calculateLogLikelihoodAndDerivatives(double distance,
+      SubstitutionModel model,
+      PatternInfo centerPattern,
+      ConditionalProbabilityStore leftFlatConditionalProbabilities,
+      ConditionalProbabilityStore rightFlatConditionalProbabilities,
+      ConditionalProbabilityStore tempStore,
+			double[] derivativeStore
+			) {
+				if(derivatives_==null) {
+					derivatives_ = new BranchLengthDerivatives(model.getNumberOfTransitionCategories(),model.getDataType().getNumStates());
+				}
+				return derivatives_.calculateLogLikelihoodAndDerivatives(this,distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore,derivativeStore);
+			}
 	 		public final SiteDetails calculateSiteDetailsUnrooted(double distance,
       SubstitutionModel model,
       PatternInfo centerPattern,
@@ -266,33 +301,39 @@ public interface LHCalculator {
 			) {
 			double[][] store = new double[model.getNumberOfTransitionCategories()][centerPattern.getNumberOfPatterns()];
 			calculateCategoryPatternProbabilities(distance, model, centerPattern, leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore, store);
-		  double[] siteLikelihoods =
-			  calculateSiteLikelihoods(
-				  store,
-					model.getTransitionCategoryProbabilities(),
-					model.getNumberOfTransitionCategories(),
-					centerPattern.getSitePatternMatchup(),centerPattern.getNumberOfSites()
-				);
-			return
-			  SiteDetails.Utils.create(
-				  store,false,model,
-					centerPattern.getNumberOfPatterns(),
-					centerPattern.getSitePatternMatchup(),
-					centerPattern.getNumberOfSites(),
-					siteLikelihoods
-			  );
+			return createSiteDetails(store,model,centerPattern,ConditionalProbabilityStore.getPatternLogScalingFactors(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities));
 		}
-		private final double[] calculateSiteLikelihoods( double[][] conditionals, final double[] catProbabilities, int numberOfCategories, int[] sitePatternMatchup,  int numberOfSites) {
-		  final double[] siteLikeihoods = new double[numberOfSites];
+		/**
+		 * Create the site details from category pattern probabilities
+		 * @param conditionals the probabilities, arranged [category][pattern], which for each pattern are relative to the pattern log scaling factor
+		 * @param patternLogScalingFactors the log scaling factor of each pattern, or null if not scaled
+		 */
+		private final SiteDetails createSiteDetails( double[][] conditionals, SubstitutionModel model, PatternInfo centerPattern, double[] patternLogScalingFactors) {
+			final double[] catProbabilities = model.getTransitionCategoryProbabilities();
+			final int numberOfCategories = model.getNumberOfTransitionCategories();
+			final int[] sitePatternMatchup = centerPattern.getSitePatternMatchup();
+			final int numberOfSites = centerPattern.getNumberOfSites();
+		  final double[] siteLikelihoods = new double[numberOfSites];
+		  final double[] siteLogLikelihoods = new double[numberOfSites];
 			for(int site= 0 ; site < numberOfSites ; site++) {
 				double total = 0;
 				int pattern = sitePatternMatchup[site];
 				for(int cat = 0 ; cat < numberOfCategories ; cat++) {
 				  total+=catProbabilities[cat]*conditionals[cat][pattern];
 				}
-				siteLikeihoods[site] = total;
+				final double factor = (patternLogScalingFactors==null ? 0 : patternLogScalingFactors[pattern]);
+				siteLogLikelihoods[site] = Math.log(total)+factor;
+				siteLikelihoods[site] = (factor==0 ? total : Math.exp(siteLogLikelihoods[site]));
 			}
-			return siteLikeihoods;
+			return
+			  SiteDetails.Utils.create(
+				  conditionals,false,model,
+					centerPattern.getNumberOfPatterns(),
+					sitePatternMatchup,
+					numberOfSites,
+					siteLikelihoods,
+					siteLogLikelihoods
+			  );
 		}
 	  public final SiteDetails calculateSiteDetailsRooted(SubstitutionModel model,
       PatternInfo centerPattern,
@@ -300,15 +341,14 @@ public interface LHCalculator {
       ConditionalProbabilityStore rightConditionalProbabilitiesStore) {
 		  double[][] store = new double[model.getNumberOfTransitionCategories()][centerPattern.getNumberOfPatterns()];
 			calculateCategoryPatternProbabilities(model,centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore,store);
-			final  double[] siteLikelihoods =
-			  calculateSiteLikelihoods(
-				  store,
-					model.getTransitionCategoryProbabilities(),
-					model.getNumberOfTransitionCategories(),
-					centerPattern.getSitePatternMatchup(),centerPattern.getNumberOfSites()
-				);
-			return SiteDetails.Utils.create(store,false,model,centerPattern.getNumberOfPatterns(),centerPattern.getSitePatternMatchup(),centerPattern.getNumberOfSites(),siteLikelihoods);
+			return createSiteDetails(store,model,centerPattern,ConditionalProbabilityStore.getPatternLogScalingFactors(centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore));
 		}
+		/**
+		 * Calculate the probability of each pattern for each category
+		 * @note if the conditionals are scaled the values for each pattern are relative to the log scaling factor of that pattern
+		 * (see ConditionalProbabilityStore.getPatternLogScalingFactors(PatternInfo, ConditionalProbabilityStore, ConditionalProbabilityStore)),
+		 * which callers must add back to obtain the true log likelihoods
+		 */
 		protected abstract void calculateCategoryPatternProbabilities(
 				double distance, SubstitutionModel model, PatternInfo centerPattern,
         ConditionalProbabilityStore leftFlatConditionalProbabilities,
@@ -317,6 +357,10 @@ public interface LHCalculator {
         double[][] categoryPatternLogLikelihoodStore
       );
 
+    /**
+		 * Calculate the probability of each pattern for each category
+		 * @note if the conditionals are scaled the values for each pattern are relative to the log scaling factor of that pattern
+		 */
     protected abstract void calculateCategoryPatternProbabilities(
 				SubstitutionModel model, PatternInfo centerPattern,
         ConditionalProbabilityStore leftConditionalProbabilities,
@@ -0,0 +1,617 @@
+// ParallelLHCalculator.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.eval;
+
+/**
+ * <p>Title: ParallelLHCalculator </p>
+ * <p>Description: A decorator for an LHCalculator.Factory that splits the patterns of each calculation
+ * into chunks which are evaluated concurrently on a WorkerPool. Conditional probabilities are held in
+ * contiguous stores (see ConditionalProbabilityStore.isContiguous()). Transition probabilities are
+ * calculated once per call, by the calling thread, and shared (read only) by the chunks. Per chunk log
+ * likelihoods are summed in chunk order, so results do not depend on thread scheduling.</p>
+ * <p>Calculations over too few patterns to be worth splitting, site detail calculations, and calculations
+ * involving stores that are not contiguous, are handed to a calculator from the decorated factory (which
+ * must accept contiguous stores, as the calculators in this package do).</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.datatype.*;
+import pal.substmodel.*;
+import pal.util.*;
+
+public class ParallelLHCalculator implements LHCalculator {
+	/**
+	 * The smallest number of patterns that will be given to a single chunk
+	 */
+	public static final int MINIMUM_PATTERNS_PER_CHUNK = 64;
+
+	private static final int FLAT = 0;
+	private static final int EXTENDED = 1;
+	private static final int POST_EXTENDED_FLAT = 2;
+	private static final int SINGLE_EXTENDED = 3;
+	private static final int LOG_LIKELIHOOD_FLAT = 4;
+	private static final int LOG_LIKELIHOOD = 5;
+	private static final int LOG_LIKELIHOOD_SINGLE = 6;
+
+	/**
+	 * @return a factory decorating the contiguous SimpleLHCalculator factory, using one thread per available processor
+	 */
+	public static final LHCalculator.Factory getFactory() {
+		return getFactory(SimpleLHCalculator.getContiguousFactory(), WorkerPool.getDefaultNumberOfThreads());
+	}
+	/**
+	 * @param base the factory to use for small and non-performance critical calculations
+	 * @return a factory decorating base, using one thread per available processor
+	 */
+	public static final LHCalculator.Factory getFactory(LHCalculator.Factory base) {
+		return getFactory(base, WorkerPool.getDefaultNumberOfThreads());
+	}
+	/**
+	 * @param base the factory to use for small and non-performance critical calculations
+	 * @param numberOfThreads the number of threads to split calculations across (the threads are from a shared WorkerPool)
+	 * @return a factory decorating base
+	 */
+	public static final LHCalculator.Factory getFactory(LHCalculator.Factory base, int numberOfThreads) {
+		return new ParallelFactory(base, numberOfThreads);
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class ParallelFactory implements LHCalculator.Factory {
+		private static final long serialVersionUID = 3710294857102938475L;
+		private final LHCalculator.Factory base_;
+		private final int numberOfThreads_;
+		public ParallelFactory(LHCalculator.Factory base, int numberOfThreads) {
+			if(numberOfThreads<1) {
+				throw new IllegalArgumentException("Number of threads must be at least one:"+numberOfThreads);
+			}
+			this.base_ = base;
+			this.numberOfThreads_ = numberOfThreads;
+		}
+		public Generator createSeries( int numberOfCategories, DataType dt ) {
+			return new ParallelGenerator(base_.createSeries(numberOfCategories,dt),numberOfCategories,dt.getNumStates(),numberOfThreads_);
+		}
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class ParallelGenerator implements LHCalculator.Generator {
+		private static final long serialVersionUID = 6620193847561029384L;
+		private final LHCalculator.Generator base_;
+		private final int numberOfCategories_;
+		private final int numberOfStates_;
+		private final int numberOfThreads_;
+
+		public ParallelGenerator(LHCalculator.Generator base, int numberOfCategories, int numberOfStates, int numberOfThreads) {
+			this.base_ = base;
+			this.numberOfCategories_ = numberOfCategories;
+			this.numberOfStates_ = numberOfStates;
+			this.numberOfThreads_ = numberOfThreads;
+		}
+		public Leaf createNewLeaf(int[] patternStateMatchup, int numberOfPatterns) {
+			return new SimpleLeafCalculator(patternStateMatchup,numberOfPatterns,numberOfStates_,numberOfCategories_,this);
+		}
+		public Leaf createNewLeaf(int[] patternStateMatchup, int numberOfPatterns, Generator parentGenerator ) {
+			return parentGenerator.createNewLeaf(patternStateMatchup,numberOfPatterns);
+		}
+		public LHCalculator.External createNewExternal() {
+			return new ExternalImpl(base_.createNewExternal(),numberOfCategories_,numberOfStates_,numberOfThreads_);
+		}
+		public LHCalculator.Internal createNewInternal() {
+			return new InternalImpl(base_.createNewExternal(),createAppropriateConditionalProbabilityStore(false),numberOfCategories_,numberOfStates_,numberOfThreads_);
+		}
+		public LHCalculator.External createNewExternal( Generator parentGenerator ) throws IllegalArgumentException {
+			return createNewExternal();
+		}
+		public LHCalculator.Internal createNewInternal( Generator parentGenerator ) throws IllegalArgumentException {
+			return new InternalImpl(base_.createNewExternal(),parentGenerator.createAppropriateConditionalProbabilityStore(false),numberOfCategories_,numberOfStates_,numberOfThreads_);
+		}
+		public boolean isAllowCaching() { return base_.isAllowCaching(); }
+
+		public ConditionalProbabilityStore createAppropriateConditionalProbabilityStore( boolean isForLeaf ) {
+			return new ConditionalProbabilityStore(numberOfCategories_,numberOfStates_,null,true);
+		}
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	/**
+	 * Holds the arguments of the current operation and does the work for each chunk. Not thread safe
+	 * in the sense that only one operation may be run at a time (as with all LHCalculator objects).
+	 */
+	private static final class Engine {
+		private final int numberOfCategories_;
+		private final int numberOfStates_;
+		private final WorkerPool pool_;
+		private final Runnable[][] taskSets_;
+		private final double[][] chunkStateStores_;
+		private final double[] chunkLogLikelihoods_;
+		private final boolean[] chunkScaled_;
+
+		private final double[][][] transitionProbabilityStore_;
+
+		//The arguments for the current operation
+		private int operation_;
+		private int numberOfPatterns_;
+		private int numberOfChunks_;
+		private int[] patternLookup_;
+		private int[] patternWeights_;
+		private PatternInfo centerPattern_;
+		private ConditionalProbabilityStore leftStore_, rightStore_, resultStore_;
+		private double[] leftValues_, rightValues_, resultValues_;
+		private int leftStride_, rightStride_, resultStride_;
+		private double[] equilibriumFrequencies_;
+		private double[] categoryProbabilities_;
+
+		public Engine(int numberOfCategories, int numberOfStates, int numberOfThreads) {
+			this.numberOfCategories_ = numberOfCategories;
+			this.numberOfStates_ = numberOfStates;
+			this.pool_ = WorkerPool.getSharedPool(numberOfThreads);
+			this.taskSets_ = new Runnable[numberOfThreads+1][];
+			this.chunkStateStores_ = new double[numberOfThreads][numberOfStates];
+			this.chunkLogLikelihoods_ = new double[numberOfThreads];
+			this.chunkScaled_ = new boolean[numberOfThreads];
+			this.transitionProbabilityStore_ = new double[numberOfCategories][numberOfStates][numberOfStates];
+		}
+		public final double[][][] getTransitionProbabilityStore() { return transitionProbabilityStore_; }
+
+		/**
+		 * @return true if there are enough patterns to make splitting worth while
+		 */
+		public final boolean isWorthSplitting(int numberOfPatterns) {
+			return pool_.getNumberOfThreads()>1&&numberOfPatterns>=2*MINIMUM_PATTERNS_PER_CHUNK;
+		}
+		private final Runnable[] getTasks(int numberOfChunks) {
+			Runnable[] tasks = taskSets_[numberOfChunks];
+			if(tasks==null) {
+				tasks = new Runnable[numberOfChunks];
+				for(int i = 0 ; i < numberOfChunks ; i++) {
+					tasks[i] = new ChunkTask(this,i);
+				}
+				taskSets_[numberOfChunks] = tasks;
+			}
+			return tasks;
+		}
+		private final void run(int operation, int numberOfPatterns) {
+			this.operation_ = operation;
+			this.numberOfPatterns_ = numberOfPatterns;
+			this.numberOfChunks_ = Math.max(1,Math.min(pool_.getNumberOfThreads(),numberOfPatterns/MINIMUM_PATTERNS_PER_CHUNK));
+			try {
+				pool_.execute(getTasks(numberOfChunks_));
+			} finally {
+				this.centerPattern_ = null;
+				this.leftStore_ = null;		this.rightStore_ = null;		this.resultStore_ = null;
+				this.leftValues_ = null;	this.rightValues_ = null;		this.resultValues_ = null;
+			}
+		}
+		private final double sumChunkLogLikelihoods() {
+			double total = 0;
+			for(int i = 0 ; i < numberOfChunks_ ; i++) {	total+=chunkLogLikelihoods_[i];	}
+			return total;
+		}
+		private final boolean isAnyChunkScaled() {
+			for(int i = 0 ; i < numberOfChunks_ ; i++) {
+				if(chunkScaled_[i]) { return true; }
+			}
+			return false;
+		}
+		private final void setCombine(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore result) {
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			this.centerPattern_ = centerPattern;
+			this.patternLookup_ = centerPattern.getPatternLookup();
+			this.leftStore_ = left;
+			this.rightStore_ = right;
+			this.resultStore_ = result;
+			this.leftValues_ = left.getCurrentContiguousConditionalProbabilities();
+			this.leftStride_ = left.getContiguousCategoryStride();
+			this.rightValues_ = right.getCurrentContiguousConditionalProbabilities();
+			this.rightStride_ = right.getContiguousCategoryStride();
+			this.resultValues_ = result.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+			this.resultStride_ = result.getContiguousCategoryStride();
+			result.prepareScaling(numberOfPatterns);
+		}
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+		public final void calculateFlat(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore result) {
+			setCombine(centerPattern,left,right,result);
+			run(FLAT,centerPattern.getNumberOfPatterns());
+			result.setScaled(isAnyChunkScaled());
+		}
+		/**
+		 * @note the transition probability store must be filled in first
+		 */
+		public final void calculateExtended(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore result) {
+			setCombine(centerPattern,left,right,result);
+			run(EXTENDED,centerPattern.getNumberOfPatterns());
+			result.setScaled(isAnyChunkScaled());
+		}
+		/**
+		 * @note the transition probability store must be filled in first
+		 */
+		public final void calculatePostExtendedFlat(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore result) {
+			setCombine(centerPattern,left,right,result);
+			run(POST_EXTENDED_FLAT,centerPattern.getNumberOfPatterns());
+			result.setScaled(isAnyChunkScaled());
+		}
+		/**
+		 * @note the transition probability store must be filled in first
+		 */
+		public final void calculateSingleExtended(int numberOfPatterns, ConditionalProbabilityStore base, ConditionalProbabilityStore result) {
+			this.leftValues_ = base.getCurrentContiguousConditionalProbabilities();
+			this.leftStride_ = base.getContiguousCategoryStride();
+			if(base!=result) {
+				this.resultValues_ = result.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+			} else {
+				this.resultValues_ = leftValues_;
+			}
+			this.resultStride_ = result.getContiguousCategoryStride();
+			run(SINGLE_EXTENDED,numberOfPatterns);
+			result.copyScaling(base,numberOfPatterns);
+		}
+		/**
+		 * @note the transition probability store must be filled in first
+		 */
+		public final double calculateLogLikelihoodFlat(SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftFlat, ConditionalProbabilityStore rightFlat) {
+			setLogLikelihood(model,centerPattern,leftFlat,rightFlat);
+			run(LOG_LIKELIHOOD_FLAT,centerPattern.getNumberOfPatterns());
+			return sumChunkLogLikelihoods()+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlat,rightFlat);
+		}
+		public final double calculateLogLikelihood(SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right) {
+			setLogLikelihood(model,centerPattern,left,right);
+			run(LOG_LIKELIHOOD,centerPattern.getNumberOfPatterns());
+			return sumChunkLogLikelihoods()+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,left,right);
+		}
+		public final double calculateLogLikelihoodSingle(SubstitutionModel model, int[] patternWeights, int numberOfPatterns, ConditionalProbabilityStore store) {
+			this.equilibriumFrequencies_ = model.getEquilibriumFrequencies();
+			this.categoryProbabilities_ = model.getTransitionCategoryProbabilities();
+			this.patternWeights_ = patternWeights;
+			this.leftValues_ = store.getCurrentContiguousConditionalProbabilities();
+			this.leftStride_ = store.getContiguousCategoryStride();
+			run(LOG_LIKELIHOOD_SINGLE,numberOfPatterns);
+			return sumChunkLogLikelihoods()+store.getLogScalingTotal(patternWeights,numberOfPatterns);
+		}
+		private final void setLogLikelihood(SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right) {
+			this.equilibriumFrequencies_ = model.getEquilibriumFrequencies();
+			this.categoryProbabilities_ = model.getTransitionCategoryProbabilities();
+			this.patternWeights_ = centerPattern.getPatternWeights();
+			this.patternLookup_ = centerPattern.getPatternLookup();
+			this.leftValues_ = left.getCurrentContiguousConditionalProbabilities();
+			this.leftStride_ = left.getContiguousCategoryStride();
+			this.rightValues_ = right.getCurrentContiguousConditionalProbabilities();
+			this.rightStride_ = right.getContiguousCategoryStride();
+		}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+		/**
+		 * Do the work for one chunk of the current operation
+		 */
+		final void runChunk(int chunk) {
+			final int startPattern = (int)((long)numberOfPatterns_*chunk/numberOfChunks_);
+			final int endPattern = (int)((long)numberOfPatterns_*(chunk+1)/numberOfChunks_);
+			final double[] stateStore = chunkStateStores_[chunk];
+			switch(operation_) {
+				case FLAT : {
+					flat(startPattern,endPattern);
+					chunkScaled_[chunk] = resultStore_.updateScaling(centerPattern_,leftStore_,rightStore_,startPattern,endPattern);
+					break;
+				}
+				case EXTENDED : {
+					extended(startPattern,endPattern,stateStore);
+					chunkScaled_[chunk] = resultStore_.updateScaling(centerPattern_,leftStore_,rightStore_,startPattern,endPattern);
+					break;
+				}
+				case POST_EXTENDED_FLAT : {
+					postExtendedFlat(startPattern,endPattern);
+					chunkScaled_[chunk] = resultStore_.updateScaling(centerPattern_,leftStore_,rightStore_,startPattern,endPattern);
+					break;
+				}
+				case SINGLE_EXTENDED : {
+					singleExtended(startPattern,endPattern,stateStore);
+					break;
+				}
+				case LOG_LIKELIHOOD_FLAT : {
+					chunkLogLikelihoods_[chunk] = logLikelihoodFlat(startPattern,endPattern,stateStore);
+					break;
+				}
+				case LOG_LIKELIHOOD : {
+					chunkLogLikelihoods_[chunk] = logLikelihood(startPattern,endPattern);
+					break;
+				}
+				case LOG_LIKELIHOOD_SINGLE : {
+					chunkLogLikelihoods_[chunk] = logLikelihoodSingle(startPattern,endPattern);
+					break;
+				}
+				default : {
+					throw new RuntimeException("Assertion error: unknown operation:"+operation_);
+				}
+			}
+		}
+		private final void flat(int startPattern, int endPattern) {
+			final int numberOfStates = numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final int leftBase = cat*leftStride_;
+				final int rightBase = cat*rightStride_;
+				int resultIndex = cat*resultStride_+startPattern*numberOfStates;
+				int patternAccess = startPattern*2;
+				for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+					final int leftIndex = leftBase+patternLookup_[patternAccess++]*numberOfStates;
+					final int rightIndex = rightBase+patternLookup_[patternAccess++]*numberOfStates;
+					for(int state = 0 ; state < numberOfStates ; state++) {
+						resultValues_[resultIndex++] = leftValues_[leftIndex+state]*rightValues_[rightIndex+state];
+					}
+				}
+			}
+		}
+		private final void extended(int startPattern, int endPattern, double[] endStateStore) {
+			final int numberOfStates = numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				final int leftBase = cat*leftStride_;
+				final int rightBase = cat*rightStride_;
+				int resultIndex = cat*resultStride_+startPattern*numberOfStates;
+				int patternAccess = startPattern*2;
+				for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+					final int leftIndex = leftBase+patternLookup_[patternAccess++]*numberOfStates;
+					final int rightIndex = rightBase+patternLookup_[patternAccess++]*numberOfStates;
+					for(int endState = 0 ; endState < numberOfStates ; endState++) {
+						endStateStore[endState] = leftValues_[leftIndex+endState]*rightValues_[rightIndex+endState];
+					}
+					for(int startState = 0 ; startState < numberOfStates ; startState++) {
+						final double[] speedupArray = transProb[startState];
+						double probTotal = 0;
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							probTotal+=speedupArray[endState]*endStateStore[endState];
+						}
+						resultValues_[resultIndex++] = probTotal;
+					}
+				}
+			}
+		}
+		private final void postExtendedFlat(int startPattern, int endPattern) {
+			final int numberOfStates = numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				final int leftBase = cat*leftStride_;
+				final int rightBase = cat*rightStride_;
+				int resultIndex = cat*resultStride_+startPattern*numberOfStates;
+				int patternAccess = startPattern*2;
+				for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+					final int leftIndex = leftBase+patternLookup_[patternAccess++]*numberOfStates;
+					final int rightIndex = rightBase+patternLookup_[patternAccess++]*numberOfStates;
+					for(int startState = 0 ; startState < numberOfStates ; startState++) {
+						final double[] speedupArray = transProb[startState];
+						double leftTotal = 0;
+						double rightTotal = 0;
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							leftTotal+=speedupArray[endState]*leftValues_[leftIndex+endState];
+							rightTotal+=speedupArray[endState]*rightValues_[rightIndex+endState];
+						}
+						resultValues_[resultIndex++] = leftTotal*rightTotal;
+					}
+				}
+			}
+		}
+		private final void singleExtended(int startPattern, int endPattern, double[] baseStateStore) {
+			final int numberOfStates = numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				int baseIndex = cat*leftStride_+startPattern*numberOfStates;
+				int resultIndex = cat*resultStride_+startPattern*numberOfStates;
+				for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+					//Copy first as base and result may be the same store
+					System.arraycopy(leftValues_,baseIndex,baseStateStore,0,numberOfStates);
+					for(int startState = 0 ; startState < numberOfStates ; startState++) {
+						final double[] speedupArray = transProb[startState];
+						double probTotal = 0;
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							probTotal+=speedupArray[endState]*baseStateStore[endState];
+						}
+						resultValues_[resultIndex++] = probTotal;
+					}
+					baseIndex+=numberOfStates;
+				}
+			}
+		}
+		private final double logLikelihoodFlat(int startPattern, int endPattern, double[] stateStore) {
+			final int numberOfStates = numberOfStates_;
+			double logLikelihood = 0;
+			int patternAccess = startPattern*2;
+			for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+				final int leftPattern = patternLookup_[patternAccess++];
+				final int rightPattern = patternLookup_[patternAccess++];
+				double total = 0;
+				for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+					final double[][] transProb = transitionProbabilityStore_[cat];
+					final int leftIndex = cat*leftStride_+leftPattern*numberOfStates;
+					final int rightIndex = cat*rightStride_+rightPattern*numberOfStates;
+					double prob = 0;
+					for(int startState = 0 ; startState < numberOfStates ; startState++) {
+						final double[] speedupArray = transProb[startState];
+						double probTotal = 0;
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							probTotal+=speedupArray[endState]*leftValues_[leftIndex+endState];
+						}
+						prob+=equilibriumFrequencies_[startState]*probTotal*rightValues_[rightIndex+startState];
+					}
+					total+=categoryProbabilities_[cat]*prob;
+				}
+				logLikelihood+=Math.log(total)*patternWeights_[pattern];
+			}
+			return logLikelihood;
+		}
+		private final double logLikelihood(int startPattern, int endPattern) {
+			final int numberOfStates = numberOfStates_;
+			double logLikelihood = 0;
+			int patternAccess = startPattern*2;
+			for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+				final int leftPattern = patternLookup_[patternAccess++];
+				final int rightPattern = patternLookup_[patternAccess++];
+				double total = 0;
+				for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+					final int leftIndex = cat*leftStride_+leftPattern*numberOfStates;
+					final int rightIndex = cat*rightStride_+rightPattern*numberOfStates;
+					double prob = 0;
+					for(int state = 0 ; state < numberOfStates ; state++) {
+						prob+=equilibriumFrequencies_[state]*(leftValues_[leftIndex+state]*rightValues_[rightIndex+state]);
+					}
+					total+=categoryProbabilities_[cat]*prob;
+				}
+				logLikelihood+=Math.log(total)*patternWeights_[pattern];
+			}
+			return logLikelihood;
+		}
+		private final double logLikelihoodSingle(int startPattern, int endPattern) {
+			final int numberOfStates = numberOfStates_;
+			double logLikelihood = 0;
+			for(int pattern = startPattern ; pattern < endPattern ; pattern++) {
+				double total = 0;
+				for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+					final int index = cat*leftStride_+pattern*numberOfStates;
+					double prob = 0;
+					for(int state = 0 ; state < numberOfStates ; state++) {
+						prob+=equilibriumFrequencies_[state]*leftValues_[index+state];
+					}
+					total+=categoryProbabilities_[cat]*prob;
+				}
+				logLikelihood+=Math.log(total)*patternWeights_[pattern];
+			}
+			return logLikelihood;
+		}
+	} //End of class Engine
+
+	private static final class ChunkTask implements Runnable {
+		private final Engine engine_;
+		private final int chunk_;
+		public ChunkTask(Engine engine, int chunk) {
+			this.engine_ = engine;
+			this.chunk_ = chunk;
+		}
+		public void run() { engine_.runChunk(chunk_); }
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class ExternalImpl implements LHCalculator.External {
+		private static final long serialVersionUID = 1847502938475610293L;
+		private final LHCalculator.External base_;
+		private final int numberOfCategories_;
+		private final int numberOfStates_;
+		private final int numberOfThreads_;
+		private transient Engine engine_ = null;
+		private transient BranchLengthDerivatives derivatives_ = null;
+
+		public ExternalImpl(LHCalculator.External base, int numberOfCategories, int numberOfStates, int numberOfThreads) {
+			this.base_ = base;
+			this.numberOfCategories_ = numberOfCategories;
+			this.numberOfStates_ = numberOfStates;
+			this.numberOfThreads_ = numberOfThreads;
+		}
+		private final Engine getEngine() {
+			if(engine_==null) {
+				this.engine_ = new Engine(numberOfCategories_,numberOfStates_,numberOfThreads_);
+			}
+			return engine_;
+		}
+		private final boolean isSplit(int numberOfPatterns, ConditionalProbabilityStore a, ConditionalProbabilityStore b, ConditionalProbabilityStore c) {
+			return a.isContiguous()&&b.isContiguous()&&(c==null||c.isContiguous())&&getEngine().isWorthSplitting(numberOfPatterns);
+		}
+
+		public void calculateFlat( PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities, ConditionalProbabilityStore resultStore ) {
+			if(isSplit(centerPattern.getNumberOfPatterns(),leftConditionalProbabilities,rightConditionalProbabilities,resultStore)) {
+				getEngine().calculateFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			} else {
+				base_.calculateFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			}
+		}
+		public void calculateExtended( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities, ConditionalProbabilityStore resultStore ) {
+			if(isSplit(centerPattern.getNumberOfPatterns(),leftConditionalProbabilities,rightConditionalProbabilities,resultStore)) {
+				final Engine engine = getEngine();
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				engine.calculateExtended(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			} else {
+				base_.calculateExtended(distance,model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			}
+		}
+		public void calculateSingleExtendedDirect( double distance, SubstitutionModel model, int numberOfPatterns, ConditionalProbabilityStore conditionalProbabilities ) {
+			if(isSplit(numberOfPatterns,conditionalProbabilities,conditionalProbabilities,null)) {
+				final Engine engine = getEngine();
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				engine.calculateSingleExtended(numberOfPatterns,conditionalProbabilities,conditionalProbabilities);
+			} else {
+				base_.calculateSingleExtendedDirect(distance,model,numberOfPatterns,conditionalProbabilities);
+			}
+		}
+		public void calculateSingleExtendedIndirect( double distance, SubstitutionModel model, int numberOfPatterns, ConditionalProbabilityStore baseConditionalProbabilities, ConditionalProbabilityStore resultConditionalProbabilities ) {
+			if(isSplit(numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities,null)) {
+				final Engine engine = getEngine();
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				engine.calculateSingleExtended(numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities);
+			} else {
+				base_.calculateSingleExtendedIndirect(distance,model,numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities);
+			}
+		}
+		public double calculateLogLikelihood( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftFlatConditionalProbabilities, ConditionalProbabilityStore rightFlatConditionalProbabilities, ConditionalProbabilityStore tempStore ) {
+			if(isSplit(centerPattern.getNumberOfPatterns(),leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,null)) {
+				final Engine engine = getEngine();
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				return engine.calculateLogLikelihoodFlat(model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
+			}
+			return base_.calculateLogLikelihood(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
+		}
+		public double calculateLogLikelihoodAndDerivatives( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftFlatConditionalProbabilities, ConditionalProbabilityStore rightFlatConditionalProbabilities, ConditionalProbabilityStore tempStore, double[] derivativeStore ) {
+			if(derivatives_==null) {
+				this.derivatives_ = new BranchLengthDerivatives(numberOfCategories_,numberOfStates_);
+			}
+			return derivatives_.calculateLogLikelihoodAndDerivatives(this,distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore,derivativeStore);
+		}
+		public double calculateLogLikelihood( SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities ) {
+			if(isSplit(centerPattern.getNumberOfPatterns(),leftConditionalProbabilities,rightConditionalProbabilities,null)) {
+				return getEngine().calculateLogLikelihood(model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
+			}
+			return base_.calculateLogLikelihood(model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
+		}
+		public double calculateLogLikelihoodSingle( SubstitutionModel model, int[] patternWeights, int numberOfPatterns, ConditionalProbabilityStore conditionalProbabilityStore ) {
+			if(isSplit(numberOfPatterns,conditionalProbabilityStore,conditionalProbabilityStore,null)) {
+				return getEngine().calculateLogLikelihoodSingle(model,patternWeights,numberOfPatterns,conditionalProbabilityStore);
+			}
+			return base_.calculateLogLikelihoodSingle(model,patternWeights,numberOfPatterns,conditionalProbabilityStore);
+		}
+		public SiteDetails calculateSiteDetailsRooted( SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilitiesStore, ConditionalProbabilityStore rightConditionalProbabilitiesStore ) {
+			return base_.calculateSiteDetailsRooted(model,centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore);
+		}
+		public SiteDetails calculateSiteDetailsUnrooted( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilitiesStore, ConditionalProbabilityStore rightConditionalProbabilitiesStore, ConditionalProbabilityStore tempStore ) {
+			return base_.calculateSiteDetailsUnrooted(distance,model,centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore,tempStore);
+		}
+	} //End of class ExternalImpl
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class InternalImpl implements LHCalculator.Internal {
+		private final ExternalImpl external_;
+		private final ConditionalProbabilityStore myResultStore_;
+
+		public InternalImpl(LHCalculator.External base, ConditionalProbabilityStore resultStore, int numberOfCategories, int numberOfStates, int numberOfThreads) {
+			this.external_ = new ExternalImpl(base,numberOfCategories,numberOfStates,numberOfThreads);
+			this.myResultStore_ = resultStore;
+		}
+		public ConditionalProbabilityStore calculateFlat( PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities ) {
+			external_.calculateFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_);
+			return myResultStore_;
+		}
+		public ConditionalProbabilityStore calculateExtended( double distance, SubstitutionModel model, PatternInfo centerPattern, final ConditionalProbabilityStore leftConditionalProbabilities,
+			final ConditionalProbabilityStore rightConditionalProbabilities, boolean modelChangedSinceLastCall ) {
+			external_.calculateExtended(distance,model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_);
+			return myResultStore_;
+		}
+		public ConditionalProbabilityStore calculatePostExtendedFlat( double distance, SubstitutionModel model, PatternInfo centerPattern, final ConditionalProbabilityStore leftConditionalProbabilities,
+			final ConditionalProbabilityStore rightConditionalProbabilities, boolean modelChangedSinceLastCall ) {
+			//The External interface has no post extended flat operation so the work is always done here (possibly in a single chunk)
+			if(!leftConditionalProbabilities.isContiguous()||!rightConditionalProbabilities.isContiguous()) {
+				throw new IllegalArgumentException("Post extended flat calculation requires contiguous stores");
+			}
+			final Engine engine = external_.getEngine();
+			model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+			engine.calculatePostExtendedFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_);
+			return myResultStore_;
+		}
+	} //End of class InternalImpl
+}
@@ -68,6 +68,17 @@ public final class PatternInfo {
   public final int getNumberOfPatterns() {	return numberOfPatterns_;		}
   public void setNumberOfPatterns(int n) {	this.numberOfPatterns_ = n;		}
   public int build(PatternInfo leftPattern, PatternInfo rightPattern,  final int numberOfSites ) {
+    return build(leftPattern,rightPattern,numberOfSites,null);
+  }
+  /**
+   * Build this pattern info from two child pattern infos, with weighted sites
+   * @param leftPattern the left child pattern info
+   * @param rightPattern the right child pattern info
+   * @param numberOfSites the number of sites
+   * @param siteWeights the weight of each site (may be null, in which case each site has weight one)
+   * @return the number of patterns
+   */
+  public int build(PatternInfo leftPattern, PatternInfo rightPattern,  final int numberOfSites, final int[] siteWeights ) {
     if(rightPattern.getNumberOfPatterns()==0) {
       System.out.println("Error: right has zero patterns");
 			Thread.dumpStack();
@@ -92,9 +103,9 @@ public final class PatternInfo {
         sitePatternMatchup_[i] = uniqueCount;
         patternLookup_[uniqueCountTimesTwo++] = leftPatternIndex;
         patternLookup_[uniqueCountTimesTwo++] = rightPatternIndex;
-        patternWeights_[uniqueCount++]=1;
+        patternWeights_[uniqueCount++]=(siteWeights==null ? 1 : siteWeights[i]);
       } else {
-        patternWeights_[patternIndex]++;
+        patternWeights_[patternIndex]+=(siteWeights==null ? 1 : siteWeights[i]);
         sitePatternMatchup_[i] = patternIndex;
       }
     }
@@ -102,6 +113,19 @@ public final class PatternInfo {
 
     return uniqueCount;
   } //End of buildPatternInfo()
+  /**
+   * Recalculate the pattern weights for new site weights (the patterns themselves are unchanged)
+   * @param numberOfSites the number of sites
+   * @param siteWeights the weight of each site (may be null, in which case each site has weight one)
+   */
+  public void reweight(final int numberOfSites, final int[] siteWeights) {
+    for(int i = 0 ; i < numberOfPatterns_ ; i++) {
+      patternWeights_[i] = 0;
+    }
+    for(int i = 0 ; i < numberOfSites ; i++) {
+      patternWeights_[sitePatternMatchup_[i]]+=(siteWeights==null ? 1 : siteWeights[i]);
+    }
+  }
   /**
    * @return the index of mathcing pattern (if already found), or -1 otherwise.
    */
@@ -19,7 +19,8 @@ import pal.datatype.*;
 import pal.substmodel.*;
 
 public class SimpleLHCalculator implements LHCalculator {
-  private static final SimpleFactory FACTORY_INSTANCE = new SimpleFactory();
+  private static final SimpleFactory FACTORY_INSTANCE = new SimpleFactory(false);
+  private static final SimpleFactory CONTIGUOUS_FACTORY_INSTANCE = new SimpleFactory(true);
 
 
 
@@ -33,7 +34,11 @@ public class SimpleLHCalculator implements LHCalculator {
 																		int numberOfStates
                                   ) {
 			model.getTransitionProbabilities( distance, transitionProbabilityStore );
-
+			resultConditionalProbabilities.copyScaling(baseConditionalProbabilities,numberOfPatterns);
+			if(resultConditionalProbabilities.isContiguous()) {
+				calculateSingleExtendedIndirectContiguousImpl(numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities,transitionProbabilityStore,numberOfCategories,numberOfStates);
+				return;
+			}
       double[][][] resultStoreValues = resultConditionalProbabilities.getConditionalProbabilityAccess( numberOfPatterns, false );
       double[][][] baseStoreValues = baseConditionalProbabilities.getCurrentConditionalProbabilities();
 			for( int category = 0; category<numberOfCategories; category++ ) {
@@ -64,6 +69,11 @@ public class SimpleLHCalculator implements LHCalculator {
                                                rightConditionalProbabilityProbabilties,
                                                final ConditionalProbabilityStore
                                                resultStore, int numberOfCategories, int numberOfStates ) {
+		if(resultStore.isContiguous()) {
+			calculateFlatContiguousImpl(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties,resultStore,numberOfCategories,numberOfStates);
+			resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
+			return;
+		}
     final int[] patternLookup = centerPattern.getPatternLookup();
     final int numberOfPatterns = centerPattern.getNumberOfPatterns();
     double[][][] resultStoreValues = resultStore.
@@ -96,6 +106,7 @@ public class SimpleLHCalculator implements LHCalculator {
         }
       }
     }
+		resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
   }
 
   private static final void calculateExtendedImpl( final double[][][] transitionProbabilityStore,
@@ -109,6 +120,11 @@ public class SimpleLHCalculator implements LHCalculator {
     int numberOfCategories,
     int numberOfStates,
     double[] endStateProbabilityStore ) {
+		if(resultStore.isContiguous()) {
+			calculateExtendedContiguousImpl(transitionProbabilityStore,centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties,resultStore,numberOfCategories,numberOfStates,endStateProbabilityStore);
+			resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
+			return;
+		}
     final int[] patternLookup = centerPattern.getPatternLookup();
     final int numberOfPatterns = centerPattern.getNumberOfPatterns();
 
@@ -154,6 +170,7 @@ public class SimpleLHCalculator implements LHCalculator {
         }
       }
     }
+		resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
   }
 
 	private static final void calculatePostExtendedFlatImpl(
@@ -170,7 +187,11 @@ public class SimpleLHCalculator implements LHCalculator {
     int numberOfCategories,
     int numberOfStates) {
     model.getTransitionProbabilities( distance, transitionProbabilityStore );
-
+		if(resultStore.isContiguous()) {
+			calculatePostExtendedFlatContiguousImpl(transitionProbabilityStore,centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties,resultStore,numberOfCategories,numberOfStates);
+			resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
+			return;
+		}
 		final int[] patternLookup = centerPattern.getPatternLookup();
     final int numberOfPatterns = centerPattern.getNumberOfPatterns();
 
@@ -201,8 +222,149 @@ public class SimpleLHCalculator implements LHCalculator {
         }
       }
     }
+		resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
   }
 
+// =--==--=-=-==-=--==--=-==-=-=-=-=--==-=--=
+// Contiguous storage versions (see ConditionalProbabilityStore.isContiguous())
+// =--==--=-=-==-=--==--=-==-=-=-=-=--==-=--=
+
+	private final static void calculateSingleExtendedIndirectContiguousImpl(
+			int numberOfPatterns,
+			ConditionalProbabilityStore baseConditionalProbabilities,
+			ConditionalProbabilityStore resultConditionalProbabilities,
+			double[][][] transitionProbabilityStore,
+			int numberOfCategories,
+			int numberOfStates
+		) {
+		final double[] resultValues = resultConditionalProbabilities.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] baseValues = baseConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+		final int resultStride = resultConditionalProbabilities.getContiguousCategoryStride();
+		final int baseStride = baseConditionalProbabilities.getContiguousCategoryStride();
+		for( int category = 0; category<numberOfCategories; category++ ) {
+			final double[][] transProb = transitionProbabilityStore[category];
+			int resultIndex = category*resultStride;
+			int baseIndex = category*baseStride;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				for( int startState = 0; startState<numberOfStates; startState++ ) {
+					double probTotal = 0;
+					final double[] speedupArray = transProb[startState];
+					for( int endState = 0; endState<numberOfStates; endState++ ) {
+						probTotal += speedupArray[endState]*baseValues[baseIndex+endState];
+					}
+					resultValues[resultIndex++] = probTotal;
+				}
+				baseIndex+=numberOfStates;
+			}
+		}
+	}
+
+	private static final void calculateFlatContiguousImpl( final PatternInfo centerPattern,
+		final ConditionalProbabilityStore leftConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore rightConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore resultStore, int numberOfCategories, int numberOfStates ) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] leftValues = leftConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] rightValues = rightConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final int resultStride = resultStore.getContiguousCategoryStride();
+		final int leftStride = leftConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		final int rightStride = rightConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		for( int category = 0; category<numberOfCategories; category++ ) {
+			int patternAccess = 0;
+			int resultIndex = category*resultStride;
+			final int leftBase = category*leftStride;
+			final int rightBase = category*rightStride;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final int leftIndex = leftBase+patternLookup[patternAccess++]*numberOfStates;
+				final int rightIndex = rightBase+patternLookup[patternAccess++]*numberOfStates;
+				for( int endState = 0; endState<numberOfStates; endState++ ) {
+					resultValues[resultIndex++] = leftValues[leftIndex+endState]*rightValues[rightIndex+endState];
+				}
+			}
+		}
+	}
+
+	private static final void calculateExtendedContiguousImpl( final double[][][] transitionProbabilityStore,
+		final PatternInfo centerPattern,
+		final ConditionalProbabilityStore leftConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore rightConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore resultStore,
+		int numberOfCategories,
+		int numberOfStates,
+		double[] endStateProbabilityStore ) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] leftValues = leftConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] rightValues = rightConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final int resultStride = resultStore.getContiguousCategoryStride();
+		final int leftStride = leftConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		final int rightStride = rightConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		for( int category = 0; category<numberOfCategories; category++ ) {
+			int patternAccess = 0;
+			int resultIndex = category*resultStride;
+			final int leftBase = category*leftStride;
+			final int rightBase = category*rightStride;
+			final double[][] transProb = transitionProbabilityStore[category];
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final int leftIndex = leftBase+patternLookup[patternAccess++]*numberOfStates;
+				final int rightIndex = rightBase+patternLookup[patternAccess++]*numberOfStates;
+				for( int endState = 0; endState<numberOfStates; endState++ ) {
+					endStateProbabilityStore[endState] = leftValues[leftIndex+endState]*rightValues[rightIndex+endState];
+				}
+				for( int startState = 0; startState<numberOfStates; startState++ ) {
+					double probTotal = 0;
+					final double[] speedupArray = transProb[startState];
+					for( int endState = 0; endState<numberOfStates; endState++ ) {
+						probTotal += speedupArray[endState]*endStateProbabilityStore[endState];
+					}
+					resultValues[resultIndex++] = probTotal;
+				}
+			}
+		}
+	}
+
+	private static final void calculatePostExtendedFlatContiguousImpl(
+		final double[][][] transitionProbabilityStore,
+		final PatternInfo centerPattern,
+		final ConditionalProbabilityStore leftConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore rightConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore resultStore,
+		int numberOfCategories,
+		int numberOfStates) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] leftValues = leftConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] rightValues = rightConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final int resultStride = resultStore.getContiguousCategoryStride();
+		final int leftStride = leftConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		final int rightStride = rightConditionalProbabilityProbabilties.getContiguousCategoryStride();
+		for( int category = 0; category<numberOfCategories; category++ ) {
+			int patternAccess = 0;
+			int resultIndex = category*resultStride;
+			final int leftBase = category*leftStride;
+			final int rightBase = category*rightStride;
+			final double[][] transProb = transitionProbabilityStore[category];
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final int leftIndex = leftBase+patternLookup[patternAccess++]*numberOfStates;
+				final int rightIndex = rightBase+patternLookup[patternAccess++]*numberOfStates;
+				for( int startState = 0; startState<numberOfStates; startState++ ) {
+					double leftTotal = 0;
+					double rightTotal = 0;
+					final double[] speedupArray = transProb[startState];
+					for( int endState = 0; endState<numberOfStates; endState++ ) {
+						leftTotal += speedupArray[endState]*leftValues[leftIndex+endState];
+						rightTotal += speedupArray[endState]*rightValues[rightIndex+endState];
+					}
+					resultValues[resultIndex++] = leftTotal*rightTotal;
+				}
+			}
+		}
+	}
+
   private static final class ExternalImpl extends AbstractExternal implements LHCalculator.External {
 
     private final int numberOfCategories_;
@@ -269,7 +431,10 @@ public class SimpleLHCalculator implements LHCalculator {
                                     ConditionalProbabilityStore conditionalProbabilities
                                   ) {
 			model.getTransitionProbabilities( distance, transitionProbabilityStore_ );
-
+			if(conditionalProbabilities.isContiguous()) {
+				calculateSingleExtendedDirectContiguous(numberOfPatterns,conditionalProbabilities);
+				return;
+			}
       double[][][] baseStoreValues = conditionalProbabilities.getCurrentConditionalProbabilities();
 			for( int category = 0; category<numberOfCategories_; category++ ) {
         int patternAccess = 0;
@@ -307,6 +472,66 @@ public class SimpleLHCalculator implements LHCalculator {
 			calculateSingleExtendedIndirectImpl(distance,model,numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities,transitionProbabilityStore_,numberOfCategories_,numberOfStates_);
    	}
 
+		private final void calculateSingleExtendedDirectContiguous( int numberOfPatterns, ConditionalProbabilityStore conditionalProbabilities ) {
+			final double[] baseValues = conditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+			final int baseStride = conditionalProbabilities.getContiguousCategoryStride();
+			for( int category = 0; category<numberOfCategories_; category++ ) {
+				final double[][] transProb = transitionProbabilityStore_[category];
+				int baseIndex = category*baseStride;
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					for( int startState = 0; startState<numberOfStates_; startState++ ) {
+						double probTotal = 0;
+						final double[] speedupArray = transProb[startState];
+						for( int endState = 0; endState<numberOfStates_; endState++ ) {
+							probTotal += speedupArray[endState]*baseValues[baseIndex+endState];
+						}
+						stateProbabilityStore_[startState] = probTotal;
+					}
+					System.arraycopy(stateProbabilityStore_,0,baseValues,baseIndex,numberOfStates_);
+					baseIndex+=numberOfStates_;
+				}
+			}
+		}
+
+		private final double[] getContiguousResultStoreValues( double distance, SubstitutionModel model,
+			PatternInfo centerPattern,
+			ConditionalProbabilityStore leftFlatConditionalProbabilities,
+			ConditionalProbabilityStore rightFlatConditionalProbabilities,
+			ConditionalProbabilityStore tempStore
+			) {
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+
+			model.getTransitionProbabilities( distance, transitionProbabilityStore_ );
+
+			final double[] resultValues = tempStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+			final double[] leftValues = leftFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+			final double[] rightValues = rightFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+			final int resultStride = tempStore.getContiguousCategoryStride();
+			final int leftStride = leftFlatConditionalProbabilities.getContiguousCategoryStride();
+			final int rightStride = rightFlatConditionalProbabilities.getContiguousCategoryStride();
+			for( int category = 0; category<numberOfCategories_; category++ ) {
+				int patternAccess = 0;
+				int resultIndex = category*resultStride;
+				final int leftBase = category*leftStride;
+				final int rightBase = category*rightStride;
+				final double[][] transProb = transitionProbabilityStore_[category];
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					final int leftIndex = leftBase+patternLookup[patternAccess++]*numberOfStates_;
+					final int rightIndex = rightBase+patternLookup[patternAccess++]*numberOfStates_;
+					for( int startState = 0; startState<numberOfStates_; startState++ ) {
+						double probTotal = 0;
+						final double[] speedupArray = transProb[startState];
+						for( int endState = 0; endState<numberOfStates_; endState++ ) {
+							probTotal += speedupArray[endState]*leftValues[leftIndex+endState];
+						}
+						resultValues[resultIndex++] = probTotal*rightValues[rightIndex+startState];
+					}
+				}
+			}
+			return resultValues;
+		}
+
 		 private final double[][][] getResultStoreValues( double distance, SubstitutionModel model,
       PatternInfo centerPattern,
       ConditionalProbabilityStore
@@ -358,6 +583,10 @@ public class SimpleLHCalculator implements LHCalculator {
                                        ) {
       final int[] patternWeights = centerPattern.getPatternWeights();
       final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			if(tempStore.isContiguous()) {
+				final double[] resultValues = getContiguousResultStoreValues( distance, model, centerPattern, leftFlatConditionalProbabilities, rightFlatConditionalProbabilities, tempStore );
+				return calculateLogLikelihoodContiguous(model,patternWeights,numberOfPatterns,resultValues,tempStore.getContiguousCategoryStride())+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
+			}
       final double[][][] resultStoreValues = getResultStoreValues( distance, model, centerPattern, leftFlatConditionalProbabilities, rightFlatConditionalProbabilities, tempStore );
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
       final double[] probabilities = model.getTransitionCategoryProbabilities();
@@ -375,11 +604,33 @@ public class SimpleLHCalculator implements LHCalculator {
         }
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
     }
 
 
 
+		private final double calculateLogLikelihoodContiguous( SubstitutionModel model, int[] patternWeights, int numberOfPatterns, double[] values, int categoryStride ) {
+			final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+			final double[] probabilities = model.getTransitionCategoryProbabilities();
+			double logLikelihood = 0;
+			int patternBase = 0;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				double total = 0;
+				int index = patternBase;
+				for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+					double prob = 0;
+					for( int state = 0; state<numberOfStates_; state++ ) {
+						prob += equilibriumFrequencies[state]*values[index+state];
+					}
+					total += probabilities[cat]*prob;
+					index+=categoryStride;
+				}
+				logLikelihood += Math.log( total )*patternWeights[pattern];
+				patternBase+=numberOfStates_;
+			}
+			return logLikelihood;
+		}
+
     protected void calculateCategoryPatternProbabilities( double distance, SubstitutionModel model,
                                        PatternInfo centerPattern,
                                        ConditionalProbabilityStore
@@ -391,6 +642,23 @@ public class SimpleLHCalculator implements LHCalculator {
                                        ) {
       final int[] patternWeights = centerPattern.getPatternWeights();
       final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			if(tempStore.isContiguous()) {
+				final double[] resultValues = getContiguousResultStoreValues( distance, model, centerPattern, leftFlatConditionalProbabilities, rightFlatConditionalProbabilities, tempStore );
+				final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+				final int stride = tempStore.getContiguousCategoryStride();
+				for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+					final double[] patternLogLikelihoods = categoryPatternLogLikelihoods[cat];
+					int index = cat*stride;
+					for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+						double prob = 0;
+						for( int state = 0; state<numberOfStates_; state++ ) {
+							prob += equilibriumFrequencies[state]*resultValues[index++];
+						}
+						patternLogLikelihoods[pattern] = prob;
+					}
+				}
+				return;
+			}
       final double[][][] resultStoreValues = getResultStoreValues( distance, model, centerPattern, leftFlatConditionalProbabilities, rightFlatConditionalProbabilities, tempStore );
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
       double logLikelihood = 0;
@@ -418,6 +686,9 @@ public class SimpleLHCalculator implements LHCalculator {
      */
     public double calculateLogLikelihoodSingle( SubstitutionModel model, int[] patternWeights, int numberOfPatterns,
                                        ConditionalProbabilityStore conditionalProbabilityStore) {
+			if(conditionalProbabilityStore.isContiguous()) {
+				return calculateLogLikelihoodContiguous(model,patternWeights,numberOfPatterns,conditionalProbabilityStore.getCurrentContiguousConditionalProbabilities(),conditionalProbabilityStore.getContiguousCategoryStride())+conditionalProbabilityStore.getLogScalingTotal(patternWeights,numberOfPatterns);
+			}
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
       final double[] probabilities = model.getTransitionCategoryProbabilities();
 			double logLikelihood = 0;
@@ -435,7 +706,7 @@ public class SimpleLHCalculator implements LHCalculator {
         }
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+conditionalProbabilityStore.getLogScalingTotal(patternWeights,numberOfPatterns);
     }
 
     public double calculateLogLikelihood( SubstitutionModel model,
@@ -451,6 +722,29 @@ public class SimpleLHCalculator implements LHCalculator {
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
       final double[] probabilities = model.getTransitionCategoryProbabilities();
 			double logLikelihood = 0;
+			if(leftConditionalProbabilitiesStore.isContiguous()) {
+				final double[] leftValues = leftConditionalProbabilitiesStore.getCurrentContiguousConditionalProbabilities();
+				final double[] rightValues = rightConditionalProbabilitiesStore.getCurrentContiguousConditionalProbabilities();
+				final int leftStride = leftConditionalProbabilitiesStore.getContiguousCategoryStride();
+				final int rightStride = rightConditionalProbabilitiesStore.getContiguousCategoryStride();
+				int patternIndex = 0;
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					double total = 0;
+					int leftIndex = patternLookup[patternIndex++]*numberOfStates_;
+					int rightIndex = patternLookup[patternIndex++]*numberOfStates_;
+					for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+						double prob = 0;
+						for( int state = 0; state<numberOfStates_; state++ ) {
+							prob += equilibriumFrequencies[state]*( leftValues[leftIndex+state]*rightValues[rightIndex+state] );
+						}
+						total += probabilities[cat]*prob;
+						leftIndex+=leftStride;
+						rightIndex+=rightStride;
+					}
+					logLikelihood += Math.log( total )*patternWeights[pattern];
+				}
+				return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore);
+			}
       double[][][] leftConditionalProbabilities =
         leftConditionalProbabilitiesStore.
         getCurrentConditionalProbabilities();
@@ -474,7 +768,7 @@ public class SimpleLHCalculator implements LHCalculator {
         }
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore);
     }
 
 		public void calculateCategoryPatternProbabilities( SubstitutionModel model,
@@ -489,6 +783,28 @@ public class SimpleLHCalculator implements LHCalculator {
       final int numberOfPatterns = centerPattern.getNumberOfPatterns();
 
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+			if(leftConditionalProbabilitiesStore.isContiguous()) {
+				final double[] leftValues = leftConditionalProbabilitiesStore.getCurrentContiguousConditionalProbabilities();
+				final double[] rightValues = rightConditionalProbabilitiesStore.getCurrentContiguousConditionalProbabilities();
+				final int leftStride = leftConditionalProbabilitiesStore.getContiguousCategoryStride();
+				final int rightStride = rightConditionalProbabilitiesStore.getContiguousCategoryStride();
+				for( int cat = 0; cat<numberOfCategories_; cat++ ) {
+					final double[] patternLogLikelihoods = categoryPatternLogLikelihoods[cat];
+					final int leftBase = cat*leftStride;
+					final int rightBase = cat*rightStride;
+					int patternIndex = 0;
+					for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+						final int leftIndex = leftBase+patternLookup[patternIndex++]*numberOfStates_;
+						final int rightIndex = rightBase+patternLookup[patternIndex++]*numberOfStates_;
+						double prob = 0;
+						for( int state = 0; state<numberOfStates_; state++ ) {
+							prob += equilibriumFrequencies[state]*( leftValues[leftIndex+state]*rightValues[rightIndex+state] );
+						}
+						patternLogLikelihoods[pattern]=prob;
+					}
+				}
+				return;
+			}
       double[][][] leftConditionalProbabilities = leftConditionalProbabilitiesStore.getCurrentConditionalProbabilities();
       double[][][] rightConditionalProbabilities = rightConditionalProbabilitiesStore.getCurrentConditionalProbabilities();
 
@@ -587,15 +903,24 @@ public class SimpleLHCalculator implements LHCalculator {
 
   public static final LHCalculator.Factory getFactory() {
     return FACTORY_INSTANCE;
+  }
+	/**
+	 * @return a factory for calculators that use contiguous conditional probability stores (a single array per store, rather than one array per pattern)
+	 */
+  public static final LHCalculator.Factory getContiguousFactory() {
+    return CONTIGUOUS_FACTORY_INSTANCE;
   }
 
 // -=-=--==-=-=-=---=-==-=--==-=-=-=-
   private static final class SimpleFactory implements LHCalculator.Factory {
-    public SimpleFactory() {}
+		private final boolean contiguous_;
+    public SimpleFactory(boolean contiguous) {
+			this.contiguous_ = contiguous;
+		}
 
     public LHCalculator.Generator createSeries( int numberOfCategories,
                                                 DataType dt ) {
-      return new SimpleGenerator( numberOfCategories, dt.getNumStates() );
+      return new SimpleGenerator( numberOfCategories, dt.getNumStates(), contiguous_ );
     }
   }
 
@@ -604,15 +929,17 @@ public class SimpleLHCalculator implements LHCalculator {
   private static final class SimpleGenerator implements LHCalculator.Generator {
     private int numberOfCategories_;
     private int numberOfStates_;
+		private boolean contiguous_;
     //
 		// Serialization Code
 		//
 		private static final long serialVersionUID = 75762749252L;
 
 		private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
-			out.writeByte(2); //Version number
+			out.writeByte(3); //Version number
 			out.writeInt(numberOfCategories_);
 			out.writeInt(numberOfStates_);
+			out.writeBoolean(contiguous_);
 		}
 
 		private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException{
@@ -625,18 +952,25 @@ public class SimpleLHCalculator implements LHCalculator {
 					in.readObject();
 					break;
 				}
+				case 2 : {
+					numberOfCategories_ = in.readInt();
+					numberOfStates_ = in.readInt();
+					break;
+				}
 				default : {
 					numberOfCategories_ = in.readInt();
 					numberOfStates_ = in.readInt();
+					contiguous_ = in.readBoolean();
 					break;
 				}
 
 			}
 		}
 
-    public SimpleGenerator( int numberOfCategories, int numberOfStates ) {
+    public SimpleGenerator( int numberOfCategories, int numberOfStates, boolean contiguous ) {
       this.numberOfCategories_ = numberOfCategories;
       this.numberOfStates_ = numberOfStates;
+			this.contiguous_ = contiguous;
     }
 		public Leaf createNewLeaf(int[] patternStateMatchup, int numberOfPatterns) {
 		  return new SimpleLeafCalculator(patternStateMatchup,numberOfPatterns, numberOfStates_, numberOfCategories_,this);
@@ -666,7 +1000,7 @@ public class SimpleLHCalculator implements LHCalculator {
     }
 
     public ConditionalProbabilityStore createAppropriateConditionalProbabilityStore( boolean isForLeaf ) {
-      return new ConditionalProbabilityStore( numberOfCategories_, numberOfStates_);
+      return new ConditionalProbabilityStore( numberOfCategories_, numberOfStates_, null, contiguous_);
     }
 		public boolean isAllowCaching() { return false; }
 
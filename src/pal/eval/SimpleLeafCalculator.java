@@ -67,6 +67,19 @@ public class SimpleLeafCalculator implements LHCalculator.Leaf{
 		for( int i = 0; i<numberOfStates; i++ ) {
 			stateStuff[i][i] = 1;
 		}
+		if(flatConditionalProbabilities.isContiguous()) {
+			final double[] contiguousStore = flatConditionalProbabilities.getContiguousConditionalProbabilityAccess( numberOfPatterns, true );
+			final int categoryStride = flatConditionalProbabilities.getContiguousCategoryStride();
+			for( int cat = 0; cat<numberOfCategories; cat++ ) {
+				int index = cat*categoryStride;
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					int state = patternStateMatchup[pattern];
+					System.arraycopy( ( state==numberOfStates ? gapStore : stateStuff[state] ), 0, contiguousStore, index, numberOfStates );
+					index+=numberOfStates;
+				}
+			}
+			return flatConditionalProbabilities;
+		}
 		double[][][] flatStore = flatConditionalProbabilities.getIncompleteConditionalProbabilityAccess( numberOfPatterns, true, true );
 
 		for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
@@ -90,6 +103,11 @@ public class SimpleLeafCalculator implements LHCalculator.Leaf{
 		for( int i = 0; i<numberOfStates; i++ ) {
 			stateStuff[i][i] = 1;
 		}
+		if(extendedConditionalProbabilities.isContiguous()) {
+			//Rows can not be shared, so values are copied in by fillContiguousExtended() whenever the transition probabilities change
+			fillContiguousExtended(transitionProbabilityStore,patternStateMatchup,numberOfPatterns,numberOfCategories,numberOfStates,extendedConditionalProbabilities);
+			return extendedConditionalProbabilities;
+		}
 		double[][][] extendedStore = extendedConditionalProbabilities.getIncompleteConditionalProbabilityAccess( numberOfPatterns, true, true );
 
 		for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
@@ -103,6 +121,24 @@ public class SimpleLeafCalculator implements LHCalculator.Leaf{
 		}
 		return extendedConditionalProbabilities;
 	}
+	private static final void fillContiguousExtended(double[][][] transitionProbabilityStore, int[] patternStateMatchup, int numberOfPatterns, int numberOfCategories, int numberOfStates, ConditionalProbabilityStore extendedConditionalProbabilities ) {
+		final double[] contiguousStore = extendedConditionalProbabilities.getContiguousConditionalProbabilityAccess( numberOfPatterns, true );
+		final int categoryStride = extendedConditionalProbabilities.getContiguousCategoryStride();
+		for( int cat = 0; cat<numberOfCategories; cat++ ) {
+			int index = cat*categoryStride;
+			final double[][] categoryTransitionProbabilities = transitionProbabilityStore[cat];
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				int state = patternStateMatchup[pattern];
+				//If state is gap
+				if( state==numberOfStates ) {
+					for( int i = 0; i<numberOfStates; i++ ) { contiguousStore[index+i] = 1; }
+				} else {
+					System.arraycopy( categoryTransitionProbabilities[state], 0, contiguousStore, index, numberOfStates );
+				}
+				index+=numberOfStates;
+			}
+		}
+	}
 // ======================================
 
 
@@ -116,6 +152,9 @@ public class SimpleLeafCalculator implements LHCalculator.Leaf{
 	public ConditionalProbabilityStore getExtendedConditionalProbabilities( double distance, SubstitutionModel model, boolean modelChanged) {
 		if(distance!=lastDistance_||lastDistance_<0||modelChanged) {
 			model.getTransitionProbabilitiesTranspose( distance,transitionProbabilitiyStore_ );
+			if(conditionalProbabilities_.isContiguous()) {
+				fillContiguousExtended(transitionProbabilitiyStore_,patternStateMatchup_,numberOfPatterns_,numberOfCategories_,numberOfStates_,conditionalProbabilities_);
+			}
 			lastDistance_ = distance;
 			conditionalProbabilities_.setBasedOnCachedData(false);
 		} else {
@@ -30,9 +30,13 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
 																		double[][] transitionProbabilityStore
                                   ) {
 			model.getTransitionProbabilities( distance, 0, transitionProbabilityStore );
-
+			resultConditionalProbabilities.copyScaling(baseConditionalProbabilities,numberOfPatterns);
+			if(resultConditionalProbabilities.isContiguous()) {
+				calculateSingleExtendedIndirectContiguousImpl(numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities,transitionProbabilityStore);
+				return;
+			}
       double[][][] baseStoreValues = baseConditionalProbabilities.getCurrentConditionalProbabilities();
-			double[][][] resultStoreValues = baseConditionalProbabilities.getConditionalProbabilityAccess(numberOfPatterns,false);
+			double[][][] resultStoreValues = resultConditionalProbabilities.getConditionalProbabilityAccess(numberOfPatterns,false);
 			final double[][] basePatternStateProbabilities = baseStoreValues[0];
       final double[][] resultPatternStateProbabilities = resultStoreValues[0];
       for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
@@ -43,22 +47,22 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
         final double[] speedupArray2 = transitionProbabilityStore[2];
         final double[] speedupArray3 = transitionProbabilityStore[3];
         resultStateProbabilities[0]=
-					speedupArray0[1]*baseStateProbabilities[0]+
+					speedupArray0[0]*baseStateProbabilities[0]+
           speedupArray0[1]*baseStateProbabilities[1]+
           speedupArray0[2]*baseStateProbabilities[2]+
           speedupArray0[3]*baseStateProbabilities[3];
 				resultStateProbabilities[1] =
-					speedupArray1[1]*baseStateProbabilities[0]+
+					speedupArray1[0]*baseStateProbabilities[0]+
           speedupArray1[1]*baseStateProbabilities[1]+
           speedupArray1[2]*baseStateProbabilities[2]+
           speedupArray1[3]*baseStateProbabilities[3];
 				resultStateProbabilities[2] =
-					speedupArray2[1]*baseStateProbabilities[0]+
+					speedupArray2[0]*baseStateProbabilities[0]+
           speedupArray2[1]*baseStateProbabilities[1]+
           speedupArray2[2]*baseStateProbabilities[2]+
           speedupArray2[3]*baseStateProbabilities[3];
 				resultStateProbabilities[3] =
-					speedupArray3[1]*baseStateProbabilities[0]+
+					speedupArray3[0]*baseStateProbabilities[0]+
           speedupArray3[1]*baseStateProbabilities[1]+
           speedupArray3[2]*baseStateProbabilities[2]+
           speedupArray3[3]*baseStateProbabilities[3];
@@ -70,6 +74,11 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
     final ConditionalProbabilityStore
     rightConditionalProbabilityProbabilties,
     final ConditionalProbabilityStore resultStore ) {
+		if(resultStore.isContiguous()) {
+			calculateExtendedContiguousImpl(transitionProbabilityStore,centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties,resultStore);
+			resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
+			return;
+		}
     final int[] patternLookup = centerPattern.getPatternLookup();
     final int numberOfPatterns = centerPattern.getNumberOfPatterns();
     int patternAccess = 0;
@@ -102,6 +111,7 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
       myStateProbabilities[2] = sa2[0]*es0+sa2[1]*es1+sa2[2]*es2+sa2[3]*es3;
       myStateProbabilities[3] = sa3[0]*es0+sa3[1]*es1+sa3[2]*es2+sa3[3]*es3;
     }
+		resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
   }
 
   private static final void calculateFlatImpl( final PatternInfo centerPattern,
@@ -110,6 +120,11 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
     final ConditionalProbabilityStore
     rightConditionalProbabilityProbabilties,
     final ConditionalProbabilityStore resultStore ) {
+		if(resultStore.isContiguous()) {
+			calculateFlatContiguousImpl(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties,resultStore);
+			resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
+			return;
+		}
     int patternAccess = 0;
     final int[] patternLookup = centerPattern.getPatternLookup();
     final int numberOfPatterns = centerPattern.getNumberOfPatterns();
@@ -138,10 +153,88 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
       myStateProbabilities[3] = leftStateProbabilities[3]*
                                 rightStateProbabilities[3];
     }
+		resultStore.updateScaling(centerPattern,leftConditionalProbabilityProbabilties,rightConditionalProbabilityProbabilties);
   }
 
 // -=-=-=-=-=-=-=-=-==-=-=--==--==--=
 
+// -=-=-=-=-=-=-=-=-==-=-=--==--==--=
+// Contiguous storage versions (see ConditionalProbabilityStore.isContiguous())
+// -=-=-=-=-=-=-=-=-==-=-=--==--==--=
+	private static final void calculateSingleExtendedIndirectContiguousImpl(
+			int numberOfPatterns,
+			ConditionalProbabilityStore baseConditionalProbabilities,
+			ConditionalProbabilityStore resultConditionalProbabilities,
+			double[][] transitionProbabilityStore
+		) {
+		final double[] baseValues = baseConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+		final double[] resultValues = resultConditionalProbabilities.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+		final double[] sa0 = transitionProbabilityStore[0];
+		final double[] sa1 = transitionProbabilityStore[1];
+		final double[] sa2 = transitionProbabilityStore[2];
+		final double[] sa3 = transitionProbabilityStore[3];
+		int index = 0;
+		for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+			final double b0 = baseValues[index];
+			final double b1 = baseValues[index+1];
+			final double b2 = baseValues[index+2];
+			final double b3 = baseValues[index+3];
+			resultValues[index++] = sa0[0]*b0+sa0[1]*b1+sa0[2]*b2+sa0[3]*b3;
+			resultValues[index++] = sa1[0]*b0+sa1[1]*b1+sa1[2]*b2+sa1[3]*b3;
+			resultValues[index++] = sa2[0]*b0+sa2[1]*b1+sa2[2]*b2+sa2[3]*b3;
+			resultValues[index++] = sa3[0]*b0+sa3[1]*b1+sa3[2]*b2+sa3[3]*b3;
+		}
+	}
+	private static final void calculateExtendedContiguousImpl( final double[][] transitionProbabilityStore,
+		final PatternInfo centerPattern,
+		final ConditionalProbabilityStore leftConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore rightConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore resultStore ) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] leftValues = leftConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] rightValues = rightConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] sa0 = transitionProbabilityStore[0];
+		final double[] sa1 = transitionProbabilityStore[1];
+		final double[] sa2 = transitionProbabilityStore[2];
+		final double[] sa3 = transitionProbabilityStore[3];
+		int patternAccess = 0;
+		int resultIndex = 0;
+		for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+			final int leftIndex = patternLookup[patternAccess++]<<2;
+			final int rightIndex = patternLookup[patternAccess++]<<2;
+			final double es0 = leftValues[leftIndex]*rightValues[rightIndex];
+			final double es1 = leftValues[leftIndex+1]*rightValues[rightIndex+1];
+			final double es2 = leftValues[leftIndex+2]*rightValues[rightIndex+2];
+			final double es3 = leftValues[leftIndex+3]*rightValues[rightIndex+3];
+			resultValues[resultIndex++] = sa0[0]*es0+sa0[1]*es1+sa0[2]*es2+sa0[3]*es3;
+			resultValues[resultIndex++] = sa1[0]*es0+sa1[1]*es1+sa1[2]*es2+sa1[3]*es3;
+			resultValues[resultIndex++] = sa2[0]*es0+sa2[1]*es1+sa2[2]*es2+sa2[3]*es3;
+			resultValues[resultIndex++] = sa3[0]*es0+sa3[1]*es1+sa3[2]*es2+sa3[3]*es3;
+		}
+	}
+	private static final void calculateFlatContiguousImpl( final PatternInfo centerPattern,
+		final ConditionalProbabilityStore leftConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore rightConditionalProbabilityProbabilties,
+		final ConditionalProbabilityStore resultStore ) {
+		final int[] patternLookup = centerPattern.getPatternLookup();
+		final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+		final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+		final double[] leftValues = leftConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		final double[] rightValues = rightConditionalProbabilityProbabilties.getCurrentContiguousConditionalProbabilities();
+		int patternAccess = 0;
+		int resultIndex = 0;
+		for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+			final int leftIndex = patternLookup[patternAccess++]<<2;
+			final int rightIndex = patternLookup[patternAccess++]<<2;
+			resultValues[resultIndex++] = leftValues[leftIndex]*rightValues[rightIndex];
+			resultValues[resultIndex++] = leftValues[leftIndex+1]*rightValues[rightIndex+1];
+			resultValues[resultIndex++] = leftValues[leftIndex+2]*rightValues[rightIndex+2];
+			resultValues[resultIndex++] = leftValues[leftIndex+3]*rightValues[rightIndex+3];
+		}
+	}
+
   private static final class InternalImpl implements Internal {
     private final ConditionalProbabilityStore myResultStore_;
     private final double[][] transitionProbabilityStore_;
@@ -206,6 +299,53 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
       this.transitionProbabilityStore_ = new double[FOUR_STATES][FOUR_STATES];
     }
 
+		private static final double calculateLogLikelihoodContiguous( SubstitutionModel model, int[] patternWeights, int numberOfPatterns, double[] values ) {
+			final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+			final double ef0 = equilibriumFrequencies[0];
+			final double ef1 = equilibriumFrequencies[1];
+			final double ef2 = equilibriumFrequencies[2];
+			final double ef3 = equilibriumFrequencies[3];
+			double logLikelihood = 0;
+			int index = 0;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final double total = ef0*values[index]+ef1*values[index+1]+ef2*values[index+2]+ef3*values[index+3];
+				logLikelihood += Math.log( total )*patternWeights[pattern];
+				index+=FOUR_STATES;
+			}
+			return logLikelihood;
+		}
+		private final double[] getContiguousResultStoreValues(double distance,
+			SubstitutionModel model,
+			PatternInfo centerPattern,
+			ConditionalProbabilityStore leftFlatConditionalProbabilities,
+			ConditionalProbabilityStore rightFlatConditionalProbabilities,
+			ConditionalProbabilityStore tempStore
+			) {
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+
+			model.getTransitionProbabilities( distance, 0, transitionProbabilityStore_ );
+			final double[] resultValues = tempStore.getContiguousConditionalProbabilityAccess( numberOfPatterns, false );
+			final double[] leftValues = leftFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+			final double[] rightValues = rightFlatConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+			final double[] sa0 = transitionProbabilityStore_[0];	final double[] sa1 = transitionProbabilityStore_[1];
+			final double[] sa2 = transitionProbabilityStore_[2]; final double[] sa3 = transitionProbabilityStore_[3];
+			int patternAccess = 0;
+			int resultIndex = 0;
+			for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+				final int leftIndex = patternLookup[patternAccess++]<<2;
+				final int rightIndex = patternLookup[patternAccess++]<<2;
+				final double l0 = leftValues[leftIndex];
+				final double l1 = leftValues[leftIndex+1];
+				final double l2 = leftValues[leftIndex+2];
+				final double l3 = leftValues[leftIndex+3];
+				resultValues[resultIndex++] = ( sa0[0]*l0+sa0[1]*l1+sa0[2]*l2+sa0[3]*l3 )*rightValues[rightIndex];
+				resultValues[resultIndex++] = ( sa1[0]*l0+sa1[1]*l1+sa1[2]*l2+sa1[3]*l3 )*rightValues[rightIndex+1];
+				resultValues[resultIndex++] = ( sa2[0]*l0+sa2[1]*l1+sa2[2]*l2+sa2[3]*l3 )*rightValues[rightIndex+2];
+				resultValues[resultIndex++] = ( sa3[0]*l0+sa3[1]*l1+sa3[2]*l2+sa3[3]*l3 )*rightValues[rightIndex+3];
+			}
+			return resultValues;
+		}
     private final double[][] getResultStoreValues(double distance,
       SubstitutionModel model,
       PatternInfo centerPattern,
@@ -261,6 +401,9 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
     }
 		public double calculateLogLikelihoodSingle( SubstitutionModel model, int[] patternWeights, int numberOfPatterns,
                                        ConditionalProbabilityStore conditionalProbabilityStore) {
+			if(conditionalProbabilityStore.isContiguous()) {
+				return calculateLogLikelihoodContiguous(model,patternWeights,numberOfPatterns,conditionalProbabilityStore.getCurrentContiguousConditionalProbabilities())+conditionalProbabilityStore.getLogScalingTotal(patternWeights,numberOfPatterns);
+			}
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
       final double[] probabilities = model.getTransitionCategoryProbabilities();
 			double logLikelihood = 0;
@@ -275,7 +418,7 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
 						equilibriumFrequencies[3]*baseStates[3];
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+conditionalProbabilityStore.getLogScalingTotal(patternWeights,numberOfPatterns);
     }
 
     public void calculateSingleExtendedDirect(
@@ -284,7 +427,11 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
                                     ConditionalProbabilityStore conditionalProbabilities
                                   ) {
 			model.getTransitionProbabilities( distance, 0, transitionProbabilityStore_ );
-
+			if(conditionalProbabilities.isContiguous()) {
+				//Safe to use the same store for base and result as each pattern is read before written
+				calculateSingleExtendedIndirectContiguousImpl(numberOfPatterns,conditionalProbabilities,conditionalProbabilities,transitionProbabilityStore_);
+				return;
+			}
       double[][][] baseStoreValues = conditionalProbabilities.getCurrentConditionalProbabilities();
 			final double[][] basePatternStateProbabilities = baseStoreValues[0];
 //      final double[][] transProb = transitionProbabilityStore_[category];
@@ -295,22 +442,22 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
         final double[] speedupArray2 = transitionProbabilityStore_[2];
         final double[] speedupArray3 = transitionProbabilityStore_[3];
         double probTotal0 =
-					speedupArray0[1]*baseStateProbabilities[0]+
+					speedupArray0[0]*baseStateProbabilities[0]+
           speedupArray0[1]*baseStateProbabilities[1]+
           speedupArray0[2]*baseStateProbabilities[2]+
           speedupArray0[3]*baseStateProbabilities[3];
 				double probTotal1 =
-					speedupArray1[1]*baseStateProbabilities[0]+
+					speedupArray1[0]*baseStateProbabilities[0]+
           speedupArray1[1]*baseStateProbabilities[1]+
           speedupArray1[2]*baseStateProbabilities[2]+
           speedupArray1[3]*baseStateProbabilities[3];
 				double probTotal2 =
-					speedupArray2[1]*baseStateProbabilities[0]+
+					speedupArray2[0]*baseStateProbabilities[0]+
           speedupArray2[1]*baseStateProbabilities[1]+
           speedupArray2[2]*baseStateProbabilities[2]+
           speedupArray2[3]*baseStateProbabilities[3];
 				double probTotal3 =
-					speedupArray3[1]*baseStateProbabilities[0]+
+					speedupArray3[0]*baseStateProbabilities[0]+
           speedupArray3[1]*baseStateProbabilities[1]+
           speedupArray3[2]*baseStateProbabilities[2]+
           speedupArray3[3]*baseStateProbabilities[3];
@@ -372,7 +519,10 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
       final int[] patternWeights = centerPattern.getPatternWeights();
       final int[] patternLookup = centerPattern.getPatternLookup();
       final int numberOfPatterns = centerPattern.getNumberOfPatterns();
-
+			if(tempStore.isContiguous()) {
+				return calculateLogLikelihoodContiguous(model,patternWeights,numberOfPatterns,
+					getContiguousResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore))+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
+			}
       final double[][] myPatternStateProbabilities =
         getResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
@@ -387,7 +537,7 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
                              equilibriumFrequencies[3]*states[3];
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
     }
     protected final void calculateCategoryPatternProbabilities(  SubstitutionModel model,
                                  PatternInfo centerPattern,
@@ -401,6 +551,21 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
         final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
         final double[] probabilities = model.getTransitionCategoryProbabilities();
         int patternIndex = 0;
+				if(leftConditionalProbabilities.isContiguous()) {
+					final double[] leftValues = leftConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+					final double[] rightValues = rightConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+					final double[] patternLogLikelihoods = categoryPatternLogLikelihoodStore[0];
+					for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+						final int left = patternLookup[patternIndex++]<<2;
+						final int right = patternLookup[patternIndex++]<<2;
+						patternLogLikelihoods[pattern] =
+							equilibriumFrequencies[0]*( leftValues[left]*rightValues[right] )+
+							equilibriumFrequencies[1]*( leftValues[left+1]*rightValues[right+1] )+
+							equilibriumFrequencies[2]*( leftValues[left+2]*rightValues[right+2] )+
+							equilibriumFrequencies[3]*( leftValues[left+3]*rightValues[right+3] );
+					}
+					return;
+				}
         final double[][] leftValues = leftConditionalProbabilities.
                                 getCurrentConditionalProbabilities( 0 );
         final double[][] rightValues = rightConditionalProbabilities.
@@ -425,7 +590,22 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
                           ConditionalProbabilityStore  tempStore,
                           double[][] categoryPatternLogLikelihoodStore
 		                     ) {
-
+			if(tempStore.isContiguous()) {
+				final double[] resultValues = getContiguousResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
+				final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
+				final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+				final double[] patternLogLikelihoodStore = categoryPatternLogLikelihoodStore[0];
+				int index = 0;
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					patternLogLikelihoodStore[pattern] =
+						equilibriumFrequencies[0]*resultValues[index]+
+						equilibriumFrequencies[1]*resultValues[index+1]+
+						equilibriumFrequencies[2]*resultValues[index+2]+
+						equilibriumFrequencies[3]*resultValues[index+3];
+					index+=FOUR_STATES;
+				}
+				return;
+			}
       final double[][] myPatternStateProbabilities =
         getResultStoreValues(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
       final double[] equilibriumFrequencies = model.getEquilibriumFrequencies();
@@ -457,6 +637,21 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
       final double[] probabilities = model.getTransitionCategoryProbabilities();
       double logLikelihood = 0;
       int patternIndex = 0;
+			if(leftConditionalProbabilities.isContiguous()) {
+				final double[] leftValues = leftConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+				final double[] rightValues = rightConditionalProbabilities.getCurrentContiguousConditionalProbabilities();
+				for( int pattern = 0; pattern<numberOfPatterns; pattern++ ) {
+					final int left = patternLookup[patternIndex++]<<2;
+					final int right = patternLookup[patternIndex++]<<2;
+					double total =
+						equilibriumFrequencies[0]*( leftValues[left]*rightValues[right] )+
+						equilibriumFrequencies[1]*( leftValues[left+1]*rightValues[right+1] )+
+						equilibriumFrequencies[2]*( leftValues[left+2]*rightValues[right+2] )+
+						equilibriumFrequencies[3]*( leftValues[left+3]*rightValues[right+3] );
+					logLikelihood += Math.log( total )*patternWeights[pattern];
+				}
+				return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
+			}
       double[][] leftValues = leftConditionalProbabilities.
                               getCurrentConditionalProbabilities( 0 );
       double[][] rightValues = rightConditionalProbabilities.
@@ -472,7 +667,7 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
           equilibriumFrequencies[3]*( left[3]*right[3] );
         logLikelihood += Math.log( total )*patternWeights[pattern];
       }
-      return logLikelihood;
+      return logLikelihood+ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
     }
 
   } //End of class InternalImpl
@@ -484,7 +679,7 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
    * @return
    */
   public static final Factory getFactory( Factory fallbackFactory ) {
-    return new SimpleFactory( fallbackFactory );
+    return new SimpleFactory( fallbackFactory, false );
   }
 
   /**
@@ -492,19 +687,34 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
    * @return
    */
   public static final Factory getFactory() {
-    return new SimpleFactory( FastFourStateLHCalculator.getFactory() );
+    return new SimpleFactory( FastFourStateLHCalculator.getFactory(), false );
+  }
+  /**
+   * @param fallbackFactory A LHCalculator.Factory that can be used if the number of states is not four, or there is more than one category
+   * @return a factory for calculators that use contiguous conditional probability stores
+   */
+  public static final Factory getContiguousFactory( Factory fallbackFactory ) {
+    return new SimpleFactory( fallbackFactory, true );
+  }
+  /**
+   * @return a factory for calculators that use contiguous conditional probability stores (a single array per store, rather than one array per pattern)
+   */
+  public static final Factory getContiguousFactory() {
+    return new SimpleFactory( FastFourStateLHCalculator.getContiguousFactory(), true );
   }
 
 // -=-=--==-=-=-=---=-==-=--==-=-=-=-
   private static final class SimpleFactory implements Factory {
     private final Factory fallbackFactory_;
-    public SimpleFactory( Factory fallbackFactory ) {
+		private final boolean contiguous_;
+    public SimpleFactory( Factory fallbackFactory, boolean contiguous ) {
       this.fallbackFactory_ = fallbackFactory;
+			this.contiguous_ = contiguous;
     }
 
     public Generator createSeries( int numberOfCategories, DataType dt ) {
       if( dt.getNumStates()==4&&numberOfCategories==1 ) {
-        return new SimpleGenerator();
+        return new SimpleGenerator(contiguous_);
       }
       return fallbackFactory_.createSeries( numberOfCategories,dt );
     }
@@ -513,7 +723,10 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
   // -=-=--==-=-=-=---=-==-=--==-=-=-=-
 
   private static final class SimpleGenerator implements Generator {
-    public SimpleGenerator() { }
+		private final boolean contiguous_;
+    public SimpleGenerator(boolean contiguous) {
+			this.contiguous_ = contiguous;
+		}
 		public Leaf createNewLeaf(int[] patternStateMatchup, int numberOfPatterns) {
 		  return new SimpleLeafCalculator(patternStateMatchup,numberOfPatterns, 4, 1, this);
 		}
@@ -536,7 +749,7 @@ public class SimpleModelFastFourStateLHCalculator implements LHCalculator {
     }
 
     public ConditionalProbabilityStore createAppropriateConditionalProbabilityStore( boolean isForLeaf ) {
-      return new ConditionalProbabilityStore( 1, 4 );
+      return new ConditionalProbabilityStore( 1, 4, null, contiguous_ );
     }
 		public boolean isAllowCaching() { return true; }
 
@@ -44,7 +44,24 @@ public interface SiteDetails {
 		 * @return an appropriate Posteriors object
 		 */
 		public static final SiteDetails create(double[][] categoryPatternConditionalProbabilities, boolean isLoggedConditionals, SubstitutionModel model, int numberOfPatterns, int[] sitePatternMatchup, int numberOfSites, double[] siteLikelihoods) {
-			return new SimpleSiteDetails(categoryPatternConditionalProbabilities,isLoggedConditionals,	model, numberOfPatterns, sitePatternMatchup,numberOfSites,siteLikelihoods);
+			return new SimpleSiteDetails(categoryPatternConditionalProbabilities,isLoggedConditionals,	model, numberOfPatterns, sitePatternMatchup,numberOfSites,siteLikelihoods,null);
+		}
+		/**
+		 * Create a Postriors object, given the log likelihood at each site (for when site likelihoods may be too small
+		 * to represent, as on large trees)
+		 * @param categoryPatternConditionalProbabilities An array arranged [category][pattern] that holds the conditional probabilities for each category at each site
+		 * (the values for a pattern may all be scaled by the same factor, as only their relative sizes are used)
+		 * @param isLoggedConditionals should be true if the conditional probabilities are stored as logged values, false if not
+		 * @param model the related substitution models
+		 * @param numberOfPatterns the number of patterns
+		 * @param sitePatternMatchup an array that identifies what pattern is to used at which site
+		 * @param numberOfSites the number of sites
+		 * @param siteLikelihoods the site likelihood (unlogged) at each site
+		 * @param siteLogLikelihoods the site log likelihood at each site
+		 * @return an appropriate Posteriors object
+		 */
+		public static final SiteDetails create(double[][] categoryPatternConditionalProbabilities, boolean isLoggedConditionals, SubstitutionModel model, int numberOfPatterns, int[] sitePatternMatchup, int numberOfSites, double[] siteLikelihoods, double[] siteLogLikelihoods) {
+			return new SimpleSiteDetails(categoryPatternConditionalProbabilities,isLoggedConditionals,	model, numberOfPatterns, sitePatternMatchup,numberOfSites,siteLikelihoods,siteLogLikelihoods);
 		}
 		/**
 		 * Create a Postriors object with no related substitution model
@@ -69,15 +86,18 @@ public interface SiteDetails {
 			private final SubstitutionModel model_;
 			private final int numberOfSites_;
 		  public SimpleSiteDetails( double[][] categoryPatternConditionalProbabilities, boolean isLoggedConditionals, int numberOfPatterns, int[] sitePatternMatchup, int numberOfSites, double[] siteLikelihoods ) {
-		    this(categoryPatternConditionalProbabilities,isLoggedConditionals, null,numberOfPatterns,sitePatternMatchup, numberOfSites, siteLikelihoods);
+		    this(categoryPatternConditionalProbabilities,isLoggedConditionals, null,numberOfPatterns,sitePatternMatchup, numberOfSites, siteLikelihoods, null);
 			}
-		 	public SimpleSiteDetails( double[][] categoryPatternConditionalProbabilities, boolean isLoggedConditionals, SubstitutionModel model, int numberOfPatterns, int[] sitePatternMatchup, int numberOfSites, double[] siteLikelihoods ) {
+			/**
+			 * @param siteLogLikelihoods the log likelihood of each site, or null if they are to be found from siteLikelihoods
+			 */
+		 	public SimpleSiteDetails( double[][] categoryPatternConditionalProbabilities, boolean isLoggedConditionals, SubstitutionModel model, int numberOfPatterns, int[] sitePatternMatchup, int numberOfSites, double[] siteLikelihoods, double[] siteLogLikelihoods ) {
 				final int numberOfCategories = model.getNumberOfTransitionCategories();
 				this.siteLikelihoods_ = pal.misc.Utils.getCopy(siteLikelihoods);
 				this.siteLogLikelihoods_ = new double[numberOfSites];
 				double llh = 0;
 				for(int i = 0 ; i < numberOfSites ; i++) {
-				  this.siteLogLikelihoods_[i] = Math.log(this.siteLikelihoods_[i]);
+				  this.siteLogLikelihoods_[i] = (siteLogLikelihoods==null ? Math.log(this.siteLikelihoods_[i]) : siteLogLikelihoods[i]);
 					llh+=this.siteLogLikelihoods_[i];
 				}
 				System.out.println("Total:"+llh);
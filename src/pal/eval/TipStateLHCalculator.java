@@ -0,0 +1,698 @@
+// TipStateLHCalculator.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.eval;
+
+/**
+ * <p>Title: TipStateLHCalculator </p>
+ * <p>Description: A decorator for an LHCalculator.Factory with kernels specialised for calculations involving
+ * leaves. The leaf calculators hold tip stores (see ConditionalProbabilityStore.createTip()), which record the
+ * state at each pattern and a table of the conditionals for each state, rather than per pattern arrays. Extending
+ * a leaf over a branch only updates the table (P(t)e for each state e), so the cost no longer depends on the number
+ * of patterns. Calculations with a tip store as an input index the table by the state of each pattern, and where
+ * the transition probabilities are applied to a tip the products are formed once per state rather than once per pattern:</p>
+ * <ul>
+ * <li>combining two leaves over a branch (extended) uses one product per distinct pair of states</li>
+ * <li>the log likelihood across a branch with a leaf at either end costs O(states) per pattern and category, rather than O(states^2)</li>
+ * <li>post extended flat and single extended calculations on a leaf cost O(states) per pattern and category</li>
+ * </ul>
+ * <p>Calculations not involving tip stores, and site detail calculations (for which tip stores are expanded to
+ * per pattern arrays), are handed to calculators from the decorated factory. If the decorated factory does not
+ * use contiguous stores the leaf calculators of the decorated factory are used instead, and so all calculations
+ * are handed on.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.datatype.*;
+import pal.substmodel.*;
+
+public class TipStateLHCalculator implements LHCalculator {
+
+	/**
+	 * @return a factory decorating the contiguous SimpleLHCalculator factory
+	 */
+	public static final LHCalculator.Factory getFactory() {
+		return getFactory(SimpleLHCalculator.getContiguousFactory());
+	}
+	/**
+	 * @param base the factory to use for calculations not involving leaves (should use contiguous stores)
+	 * @return a factory decorating base
+	 */
+	public static final LHCalculator.Factory getFactory(LHCalculator.Factory base) {
+		return new TipFactory(base);
+	}
+	/**
+	 * @return true if the tip specialised kernels apply to the given stores (at least one is a tip store and all are contiguous)
+	 */
+	private static final boolean isTipCase(ConditionalProbabilityStore a, ConditionalProbabilityStore b, ConditionalProbabilityStore result) {
+		return (a.isTip()||b.isTip())&&a.isContiguous()&&b.isContiguous()&&(result==null||result.isContiguous());
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class TipFactory implements LHCalculator.Factory {
+		private static final long serialVersionUID = 5515262310592553729L;
+		private final LHCalculator.Factory base_;
+		public TipFactory(LHCalculator.Factory base) {
+			this.base_ = base;
+		}
+		public Generator createSeries( int numberOfCategories, DataType dt ) {
+			return new TipGenerator(base_.createSeries(numberOfCategories,dt),numberOfCategories,dt.getNumStates());
+		}
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class TipGenerator implements LHCalculator.Generator {
+		private static final long serialVersionUID = 4505240869844860793L;
+		private final LHCalculator.Generator base_;
+		private final int numberOfCategories_;
+		private final int numberOfStates_;
+		private final boolean contiguous_;
+
+		public TipGenerator(LHCalculator.Generator base, int numberOfCategories, int numberOfStates) {
+			this.base_ = base;
+			this.numberOfCategories_ = numberOfCategories;
+			this.numberOfStates_ = numberOfStates;
+			this.contiguous_ = base.createAppropriateConditionalProbabilityStore(false).isContiguous();
+		}
+		public Leaf createNewLeaf(int[] patternStateMatchup, int numberOfPatterns) {
+			if(!contiguous_) {
+				return base_.createNewLeaf(patternStateMatchup,numberOfPatterns);
+			}
+			return new TipLeaf(patternStateMatchup,numberOfPatterns,numberOfCategories_,numberOfStates_);
+		}
+		public Leaf createNewLeaf(int[] patternStateMatchup, int numberOfPatterns, Generator parentGenerator ) {
+			return parentGenerator.createNewLeaf(patternStateMatchup,numberOfPatterns);
+		}
+		public LHCalculator.External createNewExternal() {
+			return new ExternalImpl(base_.createNewExternal(),numberOfCategories_,numberOfStates_);
+		}
+		public LHCalculator.Internal createNewInternal() {
+			return new InternalImpl(base_.createNewInternal(),createAppropriateConditionalProbabilityStore(false),numberOfCategories_,numberOfStates_);
+		}
+		public LHCalculator.External createNewExternal( Generator parentGenerator ) throws IllegalArgumentException {
+			return new ExternalImpl(base_.createNewExternal(parentGenerator),numberOfCategories_,numberOfStates_);
+		}
+		public LHCalculator.Internal createNewInternal( Generator parentGenerator ) throws IllegalArgumentException {
+			return new InternalImpl(base_.createNewInternal(parentGenerator),parentGenerator.createAppropriateConditionalProbabilityStore(false),numberOfCategories_,numberOfStates_);
+		}
+		public boolean isAllowCaching() { return base_.isAllowCaching(); }
+
+		public ConditionalProbabilityStore createAppropriateConditionalProbabilityStore( boolean isForLeaf ) {
+			return base_.createAppropriateConditionalProbabilityStore(isForLeaf);
+		}
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	/**
+	 * A leaf calculator using tip stores. The extended table is only rebuilt when the distance or model changes.
+	 */
+	private static final class TipLeaf implements LHCalculator.Leaf {
+		private final int[] patternStateMatchup_;
+		private final int numberOfPatterns_;
+		private final int numberOfCategories_;
+		private final int numberOfStates_;
+
+		private final double[][][] transitionProbabilityStore_;
+		private final ConditionalProbabilityStore flatConditionalProbabilities_;
+		private final ConditionalProbabilityStore extendedConditionalProbabilities_;
+
+		private double lastDistance_ = -1;
+
+		private TipLeaf(TipLeaf toCopy) {
+			this(toCopy.patternStateMatchup_,toCopy.numberOfPatterns_,toCopy.numberOfCategories_,toCopy.numberOfStates_);
+		}
+		public TipLeaf(int[] patternStateMatchup, int numberOfPatterns, int numberOfCategories, int numberOfStates) {
+			this.patternStateMatchup_ = pal.misc.Utils.getCopy(patternStateMatchup);
+			this.numberOfPatterns_ = numberOfPatterns;
+			this.numberOfCategories_ = numberOfCategories;
+			this.numberOfStates_ = numberOfStates;
+			this.transitionProbabilityStore_ = new double[numberOfCategories][numberOfStates][numberOfStates];
+			this.flatConditionalProbabilities_ = ConditionalProbabilityStore.createTip(numberOfCategories,numberOfStates,patternStateMatchup,numberOfPatterns);
+			this.extendedConditionalProbabilities_ = ConditionalProbabilityStore.createTip(numberOfCategories,numberOfStates,patternStateMatchup,numberOfPatterns);
+		}
+		public LHCalculator.Leaf getCopy() {
+			return new TipLeaf(this);
+		}
+		public ConditionalProbabilityStore getFlatConditionalProbabilities() {
+			return flatConditionalProbabilities_;
+		}
+		public ConditionalProbabilityStore getExtendedConditionalProbabilities( double distance, SubstitutionModel model, boolean modelChanged) {
+			if(distance!=lastDistance_||lastDistance_<0||modelChanged) {
+				model.getTransitionProbabilitiesTranspose(distance,transitionProbabilityStore_);
+				final double[][][] table = extendedConditionalProbabilities_.getTipTableAccess(false);
+				for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+					for(int state = 0 ; state < numberOfStates_ ; state++) {
+						System.arraycopy(transitionProbabilityStore_[cat][state],0,table[cat][state],0,numberOfStates_);
+					}
+				}
+				lastDistance_ = distance;
+			} else {
+				extendedConditionalProbabilities_.setBasedOnCachedData(true);
+			}
+			return extendedConditionalProbabilities_;
+		}
+	}
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	/**
+	 * The tip specialised kernels. Each method expects at least one tip store, and all stores contiguous.
+	 * A row is the conditionals of one category and pattern: for a tip store it is the table row for the
+	 * state of the pattern, otherwise it is found in the contiguous array.
+	 */
+	private static final class Engine {
+		private final int numberOfCategories_;
+		private final int numberOfStates_;
+		private final double[][][] transitionProbabilityStore_;
+		//The transition probabilities applied to each table row of a tip, [category][state][state]
+		private final double[][][] leftProducts_;
+		private final double[][][] rightProducts_;
+		private final double[] leftStateStore_;
+		private final double[] rightStateStore_;
+
+		//The extended products of pairs of tip states, for the current category of calculateExtended()
+		private final double[] pairStore_;
+		private final int[] pairStamps_;
+		private int currentStamp_ = 0;
+
+		private double[][] categoryPatternStore_ = null;
+
+		public Engine(int numberOfCategories, int numberOfStates) {
+			this.numberOfCategories_ = numberOfCategories;
+			this.numberOfStates_ = numberOfStates;
+			this.transitionProbabilityStore_ = new double[numberOfCategories][numberOfStates][numberOfStates];
+			this.leftProducts_ = new double[numberOfCategories][numberOfStates+1][numberOfStates];
+			this.rightProducts_ = new double[numberOfCategories][numberOfStates+1][numberOfStates];
+			this.leftStateStore_ = new double[numberOfStates];
+			this.rightStateStore_ = new double[numberOfStates];
+			this.pairStore_ = new double[(numberOfStates+1)*(numberOfStates+1)*numberOfStates];
+			this.pairStamps_ = new int[(numberOfStates+1)*(numberOfStates+1)];
+		}
+		public final double[][][] getTransitionProbabilityStore() { return transitionProbabilityStore_; }
+
+		/**
+		 * @return a [category][pattern] store of at least the given number of patterns
+		 */
+		public final double[][] getCategoryPatternStore(int numberOfPatterns) {
+			if(categoryPatternStore_==null||categoryPatternStore_[0].length<numberOfPatterns) {
+				this.categoryPatternStore_ = new double[numberOfCategories_][numberOfPatterns];
+			}
+			return categoryPatternStore_;
+		}
+		/**
+		 * Apply the current transition probabilities to each row of a tip table
+		 */
+		private final void fillProducts(double[][][] table, double[][][] products) {
+			final int numberOfStates = numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				for(int row = 0 ; row <= numberOfStates ; row++) {
+					final double[] values = table[cat][row];
+					final double[] product = products[cat][row];
+					for(int startState = 0 ; startState < numberOfStates ; startState++) {
+						final double[] speedupArray = transProb[startState];
+						double probTotal = 0;
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							probTotal+=speedupArray[endState]*values[endState];
+						}
+						product[startState] = probTotal;
+					}
+				}
+			}
+		}
+		/**
+		 * For each row of a tip table form the weights w[e] = sum over s of (pi[s]*row[s]*P[s][e]), so the
+		 * likelihood over a branch with this tip on the far side is the dot product of w and the near row
+		 */
+		private final void fillWeights(double[][][] table, double[] equilibriumFrequencies, double[][][] weights) {
+			final int numberOfStates = numberOfStates_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				for(int row = 0 ; row <= numberOfStates ; row++) {
+					final double[] values = table[cat][row];
+					final double[] weight = weights[cat][row];
+					java.util.Arrays.fill(weight,0);
+					for(int startState = 0 ; startState < numberOfStates ; startState++) {
+						final double factor = equilibriumFrequencies[startState]*values[startState];
+						final double[] speedupArray = transProb[startState];
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							weight[endState]+=factor*speedupArray[endState];
+						}
+					}
+				}
+			}
+		}
+		private final void nextStamp() {
+			if(++currentStamp_==Integer.MAX_VALUE) {
+				java.util.Arrays.fill(pairStamps_,0);
+				currentStamp_ = 1;
+			}
+		}
+
+		public final void calculateFlat(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore resultStore) {
+			final int numberOfStates = numberOfStates_;
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+			final int resultStride = resultStore.getContiguousCategoryStride();
+			final int[] leftStates = (left.isTip() ? left.getTipStates() : null);
+			final int[] rightStates = (right.isTip() ? right.getTipStates() : null);
+			final double[][][] leftTable = (leftStates==null ? null : left.getCurrentTipTable());
+			final double[][][] rightTable = (rightStates==null ? null : right.getCurrentTipTable());
+			final double[] leftValues = (leftStates==null ? left.getCurrentContiguousConditionalProbabilities() : null);
+			final double[] rightValues = (rightStates==null ? right.getCurrentContiguousConditionalProbabilities() : null);
+			final int leftStride = left.getContiguousCategoryStride();
+			final int rightStride = right.getContiguousCategoryStride();
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				int patternAccess = 0;
+				int resultIndex = cat*resultStride;
+				for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+					final int leftPattern = patternLookup[patternAccess++];
+					final int rightPattern = patternLookup[patternAccess++];
+					final double[] l;	final int leftIndex;
+					if(leftStates!=null) { l = leftTable[cat][leftStates[leftPattern]]; leftIndex = 0; } else { l = leftValues; leftIndex = cat*leftStride+leftPattern*numberOfStates; }
+					final double[] r;	final int rightIndex;
+					if(rightStates!=null) { r = rightTable[cat][rightStates[rightPattern]]; rightIndex = 0; } else { r = rightValues; rightIndex = cat*rightStride+rightPattern*numberOfStates; }
+					for(int endState = 0 ; endState < numberOfStates ; endState++) {
+						resultValues[resultIndex++] = l[leftIndex+endState]*r[rightIndex+endState];
+					}
+				}
+			}
+			resultStore.updateScaling(centerPattern,left,right);
+		}
+
+		/**
+		 * @note the transition probabilities must be set first (see getTransitionProbabilityStore())
+		 */
+		public final void calculateExtended(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore resultStore) {
+			if(left.isTip()&&right.isTip()) {
+				calculateExtendedTipTip(centerPattern,left,right,resultStore);
+				return;
+			}
+			final int numberOfStates = numberOfStates_;
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+			final int resultStride = resultStore.getContiguousCategoryStride();
+			//Arrange so the tip is on the left
+			final boolean swap = !left.isTip();
+			final ConditionalProbabilityStore tip = (swap ? right : left);
+			final ConditionalProbabilityStore other = (swap ? left : right);
+			final int[] tipStates = tip.getTipStates();
+			final double[][][] tipTable = tip.getCurrentTipTable();
+			final double[] otherValues = other.getCurrentContiguousConditionalProbabilities();
+			final int otherStride = other.getContiguousCategoryStride();
+			final double[] endStateProbabilityStore = leftStateStore_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				int patternAccess = 0;
+				int resultIndex = cat*resultStride;
+				final double[][] categoryTable = tipTable[cat];
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				final int otherBase = cat*otherStride;
+				for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+					final int leftPattern = patternLookup[patternAccess++];
+					final int rightPattern = patternLookup[patternAccess++];
+					final double[] t = categoryTable[tipStates[swap ? rightPattern : leftPattern]];
+					final int otherIndex = otherBase+(swap ? leftPattern : rightPattern)*numberOfStates;
+					for(int endState = 0 ; endState < numberOfStates ; endState++) {
+						endStateProbabilityStore[endState] = t[endState]*otherValues[otherIndex+endState];
+					}
+					for(int startState = 0 ; startState < numberOfStates ; startState++) {
+						final double[] speedupArray = transProb[startState];
+						double probTotal = 0;
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							probTotal+=speedupArray[endState]*endStateProbabilityStore[endState];
+						}
+						resultValues[resultIndex++] = probTotal;
+					}
+				}
+			}
+			resultStore.updateScaling(centerPattern,left,right);
+		}
+		/**
+		 * The result for a pattern depends only on the pair of states, so each distinct pair is calculated once (per category)
+		 */
+		private final void calculateExtendedTipTip(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore resultStore) {
+			final int numberOfStates = numberOfStates_;
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+			final int resultStride = resultStore.getContiguousCategoryStride();
+			final int[] leftStates = left.getTipStates();
+			final int[] rightStates = right.getTipStates();
+			final double[][][] leftTable = left.getCurrentTipTable();
+			final double[][][] rightTable = right.getCurrentTipTable();
+			final double[] endStateProbabilityStore = leftStateStore_;
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				nextStamp();
+				int patternAccess = 0;
+				int resultIndex = cat*resultStride;
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+					final int leftState = leftStates[patternLookup[patternAccess++]];
+					final int rightState = rightStates[patternLookup[patternAccess++]];
+					final int pair = leftState*(numberOfStates+1)+rightState;
+					final int pairIndex = pair*numberOfStates;
+					if(pairStamps_[pair]!=currentStamp_) {
+						final double[] l = leftTable[cat][leftState];
+						final double[] r = rightTable[cat][rightState];
+						for(int endState = 0 ; endState < numberOfStates ; endState++) {
+							endStateProbabilityStore[endState] = l[endState]*r[endState];
+						}
+						for(int startState = 0 ; startState < numberOfStates ; startState++) {
+							final double[] speedupArray = transProb[startState];
+							double probTotal = 0;
+							for(int endState = 0 ; endState < numberOfStates ; endState++) {
+								probTotal+=speedupArray[endState]*endStateProbabilityStore[endState];
+							}
+							pairStore_[pairIndex+startState] = probTotal;
+						}
+						pairStamps_[pair] = currentStamp_;
+					}
+					System.arraycopy(pairStore_,pairIndex,resultValues,resultIndex,numberOfStates);
+					resultIndex+=numberOfStates;
+				}
+			}
+			resultStore.updateScaling(centerPattern,left,right);
+		}
+
+		/**
+		 * @note the transition probabilities must be set first (see getTransitionProbabilityStore())
+		 */
+		public final void calculatePostExtendedFlat(PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, ConditionalProbabilityStore resultStore) {
+			final int numberOfStates = numberOfStates_;
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+			final int resultStride = resultStore.getContiguousCategoryStride();
+			final int[] leftStates = (left.isTip() ? left.getTipStates() : null);
+			final int[] rightStates = (right.isTip() ? right.getTipStates() : null);
+			if(leftStates!=null) { fillProducts(left.getCurrentTipTable(),leftProducts_); }
+			if(rightStates!=null) { fillProducts(right.getCurrentTipTable(),rightProducts_); }
+			final double[] leftValues = (leftStates==null ? left.getCurrentContiguousConditionalProbabilities() : null);
+			final double[] rightValues = (rightStates==null ? right.getCurrentContiguousConditionalProbabilities() : null);
+			final int leftStride = left.getContiguousCategoryStride();
+			final int rightStride = right.getContiguousCategoryStride();
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				int patternAccess = 0;
+				int resultIndex = cat*resultStride;
+				final double[][] transProb = transitionProbabilityStore_[cat];
+				for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+					final int leftPattern = patternLookup[patternAccess++];
+					final int rightPattern = patternLookup[patternAccess++];
+					final double[] l = (leftStates!=null ? leftProducts_[cat][leftStates[leftPattern]] :
+						extend(transProb,leftValues,cat*leftStride+leftPattern*numberOfStates,leftStateStore_));
+					final double[] r = (rightStates!=null ? rightProducts_[cat][rightStates[rightPattern]] :
+						extend(transProb,rightValues,cat*rightStride+rightPattern*numberOfStates,rightStateStore_));
+					for(int state = 0 ; state < numberOfStates ; state++) {
+						resultValues[resultIndex++] = l[state]*r[state];
+					}
+				}
+			}
+			resultStore.updateScaling(centerPattern,left,right);
+		}
+		private final double[] extend(double[][] transProb, double[] values, int index, double[] result) {
+			final int numberOfStates = numberOfStates_;
+			for(int startState = 0 ; startState < numberOfStates ; startState++) {
+				final double[] speedupArray = transProb[startState];
+				double probTotal = 0;
+				for(int endState = 0 ; endState < numberOfStates ; endState++) {
+					probTotal+=speedupArray[endState]*values[index+endState];
+				}
+				result[startState] = probTotal;
+			}
+			return result;
+		}
+
+		/**
+		 * Extend a tip store over a branch
+		 * @param base the tip store
+		 * @param resultStore where the results go (may be base, in which case just the table is changed)
+		 * @note the transition probabilities must be set first (see getTransitionProbabilityStore())
+		 */
+		public final void calculateSingleExtended(int numberOfPatterns, ConditionalProbabilityStore base, ConditionalProbabilityStore resultStore) {
+			final int numberOfStates = numberOfStates_;
+			fillProducts(base.getCurrentTipTable(),leftProducts_);
+			if(resultStore==base) {
+				final double[][][] table = base.getTipTableAccess(false);
+				for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+					for(int row = 0 ; row <= numberOfStates ; row++) {
+						System.arraycopy(leftProducts_[cat][row],0,table[cat][row],0,numberOfStates);
+					}
+				}
+				return;
+			}
+			final int[] states = base.getTipStates();
+			resultStore.copyScaling(base,numberOfPatterns);
+			final double[] resultValues = resultStore.getContiguousConditionalProbabilityAccess(numberOfPatterns,false);
+			final int resultStride = resultStore.getContiguousCategoryStride();
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				int resultIndex = cat*resultStride;
+				final double[][] categoryProducts = leftProducts_[cat];
+				for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+					System.arraycopy(categoryProducts[states[pattern]],0,resultValues,resultIndex,numberOfStates);
+					resultIndex+=numberOfStates;
+				}
+			}
+		}
+
+		/**
+		 * Calculate, for each category and pattern, the probability of the data given the flat conditionals either side of a branch
+		 * (the left conditionals are extended over the branch)
+		 * @note the transition probabilities must be set first (see getTransitionProbabilityStore())
+		 */
+		public final void calculateBranchCategoryPatternProbabilities(double[] equilibriumFrequencies, PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, double[][] categoryPatternStore) {
+			final int numberOfStates = numberOfStates_;
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			final boolean leftTip = left.isTip();
+			//With a tip on the left the left is extended once per state, otherwise the right tip is folded into per state weights
+			final ConditionalProbabilityStore tip = (leftTip ? left : right);
+			final ConditionalProbabilityStore other = (leftTip ? right : left);
+			final int[] tipStates = tip.getTipStates();
+			if(leftTip) {
+				fillProducts(tip.getCurrentTipTable(),leftProducts_);
+			} else {
+				fillWeights(tip.getCurrentTipTable(),equilibriumFrequencies,leftProducts_);
+			}
+			final int[] otherStates = (other.isTip() ? other.getTipStates() : null);
+			final double[][][] otherTable = (otherStates==null ? null : other.getCurrentTipTable());
+			final double[] otherValues = (otherStates==null ? other.getCurrentContiguousConditionalProbabilities() : null);
+			final int otherStride = other.getContiguousCategoryStride();
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[][] categoryProducts = leftProducts_[cat];
+				final double[] patternProbabilities = categoryPatternStore[cat];
+				int patternAccess = 0;
+				for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+					final int leftPattern = patternLookup[patternAccess++];
+					final int rightPattern = patternLookup[patternAccess++];
+					final double[] t = categoryProducts[tipStates[leftTip ? leftPattern : rightPattern]];
+					final int otherPattern = (leftTip ? rightPattern : leftPattern);
+					final double[] o; final int otherIndex;
+					if(otherStates!=null) { o = otherTable[cat][otherStates[otherPattern]]; otherIndex = 0; } else { o = otherValues; otherIndex = cat*otherStride+otherPattern*numberOfStates; }
+					double prob = 0;
+					if(leftTip) {
+						for(int state = 0 ; state < numberOfStates ; state++) {
+							prob+=equilibriumFrequencies[state]*(t[state]*o[otherIndex+state]);
+						}
+					} else {
+						for(int state = 0 ; state < numberOfStates ; state++) {
+							prob+=t[state]*o[otherIndex+state];
+						}
+					}
+					patternProbabilities[pattern] = prob;
+				}
+			}
+		}
+		/**
+		 * Calculate, for each category and pattern, the probability of the data given the conditionals either side of a point
+		 */
+		public final void calculateCategoryPatternProbabilities(double[] equilibriumFrequencies, PatternInfo centerPattern, ConditionalProbabilityStore left, ConditionalProbabilityStore right, double[][] categoryPatternStore) {
+			final int numberOfStates = numberOfStates_;
+			final int[] patternLookup = centerPattern.getPatternLookup();
+			final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+			final int[] leftStates = (left.isTip() ? left.getTipStates() : null);
+			final int[] rightStates = (right.isTip() ? right.getTipStates() : null);
+			final double[][][] leftTable = (leftStates==null ? null : left.getCurrentTipTable());
+			final double[][][] rightTable = (rightStates==null ? null : right.getCurrentTipTable());
+			final double[] leftValues = (leftStates==null ? left.getCurrentContiguousConditionalProbabilities() : null);
+			final double[] rightValues = (rightStates==null ? right.getCurrentContiguousConditionalProbabilities() : null);
+			final int leftStride = left.getContiguousCategoryStride();
+			final int rightStride = right.getContiguousCategoryStride();
+			for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+				final double[] patternProbabilities = categoryPatternStore[cat];
+				int patternAccess = 0;
+				for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+					final int leftPattern = patternLookup[patternAccess++];
+					final int rightPattern = patternLookup[patternAccess++];
+					final double[] l;	final int leftIndex;
+					if(leftStates!=null) { l = leftTable[cat][leftStates[leftPattern]]; leftIndex = 0; } else { l = leftValues; leftIndex = cat*leftStride+leftPattern*numberOfStates; }
+					final double[] r;	final int rightIndex;
+					if(rightStates!=null) { r = rightTable[cat][rightStates[rightPattern]]; rightIndex = 0; } else { r = rightValues; rightIndex = cat*rightStride+rightPattern*numberOfStates; }
+					double prob = 0;
+					for(int state = 0 ; state < numberOfStates ; state++) {
+						prob+=equilibriumFrequencies[state]*(l[leftIndex+state]*r[rightIndex+state]);
+					}
+					patternProbabilities[pattern] = prob;
+				}
+			}
+		}
+		/**
+		 * @return the weighted log likelihood, given the probabilities for each category and pattern (not including scaling)
+		 */
+		public final double calculateLogLikelihood(double[] categoryProbabilities, int[] patternWeights, int numberOfPatterns, double[][] categoryPatternStore) {
+			double logLikelihood = 0;
+			for(int pattern = 0 ; pattern < numberOfPatterns ; pattern++) {
+				double total = 0;
+				for(int cat = 0 ; cat < numberOfCategories_ ; cat++) {
+					total+=categoryProbabilities[cat]*categoryPatternStore[cat][pattern];
+				}
+				logLikelihood+=Math.log(total)*patternWeights[pattern];
+			}
+			return logLikelihood;
+		}
+	} //End of class Engine
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class ExternalImpl implements LHCalculator.External {
+		private static final long serialVersionUID = 3760418556330465570L;
+		private final LHCalculator.External base_;
+		private final int numberOfCategories_;
+		private final int numberOfStates_;
+		private transient Engine engine_ = null;
+		private transient BranchLengthDerivatives derivatives_ = null;
+
+		public ExternalImpl(LHCalculator.External base, int numberOfCategories, int numberOfStates) {
+			this.base_ = base;
+			this.numberOfCategories_ = numberOfCategories;
+			this.numberOfStates_ = numberOfStates;
+		}
+		private final Engine getEngine() {
+			if(engine_==null) {
+				this.engine_ = new Engine(numberOfCategories_,numberOfStates_);
+			}
+			return engine_;
+		}
+
+		public void calculateFlat( PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities, ConditionalProbabilityStore resultStore ) {
+			if(isTipCase(leftConditionalProbabilities,rightConditionalProbabilities,resultStore)) {
+				getEngine().calculateFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			} else {
+				base_.calculateFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			}
+		}
+		public void calculateExtended( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities, ConditionalProbabilityStore resultStore ) {
+			if(isTipCase(leftConditionalProbabilities,rightConditionalProbabilities,resultStore)) {
+				final Engine engine = getEngine();
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				engine.calculateExtended(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			} else {
+				base_.calculateExtended(distance,model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,resultStore);
+			}
+		}
+		public void calculateSingleExtendedDirect( double distance, SubstitutionModel model, int numberOfPatterns, ConditionalProbabilityStore conditionalProbabilities ) {
+			if(conditionalProbabilities.isTip()) {
+				final Engine engine = getEngine();
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				engine.calculateSingleExtended(numberOfPatterns,conditionalProbabilities,conditionalProbabilities);
+			} else {
+				base_.calculateSingleExtendedDirect(distance,model,numberOfPatterns,conditionalProbabilities);
+			}
+		}
+		public void calculateSingleExtendedIndirect( double distance, SubstitutionModel model, int numberOfPatterns, ConditionalProbabilityStore baseConditionalProbabilities, ConditionalProbabilityStore resultConditionalProbabilities ) {
+			if(baseConditionalProbabilities.isTip()&&resultConditionalProbabilities.isContiguous()) {
+				final Engine engine = getEngine();
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				engine.calculateSingleExtended(numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities);
+			} else {
+				base_.calculateSingleExtendedIndirect(distance,model,numberOfPatterns,baseConditionalProbabilities,resultConditionalProbabilities);
+			}
+		}
+		public double calculateLogLikelihood( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftFlatConditionalProbabilities, ConditionalProbabilityStore rightFlatConditionalProbabilities, ConditionalProbabilityStore tempStore ) {
+			if(isTipCase(leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,null)) {
+				final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+				final Engine engine = getEngine();
+				final double[][] store = engine.getCategoryPatternStore(numberOfPatterns);
+				model.getTransitionProbabilities(distance,engine.getTransitionProbabilityStore());
+				engine.calculateBranchCategoryPatternProbabilities(model.getEquilibriumFrequencies(),centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,store);
+				return engine.calculateLogLikelihood(model.getTransitionCategoryProbabilities(),centerPattern.getPatternWeights(),numberOfPatterns,store)+
+					ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities);
+			}
+			return base_.calculateLogLikelihood(distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore);
+		}
+		public double calculateLogLikelihood( SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities ) {
+			if(isTipCase(leftConditionalProbabilities,rightConditionalProbabilities,null)) {
+				final int numberOfPatterns = centerPattern.getNumberOfPatterns();
+				final Engine engine = getEngine();
+				final double[][] store = engine.getCategoryPatternStore(numberOfPatterns);
+				engine.calculateCategoryPatternProbabilities(model.getEquilibriumFrequencies(),centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,store);
+				return engine.calculateLogLikelihood(model.getTransitionCategoryProbabilities(),centerPattern.getPatternWeights(),numberOfPatterns,store)+
+					ConditionalProbabilityStore.getLogScalingTotal(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
+			}
+			return base_.calculateLogLikelihood(model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
+		}
+		public double calculateLogLikelihoodSingle( SubstitutionModel model, int[] patternWeights, int numberOfPatterns, ConditionalProbabilityStore conditionalProbabilityStore ) {
+			return base_.calculateLogLikelihoodSingle(model,patternWeights,numberOfPatterns,conditionalProbabilityStore);
+		}
+		public double calculateLogLikelihoodAndDerivatives( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftFlatConditionalProbabilities, ConditionalProbabilityStore rightFlatConditionalProbabilities, ConditionalProbabilityStore tempStore, double[] derivativeStore ) {
+			if(derivatives_==null) {
+				this.derivatives_ = new BranchLengthDerivatives(numberOfCategories_,numberOfStates_);
+			}
+			return derivatives_.calculateLogLikelihoodAndDerivatives(this,distance,model,centerPattern,leftFlatConditionalProbabilities,rightFlatConditionalProbabilities,tempStore,derivativeStore);
+		}
+		public SiteDetails calculateSiteDetailsRooted( SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilitiesStore, ConditionalProbabilityStore rightConditionalProbabilitiesStore ) {
+			return base_.calculateSiteDetailsRooted(model,centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore);
+		}
+		public SiteDetails calculateSiteDetailsUnrooted( double distance, SubstitutionModel model, PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilitiesStore, ConditionalProbabilityStore rightConditionalProbabilitiesStore, ConditionalProbabilityStore tempStore ) {
+			return base_.calculateSiteDetailsUnrooted(distance,model,centerPattern,leftConditionalProbabilitiesStore,rightConditionalProbabilitiesStore,tempStore);
+		}
+	} //End of class ExternalImpl
+
+// -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+	private static final class InternalImpl implements LHCalculator.Internal {
+		private final LHCalculator.Internal base_;
+		private final ConditionalProbabilityStore myResultStore_;
+		private final Engine engine_;
+		private double lastDistance_ = -1;
+
+		public InternalImpl(LHCalculator.Internal base, ConditionalProbabilityStore resultStore, int numberOfCategories, int numberOfStates) {
+			this.base_ = base;
+			this.myResultStore_ = resultStore;
+			this.engine_ = new Engine(numberOfCategories,numberOfStates);
+		}
+		private final void updateTransitionProbabilities(double distance, SubstitutionModel model, boolean modelChangedSinceLastCall) {
+			if(modelChangedSinceLastCall||distance!=lastDistance_||lastDistance_<0) {
+				model.getTransitionProbabilities(distance,engine_.getTransitionProbabilityStore());
+				lastDistance_ = distance;
+			}
+		}
+		public ConditionalProbabilityStore calculateFlat( PatternInfo centerPattern, ConditionalProbabilityStore leftConditionalProbabilities, ConditionalProbabilityStore rightConditionalProbabilities ) {
+			if(isTipCase(leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_)) {
+				engine_.calculateFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_);
+				return myResultStore_;
+			}
+			return base_.calculateFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities);
+		}
+		public ConditionalProbabilityStore calculateExtended( double distance, SubstitutionModel model, PatternInfo centerPattern, final ConditionalProbabilityStore leftConditionalProbabilities,
+			final ConditionalProbabilityStore rightConditionalProbabilities, boolean modelChangedSinceLastCall ) {
+			if(isTipCase(leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_)) {
+				updateTransitionProbabilities(distance,model,modelChangedSinceLastCall);
+				engine_.calculateExtended(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_);
+				return myResultStore_;
+			}
+			return base_.calculateExtended(distance,model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,modelChangedSinceLastCall);
+		}
+		public ConditionalProbabilityStore calculatePostExtendedFlat( double distance, SubstitutionModel model, PatternInfo centerPattern, final ConditionalProbabilityStore leftConditionalProbabilities,
+			final ConditionalProbabilityStore rightConditionalProbabilities, boolean modelChangedSinceLastCall ) {
+			if(isTipCase(leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_)) {
+				updateTransitionProbabilities(distance,model,modelChangedSinceLastCall);
+				engine_.calculatePostExtendedFlat(centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,myResultStore_);
+				return myResultStore_;
+			}
+			return base_.calculatePostExtendedFlat(distance,model,centerPattern,leftConditionalProbabilities,rightConditionalProbabilities,modelChangedSinceLastCall);
+		}
+	} //End of class InternalImpl
+}
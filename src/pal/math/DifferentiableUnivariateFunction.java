@@ -0,0 +1,28 @@
+// DifferentiableUnivariateFunction.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+
+package pal.math;
+
+
+/**
+ * interface for a function of one variable that can also supply its first and second derivatives
+ *
+ * @author not attributable
+ */
+public interface DifferentiableUnivariateFunction extends UnivariateFunction
+{
+	/**
+	 * compute function value and derivatives
+	 *
+	 * @param argument function argument
+	 * @param derivatives on return holds the first ([0]) and second ([1]) derivatives at argument
+	 *
+	 * @return function value
+	 */
+	double evaluate(double argument, double[] derivatives);
+}
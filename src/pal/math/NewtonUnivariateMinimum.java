@@ -0,0 +1,187 @@
+// NewtonUnivariateMinimum.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+
+package pal.math;
+
+
+/**
+ * minimization of a real-valued function of one variable
+ * using Newton-Raphson steps (requires first and second derivatives).
+ * Steps are kept within a bracket of the minimum and are halved if they fail
+ * to decrease the function. Where the function is not locally convex a
+ * bisection (or expansion) step is taken instead. If no decrease can be found,
+ * or the search does not converge, it falls back to Brent's method
+ * (UnivariateMinimum).
+ *
+ * @author not attributable
+ */
+public class NewtonUnivariateMinimum
+{
+	//
+	// Public stuff
+	//
+
+	/** last minimum */
+	public double minx;
+
+	/** function value at minimum */
+	public double fminx;
+
+	/** curvature at minimum */
+	public double f2minx;
+
+	/** total number of function evaluations neccessary */
+	public int numFun;
+
+	/** true if the last search had to fall back to Brent's method */
+	public boolean usedFallback;
+
+	/**
+	 * maximum number of Newton steps before falling back to Brent's method
+	 */
+	public int maxIterations = 50;
+
+	/**
+	 * Find minimum
+	 * (first estimate given)
+	 *
+	 * @param x   first estimate
+	 * @param f   function
+	 *
+	 * @return position of minimum
+	 */
+	public double findMinimum(double x, DifferentiableUnivariateFunction f)
+	{
+		return optimize(x, f, MachineAccuracy.EPSILON);
+	}
+
+	/**
+	 * Find minimum
+	 * (first estimate given, desired number of fractional digits specified)
+	 *
+	 * @param x   first estimate
+	 * @param f   function
+	 * @param fracDigits desired fractional digits
+	 *
+	 * @return position of minimum
+	 */
+	public double findMinimum(double x, DifferentiableUnivariateFunction f, int fracDigits)
+	{
+		return optimize(x, f, Math.pow(10, -1-fracDigits));
+	}
+
+	/**
+	 * The actual optimization routine
+	 *
+	 * @param x first estimate
+	 * @param f univariate function (with derivatives)
+	 * @param tol absolute tolerance of the argument
+	 *
+	 * @return  position of minimum
+	 */
+	public double optimize(double x, DifferentiableUnivariateFunction f, double tol)
+	{
+		if (tol <= 0)
+		{
+			throw new IllegalArgumentException("Nonpositive absolute tolerance tol");
+		}
+		final double lowerBound = f.getLowerBound();
+		final double upperBound = f.getUpperBound();
+		if (x < lowerBound) { x = lowerBound; }
+		if (x > upperBound) { x = upperBound; }
+
+		numFun = 0;
+		usedFallback = false;
+
+		double[] derivatives = derivatives_;
+		double[] trialDerivatives = trialDerivatives_;
+		double fx = f.evaluate(x, derivatives); numFun++;
+		double a = lowerBound;
+		double b = upperBound;
+		boolean converged = false;
+		for (int iteration = 0; iteration < maxIterations; iteration++)
+		{
+			final double g = derivatives[0];
+			final double h = derivatives[1];
+			if (g > 0) { b = x; } else if (g < 0) { a = x; }
+			if (g == 0 || (g > 0 && x <= lowerBound) || (g < 0 && x >= upperBound))
+			{
+				// stationary, or minimum on a boundary
+				converged = true;
+				break;
+			}
+			final double tol1 = MachineAccuracy.SQRT_EPSILON*Math.abs(x) + tol/3.0;
+			double u;
+			if (h > 0)
+			{
+				final double step = -g/h;
+				if (Math.abs(step) <= tol1)
+				{
+					converged = true;
+					break;
+				}
+				u = x + step;
+			}
+			else
+			{
+				// not locally convex so no Newton step, move downhill instead
+				u = (g > 0 ? a : x + Math.max(Math.abs(x), MachineAccuracy.SQRT_EPSILON));
+			}
+			if (u <= a) { u = 0.5*(a + x); } else if (u >= b) { u = 0.5*(x + b); }
+			if (Math.abs(u - x) <= tol1)
+			{
+				converged = true;
+				break;
+			}
+			double fu = f.evaluate(u, trialDerivatives); numFun++;
+			for (int halvings = 0; !(fu <= fx) && halvings < MAXIMUM_HALVINGS; halvings++)
+			{
+				u = 0.5*(x + u);
+				fu = f.evaluate(u, trialDerivatives); numFun++;
+			}
+			if (!(fu <= fx))
+			{
+				break;
+			}
+			x = u;
+			fx = fu;
+			final double[] temp = derivatives;
+			derivatives = trialDerivatives;
+			trialDerivatives = temp;
+		}
+		if (!converged)
+		{
+			return fallback(x, f, tol);
+		}
+		minx = x;
+		fminx = fx;
+		f2minx = derivatives[1];
+		return minx;
+	}
+
+	//
+	// Private stuff
+	//
+
+	private static final int MAXIMUM_HALVINGS = 10;
+
+	private final double[] derivatives_ = new double[2];
+	private final double[] trialDerivatives_ = new double[2];
+	private final UnivariateMinimum fallback_ = new UnivariateMinimum();
+
+	private double fallback(double x, DifferentiableUnivariateFunction f, double tol)
+	{
+		usedFallback = true;
+		fallback_.optimize(x, f, tol);
+		minx = fallback_.minx;
+		fminx = fallback_.fminx;
+		f2minx = fallback_.f2minx;
+		numFun += fallback_.numFun;
+		return minx;
+	}
+}
@@ -200,6 +200,7 @@ abstract public class AbstractRateMatrix implements RateMatrix, ExternalParamete
 			checkParameters();
 			rebuildRateMatrix(rate,parameterStore_);
 			fromQToR();
+			rebuildModel_ = false;
 		}
 	}
 	public final void rebuild() {}
@@ -229,6 +230,14 @@ abstract public class AbstractRateMatrix implements RateMatrix, ExternalParamete
 	public final void getTransitionProbabilities(double[][] probabilityStore) {
 		matrixExp_.getTransitionProbabilities(probabilityStore);
 	}
+
+	/**
+	 * @return an immutable snapshot of the eigen decomposition for the current parameters
+	 */
+	public final EigenDecomposition getEigenDecomposition() {
+		handleRebuild();
+		return matrixExp_.getEigenDecomposition();
+	}
 	private final static void cleanup(double[][] tableStore, int numberOfStates) {
 		for(int i = 0 ; i < numberOfStates ; i++) {
 			for(int j = 0 ; j < numberOfStates ; j++) {
@@ -147,6 +147,9 @@ public abstract class CachedRateMatrix implements RateMatrix, PalObjectListener
 	public final void setDistanceTranspose(double k) {
 		throw new RuntimeException("Not implemented yet!");
 	}
+	public final EigenDecomposition getEigenDecomposition() {
+		return rateMatrix.getEigenDecomposition();
+	}
 
 
 	/**
@@ -0,0 +1,246 @@
+// CachedSubstitutionModel.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.substmodel;
+
+import pal.misc.*;
+import pal.math.*;
+import pal.datatype.*;
+
+import java.io.*;
+
+/**
+ * <p>Title: CachedSubstitutionModel</p>
+ * <p>Description: A SubstitutionModel that remembers previously calculated transition probability
+ * matrices of another (base) SubstitutionModel. Matrices are stored per transition category, and are
+ * only reused for exactly the same branch length. The cache is bounded (each category has a fixed number of
+ * slots, a new matrix replaces whatever occupied its slot), and is invalidated whenever the parameters of
+ * the base model differ from those seen at the last request (they are compared on every request, so the base
+ * model may also be altered directly), or a parameter is set through this object.
+ * Unlike CachedRateMatrix there is no nearest value approximation. Hit and miss counts are kept so that the
+ * usefulness of the cache can be checked. This class is not thread safe.</p>
+ * <p>The base model should not be altered other than through its parameters while in use by this object
+ * (or clearCache() should be called after doing so).</p>
+ * @author not attributable
+ * @version 1.0
+ */
+
+public final class CachedSubstitutionModel implements SubstitutionModel, SubstitutionModelSnapshot.Source {
+	/**
+	 * The default number of cached matrices for each transition category (in each orientation)
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	private final SubstitutionModel base_;
+	private final int cacheSize_;
+
+	private transient int numberOfStates_;
+	private transient int indexShift_;
+	private transient Entry[][] entries_;
+	private transient int version_;
+	//The parameters of the base model when the cache was last checked
+	private transient double[] parameters_;
+	private transient long hits_;
+	private transient long misses_;
+
+	private static final long serialVersionUID = 8712634510293847561L;
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		setup();
+	}
+
+	/**
+	 * Create a cache with the default number of slots
+	 * @param base the model whose matrices are cached
+	 */
+	public CachedSubstitutionModel(SubstitutionModel base) {
+		this(base,DEFAULT_CACHE_SIZE);
+	}
+	/**
+	 * @param base the model whose matrices are cached
+	 * @param cacheSize the number of slots for each transition category (rounded up to a power of two)
+	 */
+	public CachedSubstitutionModel(SubstitutionModel base, int cacheSize) {
+		if(cacheSize<1) {
+			throw new IllegalArgumentException("Invalid cache size:"+cacheSize);
+		}
+		this.base_ = base;
+		this.cacheSize_ = cacheSize;
+		setup();
+	}
+	private final void setup() {
+		this.numberOfStates_ = base_.getDataType().getNumStates();
+		int bits = 0;
+		while((1<<bits)<cacheSize_) { bits++; }
+		this.indexShift_ = 32-bits;
+		this.entries_ = new Entry[base_.getNumberOfTransitionCategories()*2][1<<bits];
+		this.version_ = 1;
+		this.parameters_ = new double[base_.getNumParameters()];
+		for(int i = 0 ; i < parameters_.length ; i++) {
+			parameters_[i] = base_.getParameter(i);
+		}
+	}
+	/**
+	 * Forget all cached matrices if the parameters of the base model have changed since the last request
+	 */
+	private final void checkParameters() {
+		boolean changed = false;
+		for(int i = 0 ; i < parameters_.length ; i++) {
+			final double value = base_.getParameter(i);
+			if(Double.doubleToLongBits(value)!=Double.doubleToLongBits(parameters_[i])) {
+				parameters_[i] = value;
+				changed = true;
+			}
+		}
+		if(changed) {
+			version_++;
+		}
+	}
+	/**
+	 * @return the model whose matrices are cached
+	 */
+	public final SubstitutionModel getBaseModel() { return base_; }
+
+	/**
+	 * Forget all cached matrices
+	 */
+	public final void clearCache() {
+		version_++;
+	}
+	/**
+	 * @return the number of requests satisfied by the cache (one per category)
+	 */
+	public final long getNumberOfHits() { return hits_; }
+	/**
+	 * @return the number of requests that required calculation (one per category)
+	 */
+	public final long getNumberOfMisses() { return misses_; }
+	/**
+	 * @return the proportion of requests satisfied by the cache (or zero if there have been no requests)
+	 */
+	public final double getHitRatio() {
+		final long total = hits_+misses_;
+		return (total==0 ? 0 : hits_/(double)total);
+	}
+	public final void resetStatistics() {
+		this.hits_ = 0;
+		this.misses_ = 0;
+	}
+
+	private final double[][] getMatrix(double branchLength, int category, boolean transpose) {
+		final long key = Double.doubleToLongBits(branchLength);
+		final Entry[] table = entries_[(category<<1)+(transpose ? 1 : 0)];
+		final int slot = getSlot(key);
+		Entry e = table[slot];
+		if(e!=null&&e.version_==version_&&e.key_==key) {
+			hits_++;
+			return e.matrix_;
+		}
+		misses_++;
+		if(e==null) {
+			e = new Entry(numberOfStates_);
+			table[slot] = e;
+		}
+		if(transpose) {
+			base_.getTransitionProbabilitiesTranspose(branchLength,category,e.matrix_);
+		} else {
+			base_.getTransitionProbabilities(branchLength,category,e.matrix_);
+		}
+		e.key_ = key;
+		e.version_ = version_;
+		return e.matrix_;
+	}
+	private final int getSlot(long key) {
+		if(indexShift_==32) { return 0; }
+		return ((int)(key^(key>>>32))*0x9E3779B9)>>>indexShift_;
+	}
+	private final void copy(double[][] source, double[][] destination) {
+		for(int i = 0 ; i < numberOfStates_ ; i++) {
+			System.arraycopy(source[i],0,destination[i],0,numberOfStates_);
+		}
+	}
+
+	// interface SubstitutionModel
+	public DataType getDataType() { return base_.getDataType(); }
+	public int getNumberOfTransitionCategories() { return base_.getNumberOfTransitionCategories(); }
+	public double getTransitionCategoryProbability(int category) { return base_.getTransitionCategoryProbability(category); }
+	public double[] getTransitionCategoryProbabilities() { return base_.getTransitionCategoryProbabilities(); }
+	public double[] getEquilibriumFrequencies() { return base_.getEquilibriumFrequencies(); }
+
+	public void getTransitionProbabilities(double branchLength, double[][][] tableStore) {
+		checkParameters();
+		final int numberOfCategories = entries_.length>>1;
+		for(int i = 0 ; i < numberOfCategories ; i++) {
+			copy(getMatrix(branchLength,i,false),tableStore[i]);
+		}
+	}
+	public void getTransitionProbabilitiesTranspose(double branchLength, double[][][] tableStore) {
+		checkParameters();
+		final int numberOfCategories = entries_.length>>1;
+		for(int i = 0 ; i < numberOfCategories ; i++) {
+			copy(getMatrix(branchLength,i,true),tableStore[i]);
+		}
+	}
+	public void getTransitionProbabilities(double branchLength, int category, double[][] tableStore) {
+		checkParameters();
+		copy(getMatrix(branchLength,category,false),tableStore);
+	}
+	public void getTransitionProbabilitiesTranspose(double branchLength, int category, double[][] tableStore) {
+		checkParameters();
+		copy(getMatrix(branchLength,category,true),tableStore);
+	}
+
+	public void addPalObjectListener(PalObjectListener l) { base_.addPalObjectListener(l); }
+	public void removePalObjectListener(PalObjectListener l) { base_.removePalObjectListener(l); }
+	public OrthogonalHints getOrthogonalHints() { return base_.getOrthogonalHints(); }
+
+	public Object clone() {
+		return new CachedSubstitutionModel((SubstitutionModel)base_.clone(),cacheSize_);
+	}
+
+	// interface Parameterized
+	public int getNumParameters() { return base_.getNumParameters(); }
+	public void setParameter(double param, int n) {
+		base_.setParameter(param,n);
+		version_++;
+	}
+	public double getParameter(int n) { return base_.getParameter(n); }
+	public void setParameterSE(double paramSE, int n) { base_.setParameterSE(paramSE,n); }
+	public double getLowerLimit(int n) { return base_.getLowerLimit(n); }
+	public double getUpperLimit(int n) { return base_.getUpperLimit(n); }
+	public double getDefaultValue(int n) { return base_.getDefaultValue(n); }
+
+	// interface SubstitutionModelSnapshot.Source
+	/**
+	 * @return a snapshot of the base model, or null if the base model does not support snapshots
+	 */
+	public SubstitutionModelSnapshot getSnapshot() { return SubstitutionModel.Utils.createSnapshot(base_); }
+
+	// interface Report
+	public void report(PrintWriter out) {
+		base_.report(out);
+		out.println();
+		out.println("Transition probability cache: "+hits_+" hits, "+misses_+" misses");
+	}
+	public String toString() {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw,true);
+		report(pw);
+		return "Cached Substitution Model:\n"+sw.toString();
+	}
+
+// ==========================================================================
+	private static final class Entry {
+		long key_;
+		int version_;
+		final double[][] matrix_;
+		public Entry(int numberOfStates) {
+			this.matrix_ = new double[numberOfStates][numberOfStates];
+		}
+	}
+}
@@ -0,0 +1,121 @@
+// EigenDecomposition.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.substmodel;
+
+/**
+ * <p>Title: EigenDecomposition</p>
+ * <p>Description: An immutable snapshot of the eigen decomposition of a rate matrix (eigenvalues,
+ * eigenvectors, and inverse eigenvectors). Transition probabilities are computed into caller supplied
+ * stores, and no state is changed by doing so, so a single snapshot may be used by many threads at once.
+ * A snapshot does not follow later changes to the rate matrix it was taken from.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+
+public final class EigenDecomposition implements java.io.Serializable {
+	private static final long serialVersionUID = 8329283523061129038L;
+
+	private final int dimension_;
+	private final double[] eval_;
+	private final double[][] evec_;
+	private final double[][] ievc_;
+
+	/**
+	 * Create a snapshot (the given arrays are copied)
+	 * @param eval the eigenvalues
+	 * @param evec the eigenvectors (as columns)
+	 * @param ievc the inverse of the eigenvector matrix
+	 */
+	public EigenDecomposition(double[] eval, double[][] evec, double[][] ievc) {
+		this.dimension_ = eval.length;
+		this.eval_ = pal.misc.Utils.getCopy(eval);
+		this.evec_ = pal.misc.Utils.getCopy(evec);
+		this.ievc_ = pal.misc.Utils.getCopy(ievc);
+	}
+
+	public final int getDimension() { return dimension_; }
+
+	/**
+	 * @return a copy of the eigenvalues
+	 */
+	public final double[] getEigenValues() { return pal.misc.Utils.getCopy(eval_); }
+
+	/**
+	 * Compute the transition probabilities for a given distance
+	 * @param distance the expected distance (values below BranchLimits.MINARC are treated as MINARC)
+	 * @param store where the probabilities are placed, organised [from][to]
+	 */
+	public final void getTransitionProbabilities(double distance, double[][] store) {
+		final double[] exp = createExponentials(distance);
+		for (int i = 0; i < dimension_; i++)	{
+			final double[] evecRow = evec_[i];
+			final double[] storeRow = store[i];
+			for (int j = 0; j < dimension_; j++)	{
+				double temp = 0.0;
+				for (int k = 0; k < dimension_; k++)	{
+					temp += evecRow[k] * (ievc_[k][j] * exp[k]);
+				}
+				storeRow[j] = Math.abs(temp);
+			}
+		}
+	}
+	/**
+	 * Compute the transition probabilities for a given distance
+	 * @param distance the expected distance (values below BranchLimits.MINARC are treated as MINARC)
+	 * @param store where the probabilities are placed, organised [to][from]
+	 */
+	public final void getTransitionProbabilitiesTranspose(double distance, double[][] store) {
+		final double[] exp = createExponentials(distance);
+		for (int i = 0; i < dimension_; i++)	{
+			final double[] evecRow = evec_[i];
+			for (int j = 0; j < dimension_; j++)	{
+				double temp = 0.0;
+				for (int k = 0; k < dimension_; k++)	{
+					temp += evecRow[k] * (ievc_[k][j] * exp[k]);
+				}
+				store[j][i] = Math.abs(temp);
+			}
+		}
+	}
+	/**
+	 * Compute the transition probabilities for a given distance, along with the first and second derivatives
+	 * of the probabilities with respect to distance (dP/dt = QP, d2P/dt2 = QQP)
+	 * @param distance the expected distance (values below BranchLimits.MINARC are treated as MINARC)
+	 * @param store where the probabilities are placed, organised [from][to]
+	 * @param firstDerivativeStore where the first derivatives are placed, organised [from][to]
+	 * @param secondDerivativeStore where the second derivatives are placed, organised [from][to]
+	 */
+	public final void getTransitionProbabilityDerivatives(double distance, double[][] store, double[][] firstDerivativeStore, double[][] secondDerivativeStore) {
+		final double[] exp = createExponentials(distance);
+		for (int i = 0; i < dimension_; i++)	{
+			final double[] evecRow = evec_[i];
+			for (int j = 0; j < dimension_; j++)	{
+				double temp = 0.0, first = 0.0, second = 0.0;
+				for (int k = 0; k < dimension_; k++)	{
+					final double v = evecRow[k] * (ievc_[k][j] * exp[k]);
+					temp += v;
+					first += v*eval_[k];
+					second += v*eval_[k]*eval_[k];
+				}
+				store[i][j] = Math.abs(temp);
+				firstDerivativeStore[i][j] = first;
+				secondDerivativeStore[i][j] = second;
+			}
+		}
+	}
+	private final double[] createExponentials(double distance) {
+		if(distance<pal.misc.BranchLimits.MINARC) {
+			distance = pal.misc.BranchLimits.MINARC;
+		}
+		final double[] exp = new double[dimension_];
+		for(int k = 0 ; k < dimension_ ; k++) {
+			exp[k] = Math.exp(distance*eval_[k]);
+		}
+		return exp;
+	}
+}
@@ -17,7 +17,7 @@ import pal.math.*;
 import pal.datatype.*;
 import java.io.*;
 
-public class GeneralRateDistributionSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel {
+public class GeneralRateDistributionSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel, SubstitutionModelSnapshot.Source {
 	private RateMatrixHandler handler_;
 	private RateDistribution rateDistribution_;
 	private DataType dataType_;
@@ -95,6 +95,9 @@ public class GeneralRateDistributionSubstitutionModel extends Parameterized.Para
 	public void getTransitionProbabilitiesTranspose(double branchLength, int category, double[][] store) {
 		handler_.getTransitionProbabilitiesTranspose(branchLength*rateDistribution_.getRate(category), store);
 	}
+	public SubstitutionModelSnapshot getSnapshot() {
+		return new SubstitutionModelSnapshot(dataType_,handler_.getEigenDecomposition(),rateDistribution_.getRates(), rateDistribution_.getCategoryProbabilities(), handler_.getEquilibriumFrequencies());
+	}
 	public void addPalObjectListener(PalObjectListener l) {
 		throw new RuntimeException("Sorry, NeoRateMatrix stuff does not work with old likelihood calculators!");
 	}
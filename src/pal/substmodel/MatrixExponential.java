@@ -51,6 +51,9 @@ public class MatrixExponential implements	Cloneable, java.io.Serializable
 	/** transition probability matrix */
 	private final double[][] transProb;
 
+	/** immutable snapshot of the current decomposition (created on demand) */
+	private transient EigenDecomposition eigenDecomposition_ = null;
+
 
 
 	/**
@@ -111,6 +114,18 @@ public class MatrixExponential implements	Cloneable, java.io.Serializable
 		eltran(amat, Evec, ordr, dimension_);
 		hqr2(dimension_, 1, dimension_, amat, Evec, Eval, evali);
 		luinverse(Evec, Ievc, dimension_);
+		eigenDecomposition_ = null;
+	}
+	/**
+	 * @return an immutable snapshot of the current eigen decomposition, which may be used
+	 * to calculate transition probabilities from multiple threads. The same snapshot is returned
+	 * until the rate matrix is next updated.
+	 */
+	public final EigenDecomposition getEigenDecomposition() {
+		if(eigenDecomposition_==null) {
+			eigenDecomposition_ = new EigenDecomposition(Eval,Evec,Ievc);
+		}
+		return eigenDecomposition_;
 	}
 	/**
 	 * update rate matrix used in present module
@@ -100,6 +100,13 @@ public interface RateMatrix
 	 */
 	void setDistanceTranspose(double distance);
 
+	/**
+	 * @return an immutable snapshot of the eigen decomposition of this rate matrix (as currently parameterised).
+	 * Unlike setDistance() and getTransitionProbabilities() the returned object may be used to calculate
+	 * transition probabilities from many threads at once (each thread supplying its own store).
+	 */
+	EigenDecomposition getEigenDecomposition();
+
 	/** Add a PalObjectListener to be notified of changes to the model.
 	 *  Only the parametersChanged method will generally be called
 	 */
@@ -82,6 +82,13 @@ public class RateMatrixHandler implements Parameterized, java.io.Serializable {
 		matrixExp_.setDistanceTranspose(distance);
 		matrixExp_.getTransitionProbabilities(store);
 	}
+	/**
+	 * @return an immutable snapshot of the eigen decomposition for the current parameters
+	 */
+	public final EigenDecomposition getEigenDecomposition() {
+		checkMatrix();
+		return matrixExp_.getEigenDecomposition();
+	}
 
 
 	// interface Report (remains abstract)
@@ -17,7 +17,7 @@ import pal.math.*;
 import pal.datatype.*;
 import java.io.*;
 
-public class SingleClassSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel {
+public class SingleClassSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel, SubstitutionModelSnapshot.Source {
 	private RateMatrixHandler handler_;
 	private DataType dataType_;
 
@@ -72,6 +72,9 @@ public class SingleClassSubstitutionModel extends Parameterized.ParameterizedUse
 	public void getTransitionProbabilitiesTranspose(double branchLength, int category, double[][] store) {
 		handler_.getTransitionProbabilitiesTranspose(branchLength, store);
 	}
+	public SubstitutionModelSnapshot getSnapshot() {
+		return new SubstitutionModelSnapshot(dataType_,handler_.getEigenDecomposition(),new double[] { 1 }, new double[] { 1 }, handler_.getEquilibriumFrequencies());
+	}
 	public void addPalObjectListener(PalObjectListener l) {
 		throw new RuntimeException("Sorry, NeoRateMatrix stuff does not work with old likelihood calculators!");
 	}
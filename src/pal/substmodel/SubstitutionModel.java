@@ -114,13 +114,34 @@ public interface SubstitutionModel extends Parameterized, Report, java.io.Serial
 			return new RateDistributionSubstitutionModel(rm,rd,parameteriseDistribution);
 		}
 
+		/**
+		 * @return a substitution model that caches the transition probabilities of a base model (using the default cache size)
+		 * @see CachedSubstitutionModel
+		 */
+		public static final SubstitutionModel createCachedSubstitutionModel(SubstitutionModel base) {
+			return new CachedSubstitutionModel(base);
+		}
+
+		/**
+		 * Obtain an immutable snapshot of a substitution model, from which transition probabilities may be
+		 * calculated by many threads at once.
+		 * @param model the model (not altered, other than rebuilding any out of date internal state)
+		 * @return a snapshot of the model as currently parameterised, or null if the model does not support snapshots
+		 */
+		public static final SubstitutionModelSnapshot createSnapshot(SubstitutionModel model) {
+			if(model instanceof SubstitutionModelSnapshot.Source) {
+				return ((SubstitutionModelSnapshot.Source)model).getSnapshot();
+			}
+			return null;
+		}
+
 
 
 //======== Private Inner classes
 //==============================
 		//========= SimpleSubstitutionModel ===============
 		//=================================================
-		private static class SimpleSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel {
+		private static class SimpleSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel, SubstitutionModelSnapshot.Source {
 			private RateMatrix matrixBase_;
 
 			private static final long serialVersionUID = 3054360219040005677L;
@@ -182,6 +203,9 @@ public interface SubstitutionModel extends Parameterized, Report, java.io.Serial
 				matrixBase_.setDistanceTranspose(branchLength);
 				matrixBase_.getTransitionProbabilities(store);
 			}
+			public SubstitutionModelSnapshot getSnapshot() {
+				return new SubstitutionModelSnapshot(matrixBase_.getDataType(),matrixBase_.getEigenDecomposition(),new double[] { 1 }, new double[] { 1 }, matrixBase_.getEquilibriumFrequencies());
+			}
 			public void addPalObjectListener(PalObjectListener l) {
 				matrixBase_.addPalObjectListener(l);
 			}
@@ -212,7 +236,7 @@ public interface SubstitutionModel extends Parameterized, Report, java.io.Serial
 
 		//============ RateDistributionSubstitutionModel ===================
 		//======================================
-		private static class RateDistributionSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel {
+		private static class RateDistributionSubstitutionModel extends Parameterized.ParameterizedUser implements SubstitutionModel, SubstitutionModelSnapshot.Source {
 			private RateMatrix matrixBase_;
 			private RateDistribution distribution_;
 			private int numberOfDistributionCategories_;
@@ -304,6 +328,9 @@ public interface SubstitutionModel extends Parameterized, Report, java.io.Serial
 				matrixBase_.setDistanceTranspose(branchLength*distribution_.rate[category]);
 				matrixBase_.getTransitionProbabilities(store);
 			}
+			public SubstitutionModelSnapshot getSnapshot() {
+				return new SubstitutionModelSnapshot(matrixBase_.getDataType(),matrixBase_.getEigenDecomposition(),distribution_.rate, distribution_.probability, matrixBase_.getEquilibriumFrequencies());
+			}
 
 			public void addPalObjectListener(PalObjectListener l) {
 				matrixBase_.addPalObjectListener(l);
@@ -0,0 +1,206 @@
+// SubstitutionModelSnapshot.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.substmodel;
+
+import pal.datatype.*;
+import pal.misc.*;
+import pal.math.*;
+
+import java.io.*;
+
+/**
+ * <p>Title: SubstitutionModelSnapshot</p>
+ * <p>Description: An immutable copy of the state of a SubstitutionModel (an eigen decomposition and
+ * a rate for each transition category, plus the category probabilities and equilibrium frequencies).
+ * Transition probabilities are written to caller supplied stores and no internal state is altered, so,
+ * unlike the SubstitutionModel it came from, a snapshot can be shared between threads. Tables are
+ * organised in the same way as for SubstitutionModel.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+
+public final class SubstitutionModelSnapshot implements java.io.Serializable {
+	private static final long serialVersionUID = 4928620786980583842L;
+
+	private final DataType dataType_;
+	private final EigenDecomposition[] decompositions_;
+	private final double[] categoryRates_;
+	private final double[] categoryProbabilities_;
+	private final double[] equilibriumFrequencies_;
+
+	/**
+	 * Create a snapshot in which every transition category uses the same decomposition (scaled by a category rate)
+	 * @param dataType the data type of the model
+	 * @param decomposition the decomposition of the underlying rate matrix
+	 * @param categoryRates the rate of each transition category (copied)
+	 * @param categoryProbabilities the probability of each transition category (copied)
+	 * @param equilibriumFrequencies the equilibrium frequencies (copied)
+	 */
+	public SubstitutionModelSnapshot(DataType dataType, EigenDecomposition decomposition, double[] categoryRates, double[] categoryProbabilities, double[] equilibriumFrequencies) {
+		this(dataType, fill(decomposition,categoryRates.length),categoryRates,categoryProbabilities,equilibriumFrequencies);
+	}
+	/**
+	 * Create a snapshot
+	 * @param dataType the data type of the model
+	 * @param decompositions the decomposition used for each transition category
+	 * @param categoryRates the rate of each transition category (copied)
+	 * @param categoryProbabilities the probability of each transition category (copied)
+	 * @param equilibriumFrequencies the equilibrium frequencies (copied)
+	 */
+	public SubstitutionModelSnapshot(DataType dataType, EigenDecomposition[] decompositions, double[] categoryRates, double[] categoryProbabilities, double[] equilibriumFrequencies) {
+		if(decompositions.length!=categoryRates.length||categoryRates.length!=categoryProbabilities.length) {
+			throw new IllegalArgumentException("Mismatched number of transition categories");
+		}
+		this.dataType_ = dataType;
+		this.decompositions_ = new EigenDecomposition[decompositions.length];
+		System.arraycopy(decompositions,0,decompositions_,0,decompositions.length);
+		this.categoryRates_ = pal.misc.Utils.getCopy(categoryRates);
+		this.categoryProbabilities_ = pal.misc.Utils.getCopy(categoryProbabilities);
+		this.equilibriumFrequencies_ = pal.misc.Utils.getCopy(equilibriumFrequencies);
+	}
+
+	public final DataType getDataType() { return dataType_; }
+	public final int getNumberOfTransitionCategories() { return categoryRates_.length; }
+	public final double getTransitionCategoryProbability(int category) { return categoryProbabilities_[category]; }
+	/**
+	 * @return a copy of the category probabilities
+	 */
+	public final double[] getTransitionCategoryProbabilities() { return pal.misc.Utils.getCopy(categoryProbabilities_); }
+	/**
+	 * @return a copy of the equilibrium frequencies
+	 */
+	public final double[] getEquilibriumFrequencies() { return pal.misc.Utils.getCopy(equilibriumFrequencies_); }
+	public final EigenDecomposition getEigenDecomposition(int category) { return decompositions_[category]; }
+	public final double getCategoryRate(int category) { return categoryRates_[category]; }
+
+	/**
+	 * Table is organized as [transition_group][from][to]
+	 */
+	public final void getTransitionProbabilities(double branchLength, double[][][] tableStore) {
+		for(int i = 0 ; i < categoryRates_.length ; i++) {
+			decompositions_[i].getTransitionProbabilities(branchLength*categoryRates_[i],tableStore[i]);
+		}
+	}
+	/**
+	 * Table is organized as [transition_group][to][from]
+	 */
+	public final void getTransitionProbabilitiesTranspose(double branchLength, double[][][] tableStore) {
+		for(int i = 0 ; i < categoryRates_.length ; i++) {
+			decompositions_[i].getTransitionProbabilitiesTranspose(branchLength*categoryRates_[i],tableStore[i]);
+		}
+	}
+	/**
+	 * Table is organized as [from][to]
+	 */
+	public final void getTransitionProbabilities(double branchLength, int category, double[][] tableStore) {
+		decompositions_[category].getTransitionProbabilities(branchLength*categoryRates_[category],tableStore);
+	}
+	/**
+	 * Table is organized as [to][from]
+	 */
+	public final void getTransitionProbabilitiesTranspose(double branchLength, int category, double[][] tableStore) {
+		decompositions_[category].getTransitionProbabilitiesTranspose(branchLength*categoryRates_[category],tableStore);
+	}
+
+	/**
+	 * Obtain transition probabilities and their first and second derivatives with respect to branch length.
+	 * Tables are organized as [transition_group][from][to]
+	 */
+	public final void getTransitionProbabilityDerivatives(double branchLength, double[][][] tableStore, double[][][] firstDerivativeStore, double[][][] secondDerivativeStore) {
+		for(int i = 0 ; i < categoryRates_.length ; i++) {
+			final double rate = categoryRates_[i];
+			final double[][] first = firstDerivativeStore[i];
+			final double[][] second = secondDerivativeStore[i];
+			decompositions_[i].getTransitionProbabilityDerivatives(branchLength*rate,tableStore[i],first,second);
+			if(rate!=1) {
+				final double rateSquared = rate*rate;
+				for(int from = 0 ; from < first.length ; from++) {
+					for(int to = 0 ; to < first.length ; to++) {
+						first[from][to]*=rate;
+						second[from][to]*=rateSquared;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Obtain a read only SubstitutionModel that calculates transition probabilities from this snapshot.
+	 * As with the snapshot, the view may be used by many threads at once. It has no parameters, never
+	 * changes (so never informs PalObjectListeners), and is itself a SubstitutionModelSnapshot.Source.
+	 * @return a view of this snapshot as a SubstitutionModel
+	 */
+	public final SubstitutionModel getView() {
+		return new View(this);
+	}
+
+	private static final EigenDecomposition[] fill(EigenDecomposition decomposition, int numberOfCategories) {
+		EigenDecomposition[] result = new EigenDecomposition[numberOfCategories];
+		for(int i = 0 ; i < numberOfCategories ; i++) { result[i] = decomposition; }
+		return result;
+	}
+
+// ==========================================================================
+	/**
+	 * Implemented by SubstitutionModels that can supply a snapshot of themselves
+	 */
+	public static interface Source {
+		/**
+		 * Create a snapshot of the model as currently parameterised. This method is not itself
+		 * thread safe (the model may need to rebuild internal state) but the result may be shared.
+		 * @return a snapshot
+		 */
+		public SubstitutionModelSnapshot getSnapshot();
+	}
+// ==========================================================================
+	private static final class View implements SubstitutionModel, Source {
+		private static final long serialVersionUID = 4993160818783876133L;
+		private final SubstitutionModelSnapshot snapshot_;
+		public View(SubstitutionModelSnapshot snapshot) {
+			this.snapshot_ = snapshot;
+		}
+		public SubstitutionModelSnapshot getSnapshot() { return snapshot_; }
+
+		public DataType getDataType() { return snapshot_.dataType_; }
+		public int getNumberOfTransitionCategories() { return snapshot_.categoryRates_.length; }
+		public double getTransitionCategoryProbability(int category) { return snapshot_.categoryProbabilities_[category]; }
+		public double[] getTransitionCategoryProbabilities() { return snapshot_.categoryProbabilities_; }
+		public double[] getEquilibriumFrequencies() { return snapshot_.equilibriumFrequencies_; }
+
+		public void getTransitionProbabilities(double branchLength, double[][][] tableStore) {
+			snapshot_.getTransitionProbabilities(branchLength,tableStore);
+		}
+		public void getTransitionProbabilitiesTranspose(double branchLength, double[][][] tableStore) {
+			snapshot_.getTransitionProbabilitiesTranspose(branchLength,tableStore);
+		}
+		public void getTransitionProbabilities(double branchLength, int category, double[][] tableStore) {
+			snapshot_.getTransitionProbabilities(branchLength,category,tableStore);
+		}
+		public void getTransitionProbabilitiesTranspose(double branchLength, int category, double[][] tableStore) {
+			snapshot_.getTransitionProbabilitiesTranspose(branchLength,category,tableStore);
+		}
+
+		//Never changes, so there is nothing to listen to
+		public void addPalObjectListener(PalObjectListener l) { }
+		public void removePalObjectListener(PalObjectListener l) { }
+		public OrthogonalHints getOrthogonalHints() { return null; }
+		public Object clone() { return this; }
+
+		public int getNumParameters() { return 0; }
+		public void setParameter(double param, int n) { throw new IllegalArgumentException("Snapshot views have no parameters"); }
+		public double getParameter(int n) { throw new IllegalArgumentException("Snapshot views have no parameters"); }
+		public void setParameterSE(double paramSE, int n) { throw new IllegalArgumentException("Snapshot views have no parameters"); }
+		public double getLowerLimit(int n) { throw new IllegalArgumentException("Snapshot views have no parameters"); }
+		public double getUpperLimit(int n) { throw new IllegalArgumentException("Snapshot views have no parameters"); }
+		public double getDefaultValue(int n) { throw new IllegalArgumentException("Snapshot views have no parameters"); }
+
+		public void report(PrintWriter out) {
+			out.println("Snapshot of a substitution model ("+snapshot_.categoryRates_.length+" transition categories)");
+		}
+	}
+}
@@ -325,6 +325,18 @@ public class YangCodonModel extends CodonModel implements Serializable, XMLConst
 			}
 			return copy;
 		}
+		/**
+		 * Create a snapshot where each base matrix forms one transition category
+		 */
+		public static final SubstitutionModelSnapshot createSnapshot( YangCodonModel[] baseMatrixes, double[] probabilities ) {
+			EigenDecomposition[] decompositions = new EigenDecomposition[baseMatrixes.length];
+			double[] rates = new double[baseMatrixes.length];
+			for( int i = 0; i<baseMatrixes.length; i++ ) {
+				decompositions[i] = baseMatrixes[i].getEigenDecomposition();
+				rates[i] = 1;
+			}
+			return new SubstitutionModelSnapshot( baseMatrixes[0].getDataType(), decompositions, rates, probabilities, baseMatrixes[0].getEquilibriumFrequencies() );
+		}
 	}
 
 // -==--=-=-=-=-=-=-==--=-==--=-=-=-==-=--=-=-==--=-=-==--=-=-=-=-=-=-=-=-==-=--==-=-=-=--=-=-=-==--==-
@@ -341,7 +353,7 @@ public class YangCodonModel extends CodonModel implements Serializable, XMLConst
 	 * [1] Nielsen, R., Yang Z., 1998  Likelihood Models for Detecting Positively Selected Amino Acid Sites and
 	 * Applications to the HIV-1 Envelope Gene. Genetics <b>148:</b> 929-936.
 	 */
-	public static class SimplePositiveSelection extends PalObjectListener.EventGenerator implements SubstitutionModel {
+	public static class SimplePositiveSelection extends PalObjectListener.EventGenerator implements SubstitutionModel, SubstitutionModelSnapshot.Source {
 
 		private static final double MINIMUM_PROPORTION = 0;
 		private static final double MAXIMUM_PROPORTION = 1;
@@ -506,6 +518,11 @@ public class YangCodonModel extends CodonModel implements Serializable, XMLConst
 			baseMatrixes_[category].setDistanceTranspose( branchLength );
 			baseMatrixes_[category].getTransitionProbabilities( tableStore );
 		}
+
+		public SubstitutionModelSnapshot getSnapshot() {
+			check();
+			return YangCodonModel.Utils.createSnapshot( baseMatrixes_, probabilities_ );
+		}
 		/**
 		 * We use three parameters instead of two to make opimisation easier (there are effectively only *two* parameters though)
 		 * @param p0
@@ -602,7 +619,7 @@ public class YangCodonModel extends CodonModel implements Serializable, XMLConst
 	 * [1] Nielsen, R., Yang Z., 1998  Likelihood Models for Detecting Positively Selected Amino Acid Sites and
 	 * Applications to the HIV-1 Envelope Gene. Genetics <b>148:</b> 929-936.
 	 */
-	public static class SimpleNeutralSelection extends PalObjectListener.EventGenerator implements SubstitutionModel {
+	public static class SimpleNeutralSelection extends PalObjectListener.EventGenerator implements SubstitutionModel, SubstitutionModelSnapshot.Source {
 		public static final double P_UPPER_LIMIT = 1;
 		public static final double P_LOWER_LIMIT = 0;
 		public static final double P_DEFAULT_VALUE = 0.5;
@@ -707,6 +724,11 @@ public class YangCodonModel extends CodonModel implements Serializable, XMLConst
 			baseMatrixes_[category].setDistanceTranspose( branchLength ); baseMatrixes_[category].getTransitionProbabilities( tableStore );
 		}
 
+		public SubstitutionModelSnapshot getSnapshot() {
+			check();
+			return YangCodonModel.Utils.createSnapshot( baseMatrixes_, probabilities_ );
+		}
+
 		/**
 		 * Two parameters, kappa, p,
 		 */
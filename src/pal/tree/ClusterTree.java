@@ -10,6 +10,8 @@ package pal.tree;
 /**
  * constructs a tree from pairwise distances using one of several clustering methods (UPGMA, WPGMA, Single Linkage, Complet Linkage - with room for extension)
  * Should work out to be O(n^2) but I'm not sure...
+ * Methods that are reducible (see ReducibleClusteringMethod, as are all those given here) are clustered with a
+ * nearest neighbour chain over a triangular distance array, which takes O(n^2) time however the distances fall.
  * @version $Id: ClusterTree.java,v 1.3 2003/03/23 00:20:56 matt Exp $
  *
  * @author Matthew Goode
@@ -50,15 +52,123 @@ public class ClusterTree extends SimpleTree{
 		if (!dm.isSymmetric())		{
 			new IllegalArgumentException("UNSYMMETRIC DISTANCE MATRIX");
 		}
-		BuildNode[] nodes = generateInitialNodes(dm);
-		Node root = generateTree(nodes,cm);
+		Node root;
+		if(cm instanceof ReducibleClusteringMethod) {
+			root = generateChainTree(dm,cm);
+		} else {
+			BuildNode[] nodes = generateInitialNodes(dm);
+			root = generateTree(nodes,cm);
+		}
 		setRoot(root);
 	}
+	/**
+	 * Nearest neighbour chain clustering: follow a chain of nearest neighbours until two clusters are each others
+	 * nearest, and join them. For a reducible method joining two clusters never brings them nearer another cluster,
+	 * so the rest of the chain stays valid, and the tree is that of always joining the closest pair (but for the
+	 * choice among tied pairs). Each join takes O(n) time.
+	 */
+	private static final Node generateChainTree(DistanceMatrix dm, ClusteringMethod cm) {
+		final int size = dm.getSize();
+		if((long)size*(size-1)/2>Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many taxa:"+size);
+		}
+		//Distances between the clusters in each pair of slots, as a lower triangle
+		final int[] rowStarts = new int[size];
+		for(int i = 0 ; i < size ; i++) {
+			rowStarts[i] = (int)((long)i*(i-1)/2);
+		}
+		final double[] distances = new double[(int)((long)size*(size-1)/2)];
+		final Node[] nodes = new Node[size];
+		final double[] heights = new double[size];
+		final int[] clusterSizes = new int[size];
+		final boolean[] active = new boolean[size];
+		for(int i = 0 ; i < size ; i++) {
+			for(int j = 0 ; j < i ; j++) {
+				distances[rowStarts[i]+j] = dm.getDistance(i,j);
+			}
+			nodes[i] = NodeFactory.createNode(dm.getIdentifier(i),0);
+			clusterSizes[i] = 1;
+			active[i] = true;
+		}
+		final int[] chain = new int[size];
+		int chainLength = 0;
+		int firstActive = 0;
+		int numberOfClusters = size;
+		while(numberOfClusters>1) {
+			if(chainLength==0) {
+				while(!active[firstActive]) { firstActive++; }
+				chain[chainLength++] = firstActive;
+			}
+			final int a = chain[chainLength-1];
+			final int previous = (chainLength>1 ? chain[chainLength-2] : -1);
+			//The nearest cluster to a, preferring the previous link of the chain if tied (so the chain ends)
+			int nearest = previous;
+			double nearestDistance = (previous<0 ? Double.POSITIVE_INFINITY : getDistance(distances,rowStarts,a,previous));
+			for(int k = 0 ; k < size ; k++) {
+				if(active[k]&&k!=a) {
+					final double d = getDistance(distances,rowStarts,a,k);
+					if(d<nearestDistance||nearest<0) {
+						nearestDistance = d;
+						nearest = k;
+					}
+				}
+			}
+			if(nearest!=previous) {
+				chain[chainLength++] = nearest;
+				continue;
+			}
+			chainLength-=2;
+			//Join a and previous into the lower slot
+			final int slot = Math.min(a,previous);
+			final int other = Math.max(a,previous);
+			final int slotSize = clusterSizes[slot];
+			final int otherSize = clusterSizes[other];
+			for(int k = 0 ; k < size ; k++) {
+				if(active[k]&&k!=slot&&k!=other) {
+					final double d = cm.computeDistance(
+						clusterSizes[k],
+						slotSize,
+						getDistance(distances,rowStarts,slot,k),
+						otherSize,
+						getDistance(distances,rowStarts,other,k)
+					);
+					if(k>slot) {
+						distances[rowStarts[k]+slot] = d;
+					} else {
+						distances[rowStarts[slot]+k] = d;
+					}
+				}
+			}
+			final double height = cm.computeHeight(slotSize,otherSize,nearestDistance);
+			Node[] children = new Node[2];
+			children[0] = nodes[slot];
+			children[1] = nodes[other];
+			children[0].setBranchLength(height-heights[slot]);
+			children[1].setBranchLength(height-heights[other]);
+			Node n = NodeFactory.createNode(children);
+			n.setNodeHeight(height);
+			nodes[slot] = n;
+			heights[slot] = height;
+			clusterSizes[slot] = slotSize+otherSize;
+			active[other] = false;
+			nodes[other] = null;
+			numberOfClusters--;
+		}
+		while(!active[firstActive]) { firstActive++; }
+		return nodes[firstActive];
+	}
+	private static final double getDistance(double[] distances, int[] rowStarts, int i, int j) {
+		return (i>j ? distances[rowStarts[i]+j] : distances[rowStarts[j]+i]);
+	}
 	private static final BuildNode[] generateInitialNodes(DistanceMatrix dm) {
-		double[][] distances = dm.getClonedDistances();
-		BuildNode[] nodes = new BuildNode[distances.length];
+		//Read the distances rather than cloning the matrix (which may not be held on the heap)
+		BuildNode[] nodes = new BuildNode[dm.getSize()];
 		for(int i= 0 ; i < nodes.length ; i++) {
-			nodes[i] = new BuildNode(distances[i],dm.getIdentifier(i),i);
+			double[] distances = new double[nodes.length];
+			for(int j = 0 ; j < nodes.length ; j++) {
+				distances[j] = dm.getDistance(i,j);
+			}
+			nodes[i] = new BuildNode(distances,dm.getIdentifier(i),i);
 		}
 		return nodes;
 	}
@@ -158,10 +268,15 @@ public class ClusterTree extends SimpleTree{
 			double distance);
 		public String getMethodName();
 	}
+	/**
+	 * A clustering method that is reducible: the distance from a cluster to the join of two clusters is never less
+	 * than the smaller of its distances to the two. Trees from reducible methods are built in O(n^2) time.
+	 */
+	public static interface ReducibleClusteringMethod extends ClusteringMethod { }
 
 //===========
 //=- UPGMA -=
-	abstract private static class BaseClusterer implements ClusteringMethod {
+	abstract private static class BaseClusterer implements ReducibleClusteringMethod {
 		public double computeHeight(
 			int firstToCombineClusterSize,
 			int secondToCombineClusterSize,
@@ -0,0 +1,253 @@
+// ConsensusTreeBuilder.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.tree;
+
+/**
+ * <p>Title: ConsensusTreeBuilder</p>
+ * <p>Description: Builds consensus trees (majority rule, or greedy) of a set of trees on the same leaves. Trees are
+ * added one at a time (typically read from a TreeIterator, such as
+ * TreeIterator.Utils.createNewHampshireIterator()) and only their splits are kept, counted in a SplitFrequencyTable,
+ * so the set of trees need never be in memory at once. For very large sets (such as the samples of a long MCMC
+ * run) the table can be limited to a maximum number of splits, in which case rare splits are dropped as it fills
+ * (see SplitFrequencyTable); splits in more than half the trees are kept unless the table is far too small.</p>
+ * <p>Consensus trees are built over the splits (they are unrooted, given as rooted at a multifurcation holding the
+ * first leaf) with no branch lengths. Each internal node other than the root is given an attribute holding the
+ * support of its split as a percentage of the trees (as an Integer, as TreeUtils.getReplicateCladeSupport()).</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.misc.*;
+import pal.util.*;
+
+public final class ConsensusTreeBuilder {
+	//How often (in trees) the status is updated when reading trees
+	private static final int STATUS_INTERVAL = 1000;
+
+	private final int maximumNumberOfSplits_;
+	private SplitFrequencyTable table_;
+
+	/**
+	 * Create a builder with no limit on the number of splits, with the leaves (and their order) taken from the first
+	 * tree added
+	 */
+	public ConsensusTreeBuilder() {
+		this(null,Integer.MAX_VALUE);
+	}
+	/**
+	 * Create a builder with the leaves (and their order) taken from the first tree added
+	 * @param maximumNumberOfSplits the greatest number of different splits held at once
+	 */
+	public ConsensusTreeBuilder(int maximumNumberOfSplits) {
+		this(null,maximumNumberOfSplits);
+	}
+	/**
+	 * @param ids the leaves of the trees (null to take them from the first tree added)
+	 * @param maximumNumberOfSplits the greatest number of different splits held at once
+	 */
+	public ConsensusTreeBuilder(IdGroup ids, int maximumNumberOfSplits) {
+		this.maximumNumberOfSplits_ = maximumNumberOfSplits;
+		if(ids!=null) {
+			this.table_ = new SplitFrequencyTable(ids,maximumNumberOfSplits);
+		}
+	}
+
+	/**
+	 * Count the splits of a tree
+	 * @param tree the tree (with the same leaves as all others)
+	 */
+	public void addTree(Tree tree) {
+		if(table_==null) {
+			table_ = new SplitFrequencyTable(TreeUtils.getLeafIdGroup(tree),maximumNumberOfSplits_);
+		}
+		table_.addTree(tree);
+	}
+	/**
+	 * Count the splits of all the trees of an iterator
+	 * @param trees the source of trees
+	 * @param numberToSkip the number of trees to read and ignore before counting (such as the burn in of an MCMC
+	 * run)
+	 * @param callback for monitoring progress (the status is updated with the number of trees read)
+	 * @return the number of trees counted (fewer than all if the callback requested a stop)
+	 */
+	public int addTrees(TreeIterator trees, int numberToSkip, AlgorithmCallback callback) {
+		int numberRead = 0;
+		int numberCounted = 0;
+		while(trees.isMoreTrees()) {
+			if(callback.isPleaseStop()) {
+				break;
+			}
+			final Tree tree = trees.getNextTree(callback);
+			if(numberRead++>=numberToSkip) {
+				addTree(tree);
+				numberCounted++;
+			}
+			if(numberRead%STATUS_INTERVAL==0) {
+				callback.updateStatus("Trees read:"+numberRead);
+			}
+		}
+		return numberCounted;
+	}
+
+	/**
+	 * @return the number of trees counted
+	 */
+	public int getNumberOfTrees() { return (table_==null ? 0 : table_.getNumberOfTrees()); }
+	/**
+	 * @return the split counts (null if no trees have been added)
+	 */
+	public SplitFrequencyTable getSplitFrequencyTable() { return table_; }
+
+	/**
+	 * @param attributeName the name of the attribute holding the support of each split
+	 * @return the majority rule consensus tree (of the splits in more than half of the trees)
+	 */
+	public Tree getMajorityRuleTree(String attributeName) {
+		return getConsensusTree(0.5,attributeName);
+	}
+	/**
+	 * @param minimumSupport the proportion of the trees a split must be in more than to be included (at least 0.5,
+	 * so that the splits are compatible)
+	 * @param attributeName the name of the attribute holding the support of each split
+	 * @return the consensus tree of the splits in more than minimumSupport of the trees
+	 */
+	public Tree getConsensusTree(double minimumSupport, String attributeName) {
+		checkTrees();
+		final int numberOfTrees = table_.getNumberOfTrees();
+		final int minimumCount = (int)Math.floor(Math.max(0.5,minimumSupport)*numberOfTrees)+1;
+		final int[] counts = new int[table_.getNumberOfSplits()];
+		final long[][] splits = table_.getPackedSplits(minimumCount,counts);
+		return buildTree(splits,counts,splits.length,attributeName);
+	}
+	/**
+	 * The greedy consensus tree includes splits in order of decreasing support, each included if it is compatible
+	 * with all those included before it (ties are broken in the order of SplitFrequencyTable.getSplits(), so the
+	 * tree depends only on the counts). It contains the majority rule consensus tree, and is fully resolved if
+	 * enough splits have been counted.
+	 * @param attributeName the name of the attribute holding the support of each split
+	 * @return the greedy consensus tree
+	 */
+	public Tree getGreedyConsensusTree(String attributeName) {
+		checkTrees();
+		final int numberOfLeaves = table_.getIdGroup().getIdCount();
+		final int[] counts = new int[table_.getNumberOfSplits()];
+		final long[][] splits = table_.getPackedSplits(1,counts);
+		final long lastWordMask = getLastWordMask(numberOfLeaves);
+		int numberIncluded = 0;
+		for(int i = 0 ; i < splits.length ; i++) {
+			boolean compatible = true;
+			for(int j = 0 ; j < numberIncluded ; j++) {
+				if(!isCompatible(splits[i],splits[j],lastWordMask)) {
+					compatible = false;
+					break;
+				}
+			}
+			if(compatible) {
+				splits[numberIncluded] = splits[i];
+				counts[numberIncluded] = counts[i];
+				numberIncluded++;
+			}
+		}
+		return buildTree(splits,counts,numberIncluded,attributeName);
+	}
+	/**
+	 * Annotate a tree with the support of its splits over the trees counted
+	 * @param attributeName the name of the attribute holding the support of each split
+	 * @param tree the tree (with the same leaves as those counted)
+	 * @return a copy of tree with the support (as a percentage, as an Integer) of the split of each internal node
+	 * (other than the root)
+	 */
+	public Tree getSplitSupport(String attributeName, Tree tree) {
+		checkTrees();
+		final SimpleTree result = new SimpleTree(tree);
+		final SplitSystem splits = SplitUtils.getSplits(table_.getIdGroup(),result);
+		final int numberOfTrees = table_.getNumberOfTrees();
+		for(int i = 0 ; i < splits.getSplitCount() ; i++) {
+			final int support = (int)(table_.getCount(splits.getSplit(i))*100/(double)numberOfTrees);
+			result.setAttribute(result.getInternalNode(i),attributeName,Integer.valueOf(support));
+		}
+		return result;
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+	private void checkTrees() {
+		if(table_==null||table_.getNumberOfTrees()==0) {
+			throw new IllegalArgumentException("No trees have been added");
+		}
+	}
+	private static long getLastWordMask(int numberOfLeaves) {
+		return (numberOfLeaves%64==0 ? -1L : (1L<<(numberOfLeaves%64))-1);
+	}
+	/**
+	 * Two splits in the standard orientation (both holding the first leaf) are compatible if one holds the other, or
+	 * together they hold every leaf
+	 */
+	private static boolean isCompatible(long[] one, long[] two, long lastWordMask) {
+		boolean oneInTwo = true, twoInOne = true, covering = true;
+		final int last = one.length-1;
+		for(int i = 0 ; i <= last ; i++) {
+			final long a = one[i], b = two[i];
+			if((a&~b)!=0) { oneInTwo = false; }
+			if((b&~a)!=0) { twoInOne = false; }
+			if((~a&~b&(i==last ? lastWordMask : -1L))!=0) { covering = false; }
+		}
+		return oneInTwo||twoInOne||covering;
+	}
+	/**
+	 * Build a tree of compatible splits. Each split becomes the clade of the leaves not in the split (which does
+	 * not hold the first leaf), added largest first below the smallest clade already added that holds it.
+	 */
+	private Tree buildTree(long[][] splits, int[] counts, int numberOfSplits, String attributeName) {
+		final IdGroup ids = table_.getIdGroup();
+		final int numberOfLeaves = ids.getIdCount();
+		final int numberOfTrees = table_.getNumberOfTrees();
+		//Order clades by decreasing size (the index is held in the low half, to keep the sort stable)
+		final long[] order = new long[numberOfSplits];
+		int numberOfClades = 0;
+		for(int i = 0 ; i < numberOfSplits ; i++) {
+			int cladeSize = 0;
+			for(int leaf = 1 ; leaf < numberOfLeaves ; leaf++) {
+				if((splits[i][leaf>>>6]&(1L<<(leaf&63)))==0) { cladeSize++; }
+			}
+			//Splits of single leaves say nothing
+			if(cladeSize>1&&cladeSize<numberOfLeaves-1) {
+				order[numberOfClades++] = (((long)(numberOfLeaves-cladeSize))<<32)|i;
+			}
+		}
+		java.util.Arrays.sort(order,0,numberOfClades);
+		final Node root = NodeFactory.createNode();
+		final Node[] cladeNodes = new Node[numberOfClades];
+		//The smallest clade holding each leaf so far
+		final Node[] parents = new Node[numberOfLeaves];
+		java.util.Arrays.fill(parents,root);
+		for(int c = 0 ; c < numberOfClades ; c++) {
+			final long[] split = splits[(int)order[c]];
+			final Node node = NodeFactory.createNode();
+			boolean attached = false;
+			for(int leaf = 1 ; leaf < numberOfLeaves ; leaf++) {
+				if((split[leaf>>>6]&(1L<<(leaf&63)))==0) {
+					if(!attached) {
+						parents[leaf].addChild(node);
+						attached = true;
+					}
+					parents[leaf] = node;
+				}
+			}
+			cladeNodes[c] = node;
+		}
+		for(int leaf = 0 ; leaf < numberOfLeaves ; leaf++) {
+			parents[leaf].addChild(NodeFactory.createNode(ids.getIdentifier(leaf)));
+		}
+		final SimpleTree tree = new SimpleTree(root);
+		for(int c = 0 ; c < numberOfClades ; c++) {
+			final int support = (int)(counts[(int)order[c]]*100/(double)numberOfTrees);
+			tree.setAttribute(cladeNodes[c],attributeName,Integer.valueOf(support));
+		}
+		return tree;
+	}
+}
@@ -73,20 +73,41 @@ public class NeighborJoiningTree extends SimpleTree
 	private int besti, abi;
 	private int bestj, abj;
 	private int[] alias;
-	private double[][] distance;
+	/** distances as a lower triangle (with the diagonal), row a starting at rowStarts[a] */
+	private double[] distance;
+	private int[] rowStarts;
 	private double[] r;
 	private double scale;
 
 	private double getDist(int a, int b)
 	{
-		return distance[alias[a]][alias[b]];
+		return distance[getIndex(alias[a], alias[b])];
+	}
+
+	private int getIndex(int a, int b)
+	{
+		return (a >= b ? rowStarts[a] + b : rowStarts[b] + a);
 	}
 
 	private void init(DistanceMatrix m)
 	{
 		numClusters = m.getSize();
 
-		distance =  m.getClonedDistances();
+		if ((long)numClusters*(numClusters+1)/2 > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("TOO MANY TAXA IN DISTANCE MATRIX");
+		}
+		// read the distances rather than cloning the matrix (which may not be held on the heap)
+		rowStarts = new int[numClusters];
+		distance = new double[(int)((long)numClusters*(numClusters+1)/2)];
+		for (int a = 0; a < numClusters; a++)
+		{
+			rowStarts[a] = (int)((long)a*(a+1)/2);
+			for (int b = 0; b <= a; b++)
+			{
+				distance[rowStarts[a] + b] = m.getDistance(a, b);
+			}
+		}
 
 		for (int i = 0; i < numClusters; i++)
 		{
@@ -119,6 +140,7 @@ public class NeighborJoiningTree extends SimpleTree
 			getRoot().getChild(2).setBranchLength(updatedDistance(besti, bestj, 2));
 		}
 		distance = null;
+		rowStarts = null;
 
 		// make node heights available also
 		NodeUtils.lengths2Heights(getRoot());
@@ -175,10 +197,10 @@ public class NeighborJoiningTree extends SimpleTree
 			if (k != besti && k != bestj)
 			{
 				int ak = alias[k];
-				distance[ak][abi] = distance[abi][ak] = updatedDistance(besti, bestj, k);
+				distance[getIndex(ak, abi)] = updatedDistance(besti, bestj, k);
 			}
 		}
-		distance[abi][abi] = 0.0;
+		distance[getIndex(abi, abi)] = 0.0;
 
 		// Replace besti with new cluster
 		NodeUtils.joinChilds(getRoot(), besti, bestj);
@@ -0,0 +1,499 @@
+// PackedSplitSystem.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.tree;
+
+/**
+ * <p>Title: PackedSplitSystem</p>
+ * <p>Description: The splits of a tree held as bitsets, 64 leaves to a long word, in the standard orientation of
+ * SplitUtils (the first leaf is always in the split, so a split and its complement are stored the same way). The
+ * splits are indexed by a hash table, so hasSplit() takes time proportional to the number of words in a split,
+ * rather than to the number of splits. The splits of a tree are found in a single pass over the tree.</p>
+ * <p>For comparing many trees there are bulk operations: getSplitIds() gives every distinct split over a set of
+ * split systems an identifier (so each tree becomes a sorted array of ints), from which Robinson-Foulds distances
+ * and split counts are found without comparing bitsets again.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import java.util.*;
+
+import pal.misc.*;
+
+public final class PackedSplitSystem {
+	private final IdGroup ids_;
+	private final int numberOfLeaves_;
+	private final int wordsPerSplit_;
+	private final int numberOfSplits_;
+	//The words of all splits, one after another
+	private final long[] words_;
+	//Hash index of splits (split index plus one, zero for an empty slot)
+	private final int[] index_;
+
+	/**
+	 * Find the splits of a tree (one for each internal node other than the root, in the order of the internal nodes,
+	 * as SplitUtils.getSplits())
+	 * @param ids the order of the leaves in the splits
+	 * @param tree the tree
+	 * @throws IllegalArgumentException if a leaf of the tree is not in ids
+	 */
+	public PackedSplitSystem(IdGroup ids, Tree tree) {
+		this(ids,Math.max(0,tree.getInternalNodeCount()-1));
+		final Hashtable<Node,long[]> subtrees = new Hashtable<Node,long[]>();
+		markSubtree(tree.getRoot(),subtrees);
+		for(int i = 0 ; i < numberOfSplits_ ; i++) {
+			final Node node = tree.getInternalNode(i);
+			if(node.isRoot()) {
+				throw new IllegalArgumentException("Only internal nodes (and no root) nodes allowed");
+			}
+			final long[] split = subtrees.get(node);
+			System.arraycopy(split,0,words_,i*wordsPerSplit_,wordsPerSplit_);
+			standardise(i);
+		}
+		buildIndex();
+	}
+	/**
+	 * Pack the splits of a split system
+	 * @param splits the split system
+	 */
+	public PackedSplitSystem(SplitSystem splits) {
+		this(splits.getIdGroup(),splits.getSplitCount());
+		for(int i = 0 ; i < numberOfSplits_ ; i++) {
+			final boolean[] split = splits.getSplit(i);
+			if(split.length!=numberOfLeaves_) {
+				throw new IllegalArgumentException("Split has "+split.length+" leaves, expected "+numberOfLeaves_);
+			}
+			final int offset = i*wordsPerSplit_;
+			for(int leaf = 0 ; leaf < numberOfLeaves_ ; leaf++) {
+				if(split[leaf]) { words_[offset+(leaf>>>6)] |= 1L<<(leaf&63); }
+			}
+			standardise(i);
+		}
+		buildIndex();
+	}
+	private PackedSplitSystem(IdGroup ids, int numberOfSplits) {
+		this.ids_ = ids;
+		this.numberOfLeaves_ = ids.getIdCount();
+		this.wordsPerSplit_ = getWordsPerSplit(numberOfLeaves_);
+		this.numberOfSplits_ = numberOfSplits;
+		this.words_ = new long[numberOfSplits*wordsPerSplit_];
+		int capacity = 16;
+		while(capacity<numberOfSplits*2) {
+			capacity<<=1;
+		}
+		this.index_ = new int[capacity];
+	}
+
+	/**
+	 * @return the leaves of the splits
+	 */
+	public final IdGroup getIdGroup() { return ids_; }
+	/**
+	 * @return the number of leaves
+	 */
+	public final int getLabelCount() { return numberOfLeaves_; }
+	/**
+	 * @return the number of splits
+	 */
+	public final int getSplitCount() { return numberOfSplits_; }
+	/**
+	 * @return the number of words of each split
+	 */
+	public final int getWordsPerSplit() { return wordsPerSplit_; }
+
+	/**
+	 * Get the packed words of a split (in the standard orientation)
+	 * @param split the split
+	 * @param store where the words are put (may be null, or too small, in which case a new array is created)
+	 * @return the words (store if it was used)
+	 */
+	public long[] getPackedSplit(int split, long[] store) {
+		if(store==null||store.length<wordsPerSplit_) {
+			store = new long[wordsPerSplit_];
+		}
+		System.arraycopy(words_,split*wordsPerSplit_,store,0,wordsPerSplit_);
+		return store;
+	}
+	/**
+	 * @param split the split
+	 * @return the split as a boolean array (in the standard orientation)
+	 */
+	public boolean[] getSplit(int split) {
+		final boolean[] result = new boolean[numberOfLeaves_];
+		final int offset = split*wordsPerSplit_;
+		for(int leaf = 0 ; leaf < numberOfLeaves_ ; leaf++) {
+			result[leaf] = (words_[offset+(leaf>>>6)]&(1L<<(leaf&63)))!=0;
+		}
+		return result;
+	}
+	/**
+	 * @return the splits as a SplitSystem
+	 */
+	public SplitSystem toSplitSystem() {
+		final SplitSystem result = new SplitSystem(ids_,numberOfSplits_);
+		final boolean[][] splits = result.getSplitVector();
+		for(int i = 0 ; i < numberOfSplits_ ; i++) {
+			final int offset = i*wordsPerSplit_;
+			for(int leaf = 0 ; leaf < numberOfLeaves_ ; leaf++) {
+				splits[i][leaf] = (words_[offset+(leaf>>>6)]&(1L<<(leaf&63)))!=0;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Test whether a split is in this system (assuming the same leaf order)
+	 * @param split the split (either orientation)
+	 * @return true if the split is present
+	 */
+	public boolean hasSplit(boolean[] split) {
+		if(split.length!=numberOfLeaves_) {
+			throw new IllegalArgumentException("Splits must be of the same length!");
+		}
+		final long[] packed = new long[wordsPerSplit_];
+		for(int leaf = 0 ; leaf < numberOfLeaves_ ; leaf++) {
+			if(split[leaf]) { packed[leaf>>>6] |= 1L<<(leaf&63); }
+		}
+		if(numberOfLeaves_>0&&!split[0]) {
+			complement(packed,0,wordsPerSplit_,numberOfLeaves_);
+		}
+		return findSplit(packed,0)>=0;
+	}
+	/**
+	 * Test whether a split of another system is in this system (assuming the same leaf order)
+	 * @param other the other split system
+	 * @param split the split of the other system
+	 * @return true if the split is present
+	 */
+	public boolean hasSplit(PackedSplitSystem other, int split) {
+		checkCompatible(other);
+		return findSplit(other.words_,split*wordsPerSplit_)>=0;
+	}
+	/**
+	 * @param other another split system (with the same leaves in the same order)
+	 * @return the number of splits of this system in the other system
+	 */
+	public int getNumberOfSharedSplits(PackedSplitSystem other) {
+		checkCompatible(other);
+		int shared = 0;
+		for(int i = 0 ; i < numberOfSplits_ ; i++) {
+			if(other.findSplit(words_,i*wordsPerSplit_)>=0) { shared++; }
+		}
+		return shared;
+	}
+	/**
+	 * The Robinson-Foulds (1981) distance, as TreeUtils.getRobinsonFouldsDistance(). A split repeated in a system
+	 * (as the two sides of a bifurcating root) counts each time it appears, as in the linear scan of SplitSystem.
+	 * @param other another split system (with the same leaves in the same order)
+	 * @return half the number of splits in one system but not the other
+	 */
+	public double getRobinsonFouldsDistance(PackedSplitSystem other) {
+		// number of splits in this system missing in the other
+		final int fn = numberOfSplits_-getNumberOfSharedSplits(other);
+		// number of splits in the other system missing in this
+		final int fp = other.numberOfSplits_-other.getNumberOfSharedSplits(this);
+		return 0.5*(fn+fp);
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+// Bulk operations
+
+	/**
+	 * Find the splits of a number of trees (with the same leaves)
+	 * @param ids the order of the leaves in the splits
+	 * @param trees the trees
+	 * @return the split system of each tree
+	 */
+	public static final PackedSplitSystem[] getSplitSystems(IdGroup ids, Tree[] trees) {
+		final PackedSplitSystem[] result = new PackedSplitSystem[trees.length];
+		for(int i = 0 ; i < trees.length ; i++) {
+			result[i] = new PackedSplitSystem(ids,trees[i]);
+		}
+		return result;
+	}
+	/**
+	 * Give each distinct split of a number of split systems (with the same leaves) an identifier (numbered from
+	 * zero, in order of first appearance)
+	 * @param systems the split systems
+	 * @return the identifiers of the splits of each system, in increasing order
+	 */
+	public static final int[][] getSplitIds(PackedSplitSystem[] systems) {
+		final int[][] result = new int[systems.length][];
+		if(systems.length==0) {
+			return result;
+		}
+		final int wordsPerSplit = systems[0].wordsPerSplit_;
+		int capacity = 1024;
+		int[] table = new int[capacity];
+		//The system and split of the first appearance of each identifier
+		int[] firstSystem = new int[256];
+		int[] firstSplit = new int[256];
+		int numberOfIds = 0;
+		for(int s = 0 ; s < systems.length ; s++) {
+			final PackedSplitSystem system = systems[s];
+			systems[0].checkCompatible(system);
+			final int[] ids = new int[system.numberOfSplits_];
+			for(int i = 0 ; i < ids.length ; i++) {
+				final int offset = i*wordsPerSplit;
+				final int mask = capacity-1;
+				int slot = hash(system.words_,offset,wordsPerSplit)&mask;
+				int entry;
+				while((entry = table[slot])!=0&&
+							!isSame(systems[firstSystem[entry-1]].words_,firstSplit[entry-1]*wordsPerSplit,system.words_,offset,wordsPerSplit)) {
+					slot = (slot+1)&mask;
+				}
+				if(entry==0) {
+					if(numberOfIds==firstSystem.length) {
+						firstSystem = grow(firstSystem);
+						firstSplit = grow(firstSplit);
+					}
+					firstSystem[numberOfIds] = s;
+					firstSplit[numberOfIds] = i;
+					entry = ++numberOfIds;
+					table[slot] = entry;
+					if(numberOfIds*2>capacity) {
+						capacity*=2;
+						table = new int[capacity];
+						for(int id = 0 ; id < numberOfIds ; id++) {
+							final PackedSplitSystem first = systems[firstSystem[id]];
+							int newSlot = hash(first.words_,firstSplit[id]*wordsPerSplit,wordsPerSplit)&(capacity-1);
+							while(table[newSlot]!=0) {
+								newSlot = (newSlot+1)&(capacity-1);
+							}
+							table[newSlot] = id+1;
+						}
+					}
+				}
+				ids[i] = entry-1;
+			}
+			Arrays.sort(ids);
+			result[s] = ids;
+		}
+		return result;
+	}
+	/**
+	 * @param splitIds the identifiers of the splits of each system (as from getSplitIds())
+	 * @param numberOfIds the number of identifiers (one more than the largest)
+	 * @return the number of systems in which each split appears
+	 */
+	public static final int[] getSplitCounts(int[][] splitIds, int numberOfIds) {
+		final int[] counts = new int[numberOfIds];
+		for(int s = 0 ; s < splitIds.length ; s++) {
+			final int[] ids = splitIds[s];
+			for(int i = 0 ; i < ids.length ; i++) {
+				//A tree can repeat a split only through unresolved nodes (each counts once)
+				if(i==0||ids[i]!=ids[i-1]) { counts[ids[i]]++; }
+			}
+		}
+		return counts;
+	}
+	/**
+	 * The Robinson-Foulds distance between two split systems given as sorted split identifiers (see getSplitIds())
+	 * @param idsOne the split identifiers of the first system
+	 * @param idsTwo the split identifiers of the second system
+	 * @return half the number of splits in one system but not the other (repeated splits counting each time, as
+	 * getRobinsonFouldsDistance(PackedSplitSystem))
+	 */
+	public static final double getRobinsonFouldsDistance(int[] idsOne, int[] idsTwo) {
+		int fn = 0, fp = 0;
+		int i = 0, j = 0;
+		while(i<idsOne.length||j<idsTwo.length) {
+			final int id = (j==idsTwo.length||(i<idsOne.length&&idsOne[i]<=idsTwo[j]) ? idsOne[i] : idsTwo[j]);
+			int countOne = 0, countTwo = 0;
+			while(i<idsOne.length&&idsOne[i]==id) { countOne++; i++; }
+			while(j<idsTwo.length&&idsTwo[j]==id) { countTwo++; j++; }
+			if(countTwo==0) { fn+=countOne; }
+			if(countOne==0) { fp+=countTwo; }
+		}
+		return 0.5*(fn+fp);
+	}
+	/**
+	 * The Robinson-Foulds distance between every pair of a number of split systems (with the same leaves)
+	 * @param systems the split systems
+	 * @return the distances, as [system][system]
+	 */
+	public static final double[][] getRobinsonFouldsDistances(PackedSplitSystem[] systems) {
+		final int[][] ids = getSplitIds(systems);
+		final double[][] distances = new double[systems.length][systems.length];
+		for(int i = 0 ; i < systems.length ; i++) {
+			for(int j = i+1 ; j < systems.length ; j++) {
+				distances[i][j] = distances[j][i] = getRobinsonFouldsDistance(ids[i],ids[j]);
+			}
+		}
+		return distances;
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+	/**
+	 * @return the number of words needed for a split of a number of leaves
+	 */
+	static final int getWordsPerSplit(int numberOfLeaves) {
+		return Math.max(1,(numberOfLeaves+63)/64);
+	}
+	/**
+	 * Complement a split in place (leaving unused bits of the last word clear)
+	 */
+	static final void complement(long[] words, int offset, int wordsPerSplit, int numberOfLeaves) {
+		for(int i = 0 ; i < wordsPerSplit ; i++) {
+			words[offset+i] = ~words[offset+i];
+		}
+		if(numberOfLeaves%64!=0) {
+			words[offset+wordsPerSplit-1] &= (1L<<(numberOfLeaves%64))-1;
+		} else if(numberOfLeaves==0) {
+			words[offset] = 0;
+		}
+	}
+	static final int hash(long[] words, int offset, int length) {
+		long h = 0;
+		for(int i = 0 ; i < length ; i++) {
+			h = (h^words[offset+i])*0x9e3779b97f4a7c15L;
+		}
+		return (int)(h^(h>>>32));
+	}
+	static final boolean isSame(long[] wordsOne, int offsetOne, long[] wordsTwo, int offsetTwo, int length) {
+		for(int i = 0 ; i < length ; i++) {
+			if(wordsOne[offsetOne+i]!=wordsTwo[offsetTwo+i]) { return false; }
+		}
+		return true;
+	}
+	private static int[] grow(int[] array) {
+		final int[] result = new int[array.length*2];
+		System.arraycopy(array,0,result,0,array.length);
+		return result;
+	}
+
+	private void checkCompatible(PackedSplitSystem other) {
+		if(other.numberOfLeaves_!=numberOfLeaves_) {
+			throw new IllegalArgumentException("Number of labels must be the same!");
+		}
+	}
+	/**
+	 * Put the bits of every node of a subtree in the subtrees table
+	 * @return the bits of the subtree
+	 */
+	private long[] markSubtree(Node node, Hashtable<Node,long[]> subtrees) {
+		final long[] split = new long[wordsPerSplit_];
+		if(node.isLeaf()) {
+			final String name = node.getIdentifier().getName();
+			final int index = ids_.whichIdNumber(name);
+			if(index<0) {
+				throw new IllegalArgumentException("INCOMPATIBLE IDENTIFIER (" + name + ")");
+			}
+			split[index>>>6] |= 1L<<(index&63);
+		} else {
+			for(int i = 0 ; i < node.getChildCount() ; i++) {
+				final long[] child = markSubtree(node.getChild(i),subtrees);
+				for(int w = 0 ; w < wordsPerSplit_ ; w++) {
+					split[w] |= child[w];
+				}
+			}
+		}
+		subtrees.put(node,split);
+		return split;
+	}
+	private void standardise(int split) {
+		final int offset = split*wordsPerSplit_;
+		if(numberOfLeaves_>0&&(words_[offset]&1L)==0) {
+			complement(words_,offset,wordsPerSplit_,numberOfLeaves_);
+		}
+	}
+	private void buildIndex() {
+		final int mask = index_.length-1;
+		for(int i = 0 ; i < numberOfSplits_ ; i++) {
+			final int offset = i*wordsPerSplit_;
+			int slot = hash(words_,offset,wordsPerSplit_)&mask;
+			while(index_[slot]!=0) {
+				if(isSame(words_,(index_[slot]-1)*wordsPerSplit_,words_,offset,wordsPerSplit_)) {
+					break;
+				}
+				slot = (slot+1)&mask;
+			}
+			if(index_[slot]==0) {
+				index_[slot] = i+1;
+			}
+		}
+	}
+	/**
+	 * @return the index of a split (in standard orientation), or -1 if not present
+	 */
+	private int findSplit(long[] words, int offset) {
+		final int mask = index_.length-1;
+		int slot = hash(words,offset,wordsPerSplit_)&mask;
+		int entry;
+		while((entry = index_[slot])!=0) {
+			if(isSame(words_,(entry-1)*wordsPerSplit_,words,offset,wordsPerSplit_)) {
+				return entry-1;
+			}
+			slot = (slot+1)&mask;
+		}
+		return -1;
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+// Checks
+
+	/**
+	 * Check that Robinson-Foulds distances (by hash lookup, and by split identifiers) match those of a linear
+	 * scan of the splits, on rooted and unrooted trees
+	 */
+	public static void main(String[] args) throws Exception {
+		checkDistances(new Tree[] {
+			new ReadTree(new java.io.PushbackReader(new java.io.StringReader("(((A,B),C),((D,E),F));"))),
+			new ReadTree(new java.io.PushbackReader(new java.io.StringReader("((((A,B),C),D),(E,F));")))
+		});
+		final pal.math.MersenneTwisterFast random = new pal.math.MersenneTwisterFast(1);
+		for(int numberOfLeaves = 4 ; numberOfLeaves <= 130 ; numberOfLeaves+=7) {
+			final Identifier[] identifiers = new Identifier[numberOfLeaves];
+			for(int i = 0 ; i < numberOfLeaves ; i++) {
+				identifiers[i] = new Identifier("t"+i);
+			}
+			final Tree[] trees = new Tree[6];
+			for(int t = 0 ; t < trees.length ; t++) {
+				final double[][] distances = new double[numberOfLeaves][numberOfLeaves];
+				for(int i = 0 ; i < numberOfLeaves ; i++) {
+					for(int j = 0 ; j < i ; j++) {
+						distances[i][j] = distances[j][i] = random.nextDouble();
+					}
+				}
+				final pal.distance.DistanceMatrix dm = new pal.distance.DistanceMatrix(distances,new SimpleIdGroup(identifiers));
+				//Rooted (bifurcating root) and unrooted trees
+				trees[t] = (t%2==0 ? (Tree)new ClusterTree(dm,ClusterTree.UPGMA) : (Tree)new NeighborJoiningTree(dm));
+			}
+			checkDistances(trees);
+		}
+		System.out.println("Robinson-Foulds distances match the linear scan");
+	}
+	private static void checkDistances(Tree[] trees) {
+		final IdGroup ids = TreeUtils.getLeafIdGroup(trees[0]);
+		final double[][] bulk = TreeUtils.getRobinsonFouldsDistances(trees);
+		for(int i = 0 ; i < trees.length ; i++) {
+			final SplitSystem one = SplitUtils.getSplits(ids,trees[i]);
+			for(int j = 0 ; j < trees.length ; j++) {
+				final SplitSystem two = SplitUtils.getSplits(ids,trees[j]);
+				final double expected = 0.5*(getNumberMissing(one,two)+getNumberMissing(two,one));
+				final double hashed = TreeUtils.getRobinsonFouldsDistance(one,trees[j]);
+				if(hashed!=expected||(i!=j&&bulk[i][j]!=expected)) {
+					throw new RuntimeException("Robinson-Foulds distance of trees "+i+" and "+j+" is "+hashed+" (bulk "+bulk[i][j]+"), linear scan gives "+expected);
+				}
+			}
+		}
+	}
+	/**
+	 * @return the number of splits of one missing in two, by linear scan
+	 */
+	private static int getNumberMissing(SplitSystem one, SplitSystem two) {
+		int missing = 0;
+		for(int i = 0 ; i < one.getSplitCount() ; i++) {
+			boolean found = false;
+			for(int j = 0 ; j < two.getSplitCount()&&!found ; j++) {
+				found = SplitUtils.isSame(one.getSplit(i),two.getSplit(j));
+			}
+			if(!found) { missing++; }
+		}
+		return missing;
+	}
+}
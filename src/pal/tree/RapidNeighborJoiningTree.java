@@ -0,0 +1,398 @@
+// RapidNeighborJoiningTree.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.tree;
+
+/**
+ * <p>Title: RapidNeighborJoiningTree</p>
+ * <p>Description: Constructs a neighbor-joining tree (Saitou and Nei, 1987) from pairwise distances, as
+ * NeighborJoiningTree, for large numbers of taxa. Rather than scanning every pair of clusters at each join, the
+ * search for the next pair uses the bounds of RapidNJ (Simonsen, Mailund and Pedersen, 2008): the distances of each
+ * cluster are kept sorted, and a row is scanned only until no later pair of the row can beat the best pair found.
+ * Each pair of clusters is held once, in the row of the cluster created later. Distances are held as a flat lower
+ * triangle, and, for large numbers of clusters, the search and the update of the distances after each join are
+ * shared among a number of threads. The tree found does not depend on the number of threads.</p>
+ * <p>The tree is the neighbor-joining tree; it may differ from that of NeighborJoiningTree only where two pairs of
+ * clusters tie as the next to join. Branch lengths may differ from those of NeighborJoiningTree in the last few
+ * bits, as the sum of the distances of each cluster is updated after each join rather than summed afresh.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.distance.*;
+import pal.util.*;
+
+public class RapidNeighborJoiningTree extends SimpleTree {
+	private static final long serialVersionUID = 7048991950246992455L;
+
+	/**
+	 * construct NJ tree
+	 *
+	 * @param m distance matrix (symmetric, of at least three taxa)
+	 */
+	public RapidNeighborJoiningTree(DistanceMatrix m) {
+		this(m,1);
+	}
+	/**
+	 * construct NJ tree, sharing the work among a number of threads
+	 *
+	 * @param m distance matrix (symmetric, of at least three taxa)
+	 * @param numberOfThreads the number of threads (from a shared WorkerPool) to use
+	 */
+	public RapidNeighborJoiningTree(DistanceMatrix m, int numberOfThreads) {
+		if (m.getSize() < 3) {
+			throw new IllegalArgumentException("LESS THAN 3 TAXA IN DISTANCE MATRIX");
+		}
+		new Joiner(m,getRoot(),numberOfThreads).join();
+		// make node heights available also
+		NodeUtils.lengths2Heights(getRoot());
+		createNodeList();
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * The state of the clusters during the joining (kept apart from the tree so it can be collected afterwards)
+	 */
+	private static final class Joiner {
+		//The number of clusters below which only one thread is used
+		private static final int PARALLEL_THRESHOLD = 1024;
+
+		private final Node root_;
+		private final int numberOfSlots_;
+		//The start of the row of each slot in distances_
+		private final int[] rowStarts_;
+		//Distances between the clusters of each pair of slots, as a lower triangle
+		private final double[] distances_;
+		//The sum of the distances from each cluster to all others
+		private final double[] r_;
+		private final boolean[] active_;
+		//The order of creation of the cluster in each slot
+		private final int[] created_;
+		private final Node[] nodes_;
+		//For each slot, the slots of clusters created before its cluster, in increasing distance
+		private final int[][] rows_;
+		private final int[] rowLengths_;
+		private final int numberOfThreads_;
+		private final SearchTask[] searchTasks_;
+		private final UpdateTask[] updateTasks_;
+
+		private int numberOfClusters_;
+		private int nextCreated_;
+		private int numberAtLastCompaction_;
+
+		//The state of the current join, read by the tasks
+		private double largestR_;
+		private int joinI_, joinJ_;
+		private double joinDistance_;
+
+		public Joiner(DistanceMatrix m, Node root, int numberOfThreads) {
+			final int size = m.getSize();
+			if((long)size*(size-1)/2>Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many taxa:"+size);
+			}
+			this.root_ = root;
+			this.numberOfSlots_ = size;
+			this.numberOfClusters_ = size;
+			this.numberAtLastCompaction_ = size;
+			this.nextCreated_ = size;
+			this.rowStarts_ = new int[size];
+			for(int a = 0 ; a < size ; a++) {
+				rowStarts_[a] = (int)((long)a*(a-1)/2);
+			}
+			this.distances_ = new double[(int)((long)size*(size-1)/2)];
+			this.r_ = new double[size];
+			this.active_ = new boolean[size];
+			this.created_ = new int[size];
+			this.nodes_ = new Node[size];
+			for(int a = 0 ; a < size ; a++) {
+				final Node leaf = NodeFactory.createNode();
+				leaf.setIdentifier(m.getIdentifier(a));
+				nodes_[a] = leaf;
+				active_[a] = true;
+				created_[a] = a;
+				for(int b = 0 ; b < a ; b++) {
+					final double d = m.getDistance(a,b);
+					distances_[rowStarts_[a]+b] = d;
+					r_[a]+=d;
+					r_[b]+=d;
+				}
+			}
+			this.rows_ = new int[size][];
+			this.rowLengths_ = new int[size];
+			this.numberOfThreads_ = Math.max(1,numberOfThreads);
+			this.searchTasks_ = new SearchTask[numberOfThreads_];
+			this.updateTasks_ = new UpdateTask[numberOfThreads_];
+			for(int t = 0 ; t < numberOfThreads_ ; t++) {
+				searchTasks_[t] = new SearchTask(t);
+				updateTasks_[t] = new UpdateTask(t);
+			}
+			//The initial rows are sorted in parallel (each task sorts every numberOfThreads_ th row)
+			final Runnable[] sorts = new Runnable[numberOfThreads_];
+			for(int t = 0 ; t < numberOfThreads_ ; t++) {
+				final int first = t;
+				sorts[t] = new Runnable() {
+					public void run() {
+						final double[] values = new double[numberOfSlots_];
+						for(int a = first ; a < numberOfSlots_ ; a+=numberOfThreads_) {
+							final int[] row = new int[a];
+							for(int b = 0 ; b < a ; b++) {
+								row[b] = b;
+								values[b] = distances_[rowStarts_[a]+b];
+							}
+							sortRow(row,values,a);
+							rows_[a] = row;
+							rowLengths_[a] = a;
+						}
+					}
+				};
+			}
+			execute(sorts,size);
+		}
+
+		public void join() {
+			while(numberOfClusters_>3) {
+				largestR_ = Double.NEGATIVE_INFINITY;
+				for(int a = 0 ; a < numberOfSlots_ ; a++) {
+					if(active_[a]&&r_[a]>largestR_) { largestR_ = r_[a]; }
+				}
+				final SearchTask best = search();
+				joinPair(best.bestK_,best.bestS_);
+				if(numberOfClusters_<numberAtLastCompaction_/2) {
+					compactRows();
+				}
+			}
+			finish();
+		}
+
+		private SearchTask search() {
+			execute(searchTasks_,numberOfClusters_);
+			SearchTask best = searchTasks_[0];
+			for(int t = 1 ; t < numberOfThreads_ ; t++) {
+				if(searchTasks_[t].isBetter(best)) {
+					best = searchTasks_[t];
+				}
+			}
+			return best;
+		}
+
+		private void joinPair(int i, int j) {
+			final double dij = getDistance(i,j);
+			final double scale = 1.0/(numberOfClusters_-2);
+			final double li = (dij+(r_[i]-r_[j])*scale)*0.5;
+			final double lj = dij-li;
+			final Node cluster = NodeFactory.createNode();
+			nodes_[i].setBranchLength(li);
+			nodes_[j].setBranchLength(lj);
+			cluster.addChild(nodes_[i]);
+			cluster.addChild(nodes_[j]);
+
+			//The new cluster takes the smaller slot
+			final int slot = Math.min(i,j);
+			final int other = Math.max(i,j);
+			joinI_ = slot;
+			joinJ_ = other;
+			joinDistance_ = dij;
+			execute(updateTasks_,numberOfClusters_);
+			active_[other] = false;
+			nodes_[other] = null;
+			rows_[other] = null;
+			rowLengths_[other] = 0;
+
+			//The new cluster is the newest, so its row holds every other cluster
+			final int[] row = new int[numberOfClusters_-2];
+			final double[] values = new double[numberOfClusters_-2];
+			double sum = 0;
+			int length = 0;
+			for(int k = 0 ; k < numberOfSlots_ ; k++) {
+				if(active_[k]&&k!=slot) {
+					final double d = getDistance(slot,k);
+					row[length] = k;
+					values[length++] = d;
+					sum+=d;
+				}
+			}
+			sortRow(row,values,length);
+			rows_[slot] = row;
+			rowLengths_[slot] = length;
+			r_[slot] = sum;
+			nodes_[slot] = cluster;
+			created_[slot] = nextCreated_++;
+			numberOfClusters_--;
+		}
+
+		/**
+		 * Join the last three clusters at the root
+		 */
+		private void finish() {
+			final int[] last = new int[3];
+			int number = 0;
+			for(int a = 0 ; a < numberOfSlots_ ; a++) {
+				if(active_[a]) { last[number++] = a; }
+			}
+			for(int c = 0 ; c < 3 ; c++) {
+				final int a = last[c], b = last[(c+1)%3], other = last[(c+2)%3];
+				nodes_[a].setBranchLength((getDistance(a,b)+getDistance(a,other)-getDistance(b,other))*0.5);
+				root_.addChild(nodes_[a]);
+			}
+		}
+
+		/**
+		 * Remove the entries of rows that are no longer used (for clusters joined, or created later)
+		 */
+		private void compactRows() {
+			for(int k = 0 ; k < numberOfSlots_ ; k++) {
+				if(active_[k]) {
+					final int[] row = rows_[k];
+					final int length = rowLengths_[k];
+					int newLength = 0;
+					for(int e = 0 ; e < length ; e++) {
+						if(isCurrent(k,row[e])) { row[newLength++] = row[e]; }
+					}
+					if(newLength<row.length/2) {
+						final int[] trimmed = new int[newLength];
+						System.arraycopy(row,0,trimmed,0,newLength);
+						rows_[k] = trimmed;
+					}
+					rowLengths_[k] = newLength;
+				}
+			}
+			numberAtLastCompaction_ = numberOfClusters_;
+		}
+
+		private boolean isCurrent(int rowSlot, int slot) {
+			return active_[slot]&&created_[slot]<created_[rowSlot];
+		}
+		private double getDistance(int a, int b) {
+			return (a>b ? distances_[rowStarts_[a]+b] : distances_[rowStarts_[b]+a]);
+		}
+		private void execute(Runnable[] tasks, int numberOfClusters) {
+			if(numberOfThreads_==1||numberOfClusters<PARALLEL_THRESHOLD) {
+				for(int t = 0 ; t < tasks.length ; t++) {
+					tasks[t].run();
+				}
+			} else {
+				WorkerPool.getSharedPool(numberOfThreads_).execute(tasks);
+			}
+		}
+
+		/**
+		 * Sort the first length slots of a row by increasing value (then slot), a simple merge sort
+		 */
+		private static void sortRow(int[] row, double[] values, int length) {
+			int[] rowFrom = row, rowTo = new int[length];
+			double[] valuesFrom = values, valuesTo = new double[length];
+			for(int width = 1 ; width < length ; width*=2) {
+				for(int start = 0 ; start < length ; start+=2*width) {
+					final int middle = Math.min(start+width,length);
+					final int end = Math.min(start+2*width,length);
+					int left = start, right = middle;
+					for(int e = start ; e < end ; e++) {
+						final boolean takeLeft = left<middle&&(right>=end||valuesFrom[left]<valuesFrom[right]||
+							(valuesFrom[left]==valuesFrom[right]&&rowFrom[left]<rowFrom[right]));
+						final int from = (takeLeft ? left++ : right++);
+						rowTo[e] = rowFrom[from];
+						valuesTo[e] = valuesFrom[from];
+					}
+				}
+				final int[] rowSwap = rowFrom; rowFrom = rowTo; rowTo = rowSwap;
+				final double[] valuesSwap = valuesFrom; valuesFrom = valuesTo; valuesTo = valuesSwap;
+			}
+			if(rowFrom!=row) {
+				System.arraycopy(rowFrom,0,row,0,length);
+			}
+		}
+
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+		/**
+		 * Finds the best pair among every numberOfThreads_ th row
+		 */
+		private final class SearchTask implements Runnable {
+			private final int first_;
+			private double bestQ_;
+			private int bestK_, bestS_;
+			public SearchTask(int first) {
+				this.first_ = first;
+			}
+			/**
+			 * @return true if the best pair of this task is better than that of another (the smaller Q, and then the
+			 * smaller pair of slots, so the pair chosen does not depend on how the rows are shared)
+			 */
+			public boolean isBetter(SearchTask other) {
+				if(bestQ_!=other.bestQ_) {
+					return bestQ_<other.bestQ_;
+				}
+				return isBefore(bestK_,bestS_,other.bestK_,other.bestS_);
+			}
+			public void run() {
+				bestQ_ = Double.POSITIVE_INFINITY;
+				bestK_ = -1;
+				bestS_ = -1;
+				final double nMinusTwo = numberOfClusters_-2;
+				final double largestR = largestR_;
+				for(int k = first_ ; k < numberOfSlots_ ; k+=numberOfThreads_) {
+					if(!active_[k]) {
+						continue;
+					}
+					final int[] row = rows_[k];
+					final int length = rowLengths_[k];
+					final double rk = r_[k];
+					final int start = rowStarts_[k];
+					for(int e = 0 ; e < length ; e++) {
+						final int s = row[e];
+						if(!isCurrent(k,s)) {
+							continue;
+						}
+						final double d = (k>s ? distances_[start+s] : distances_[rowStarts_[s]+k]);
+						final double scaled = d*nMinusTwo-rk;
+						//No later entry of the row can do better than this
+						if(scaled-largestR>bestQ_) {
+							break;
+						}
+						final double q = scaled-r_[s];
+						if(q<bestQ_||(q==bestQ_&&isBefore(k,s,bestK_,bestS_))) {
+							bestQ_ = q;
+							bestK_ = k;
+							bestS_ = s;
+						}
+					}
+				}
+			}
+			private boolean isBefore(int k1, int s1, int k2, int s2) {
+				if(k2<0) { return true; }
+				final int low1 = Math.min(k1,s1), low2 = Math.min(k2,s2);
+				if(low1!=low2) { return low1<low2; }
+				return Math.max(k1,s1)<Math.max(k2,s2);
+			}
+		}
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+		/**
+		 * Updates the distances to the new cluster, and the sums of distances, of every numberOfThreads_ th slot
+		 */
+		private final class UpdateTask implements Runnable {
+			private final int first_;
+			public UpdateTask(int first) {
+				this.first_ = first;
+			}
+			public void run() {
+				final int i = joinI_, j = joinJ_;
+				final double dij = joinDistance_;
+				for(int k = first_ ; k < numberOfSlots_ ; k+=numberOfThreads_) {
+					if(active_[k]&&k!=i&&k!=j) {
+						final double dik = getDistance(i,k);
+						final double djk = getDistance(j,k);
+						final double d = (dik+djk-dij)*0.5;
+						if(k>i) {
+							distances_[rowStarts_[k]+i] = d;
+						} else {
+							distances_[rowStarts_[i]+k] = d;
+						}
+						r_[k]+=d-dik-djk;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+// ReplicateSplitCounter.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.tree;
+
+/**
+ * <p>Title: ReplicateSplitCounter</p>
+ * <p>Description: Generates replicate trees (such as bootstrap trees) on a number of threads at once, and counts
+ * their splits in a SplitFrequencyTable. Each thread has its own TreeGenerator (from a TreeGenerator.Factory)
+ * and its own MersenneTwisterFast, which is reseeded before each replicate with a seed for that replicate (drawn
+ * in order from a generator with the given seed). Which thread builds a replicate therefore has no effect on the
+ * replicate, and, as counts are added, the split counts are the same for any number of threads.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.math.*;
+import pal.misc.*;
+import pal.util.*;
+
+public final class ReplicateSplitCounter {
+	//Used in place of a replicate seed of zero (which MersenneTwisterFast.setSeed() cannot use)
+	private static final int ZERO_SEED_REPLACEMENT = 4357;
+
+	private final TreeGenerator.Factory generatorFactory_;
+	private final long seed_;
+	private final int numberOfThreads_;
+
+	/**
+	 * @param generatorFactory creates the generator used by each thread
+	 * @param seed the seed from which the seed of each replicate is drawn
+	 * @param numberOfThreads the number of threads (from a shared WorkerPool) to use
+	 */
+	public ReplicateSplitCounter(TreeGenerator.Factory generatorFactory, long seed, int numberOfThreads) {
+		this.generatorFactory_ = generatorFactory;
+		this.seed_ = seed;
+		this.numberOfThreads_ = Math.max(1,numberOfThreads);
+	}
+
+	/**
+	 * Generate replicate trees and count their splits
+	 * @param ids the leaves of the replicate trees (in the order used by splits)
+	 * @param numberOfReplicates the number of replicates
+	 * @param callback for monitoring progress
+	 * @return the split counts, or null if the callback requested a stop
+	 */
+	public SplitFrequencyTable countSplits(IdGroup ids, int numberOfReplicates, AlgorithmCallback callback) {
+		final SplitFrequencyTable result = new SplitFrequencyTable(ids);
+		final Counting counting = new Counting(getReplicateSeeds(seed_,numberOfReplicates),callback);
+		final int numberOfTasks = Math.max(1,Math.min(numberOfThreads_,numberOfReplicates));
+		final Runnable[] tasks = new Runnable[numberOfTasks];
+		for(int i = 0 ; i < numberOfTasks ; i++) {
+			tasks[i] = new CountTask(counting,ids,result);
+		}
+		if(numberOfTasks==1) {
+			tasks[0].run();
+		} else {
+			WorkerPool.getSharedPool(numberOfThreads_).execute(tasks);
+		}
+		if(counting.isStopped()) {
+			return null;
+		}
+		callback.clearProgress();
+		return result;
+	}
+
+	/**
+	 * @param seed the starting seed
+	 * @param numberOfReplicates the number of replicates
+	 * @return the seed of each replicate (never zero)
+	 */
+	public static final int[] getReplicateSeeds(long seed, int numberOfReplicates) {
+		final MersenneTwisterFast random = new MersenneTwisterFast(seed);
+		final int[] seeds = new int[numberOfReplicates];
+		for(int i = 0 ; i < numberOfReplicates ; i++) {
+			final int s = random.nextInt();
+			seeds[i] = (s==0 ? ZERO_SEED_REPLACEMENT : s);
+		}
+		return seeds;
+	}
+
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Hands out replicates to the tasks, and tracks progress
+	 */
+	private static final class Counting {
+		private final int[] seeds_;
+		private final AlgorithmCallback callback_;
+		private int nextReplicate_ = 0;
+		private int numberCompleted_ = 0;
+		private boolean stopped_ = false;
+		public Counting(int[] seeds, AlgorithmCallback callback) {
+			this.seeds_ = seeds;
+			this.callback_ = callback;
+		}
+		/**
+		 * @return the next replicate to build, or -1 if there are no more (or a stop was requested)
+		 */
+		public synchronized int nextReplicate() {
+			if(stopped_||nextReplicate_==seeds_.length) {
+				return -1;
+			}
+			if(callback_.isPleaseStop()) {
+				stopped_ = true;
+				return -1;
+			}
+			return nextReplicate_++;
+		}
+		public final int getSeed(int replicate) { return seeds_[replicate]; }
+		public synchronized void replicateCompleted() {
+			numberCompleted_++;
+			callback_.updateProgress(numberCompleted_/(double)seeds_.length);
+		}
+		public synchronized boolean isStopped() { return stopped_; }
+	}
+// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	/**
+	 * Builds replicates, with its own generator, counting into its own table, which is added to the result at the end
+	 */
+	private final class CountTask implements Runnable {
+		private final Counting counting_;
+		private final IdGroup ids_;
+		private final SplitFrequencyTable result_;
+		public CountTask(Counting counting, IdGroup ids, SplitFrequencyTable result) {
+			this.counting_ = counting;
+			this.ids_ = ids;
+			this.result_ = result;
+		}
+		public void run() {
+			final MersenneTwisterFast random = new MersenneTwisterFast(ZERO_SEED_REPLACEMENT);
+			final TreeGenerator generator = generatorFactory_.createGenerator(random);
+			final SplitFrequencyTable local = new SplitFrequencyTable(ids_);
+			final AlgorithmCallback nullCallback = AlgorithmCallback.Utils.getNullCallback();
+			int replicate;
+			while((replicate = counting_.nextReplicate())>=0) {
+				random.setSeed(counting_.getSeed(replicate));
+				local.addTree(generator.getNextTree(nullCallback));
+				counting_.replicateCompleted();
+			}
+			result_.add(local);
+		}
+	}
+}
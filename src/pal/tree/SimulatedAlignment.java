@@ -87,7 +87,19 @@ public class SimulatedAlignment extends AbstractAlignment
 	 * @param m     model of evolution
 	 */
 	public SimulatedAlignment(int sites, Tree t, SubstitutionModel m) {
-		rng = new MersenneTwisterFast();
+		this(sites,t,m,new MersenneTwisterFast());
+	}
+
+	/**
+	 * Inititalisation, with a given source of randomness (so simulations can be reproduced)
+	 *
+	 * @param sites number of sites
+	 * @param t     tree relating the sequences
+	 * @param m     model of evolution
+	 * @param random the random number generator used for simulation
+	 */
+	public SimulatedAlignment(int sites, Tree t, SubstitutionModel m, MersenneTwisterFast random) {
+		rng = random;
 		setDataType(m.getDataType());
 		numStates = getDataType().getNumStates();
 		model = m;
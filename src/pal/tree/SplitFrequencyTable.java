@@ -0,0 +1,362 @@
+// SplitFrequencyTable.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.tree;
+
+/**
+ * <p>Title: SplitFrequencyTable</p>
+ * <p>Description: Counts the number of trees (on the same leaves) in which each split occurs. Splits are held
+ * packed, as in PackedSplitSystem, one after another in a single array indexed by an open addressed hash table, so
+ * adding and looking up a split takes time proportional to the number of leaves, not the number of splits, and each
+ * split takes only its words and a few ints of memory. All methods are synchronized, so a table may be shared
+ * between threads; for less contention each thread can count into its own table and then add that to the shared
+ * table.</p>
+ * <p>A table may be given a maximum number of splits, for counting over very many trees (such as the output of an
+ * MCMC run) in bounded memory. When the table is full the rarest half of the splits are dropped (a form of lossy
+ * counting), and each split remembers how many of its occurrences may have been missed by being dropped earlier.
+ * The count of a split is then a lower bound on the true count, getMaximumCount() an upper bound, and a split not
+ * in the table occurred at most getPruneLevel() times. Frequent splits (such as those of a majority rule consensus)
+ * are only lost if the table is far too small.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+import pal.misc.*;
+
+public final class SplitFrequencyTable {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final IdGroup ids_;
+	private final int numberOfLeaves_;
+	private final int wordsPerSplit_;
+	private final int maximumNumberOfSplits_;
+
+	//The words of the split in each slot, one slot after another
+	private long[] words_;
+	//The count of the split in each slot (zero for an empty slot)
+	private int[] counts_;
+	//The number of occurrences of the split in each slot that may have been missed
+	private int[] errors_;
+	//The last tree (numbered from one) to count each split, so a split repeated within a tree is counted once
+	private int[] lastTrees_;
+	private int numberOfSplits_ = 0;
+	private int numberOfTrees_ = 0;
+	private int pruneLevel_ = 0;
+	//For reading the splits of split systems
+	private final long[] work_;
+
+	/**
+	 * Create a table with no limit on the number of splits
+	 * @param ids the leaves of the trees (in the order used by splits)
+	 */
+	public SplitFrequencyTable(IdGroup ids) {
+		this(ids,Integer.MAX_VALUE);
+	}
+	/**
+	 * @param ids the leaves of the trees (in the order used by splits)
+	 * @param maximumNumberOfSplits the greatest number of different splits held at once (as a tree must fit, at
+	 * least twice the number of leaves is used)
+	 */
+	public SplitFrequencyTable(IdGroup ids, int maximumNumberOfSplits) {
+		this.ids_ = ids;
+		this.numberOfLeaves_ = ids.getIdCount();
+		this.wordsPerSplit_ = PackedSplitSystem.getWordsPerSplit(numberOfLeaves_);
+		this.maximumNumberOfSplits_ = Math.max(Math.max(1,2*numberOfLeaves_),maximumNumberOfSplits);
+		this.work_ = new long[wordsPerSplit_];
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return the leaves of the trees
+	 */
+	public final IdGroup getIdGroup() { return ids_; }
+	/**
+	 * @return the greatest number of different splits held at once
+	 */
+	public final int getMaximumNumberOfSplits() { return maximumNumberOfSplits_; }
+
+	/**
+	 * Count the splits of a tree
+	 * @param tree the tree (with the leaves of this table)
+	 */
+	public void addTree(Tree tree) {
+		addSplits(new PackedSplitSystem(ids_,tree));
+	}
+	/**
+	 * Count the splits of a split system as those of one tree (a split occurring more than once, as the two sides
+	 * of a bifurcating root do, is counted once)
+	 * @param splits the splits (with the leaves of this table, in the same order)
+	 */
+	public void addSplits(SplitSystem splits) {
+		addSplits(splits.getPackedSplitSystem());
+	}
+	/**
+	 * Count the splits of a packed split system as those of one tree
+	 * @param splits the splits (with the leaves of this table, in the same order)
+	 */
+	public synchronized void addSplits(PackedSplitSystem splits) {
+		if(splits.getLabelCount()!=numberOfLeaves_) {
+			throw new IllegalArgumentException("Split system has "+splits.getLabelCount()+" leaves, expected "+numberOfLeaves_);
+		}
+		final int numberOfSplits = splits.getSplitCount();
+		final int tree = numberOfTrees_+1;
+		for(int i = 0 ; i < numberOfSplits ; i++) {
+			add(splits.getPackedSplit(i,work_),0,1,0,tree);
+		}
+		numberOfTrees_++;
+	}
+	/**
+	 * Add the counts (and trees) of another table to this one
+	 * @param other the other table (with the same leaves, and not being changed during the call)
+	 */
+	public synchronized void add(SplitFrequencyTable other) {
+		if(other.numberOfLeaves_!=numberOfLeaves_) {
+			throw new IllegalArgumentException("Tables have different numbers of leaves");
+		}
+		//Splits of this table not in the other may have been dropped from the other, so may be under counted by its
+		//prune level. Those that are in the other are marked (by a last tree of -1) while it is added.
+		final int otherLevel = other.pruneLevel_;
+		final int mark = (otherLevel==0 ? 0 : -1);
+		final int[] otherCounts = other.counts_;
+		for(int slot = 0 ; slot < otherCounts.length ; slot++) {
+			if(otherCounts[slot]!=0) {
+				add(other.words_,slot*wordsPerSplit_,otherCounts[slot],other.errors_[slot],mark);
+			}
+		}
+		if(otherLevel!=0) {
+			for(int slot = 0 ; slot < counts_.length ; slot++) {
+				if(counts_[slot]!=0) {
+					if(lastTrees_[slot]!=-1) { errors_[slot]+=otherLevel; }
+					lastTrees_[slot] = 0;
+				}
+			}
+		}
+		pruneLevel_+=otherLevel;
+		numberOfTrees_+=other.numberOfTrees_;
+	}
+
+	/**
+	 * @param split a split (either orientation)
+	 * @return the number of times the split has been counted (a lower bound on the true number of times, if splits
+	 * have been dropped)
+	 */
+	public synchronized int getCount(boolean[] split) {
+		return counts_[find(pack(split),0)];
+	}
+	/**
+	 * @param split a split (either orientation)
+	 * @return the greatest number of times the split may have occurred (the count, if no splits have been dropped)
+	 */
+	public synchronized int getMaximumCount(boolean[] split) {
+		final int slot = find(pack(split),0);
+		return (counts_[slot]==0 ? pruneLevel_ : counts_[slot]+errors_[slot]);
+	}
+	/**
+	 * @return the greatest number of times a split that is not in the table may have occurred (zero if no splits
+	 * have been dropped)
+	 */
+	public synchronized int getPruneLevel() { return pruneLevel_; }
+	/**
+	 * @return the number of trees counted
+	 */
+	public synchronized int getNumberOfTrees() { return numberOfTrees_; }
+	/**
+	 * @return the number of different splits held
+	 */
+	public synchronized int getNumberOfSplits() { return numberOfSplits_; }
+
+	/**
+	 * @param minimumCount the smallest count of a split returned
+	 * @return the splits counted at least minimumCount times, in the standard orientation, ordered by decreasing
+	 * count (splits with the same count in increasing order of their packed words, so the order depends only on the
+	 * counts)
+	 */
+	public synchronized boolean[][] getSplits(int minimumCount) {
+		final int[] slots = getSortedSlots(minimumCount);
+		final boolean[][] result = new boolean[slots.length][];
+		for(int i = 0 ; i < slots.length ; i++) {
+			result[i] = unpack(slots[i]);
+		}
+		return result;
+	}
+	/**
+	 * As getSplits(), with the splits packed (as PackedSplitSystem.getPackedSplit())
+	 * @param minimumCount the smallest count of a split returned
+	 * @param countStore where the count of each split returned is put (may be null, or too small, in which case no
+	 * counts are stored)
+	 * @return the packed splits counted at least minimumCount times, in the order of getSplits()
+	 */
+	public synchronized long[][] getPackedSplits(int minimumCount, int[] countStore) {
+		final int[] slots = getSortedSlots(minimumCount);
+		final long[][] result = new long[slots.length][wordsPerSplit_];
+		final boolean storeCounts = countStore!=null&&countStore.length>=slots.length;
+		for(int i = 0 ; i < slots.length ; i++) {
+			System.arraycopy(words_,slots[i]*wordsPerSplit_,result[i],0,wordsPerSplit_);
+			if(storeCounts) { countStore[i] = counts_[slots[i]]; }
+		}
+		return result;
+	}
+
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+	private void allocate(int capacity) {
+		this.words_ = new long[capacity*wordsPerSplit_];
+		this.counts_ = new int[capacity];
+		this.errors_ = new int[capacity];
+		this.lastTrees_ = new int[capacity];
+	}
+	private long[] pack(boolean[] split) {
+		if(split.length!=numberOfLeaves_) {
+			throw new IllegalArgumentException("Split has "+split.length+" leaves, expected "+numberOfLeaves_);
+		}
+		final long[] packed = new long[wordsPerSplit_];
+		for(int i = 0 ; i < numberOfLeaves_ ; i++) {
+			if(split[i]) { packed[i>>>6] |= 1L<<(i&63); }
+		}
+		if(numberOfLeaves_>0&&!split[0]) {
+			PackedSplitSystem.complement(packed,0,wordsPerSplit_,numberOfLeaves_);
+		}
+		return packed;
+	}
+	private boolean[] unpack(int slot) {
+		final boolean[] split = new boolean[numberOfLeaves_];
+		final int offset = slot*wordsPerSplit_;
+		for(int i = 0 ; i < numberOfLeaves_ ; i++) {
+			split[i] = (words_[offset+(i>>>6)]&(1L<<(i&63)))!=0;
+		}
+		return split;
+	}
+	/**
+	 * @return the slot holding a split, or the empty slot it would go in
+	 */
+	private int find(long[] words, int offset) {
+		final int mask = counts_.length-1;
+		int slot = PackedSplitSystem.hash(words,offset,wordsPerSplit_)&mask;
+		while(counts_[slot]!=0&&!PackedSplitSystem.isSame(words_,slot*wordsPerSplit_,words,offset,wordsPerSplit_)) {
+			slot = (slot+1)&mask;
+		}
+		return slot;
+	}
+	/**
+	 * @param error the number of occurrences that may have been missed from count
+	 * @param tree the tree (numbered from one) the split is from, in which case it is not counted again for that
+	 * tree, or zero if the count is not for a single tree (or -1 to mark the split as being in a table being added)
+	 */
+	private void add(long[] words, int offset, int count, int error, int tree) {
+		final int slot = find(words,offset);
+		if(counts_[slot]!=0) {
+			if(tree<=0||lastTrees_[slot]!=tree) {
+				counts_[slot]+=count;
+				errors_[slot]+=error;
+				lastTrees_[slot] = tree;
+			}
+			return;
+		}
+		System.arraycopy(words,offset,words_,slot*wordsPerSplit_,wordsPerSplit_);
+		counts_[slot] = count;
+		//The split may have occurred before and been dropped
+		errors_[slot] = error+pruneLevel_;
+		lastTrees_[slot] = tree;
+		numberOfSplits_++;
+		if(numberOfSplits_>maximumNumberOfSplits_) {
+			prune(tree);
+		}
+		if(numberOfSplits_*2>counts_.length) {
+			rehash(counts_.length*2,-1,tree);
+		}
+	}
+	/**
+	 * Drop (at least) half of the splits, those with the lowest upper bounds on their true counts
+	 * @param currentTree the tree being counted, the splits of which are kept
+	 */
+	private void prune(int currentTree) {
+		final int[] bounds = new int[numberOfSplits_];
+		int number = 0;
+		for(int slot = 0 ; slot < counts_.length ; slot++) {
+			if(counts_[slot]!=0) { bounds[number++] = counts_[slot]+errors_[slot]; }
+		}
+		java.util.Arrays.sort(bounds);
+		final int level = Math.max(pruneLevel_,bounds[(number-1)/2]);
+		rehash(counts_.length,level,currentTree);
+		pruneLevel_ = level;
+	}
+	/**
+	 * Move the splits to new slots
+	 * @param capacity the new number of slots
+	 * @param dropLevel splits whose count and error total no more than this are dropped (-1 to keep all)
+	 * @param currentTree the tree being counted, the splits of which are never dropped
+	 */
+	private void rehash(int capacity, int dropLevel, int currentTree) {
+		final long[] oldWords = words_;
+		final int[] oldCounts = counts_;
+		final int[] oldErrors = errors_;
+		final int[] oldLastTrees = lastTrees_;
+		allocate(capacity);
+		numberOfSplits_ = 0;
+		for(int i = 0 ; i < oldCounts.length ; i++) {
+			if(oldCounts[i]!=0&&(oldCounts[i]+oldErrors[i]>dropLevel||(currentTree>0&&oldLastTrees[i]==currentTree))) {
+				final int offset = i*wordsPerSplit_;
+				final int slot = find(oldWords,offset);
+				System.arraycopy(oldWords,offset,words_,slot*wordsPerSplit_,wordsPerSplit_);
+				counts_[slot] = oldCounts[i];
+				errors_[slot] = oldErrors[i];
+				lastTrees_[slot] = oldLastTrees[i];
+				numberOfSplits_++;
+			}
+		}
+	}
+	private int[] getSortedSlots(int minimumCount) {
+		minimumCount = Math.max(1,minimumCount);
+		int number = 0;
+		for(int i = 0 ; i < counts_.length ; i++) {
+			if(counts_[i]>=minimumCount) { number++; }
+		}
+		final int[] slots = new int[number];
+		number = 0;
+		for(int i = 0 ; i < counts_.length ; i++) {
+			if(counts_[i]>=minimumCount) { slots[number++] = i; }
+		}
+		sort(slots);
+		return slots;
+	}
+	/**
+	 * Sort slots by decreasing count, then increasing packed words (a simple merge sort)
+	 */
+	private void sort(int[] slots) {
+		final int[] work = new int[slots.length];
+		for(int width = 1 ; width < slots.length ; width*=2) {
+			for(int start = 0 ; start < slots.length ; start+=2*width) {
+				final int middle = Math.min(start+width,slots.length);
+				final int end = Math.min(start+2*width,slots.length);
+				int left = start, right = middle;
+				for(int i = start ; i < end ; i++) {
+					if(left<middle&&(right>=end||compare(slots[left],slots[right])<=0)) {
+						work[i] = slots[left++];
+					} else {
+						work[i] = slots[right++];
+					}
+				}
+			}
+			System.arraycopy(work,0,slots,0,slots.length);
+		}
+	}
+	private int compare(int slotOne, int slotTwo) {
+		if(counts_[slotOne]!=counts_[slotTwo]) {
+			return (counts_[slotOne]>counts_[slotTwo] ? -1 : 1);
+		}
+		final int offsetOne = slotOne*wordsPerSplit_;
+		final int offsetTwo = slotTwo*wordsPerSplit_;
+		for(int i = 0 ; i < wordsPerSplit_ ; i++) {
+			final long one = words_[offsetOne+i];
+			final long two = words_[offsetTwo+i];
+			if(one!=two) {
+				//Unsigned comparison
+				return ((one^Long.MIN_VALUE)<(two^Long.MIN_VALUE) ? -1 : 1);
+			}
+		}
+		return 0;
+	}
+}
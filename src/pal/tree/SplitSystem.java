@@ -53,12 +53,15 @@ public class SplitSystem
 	/** get split vector */
 	public boolean[][] getSplitVector()
 	{		
+		// the splits may be changed through the vector
+		dropPackedSplitSystem();
 		return splits;
 	}
 
 	/** get split */
 	public boolean[] getSplit(int i)
 	{		
+		dropPackedSplitSystem();
 		return splits[i];
 	}
 
@@ -85,6 +88,21 @@ public class SplitSystem
 		return false;
 	}
 
+	/**
+	 * get the splits packed as bitsets, with a hash index
+	 * (built when first needed, and again after the splits
+	 * have been handed out by getSplitVector() or getSplit())
+	 */
+	public synchronized PackedSplitSystem getPackedSplitSystem()
+	{
+		if (packed == null)
+		{
+			packed = new PackedSplitSystem(this);
+		}
+
+		return packed;
+	}
+
 
 	/** print split system */
 	public String toString()
@@ -123,4 +141,16 @@ public class SplitSystem
 	private int labelCount, splitCount;
 	private IdGroup idGroup;
 	private boolean[][] splits;
+	private PackedSplitSystem packed;
+
+	/** set the packed form of the splits (when already known) */
+	synchronized void setPackedSplitSystem(PackedSplitSystem packed)
+	{
+		this.packed = packed;
+	}
+
+	private synchronized void dropPackedSplitSystem()
+	{
+		packed = null;
+	}
 }
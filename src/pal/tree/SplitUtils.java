@@ -31,16 +31,10 @@ public class SplitUtils
 	 */
 	public static SplitSystem getSplits(IdGroup idGroup, Tree tree)
 	{
-		int size = tree.getInternalNodeCount()-1;
-		SplitSystem splitSystem = new SplitSystem(idGroup, size);
-
-		boolean[][] splits = splitSystem.getSplitVector();
-
-		for (int i = 0; i < size; i++)
-		{
-			getSplit(idGroup, tree.getInternalNode(i), splits[i]);
-		}
-
+		// found as bitsets in one pass over the tree
+		PackedSplitSystem packed = new PackedSplitSystem(idGroup, tree);
+		SplitSystem splitSystem = packed.toSplitSystem();
+		splitSystem.setPackedSplitSystem(packed);
 
 		return splitSystem;
 	}
@@ -83,11 +77,7 @@ public class SplitUtils
 		}
 
 		// mark all leafs downstream of the node
-
-		for (int i = 0; i < internalNode.getChildCount(); i++)
-		{
-			markNode(idGroup, internalNode, split);
-		}
+		markNode(idGroup, internalNode, split);
 
 		// standardize split (i.e. first index is alway true)
 		if (split[0] == false)
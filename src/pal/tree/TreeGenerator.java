@@ -19,16 +19,43 @@ package pal.tree;
  */
 import pal.util.AlgorithmCallback;
 import pal.distance.*;
+import pal.alignment.*;
+import pal.math.*;
+import pal.substmodel.*;
 
 public interface TreeGenerator {
 	public Tree getNextTree( AlgorithmCallback callback);
 	// ==============================================================================
+	// ==================== Factory =================================================
+	// ==============================================================================
+	/**
+	 * Creates independent tree generators, for running a number of generators at once (such as in ReplicateSplitCounter).
+	 * A created generator must take all of its randomness from the given random number generator, and must not
+	 * share any unsynchronised state with other generators (substitution models, for example, should be copies or
+	 * snapshots), so that the tree generated depends only on the state of the random number generator.
+	 */
+	public static interface Factory {
+		public TreeGenerator createGenerator(MersenneTwisterFast random);
+	}
+	// ==============================================================================
 	// ==================== Utilities ===============================================
 	// ==============================================================================
 	public static final class Utils {
 	  public static final TreeGenerator createNeighbourJoiningGenerator(DistanceMatrixGenerator dataGenerator, String[] outgroupNames) {
 	    return new NJGenerator(dataGenerator,outgroupNames);
 		}
+		/**
+		 * Create a factory for generators of neighbour joining trees of bootstrap replicates
+		 * @param patterns the site patterns of the alignment being bootstrapped
+		 * @param model the substitution model for maximum likelihood distances (must support snapshots, see
+		 * SubstitutionModel.Utils.createSnapshot()), or null for observed distances
+		 * @param outgroupNames the names of the outgroup the trees are rooted by
+		 * @return an appropriate factory
+		 * @throws IllegalArgumentException if the model does not support snapshots
+		 */
+		public static final Factory createBootstrapNeighbourJoiningFactory(SitePattern patterns, SubstitutionModel model, String[] outgroupNames) {
+			return new BootstrapNJFactory(patterns,model,outgroupNames);
+		}
 		// ==================================================
 		// === NJ Generator
 		// ==================================================
@@ -46,5 +73,29 @@ public interface TreeGenerator {
 				return tm.getTreeRootedBy(outgroupNames_);
 			}
 		} //End of class NJGenerator
+		// ==================================================
+		// === Bootstrap NJ Factory
+		// ==================================================
+		private static final class BootstrapNJFactory implements Factory {
+			private final SitePattern patterns_;
+			private final SubstitutionModelSnapshot snapshot_;
+			private final String[] outgroupNames_;
+			public BootstrapNJFactory( SitePattern patterns, SubstitutionModel model, String[] outgroupNames ) {
+				this.patterns_ = patterns;
+				this.outgroupNames_ = outgroupNames;
+				if(model==null) {
+					this.snapshot_ = null;
+				} else {
+					this.snapshot_ = SubstitutionModel.Utils.createSnapshot(model);
+					if(snapshot_==null) {
+						throw new IllegalArgumentException("Substitution model does not support snapshots:"+model.getClass());
+					}
+				}
+			}
+			public TreeGenerator createGenerator(MersenneTwisterFast random) {
+				final SubstitutionModel model = (snapshot_==null ? null : snapshot_.getView());
+				return new NJGenerator(DistanceMatrixGenerator.Utils.createBootstrap(patterns_,model,random),outgroupNames_);
+			}
+		} //End of class BootstrapNJFactory
  	} //End of class Utils
 } //End of interface TreeGenerator
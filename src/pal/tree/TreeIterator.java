@@ -17,6 +17,9 @@ package pal.tree;
  *
  * @author Matthew Goode
  */
+import java.io.*;
+
+import pal.io.*;
 import pal.util.AlgorithmCallback;
 
 public interface TreeIterator extends TreeGenerator {
@@ -25,4 +28,50 @@ public interface TreeIterator extends TreeGenerator {
 	 * @return true if more trees to come
 	 */
 	public boolean isMoreTrees();
+
+	// ==============================================================================
+	// ==================== Utilities ===============================================
+	// ==============================================================================
+	public static final class Utils {
+		/**
+		 * Create an iterator that reads trees one at a time from a stream of New Hampshire (Newick) trees, each ended
+		 * by a semicolon (as written by a number of tree searches and samplers). Only the current tree is held in
+		 * memory, so very long streams of trees can be processed.
+		 * @param input the stream (which is read only as trees are requested)
+		 * @return an appropriate iterator
+		 * @note a tree that cannot be parsed causes a RuntimeException from getNextTree()
+		 */
+		public static final TreeIterator createNewHampshireIterator(PushbackReader input) {
+			return new NewHampshireIterator(input);
+		}
+		// ==================================================
+		// === New Hampshire Iterator
+		// ==================================================
+		private static final class NewHampshireIterator implements TreeIterator {
+			private final PushbackReader input_;
+			private final FormattedInput formattedInput_ = FormattedInput.getInstance();
+			public NewHampshireIterator(PushbackReader input) {
+				this.input_ = input;
+			}
+			public boolean isMoreTrees() {
+				try {
+					int c = formattedInput_.skipWhiteSpace(input_);
+					if(c<0) {
+						return false;
+					}
+					input_.unread(c);
+					return true;
+				} catch(IOException e) {
+					return false;
+				}
+			}
+			public Tree getNextTree(AlgorithmCallback callback) {
+				try {
+					return new ReadTree(input_);
+				} catch(TreeParseException e) {
+					throw new RuntimeException("Parse exception:"+e);
+				}
+			}
+		} //End of class NewHampshireIterator
+	}
 }
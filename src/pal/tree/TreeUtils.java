@@ -58,30 +58,30 @@ public class TreeUtils
 	public static double getRobinsonFouldsDistance(SplitSystem s1, Tree t2)
 	{
 		IdGroup idGroup = s1.getIdGroup();
-		SplitSystem s2 = SplitUtils.getSplits(idGroup, t2);
+		PackedSplitSystem p2 = new PackedSplitSystem(idGroup, t2);
 
-		if (s1.getLabelCount() != s2.getLabelCount())
-			throw new IllegalArgumentException("Number of labels must be the same!");
-
-		int ns1 = s1.getSplitCount();
-		int ns2 = s2.getSplitCount();
-
-		// number of splits in t1 missing in t2
-		int fn = 0;
-		for (int i = 0; i < ns1; i++)
-		{
-			if (!s2.hasSplit(s1.getSplit(i))) fn++;
-		}
+		// (fn + fp)/2, with splits looked up by hash
+		return s1.getPackedSplitSystem().getRobinsonFouldsDistance(p2);
+	}
 
-		// number of splits in t2 missing in t1
-		int fp = 0;
-		for (int i = 0; i < ns2; i++)
-		{
-			if (!s1.hasSplit(s2.getSplit(i))) fp++;
-		}
+	/**
+	 * computes Robinson-Foulds (1981) distances between every pair of
+	 * a set of trees (with the same leaves). Each distinct split is
+	 * found once, so each pair of trees is compared as two sorted
+	 * lists of split numbers.
+	 *
+	 * @param trees the trees
+	 *
+	 * @return the distances as [tree][tree]
+	 */
+	public static double[][] getRobinsonFouldsDistances(Tree[] trees)
+	{
+		if (trees.length == 0) return new double[0][0];
 
+		IdGroup idGroup = getLeafIdGroup(trees[0]);
 
-		return 0.5*((double) fp + (double) fn);
+		return PackedSplitSystem.getRobinsonFouldsDistances(
+			PackedSplitSystem.getSplitSystems(idGroup, trees));
 	}
 
 	/**
@@ -1136,7 +1136,7 @@ public class TreeUtils
 		boolean[][] baseVector = baseSystem.getSplitVector();
 		int[] supportCount = new int[baseVector.length];
 		for(int i = 0 ; i < alternativeTrees.length ; i++) {
-			SplitSystem alternativeSystem = SplitUtils.getSplits(ids, alternativeTrees[i]);
+			PackedSplitSystem alternativeSystem = new PackedSplitSystem(ids, alternativeTrees[i]);
 			for(int j = 0 ; j < baseVector.length ; j++) {
 				if(alternativeSystem.hasSplit(baseVector[j])) {
 					supportCount[j]++;
@@ -1180,7 +1180,7 @@ public class TreeUtils
 			if(callback.isPleaseStop()) {
 				return baseTree;
 			}
-			SplitSystem alternativeSystem =	SplitUtils.getSplits(ids,replicateTree);
+			PackedSplitSystem alternativeSystem = new PackedSplitSystem(ids,replicateTree);
 			for(int j = 0 ; j < baseVector.length ; j++) {
 				if(alternativeSystem.hasSplit(baseVector[j])) {		supportCount[j]++;			}
 			}
@@ -1195,6 +1195,39 @@ public class TreeUtils
 		}
 		return result;
 	}
+	/**
+	 * Generates a tree which is identical to baseTree but has attributes (defined by attributeName)
+	 * at all internal nodes excluding the root node signifying (as a value between 0 and 100) the replicate
+	 * support by clade, as getReplicateCladeSupport() above, with the replicates generated on a number of threads
+	 * at once (see ReplicateSplitCounter). The result depends only on the seed, not the number of threads.
+	 * @param attributeName the name attached to the attribute which holds the clade support value
+	 * @param baseTree the baseTree
+	 * @param generatorFactory creates the source of replicates for each thread
+	 * @param numberOfReplicates the number of replicates (does not include base tree)
+	 * @param seed the seed from which the seed of each replicate is drawn
+	 * @param numberOfThreads the number of threads to use
+	 * @param callback An AlgorithmCallback object for monitoring progress
+	 * @note if algorithm callback requrests early stop this methods will return input baseTree with no annotation
+	 */
+	public static final Tree getReplicateCladeSupport(final String attributeName, final Tree baseTree, final TreeGenerator.Factory generatorFactory, final int numberOfReplicates, final long seed, final int numberOfThreads, final AlgorithmCallback callback) {
+		IdGroup ids = TreeUtils.getLeafIdGroup(baseTree);
+		SplitFrequencyTable table = new ReplicateSplitCounter(generatorFactory,seed,numberOfThreads).countSplits(ids,numberOfReplicates,callback);
+		if(table==null) {
+			return baseTree;
+		}
+		SimpleTree result = new SimpleTree(baseTree);
+		SplitSystem baseSystem = SplitUtils.getSplits(ids,baseTree);
+		boolean[][] baseVector = baseSystem.getSplitVector();
+		for(int i = 0 ; i < baseVector.length ; i++) {
+			int support = (int)(table.getCount(baseVector[i])*100/(double)numberOfReplicates);
+			result.setAttribute(
+				result.getInternalNode(i),
+				attributeName,
+				Integer.valueOf(support)
+			);
+		}
+		return result;
+	}
 	/**
 	 * Create a new tree such that the labels are redifined from a base tree in such a manner:
 	 *  For each leaf label
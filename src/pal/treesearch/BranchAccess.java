@@ -63,6 +63,23 @@ public interface BranchAccess {
 	 * @return a new unrooted searcher
 	 */
 	public UnrootedMLSearcher attach(String newSequence, Alignment fullAlignment, SubstitutionModel model);
+	/**
+	 * Create a new Tree Searcher with a new sub tree attached, given only the new sequences. The states of the
+	 * sequences already part of the base tree are reused rather than rebuilt from a full alignment (the base
+	 * searcher must have been given an alignment, and the model of the base searcher is used)
+	 * @param subTree the sub tree to attach at this branch
+	 * @param newSequences the sequences of the leaves of the sub tree (with the same number of sites as the base sequences)
+	 * @return a new unrooted searcher
+	 */
+	public UnrootedMLSearcher attachIncrementally(Node subTree, Alignment newSequences);
+	/**
+	 * Create a new Tree Searcher with a new leaf attached, given only the new sequence
+	 * @param newSequence the name of the new leaf to attach at this branch
+	 * @param newSequences holds the sequence of the new leaf (with the same number of sites as the base sequences)
+	 * @return a new unrooted searcher
+	 * @see #attachIncrementally(Node,Alignment)
+	 */
+	public UnrootedMLSearcher attachIncrementally(String newSequence, Alignment newSequences);
 
 
 
@@ -41,6 +41,14 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 	private static final double MINIMUM_BRANCH_LENGTH = 0;
 	private static final double MAXIMUM_BRANCH_LENGTH = 10;
 
+	//The accuracy (in fractional digits) of branch lengths optimised when scoring SPR moves
+	private static final int SCORING_FRACTION_DIGITS = 6;
+
+	//The least memory (in bytes) that may be kept by idle temporary conditional probability stores (the budget is
+	//raised to hold the stores of a regraft scoring pass, which uses up to two for each connection)
+	private static final long MINIMUM_STORE_POOL_MEMORY_BUDGET = 64L*1024*1024;
+	private static final int STORES_PER_CONNECTION = 2;
+
 	private Connection treeAccess_;
 	private final SubstitutionModel model_;
 	private final ConstructionTool tool_;
@@ -63,11 +71,21 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 	}
 
 	public UnrootedMLSearcher(Alignment alignment, SubstitutionModel model, LHCalculator.Factory calcFactory) {
+		this(Identifier.getNames(alignment),model,calcFactory,
+			new ConstructionTool(alignment,model.getDataType().getNumStates(),model.getNumberOfTransitionCategories(),calcFactory));
+	}
+	/**
+	 * The random tree constructor
+	 * @param names the names of the leaves
+	 * @param model the substitution model
+	 * @param calcFactory the factory for likelihood calculators
+	 * @param tool holds the sequences of the leaves
+	 */
+	private UnrootedMLSearcher(String[] names, SubstitutionModel model, LHCalculator.Factory calcFactory, ConstructionTool tool) {
 		this.model_ = model;
-		int numberOfStates = model_.getDataType().getNumStates();
 		this.calcFactory_ = calcFactory;
-		tool_ = new ConstructionTool(alignment,numberOfStates,model.getNumberOfTransitionCategories(),calcFactory);
-		this.treeAccess_ = new Connection(Identifier.getNames(alignment),tool_,random_);
+		tool_ = tool;
+		this.treeAccess_ = new Connection(names,tool_,random_);
 		ArrayList v = new ArrayList();
 		this.treeAccess_.getAllConnections(v);
 
@@ -102,14 +120,21 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		this(root,null,null,SimpleModelFastFourStateLHCalculator.getFactory());
 	}
 	public UnrootedMLSearcher(Node root, Alignment alignment, SubstitutionModel model, LHCalculator.Factory calcFactory) {
+		this(root,model,calcFactory,
+			(model==null ? new ConstructionTool(alignment,0,1,calcFactory) :
+				new ConstructionTool(alignment,model.getDataType().getNumStates(),model.getNumberOfTransitionCategories(),calcFactory)));
+	}
+	/**
+	 * The given tree constructor
+	 * @param root the root of the tree
+	 * @param model the substitution model (may be null)
+	 * @param calcFactory the factory for likelihood calculators
+	 * @param tool holds the sequences of the leaves
+	 */
+	private UnrootedMLSearcher(Node root, SubstitutionModel model, LHCalculator.Factory calcFactory, ConstructionTool tool) {
 		this.calcFactory_ = calcFactory;
 		this.model_ = model;
-		if(model_==null) {
-		  tool_ = new ConstructionTool(alignment,0,1,calcFactory);
-		} else {
-		  int numberOfStates = model_.getDataType().getNumStates();
-		  tool_ = new ConstructionTool(alignment,numberOfStates,model.getNumberOfTransitionCategories(),calcFactory);
-		}
+		tool_ = tool;
 		this.treeAccess_ = new Connection(root,tool_);
 		ArrayList v = new ArrayList();
 		this.treeAccess_.getAllConnections(v);
@@ -126,10 +151,21 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		this.orderedNodes_ = tool_.getOrderedNodes();
 	}
 	private UnrootedMLSearcher(UnrootedMLSearcher base, Connection attachmentPoint, Node newSubtree, Alignment newSequences, SubstitutionModel model) {
+		this(base,attachmentPoint,newSubtree,model,
+			new ConstructionTool(newSequences,model.getDataType().getNumStates(),model.getNumberOfTransitionCategories(),base.calcFactory_));
+	}
+	/**
+	 * The attachment constructor
+	 * @param base the searcher the new sub tree is attached to
+	 * @param attachmentPoint the connection (of base) the sub tree is attached to
+	 * @param newSubtree the sub tree
+	 * @param model the substitution model
+	 * @param tool holds the sequences of both base and the new sub tree
+	 */
+	private UnrootedMLSearcher(UnrootedMLSearcher base, Connection attachmentPoint, Node newSubtree, SubstitutionModel model, ConstructionTool tool) {
 		this.model_ = model;
 		this.calcFactory_  = base.calcFactory_;
-		int numberOfStates = model_.getDataType().getNumStates();
-		tool_ = new ConstructionTool(newSequences,numberOfStates,model_.getNumberOfTransitionCategories(),calcFactory_);
+		tool_ = tool;
 		this.treeAccess_ = new Connection(base.treeAccess_, attachmentPoint, newSubtree,tool_);
 		ArrayList v = new ArrayList();
 		this.treeAccess_.getAllConnections(v);
@@ -157,6 +193,81 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		return bas;
 	}
 // -=-=-=-=-=-=-==-=--=--==--=-=-=-=-==-=--==-=
+// -=-=-=-= Pattern searchers and site weights -=-=-=-=-
+
+	/**
+	 * Create a searcher that works on the patterns of a SitePattern, rather than the sites of an alignment, based on a
+	 * randomly generated tree. Each pattern counts as one site weighted by the pattern weight (so the likelihood is
+	 * the same as a searcher on the whole alignment). The weights can then be changed (see setSiteWeights()) to
+	 * evaluate bootstrap replicates without building a new alignment, or searcher, for each replicate.
+	 * @param patterns the site patterns
+	 * @param model the substitution model
+	 * @return a searcher whose sites are the patterns
+	 */
+	public static final UnrootedMLSearcher createPatternSearcher(SitePattern patterns, SubstitutionModel model) {
+		return createPatternSearcher(patterns,model,SimpleModelFastFourStateLHCalculator.getFactory());
+	}
+	/**
+	 * Create a searcher that works on the patterns of a SitePattern, based on a randomly generated tree.
+	 * @param patterns the site patterns
+	 * @param model the substitution model
+	 * @param calcFactory the factory for likelihood calculators
+	 * @return a searcher whose sites are the patterns
+	 * @see #createPatternSearcher(SitePattern,SubstitutionModel)
+	 */
+	public static final UnrootedMLSearcher createPatternSearcher(SitePattern patterns, SubstitutionModel model, LHCalculator.Factory calcFactory) {
+		return new UnrootedMLSearcher(Identifier.getNames(patterns),model,calcFactory,
+			new ConstructionTool(patterns,model.getDataType().getNumStates(),model.getNumberOfTransitionCategories(),calcFactory));
+	}
+	/**
+	 * Create a searcher that works on the patterns of a SitePattern, based on a given tree.
+	 * @param root the root of the tree to base things on (doesn't matter if it's rooted)
+	 * @param patterns the site patterns
+	 * @param model the substitution model
+	 * @return a searcher whose sites are the patterns
+	 * @see #createPatternSearcher(SitePattern,SubstitutionModel)
+	 */
+	public static final UnrootedMLSearcher createPatternSearcher(Node root, SitePattern patterns, SubstitutionModel model) {
+		return createPatternSearcher(root,patterns,model,SimpleModelFastFourStateLHCalculator.getFactory());
+	}
+	/**
+	 * Create a searcher that works on the patterns of a SitePattern, based on a given tree.
+	 * @param root the root of the tree to base things on (doesn't matter if it's rooted)
+	 * @param patterns the site patterns
+	 * @param model the substitution model
+	 * @param calcFactory the factory for likelihood calculators
+	 * @return a searcher whose sites are the patterns
+	 * @see #createPatternSearcher(SitePattern,SubstitutionModel)
+	 */
+	public static final UnrootedMLSearcher createPatternSearcher(Node root, SitePattern patterns, SubstitutionModel model, LHCalculator.Factory calcFactory) {
+		return new UnrootedMLSearcher(root,model,calcFactory,
+			new ConstructionTool(patterns,model.getDataType().getNumStates(),model.getNumberOfTransitionCategories(),calcFactory));
+	}
+	/**
+	 * @return the number of sites (the number of patterns for a pattern searcher)
+	 */
+	public int getNumberOfSites() {
+		return tool_.getNumberOfSites();
+	}
+	/**
+	 * Change the weight of each site, as used in all later likelihood calculations (and optimisations). For a
+	 * bootstrap replicate the weights are the number of times each site (or pattern) is drawn. Only the pattern
+	 * weights of the tree are recalculated: the sequences, patterns, and calculation stores are kept.
+	 * @param siteWeights the weight of each site (the number of patterns for a pattern searcher), or null to return
+	 * to the original weights (one for each site, or the pattern weights for a pattern searcher)
+	 * @throws IllegalArgumentException if the number of weights is wrong
+	 * @see #createPatternSearcher(SitePattern,SubstitutionModel)
+	 */
+	public void setSiteWeights(int[] siteWeights) {
+		tool_.setSiteWeights(siteWeights);
+		for(int i = 0 ; i < orderedNodes_.length ; i++) {
+			orderedNodes_[i].reweightPatterns(tool_);
+		}
+		for(int i = 0 ; i < allConnections_.length ; i++) {
+			allConnections_[i].centerPatternValid_ = false;
+		}
+	}
+// -=-=-=-=-=-=-==-=--=--==--=-=-=-=-==-=--==-=
 // -=-=-=-= State Provider stuff -=-==-=-=-=-=-
 
 // Implement correctly!
@@ -219,6 +330,102 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		SPRAction base = new SPRAction( allConnections_, this, a, random_, tool_ );
 		return new FullSweepSPRAction( allConnections_, base );
 }
+	/**
+	 * A form of the sweep SPR action that scores all the regraft points, for a randomly chosen connection, at once
+	 * (using one thread per available processor). Each regraft point is scored by the likelihood of the tree with
+	 * the sub tree moved and the length of the moved branch optimised (with all other branch lengths fixed).
+	 * Only the best scoring move is then applied to the tree (with the moved branch length found when scoring), and assessed.
+	 * Scoring is only concurrent if the substitution model supports snapshots (see SubstitutionModelSnapshot).
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @return an action doing parallel sweep SPR
+	 */
+	public UndoableAction getParallelSweepSPRAction(StoppingCriteria.Factory stopper) {
+		return getParallelSweepSPRAction(stopper, WorkerPool.getDefaultNumberOfThreads());
+	}
+	/**
+	 * A form of the sweep SPR action that scores all the regraft points, for a randomly chosen connection, at once.
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @param numberOfThreads the number of threads to use for scoring
+	 * @return an action doing parallel sweep SPR
+	 * @see #getParallelSweepSPRAction(StoppingCriteria.Factory)
+	 */
+	public UndoableAction getParallelSweepSPRAction(StoppingCriteria.Factory stopper, int numberOfThreads) {
+		return createParallelSweepSPRAction(stopper,numberOfThreads,1,false,false);
+	}
+	/**
+	 * A form of the full sweep SPR action that scores every SPR move at once (using one thread per available processor),
+	 * in the same way as the parallel sweep SPR action. Only the best scoring move is applied to the tree, and assessed.
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @return an action doing parallel full sweep SPR
+	 * @see #getParallelSweepSPRAction(StoppingCriteria.Factory)
+	 */
+	public UndoableAction getParallelFullSweepSPRAction(StoppingCriteria.Factory stopper) {
+		return getParallelFullSweepSPRAction(stopper, WorkerPool.getDefaultNumberOfThreads());
+	}
+	/**
+	 * A form of the full sweep SPR action that scores every SPR move at once.
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @param numberOfThreads the number of threads to use for scoring
+	 * @return an action doing parallel full sweep SPR
+	 * @see #getParallelSweepSPRAction(StoppingCriteria.Factory)
+	 */
+	public UndoableAction getParallelFullSweepSPRAction(StoppingCriteria.Factory stopper, int numberOfThreads) {
+		return createParallelSweepSPRAction(stopper,numberOfThreads,1,false,true);
+	}
+	/**
+	 * A form of the sweep SPR action that pre-screens all the regraft points, for a randomly chosen connection,
+	 * with a cheap approximate score (using one thread per available processor). Each regraft point is scored by the
+	 * likelihood of the tree with the sub tree moved and only the three branches around the insertion point optimised
+	 * (all other branch lengths fixed, so cached conditional probabilities can be used). Only the best few moves are
+	 * then applied to the tree (with the branch lengths found when scoring) and fully assessed. The best of
+	 * these is kept if it improves the likelihood.
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @param numberToAssess the number of best scoring moves that are fully assessed
+	 * @return an action doing lazy sweep SPR
+	 */
+	public UndoableAction getLazySweepSPRAction(StoppingCriteria.Factory stopper, int numberToAssess) {
+		return getLazySweepSPRAction(stopper, numberToAssess, WorkerPool.getDefaultNumberOfThreads());
+	}
+	/**
+	 * A form of the sweep SPR action that pre-screens all the regraft points, for a randomly chosen connection, with a cheap approximate score.
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @param numberToAssess the number of best scoring moves that are fully assessed
+	 * @param numberOfThreads the number of threads to use for scoring
+	 * @return an action doing lazy sweep SPR
+	 * @see #getLazySweepSPRAction(StoppingCriteria.Factory,int)
+	 */
+	public UndoableAction getLazySweepSPRAction(StoppingCriteria.Factory stopper, int numberToAssess, int numberOfThreads) {
+		return createParallelSweepSPRAction(stopper,numberOfThreads,numberToAssess,true,false);
+	}
+	/**
+	 * A form of the full sweep SPR action that pre-screens every SPR move with a cheap approximate score
+	 * (using one thread per available processor), in the same way as the lazy sweep SPR action.
+	 * Only the best few moves are fully assessed.
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @param numberToAssess the number of best scoring moves that are fully assessed
+	 * @return an action doing lazy full sweep SPR
+	 * @see #getLazySweepSPRAction(StoppingCriteria.Factory,int)
+	 */
+	public UndoableAction getLazyFullSweepSPRAction(StoppingCriteria.Factory stopper, int numberToAssess) {
+		return getLazyFullSweepSPRAction(stopper, numberToAssess, WorkerPool.getDefaultNumberOfThreads());
+	}
+	/**
+	 * A form of the full sweep SPR action that pre-screens every SPR move with a cheap approximate score.
+	 * @param stopper The means for determining when the assessment of a move is complete
+	 * @param numberToAssess the number of best scoring moves that are fully assessed
+	 * @param numberOfThreads the number of threads to use for scoring
+	 * @return an action doing lazy full sweep SPR
+	 * @see #getLazySweepSPRAction(StoppingCriteria.Factory,int)
+	 */
+	public UndoableAction getLazyFullSweepSPRAction(StoppingCriteria.Factory stopper, int numberToAssess, int numberOfThreads) {
+		return createParallelSweepSPRAction(stopper,numberOfThreads,numberToAssess,true,true);
+	}
+	private UndoableAction createParallelSweepSPRAction(StoppingCriteria.Factory stopper, int numberOfThreads, int numberToAssess, boolean optimiseSplits, boolean fullSweep) {
+		Assessor a = getSimpleAssessor(stopper);
+		SPRAction base = new SPRAction(allConnections_,this, a,random_,tool_);
+		RegraftScorer scorer = new RegraftScorer(model_,tool_,numberOfThreads,numberToAssess,optimiseSplits);
+		return new ParallelSweepSPRAction(allConnections_,base,scorer,random_,fullSweep);
+	}
 
 
 
@@ -247,7 +454,6 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 	}
 
 	public void testLiklihood() {
-		Workspace workspace = new Workspace(30,tool_.getNumberOfSites(),tool_);
 		OptimisationHandler oh = new OptimisationHandler(model_, tool_);
 		oh.setup(treeAccess_,true);
 		treeAccess_.testLikelihood(model_,tool_);
@@ -504,7 +710,6 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		private final int xDigits_;
 		private final LHCalculator.External calculator_;
 
-		private final UnivariateMinimum um_;
 		private final OptimisationHandler optimisationHandler_;
 		private final ConstructionTool tool_;
 
@@ -523,7 +728,6 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 			this.xvec_ = new double[model.getNumParameters()];
 			this.xDigits_ = xDigits;
 			this.fxDigits_ = fxDigits;
-			this.um_ = new UnivariateMinimum();
 			this.optimisationHandler_ = new OptimisationHandler(model_,tool);
 		}
 		public double evaluate(double[] xvec) {
@@ -557,14 +761,13 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 					Connection c = allConnections_[i];
 					optimisationHandler_.setup(c,firstTime);
 					firstTime = false;
-					um_.findMinimum(c.getBranchLength(),optimisationHandler_);
-					c.setBranchLength(um_.minx);
-					//minimum = um_.fminx;
+					final double branchLength = optimisationHandler_.findMaximumBranchLength(c.getBranchLength());
+					c.setBranchLength(branchLength);
 					minimum = minimiser_.findMinimum(this,xvec_,fxDigits_,xDigits_,monitor_);
 					for(int x = 0 ; x < xvec_.length ; x++) {
 						model_.setParameter(xvec_[x],x);
 					}
-					c.setBranchLength(um_.minx);
+					c.setBranchLength(branchLength);
 			}
 			stopper_.newIteration(minimum,minimum,true,true,callback_);
 		}
@@ -831,7 +1034,7 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 				Connection start = allConnections_[i];
 				for(int j = i+1 ; j < allConnections_.length; j++) {
 
-					Connection end = allConnections_[i];
+					Connection end = allConnections_[j];
 					baseAction_.setTarget(start,end);
 					double score = baseAction_.doSetupAction(originalScore);
 					if(baseAction_.isActionSuccessful()) {
@@ -924,6 +1127,33 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 
 			return(lastActionSuccessful_? assessor_.getCurrentValue() : currentScore);
 		}
+		/**
+		 * Peform an action based on setup connections (ie must have called setTarget() already), setting the
+		 * lengths of the connections around the moved sub tree before assessment. The connection left
+		 * behind takes the combined length of the two connections it replaces.
+		 * @param currentScore
+		 * @param pendantLength the length of the moved connection
+		 * @param leftLength the length of the attachment point between its left node and the moved connection
+		 * @param rightLength the length of the attachment point between the moved connection and its right node
+		 * @return the new score if successful
+		 */
+		public double doSetupAction(double currentScore, double pendantLength, double leftLength, double rightLength) {
+			subject_.mark();
+			reattachmentPoint_ = toRemove_.attachTo(attachmentPoint_,store_);
+			lastActionSuccessful_ = (reattachmentPoint_!=null);
+			if(lastActionSuccessful_) {
+				//store_[1] is the redundant connection, now joining the right half of the attachment point
+				reattachmentPoint_.setBranchLength(reattachmentPoint_.getBranchLength()+store_[1].getBranchLength());
+				toRemove_.setBranchLength(pendantLength);
+				attachmentPoint_.setBranchLength(leftLength);
+				store_[1].setBranchLength(rightLength);
+				for(int i = 0 ; i < allConnections_.length ; i++) {
+					branchLengths_[i] = allConnections_[i].getBranchLength();
+				}
+				toRemove_.setup(tool_,allConnections_);
+			}
+			return(lastActionSuccessful_? assessor_.getCurrentValue() : currentScore);
+		}
 		public double doAction(double currentScore, double desparationValue) {
 			setRandomTargets();
 			return doSetupAction(currentScore);
@@ -943,6 +1173,555 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 			}
 		}
 	}
+// - - -- - - - - - -- - - - - - - - - - - - - - - - -- - - - - - - - - - - - -
+	/**
+	 * A sweep SPR action that scores regraft points all at once (using a RegraftScorer), rather than by trying
+	 * each move on the tree in turn. Either the regraft points for a randomly chosen connection are scored, or every
+	 * possible SPR move (a full sweep). Only the best scoring moves (as kept by the scorer) are applied to the tree,
+	 * with the branch lengths found while scoring, and assessed. The best assessed move is kept if it improves
+	 * on the original score.
+	 */
+	private static final class ParallelSweepSPRAction implements UndoableAction {
+		private final SPRAction baseAction_;
+		private final RegraftScorer scorer_;
+		private final Connection[] allConnections_;
+		private final MersenneTwisterFast random_;
+		private final boolean fullSweep_;
+
+		private boolean lastActionSuccessful_ = false;
+
+		/**
+		 * @param allConnections all the connections of the tree
+		 * @param baseAction the action used to apply (and assess) moves
+		 * @param scorer the means of scoring moves
+		 * @param random the source of randomness (not used for a full sweep)
+		 * @param fullSweep if true every SPR move is scored, otherwise only those of a randomly chosen connection
+		 */
+		public ParallelSweepSPRAction(Connection[] allConnections, SPRAction baseAction, RegraftScorer scorer, MersenneTwisterFast random, boolean fullSweep) {
+			this.allConnections_ = allConnections;
+			this.baseAction_ = baseAction;
+			this.scorer_ = scorer;
+			this.random_ = random;
+			this.fullSweep_ = fullSweep;
+		}
+		public double doAction(double originalScore, double desparationValue) {
+			scorer_.reset();
+			if(fullSweep_) {
+				for(int i = 0 ; i < allConnections_.length ; i++) {
+					scorer_.scoreRegrafts(allConnections_[i]);
+				}
+			} else {
+				scorer_.scoreRegrafts(allConnections_[random_.nextInt(allConnections_.length)]);
+			}
+			final int numberOfMoves = scorer_.getNumberOfMoves();
+			int best = -1;
+			double bestScore = originalScore;
+			boolean bestApplied = false;
+			for(int i = 0 ; i < numberOfMoves ; i++) {
+				final double score = doMove(i,originalScore);
+				if(baseAction_.isActionSuccessful()) {
+					if(score>bestScore) {
+						best = i;
+						bestScore = score;
+					}
+					//The last move is left in place if it is the best
+					bestApplied = (best==i&&i==numberOfMoves-1);
+					if(!bestApplied) {
+						baseAction_.undoAction();
+					}
+				}
+			}
+			if(best<0) {
+				lastActionSuccessful_ = false;
+				//When we fail the score does not matter
+				return originalScore;
+			}
+			lastActionSuccessful_ = true;
+			if(bestApplied) {
+				return bestScore;
+			}
+			//We assume that if the action worked before it will work now
+			return doMove(best,originalScore);
+		}
+		private double doMove(int index, double originalScore) {
+			final RegraftMove m = scorer_.getMove(index);
+			baseAction_.setTarget(m.toMove_,m.attachmentPoint_);
+			return baseAction_.doSetupAction(originalScore,m.pendantLength_,m.leftLength_,m.rightLength_);
+		}
+		/**
+		 * @return true if a full sweep
+		 */
+		public boolean isActionDeterministic() {
+			return fullSweep_;
+		}
+		public boolean isActionSuccessful() { return lastActionSuccessful_; }
+		public boolean undoAction() {
+			if(lastActionSuccessful_) {
+				return baseAction_.undoAction();
+			} else {
+				throw new RuntimeException("Illegal operation : undoLast() called when last operation invalid (may already have been undone)");
+			}
+		}
+	}
+// -=-=-=-=-=-==--==--==--=-=-==-=--=-=-=-==-=-=--==-=-=--==--==-=-=--==--==--=
+// == RegraftScorer ===
+// =--=-==-=--=-==--=-==--=-==--=-=-=-=-==-=-=--=-==-=-=-=--==-=-=-=-=--==-=-=-=-=-=-
+	/**
+	 * Scores the SPR moves available for a connection without altering the tree. The sub tree on one side
+	 * of the connection is pruned (the node on the other side is removed, joining its two other connections
+	 * into one), and the flat conditional probabilities either side of every remaining connection are found
+	 * for the pruned tree (in one pass over the tree, by the calling thread). These are read only during
+	 * scoring, so each regraft point is then scored independently: the connection is split in half,
+	 * the sub tree attached in between, and the length of the regrafted branch is optimised (and, optionally,
+	 * the lengths of the two halves of the split connection), with all other branch lengths fixed.
+	 * Regraft points are shared between a fixed set of RegraftEvaluators (each with
+	 * private stores), which are run concurrently on a WorkerPool when the substitution model supports snapshots
+	 * (otherwise they are run by the calling thread). Scores are exact log likelihoods (for the given branch lengths)
+	 * and do not depend on the number of threads used. The best improving moves (up to a fixed number) are kept,
+	 * best first.
+	 */
+	private static final class RegraftScorer {
+		private final SubstitutionModel model_;
+		private final ConstructionTool tool_;
+		private final LHCalculator.External calculator_;
+		private final ConditionalProbabilityStore leftExtendedStore_;
+		private final ConditionalProbabilityStore rightExtendedStore_;
+		private final RegraftEvaluator[] evaluators_;
+		private final WorkerPool pool_;
+
+		private final ConditionalProbabilityStorePool storePool_;
+		//The stores taken from storePool_ during the current pass (returned at the end of the pass)
+		private ConditionalProbabilityStore[] storesUsed_ = new ConditionalProbabilityStore[0];
+		private int numberOfStoresUsed_ = 0;
+		private final ArrayList<PatternInfo> patternPool_ = new ArrayList<PatternInfo>();
+		private final ArrayList<RegraftCandidate> candidatePool_ = new ArrayList<RegraftCandidate>();
+		private int numberOfPatternsUsed_ = 0;
+		private int numberOfCandidatesUsed_ = 0;
+
+		private RegraftCandidate[] candidates_ = new RegraftCandidate[0];
+		private int numberOfCandidates_ = 0;
+
+		//The best moves found so far, best first
+		private final RegraftMove[] moves_;
+		private int numberOfMoves_ = 0;
+
+		/**
+		 * @param model the model used for scoring
+		 * @param tool the construction tool of the tree being searched
+		 * @param numberOfThreads the number of threads used for scoring
+		 * @param numberOfMovesKept the number of best moves remembered
+		 * @param optimiseSplits if true the lengths either side of a regraft point are optimised (as well as the length of the regrafted branch)
+		 */
+		public RegraftScorer(SubstitutionModel model, ConstructionTool tool, int numberOfThreads, int numberOfMovesKept, boolean optimiseSplits) {
+			if(numberOfThreads<1) {
+				throw new IllegalArgumentException("Number of threads must be at least one:"+numberOfThreads);
+			}
+			if(numberOfMovesKept<1) {
+				throw new IllegalArgumentException("Number of moves kept must be at least one:"+numberOfMovesKept);
+			}
+			this.model_ = model;
+			this.tool_ = tool;
+			this.calculator_ = tool.allocateNewExternalCalculator();
+			this.leftExtendedStore_ = tool.newConditionalProbabilityStore(false);
+			this.rightExtendedStore_ = tool.newConditionalProbabilityStore(false);
+			this.storePool_ = tool.getStorePool();
+			this.evaluators_ = new RegraftEvaluator[numberOfThreads];
+			for(int i = 0 ; i < numberOfThreads ; i++) {
+				evaluators_[i] = new RegraftEvaluator(tool,optimiseSplits);
+			}
+			this.pool_ = WorkerPool.getSharedPool(numberOfThreads);
+			this.moves_ = new RegraftMove[numberOfMovesKept];
+		}
+		/**
+		 * Forget the moves found so far
+		 */
+		public void reset() {
+			this.numberOfMoves_ = 0;
+		}
+		/**
+		 * @return the number of improving moves found since the last reset() (no more than the number of moves kept)
+		 */
+		public int getNumberOfMoves() { return numberOfMoves_; }
+		/**
+		 * @param index the rank of the move (zero is the best)
+		 * @return an improving move found since the last reset()
+		 */
+		public RegraftMove getMove(int index) { return moves_[index]; }
+
+		/**
+		 * Score every SPR move involving a connection (the sub trees either side of the connection are moved in turn).
+		 * Moves are remembered if they are better than those found since the last reset().
+		 * @param toMove the connection leading to the sub trees to move
+		 */
+		public void scoreRegrafts(Connection toMove) {
+			final SubstitutionModelSnapshot snapshot = SubstitutionModel.Utils.createSnapshot(model_);
+			//The snapshot view can be shared between threads, the model itself cannot
+			final SubstitutionModel scoringModel = (snapshot==null ? model_ : snapshot.getView());
+			final int numberOfEvaluators = (snapshot==null ? 1 : evaluators_.length);
+			scoreRegrafts(toMove,toMove.getLeft(),toMove.getRight(),scoringModel,numberOfEvaluators);
+			scoreRegrafts(toMove,toMove.getRight(),toMove.getLeft(),scoringModel,numberOfEvaluators);
+		}
+		/**
+		 * Score the moves of the sub tree on the pruned side of toMove
+		 * @param junction the node that is removed when pruning
+		 * @param pruned the node at the root of the sub tree being moved
+		 */
+		private void scoreRegrafts(Connection toMove, UNode junction, UNode pruned, SubstitutionModel scoringModel, int numberOfEvaluators) {
+			if(junction.isLeaf()) {
+				return;
+			}
+			numberOfPatternsUsed_ = 0;
+			numberOfCandidatesUsed_ = 0;
+			numberOfCandidates_ = 0;
+
+			final RegraftCandidate prunedSide = collect(toMove,pruned);
+
+			//Once pruned the connections either side of the junction become one
+			final Connection left = junction.getLeft(toMove);
+			final Connection right = junction.getRight(toMove);
+			final RegraftCandidate leftSide = collect(left,left.getOther(junction));
+			final RegraftCandidate rightSide = collect(right,right.getOther(junction));
+			final double joinedLength = left.getBranchLength()+right.getBranchLength();
+			leftSide.setInner(rightSide.outerFlat_,rightSide.outerPattern_,joinedLength);
+			rightSide.setInner(leftSide.outerFlat_,leftSide.outerPattern_,joinedLength);
+			assignInner(leftSide);
+			assignInner(rightSide);
+
+			//The current position acts as the baseline
+			leftSide.outerSplit_ = left.getBranchLength();
+			leftSide.innerSplit_ = right.getBranchLength();
+			final RegraftEvaluator first = evaluators_[0];
+			first.setup(scoringModel,prunedSide,toMove.getBranchLength(),new RegraftCandidate[] { leftSide },1,0,1);
+			first.run();
+			final double baseline = leftSide.score_;
+
+			if(numberOfEvaluators==1) {
+				first.setup(scoringModel,prunedSide,toMove.getBranchLength(),candidates_,numberOfCandidates_,0,1);
+				first.run();
+			} else {
+				for(int i = 0 ; i < numberOfEvaluators ; i++) {
+					evaluators_[i].setup(scoringModel,prunedSide,toMove.getBranchLength(),candidates_,numberOfCandidates_,i,numberOfEvaluators);
+				}
+				pool_.execute(evaluators_);
+			}
+			for(int i = 0 ; i < numberOfCandidates_ ; i++) {
+				final RegraftCandidate c = candidates_[i];
+				final double improvement = c.score_-baseline;
+				if(improvement>0) {
+					addMove(toMove,c,improvement);
+				}
+			}
+			releaseStores();
+		}
+		/**
+		 * Remember a move if it is one of the best found so far (ties go to the move found first)
+		 */
+		private void addMove(Connection toMove, RegraftCandidate c, double improvement) {
+			final boolean full = (numberOfMoves_==moves_.length);
+			if(full&&!(improvement>moves_[numberOfMoves_-1].improvement_)) {
+				return;
+			}
+			//Reuse the move that drops off the end
+			int index = (full ? numberOfMoves_-1 : numberOfMoves_);
+			RegraftMove m = moves_[index];
+			if(m==null) {
+				m = new RegraftMove();
+			}
+			while(index>0&&moves_[index-1].improvement_<improvement) {
+				moves_[index] = moves_[index-1];
+				index--;
+			}
+			moves_[index] = m;
+			if(!full) {
+				numberOfMoves_++;
+			}
+			m.toMove_ = toMove;
+			m.attachmentPoint_ = c.connection_;
+			m.improvement_ = improvement;
+			m.pendantLength_ = c.pendantLength_;
+			m.leftLength_ = (c.farIsLeft_ ? c.outerSplit_ : c.innerSplit_);
+			m.rightLength_ = (c.farIsLeft_ ? c.innerSplit_ : c.outerSplit_);
+		}
+		/**
+		 * Find the flat conditional probabilities of the sub tree on the far side of a connection (recursively
+		 * doing the same for all connections further away)
+		 * @param c the connection
+		 * @param far the node on the far side of the connection
+		 * @return the candidate for c
+		 */
+		private RegraftCandidate collect(Connection c, UNode far) {
+			final RegraftCandidate candidate = nextCandidate();
+			candidate.connection_ = c;
+			candidate.farIsLeft_ = (c.getLeft()==far);
+			candidate.outerPattern_ = far.getPatternInfo(c);
+			if(far.isLeaf()) {
+				candidate.left_ = null;
+				candidate.right_ = null;
+				candidate.outerFlat_ = far.getFlatConditionalProbabilities(model_,false,c,0,true);
+			} else {
+				final Connection left = far.getLeft(c);
+				final Connection right = far.getRight(c);
+				candidate.left_ = collect(left,left.getOther(far));
+				candidate.right_ = collect(right,right.getOther(far));
+				extend(candidate.left_.outerFlat_,candidate.left_.outerPattern_,left.getBranchLength(),leftExtendedStore_);
+				extend(candidate.right_.outerFlat_,candidate.right_.outerPattern_,right.getBranchLength(),rightExtendedStore_);
+				candidate.outerFlat_ = nextStore();
+				calculator_.calculateFlat(candidate.outerPattern_,leftExtendedStore_,rightExtendedStore_,candidate.outerFlat_);
+			}
+			return candidate;
+		}
+		/**
+		 * Find the flat conditional probabilities on the near side (in the pruned tree) of the connections further away than parent,
+		 * and add them as candidates
+		 * @param parent a candidate with inner conditionals already known
+		 */
+		private void assignInner(RegraftCandidate parent) {
+			if(parent.left_==null) {
+				return;
+			}
+			final RegraftCandidate left = parent.left_;
+			final RegraftCandidate right = parent.right_;
+			assignInner(left,right,parent);
+			assignInner(right,left,parent);
+			addCandidate(left);
+			addCandidate(right);
+			assignInner(left);
+			assignInner(right);
+		}
+		private void assignInner(RegraftCandidate child, RegraftCandidate sibling, RegraftCandidate parent) {
+			extend(sibling.outerFlat_,sibling.outerPattern_,sibling.connection_.getBranchLength(),leftExtendedStore_);
+			extend(parent.innerFlat_,parent.innerPattern_,parent.innerLength_,rightExtendedStore_);
+			final PatternInfo pattern = nextPattern();
+			tool_.build(pattern,sibling.outerPattern_,parent.innerPattern_);
+			final ConditionalProbabilityStore flat = nextStore();
+			calculator_.calculateFlat(pattern,leftExtendedStore_,rightExtendedStore_,flat);
+			child.setInner(flat,pattern,child.connection_.getBranchLength());
+		}
+		private void extend(ConditionalProbabilityStore flat, PatternInfo pattern, double distance, ConditionalProbabilityStore resultStore) {
+			calculator_.calculateSingleExtendedIndirect(distance,model_,pattern.getNumberOfPatterns(),flat,resultStore);
+		}
+
+		private void addCandidate(RegraftCandidate c) {
+			if(numberOfCandidates_==candidates_.length) {
+				final RegraftCandidate[] newCandidates = new RegraftCandidate[candidates_.length*2+16];
+				System.arraycopy(candidates_,0,newCandidates,0,numberOfCandidates_);
+				candidates_ = newCandidates;
+			}
+			candidates_[numberOfCandidates_++] = c;
+		}
+		private ConditionalProbabilityStore nextStore() {
+			if(numberOfStoresUsed_==storesUsed_.length) {
+				final ConditionalProbabilityStore[] newStores = new ConditionalProbabilityStore[storesUsed_.length*2+16];
+				System.arraycopy(storesUsed_,0,newStores,0,numberOfStoresUsed_);
+				storesUsed_ = newStores;
+			}
+			final ConditionalProbabilityStore store = storePool_.acquire();
+			storesUsed_[numberOfStoresUsed_++] = store;
+			return store;
+		}
+		private void releaseStores() {
+			for(int i = 0 ; i < numberOfStoresUsed_ ; i++) {
+				storePool_.release(storesUsed_[i]);
+				storesUsed_[i] = null;
+			}
+			numberOfStoresUsed_ = 0;
+		}
+		private PatternInfo nextPattern() {
+			if(numberOfPatternsUsed_==patternPool_.size()) {
+				patternPool_.add(tool_.constructFreshPatternInfo(true));
+			}
+			return patternPool_.get(numberOfPatternsUsed_++);
+		}
+		private RegraftCandidate nextCandidate() {
+			if(numberOfCandidatesUsed_==candidatePool_.size()) {
+				candidatePool_.add(new RegraftCandidate());
+			}
+			return candidatePool_.get(numberOfCandidatesUsed_++);
+		}
+	}
+// - - -- - - - - - -- - - - - - - - - - - - - - - - -- - - - - - - - - - - - -
+	/**
+	 * A connection of a pruned tree, as a place to regraft to
+	 */
+	private static final class RegraftCandidate {
+		Connection connection_;
+		//True if the far side of the connection is the left node of the connection
+		boolean farIsLeft_;
+		//The candidates for the connections further away from the pruning point (null if on a leaf)
+		RegraftCandidate left_;
+		RegraftCandidate right_;
+		//The flat conditionals of the sub tree on the far side of the connection
+		ConditionalProbabilityStore outerFlat_;
+		PatternInfo outerPattern_;
+		//The flat conditionals of the rest of the pruned tree
+		ConditionalProbabilityStore innerFlat_;
+		PatternInfo innerPattern_;
+		double innerLength_;
+		//The lengths either side of the regraft point
+		double outerSplit_;
+		double innerSplit_;
+		//Results
+		double score_;
+		double pendantLength_;
+
+		public void setInner(ConditionalProbabilityStore flat, PatternInfo pattern, double length) {
+			this.innerFlat_ = flat;
+			this.innerPattern_ = pattern;
+			this.innerLength_ = length;
+			this.outerSplit_ = length/2;
+			this.innerSplit_ = length/2;
+		}
+	}
+// - - -- - - - - - -- - - - - - - - - - - - - - - - -- - - - - - - - - - - - -
+	/**
+	 * An SPR move found by a RegraftScorer, with the branch lengths it was scored with
+	 */
+	private static final class RegraftMove {
+		Connection toMove_;
+		Connection attachmentPoint_;
+		double improvement_;
+		//The length of the moved connection
+		double pendantLength_;
+		//The lengths of the attachment point either side of the moved connection (once attached)
+		double leftLength_;
+		double rightLength_;
+	}
+// - - -- - - - - - -- - - - - - - - - - - - - - - - -- - - - - - - - - - - - -
+	/**
+	 * Scores regraft points for a RegraftScorer. Each evaluator has private stores, so separate evaluators
+	 * can be run at the same time (given a thread safe substitution model). The regrafted branch is always
+	 * optimised. If splits are optimised the three branches around the insertion point are then optimised
+	 * in turn (a fixed number of rounds).
+	 */
+	private static final class RegraftEvaluator implements DifferentiableUnivariateFunction, Runnable {
+		private static final int SPLIT_ROUNDS = 2;
+
+		private final ConstructionTool tool_;
+		private final LHCalculator.External calculator_;
+		private final boolean optimiseSplits_;
+		private final ConditionalProbabilityStore firstExtendedStore_;
+		private final ConditionalProbabilityStore secondExtendedStore_;
+		private final ConditionalProbabilityStore sideFlatStore_;
+		private final ConditionalProbabilityStore tempStore_;
+		//The patterns of the sub trees meeting at the insertion point (away from the regrafted branch, and each split)
+		private final PatternInfo insertionPattern_;
+		private final PatternInfo outerSidePattern_;
+		private final PatternInfo innerSidePattern_;
+		//The patterns across the regrafted branch, and each split
+		private final PatternInfo pendantCenterPattern_;
+		private final PatternInfo outerCenterPattern_;
+		private final PatternInfo innerCenterPattern_;
+		private final NewtonUnivariateMinimum nm_ = new NewtonUnivariateMinimum();
+
+		private SubstitutionModel model_;
+		private ConditionalProbabilityStore prunedFlat_;
+		private PatternInfo prunedPattern_;
+		private double pendantLength_;
+		private RegraftCandidate[] candidates_;
+		private int numberOfCandidates_;
+		private int start_;
+		private int step_;
+
+		//The branch being optimised (the side flat conditionals are in sideFlatStore_)
+		private PatternInfo centerPattern_;
+		private ConditionalProbabilityStore branchFlat_;
+
+		public RegraftEvaluator(ConstructionTool tool, boolean optimiseSplits) {
+			this.tool_ = tool;
+			this.optimiseSplits_ = optimiseSplits;
+			this.calculator_ = tool.allocateNewExternalCalculator();
+			this.firstExtendedStore_ = tool.newConditionalProbabilityStore(false);
+			this.secondExtendedStore_ = tool.newConditionalProbabilityStore(false);
+			this.sideFlatStore_ = tool.newConditionalProbabilityStore(false);
+			this.tempStore_ = tool.newConditionalProbabilityStore(false);
+			this.insertionPattern_ = tool.constructFreshPatternInfo(true);
+			this.outerSidePattern_ = tool.constructFreshPatternInfo(true);
+			this.innerSidePattern_ = tool.constructFreshPatternInfo(true);
+			this.pendantCenterPattern_ = tool.constructFreshPatternInfo(true);
+			this.outerCenterPattern_ = tool.constructFreshPatternInfo(true);
+			this.innerCenterPattern_ = tool.constructFreshPatternInfo(true);
+		}
+		/**
+		 * Set up the next run
+		 * @param model the model to use (must be thread safe if evaluators are run concurrently)
+		 * @param pruned holds the flat conditionals of the pruned sub tree (as the outer conditionals)
+		 * @param pendantLength the initial length of the regrafted branch
+		 * @param candidates the regraft points
+		 * @param numberOfCandidates the number of regraft points
+		 * @param start the first regraft point scored by this evaluator
+		 * @param step the gap between regraft points scored by this evaluator
+		 */
+		public void setup(SubstitutionModel model, RegraftCandidate pruned, double pendantLength, RegraftCandidate[] candidates, int numberOfCandidates, int start, int step) {
+			this.model_ = model;
+			this.prunedFlat_ = pruned.outerFlat_;
+			this.prunedPattern_ = pruned.outerPattern_;
+			this.pendantLength_ = pendantLength;
+			this.candidates_ = candidates;
+			this.numberOfCandidates_ = numberOfCandidates;
+			this.start_ = start;
+			this.step_ = step;
+		}
+		public void run() {
+			for(int i = start_ ; i < numberOfCandidates_ ; i+=step_) {
+				score(candidates_[i]);
+			}
+		}
+		private void score(RegraftCandidate c) {
+			tool_.build(insertionPattern_,c.outerPattern_,c.innerPattern_);
+			tool_.build(pendantCenterPattern_,prunedPattern_,insertionPattern_);
+			double pendantLength = optimisePendant(c,pendantLength_);
+			if(optimiseSplits_) {
+				tool_.build(outerSidePattern_,c.innerPattern_,prunedPattern_);
+				tool_.build(outerCenterPattern_,c.outerPattern_,outerSidePattern_);
+				tool_.build(innerSidePattern_,c.outerPattern_,prunedPattern_);
+				tool_.build(innerCenterPattern_,c.innerPattern_,innerSidePattern_);
+				for(int round = 0 ; round < SPLIT_ROUNDS ; round++) {
+					extend(c.innerFlat_,c.innerPattern_,c.innerSplit_,firstExtendedStore_);
+					extend(prunedFlat_,prunedPattern_,pendantLength,secondExtendedStore_);
+					calculator_.calculateFlat(outerSidePattern_,firstExtendedStore_,secondExtendedStore_,sideFlatStore_);
+					c.outerSplit_ = optimise(c.outerSplit_,outerCenterPattern_,c.outerFlat_);
+
+					//The pruned sub tree is still extended by the pendant length
+					extend(c.outerFlat_,c.outerPattern_,c.outerSplit_,firstExtendedStore_);
+					calculator_.calculateFlat(innerSidePattern_,firstExtendedStore_,secondExtendedStore_,sideFlatStore_);
+					c.innerSplit_ = optimise(c.innerSplit_,innerCenterPattern_,c.innerFlat_);
+
+					pendantLength = optimisePendant(c,pendantLength);
+				}
+			}
+			//Each optimisation uses the current lengths of the other branches, so the last is the score
+			c.score_ = -nm_.fminx;
+			c.pendantLength_ = pendantLength;
+		}
+		private double optimisePendant(RegraftCandidate c, double initialLength) {
+			extend(c.outerFlat_,c.outerPattern_,c.outerSplit_,firstExtendedStore_);
+			extend(c.innerFlat_,c.innerPattern_,c.innerSplit_,secondExtendedStore_);
+			calculator_.calculateFlat(insertionPattern_,firstExtendedStore_,secondExtendedStore_,sideFlatStore_);
+			return optimise(initialLength,pendantCenterPattern_,prunedFlat_);
+		}
+		/**
+		 * Optimise the length of a branch between branchFlat and the flat conditionals in sideFlatStore_
+		 */
+		private double optimise(double initialLength, PatternInfo centerPattern, ConditionalProbabilityStore branchFlat) {
+			this.centerPattern_ = centerPattern;
+			this.branchFlat_ = branchFlat;
+			return nm_.findMinimum(initialLength,this,SCORING_FRACTION_DIGITS);
+		}
+		private void extend(ConditionalProbabilityStore flat, PatternInfo pattern, double distance, ConditionalProbabilityStore resultStore) {
+			calculator_.calculateSingleExtendedIndirect(distance,model_,pattern.getNumberOfPatterns(),flat,resultStore);
+		}
+		public double evaluate(double argument) {
+			return -calculator_.calculateLogLikelihood(argument,model_,centerPattern_,branchFlat_,sideFlatStore_,tempStore_);
+		}
+		public double evaluate(double argument, double[] derivatives) {
+			final double logLikelihood = calculator_.calculateLogLikelihoodAndDerivatives(argument,model_,centerPattern_,branchFlat_,sideFlatStore_,tempStore_,derivatives);
+			derivatives[0] = -derivatives[0];
+			derivatives[1] = -derivatives[1];
+			return -logLikelihood;
+		}
+		public double getLowerBound() {	return MINIMUM_BRANCH_LENGTH; }
+		public double getUpperBound() { return MAXIMUM_BRANCH_LENGTH; }
+	}
 // -=-=-=-=-=-==--==--==--=-=-==-=--=-=-=-==-=-=--==-=-=--==--==-=-=--==--==--=
 // == Static Utility Methods ===
 // =--=-==-=--=-==--=-==--=-=-=-=-==-=-=--=-==-=-=-=--==-=-=-=-=--==-=-=-=-=-=-
@@ -962,70 +1741,6 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 
 
 
-// -=-=-=-=-=-==--==--==--=-=-==-=--=-=-=-==-=-=--==-=-=--==--==-=-=--==--==--=
-// == Workspace ===
-// =--=-==-=---==--=-==--=-=-=-=-==-=-=--=-==-=-=-=--==-=-=-=-=--==-=-=-=-=-=-
-	private static final class Workspace {
-		private final double[][][][] conditionalLikelihoodTables_;
-		private final double[] endStateProbabilityStore_;
-		private final double[][][] transitionProbabilityStore_;
-		private final int numberOfCategories_;
-		private final int numberOfStates_;
-		private final boolean[] locks_;
-		public Workspace(int capacity, int maxNumberOfPatterns, ConstructionTool tool) {
-			this.numberOfCategories_ = tool.getNumberOfTransitionCategories();
-			numberOfStates_ = tool.getNumberOfStates();
-
-			this.conditionalLikelihoodTables_ =
-					new double
-							[capacity]
-							[numberOfCategories_]
-							[maxNumberOfPatterns]
-							[tool.getNumberOfStates()];
-		 this.endStateProbabilityStore_ = new double[numberOfStates_];
-		 this.transitionProbabilityStore_ = new double[numberOfCategories_][numberOfStates_][numberOfStates_];
-		 this.locks_ = new boolean[capacity];
-		}
-		public final int getNumberOfCategories() { return numberOfCategories_; }
-		public final int getNumberOfStates() { return numberOfStates_; }
-		public final double[] getEndStateProbabilityStore() { return endStateProbabilityStore_; }
-		public final int obtainLock() {
-			 for(int i = 0 ; i < locks_.length ; i++) {
-				 if(!locks_[i]) {
-					 locks_[i]=true;
-					 return i;
-				 }
-			 }
-			 throw new RuntimeException("Assertion error : no locks available");
-		 }
-		 public final double[][][] getTransitionProbabilityStore() {
-			 return transitionProbabilityStore_;
-		 }
-		 public final void returnLock(int lockNumber, double[][][] probabilities) {
-			 if(locks_[lockNumber]) {
-				 if(conditionalLikelihoodTables_[lockNumber]!=probabilities) {
-					 throw new IllegalArgumentException("Table mismatch");
-				 }
-				 locks_[lockNumber]=false;
-			 } else {
-				 throw new IllegalArgumentException("Lock already unlocked:"+lockNumber);
-			 }
-		 }
-		 public final void freeLock(int lockNumber) {
-			 if(locks_[lockNumber]) {
-				 locks_[lockNumber]=false;
-			 } else {
-				 throw new IllegalArgumentException("Lock already unlocked:"+lockNumber);
-			 }
-		 }
-		 public final double[][][] getConditionalProbabilityTable(int lockNumber) {
-			 if(locks_[lockNumber]) {
-				 return conditionalLikelihoodTables_[lockNumber];
-			 }else {
-				 throw new IllegalArgumentException("Accessing unlocked table:"+lockNumber);
-			 }
-		 }
-	}
 // -=-=-=-=-=-==--==--==--=-=-==-=--=-=-=-==-=-=--==-=-=--==--==-=-=--==--==--=
 // == UNode ===
 // =--=-==-=--=-==--=-==--=-=-=-=-==-=-=--=-==-=-=-=--==-=-=-=-=--==-=-=-=-=-=-
@@ -1099,6 +1814,11 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		 * To be used by nodes that cannot properly do a rebuildPattern(tool) call, so they redirect to the other end of a connection
 		 */
 		public int redirectRebuildPattern( ConstructionTool tool);
+		/**
+		 * Recalculate the pattern weights of this node's patterns (but not neighbours) for the current site
+		 * weights of the tool (the patterns are otherwise unchanged)
+		 */
+		public void reweightPatterns( ConstructionTool tool);
 
 		public ConditionalProbabilityStore getFlatConditionalProbabilities( SubstitutionModel model, boolean modelChanged,  Connection callingConnection, int depth, boolean isForLeft);
 		public ConditionalProbabilityStore getFlatConditionalProbabilities( SubstitutionModel model, boolean modelChanged,  Connection callingConnection, LHCalculator.External external, ConditionalProbabilityStore resultStore);
@@ -1453,6 +2173,11 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		public int redirectRebuildPattern(ConstructionTool tool) {
 			return rebuildPattern(tool);
 		}
+		public void reweightPatterns(ConstructionTool tool) {
+			for(int i = 0 ; i < patterns_.length ; i++) {
+				tool.reweight(patterns_[i]);
+			}
+		}
 		public void getAllConnections(ArrayList store, Connection caller) {
 			for(int i = 0 ; i < connections_.length ; i++) {
 				if(connections_[i]!=caller) {
@@ -1792,6 +2517,10 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		 * In this case we don't have to do much (tree is two node tree)
 		 */
 		public int redirectRebuildPattern(ConstructionTool tool) {		return pattern_.getNumberOfPatterns();		}
+		/**
+		 * Leaf patterns have no weights
+		 */
+		public void reweightPatterns(ConstructionTool tool) { }
 
 		public final ConditionalProbabilityStore getFlatConditionalProbabilities(SubstitutionModel model, boolean modelChanged, Connection callingConnection, LHCalculator.External external, ConditionalProbabilityStore resultStore) {
 			if(callingConnection!=parentConnection_) {		throw new IllegalArgumentException("Unknown calling connection");			}
@@ -1841,6 +2570,19 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		public UnrootedMLSearcher attach(String sequence, Alignment alignment, SubstitutionModel model) {
 	  	return new UnrootedMLSearcher(base_, peer_, NodeFactory.createNode(new Identifier(sequence)), alignment, model );
 	  }
+		public UnrootedMLSearcher attachIncrementally(Node subTree, Alignment newSequences) {
+			final SubstitutionModel model = base_.model_;
+			final String[] left = peer_.getLeftLeafNames();
+			final String[] right = peer_.getRightLeafNames();
+			final String[] leafNames = new String[left.length+right.length];
+			System.arraycopy(left,0,leafNames,0,left.length);
+			System.arraycopy(right,0,leafNames,left.length,right.length);
+			final ConstructionTool tool = new ConstructionTool(base_.tool_,leafNames,newSequences,model.getNumberOfTransitionCategories(),base_.calcFactory_);
+			return new UnrootedMLSearcher(base_, peer_, subTree, model, tool);
+		}
+		public UnrootedMLSearcher attachIncrementally(String sequence, Alignment newSequences) {
+			return attachIncrementally(NodeFactory.createNode(new Identifier(sequence)), newSequences);
+		}
 		public void setAnnotation(Object annotation) {
 		  peer_.setAnnotation(annotation);
 		}
@@ -2474,7 +3216,7 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 // -==--=-=-=-=-=-=-=-=-=-=-=-=-==--==-=-=--==--==-=--==-=--=-==-=--==--==-=-=-
 // ==== OptimisationHandler ====
 // -==--=-=-==--=-=-=-==--=-=-=-=-==--=-=-=-==-=-=-=-=-=-===--=-==--=-==--=-==-
-	private static final class OptimisationHandler implements UnivariateFunction {
+	private static final class OptimisationHandler implements DifferentiableUnivariateFunction {
 		private final double[][][] transitionProbabiltityStore_ ;
 		private ConditionalProbabilityStore leftFlatConditionalProbabilities_;
 		private ConditionalProbabilityStore rightFlatConditionalProbabilities_;
@@ -2485,7 +3227,7 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		private PatternInfo currentPatternInfo_;
 		private final LHCalculator.External calculator_;
 		private final ConditionalProbabilityStore tempStore_;
-		private final UnivariateMinimum um_;
+		private final NewtonUnivariateMinimum nm_;
 		private final ConstructionTool tool_;
 		public OptimisationHandler(SubstitutionModel model,  ConstructionTool tool) {
 			numberOfStates_ = model.getDataType().getNumStates();
@@ -2495,7 +3237,7 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 			numberOfCategories_ = model.getNumberOfTransitionCategories();
 			this.transitionProbabiltityStore_ = new double[numberOfCategories_][numberOfStates_][numberOfStates_];
 			this.model_ = model;
-			this.um_ = new UnivariateMinimum();
+			this.nm_ = new NewtonUnivariateMinimum();
 		}
 		/**
 		 * Optimise the branch length of a certain connection
@@ -2506,11 +3248,19 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		 */
 		public double optimiseBranchLength(Connection c, boolean modelChanged) {
 			setup(c,modelChanged);
-			um_.findMinimum(c.getBranchLength(),this);
-
-			c.setBranchLength(um_.minx);
-			return -um_.fminx;
+			c.setBranchLength(findMaximumBranchLength(c.getBranchLength()));
+			return -nm_.fminx;
 	}
+		/**
+		 * Find the maximum likelihood branch length for the connection last given to setup()
+		 * (using Newton-Raphson steps with the analytic derivatives)
+		 * @param startingLength the initial branch length
+		 * @return the optimal branch length
+		 */
+		public double findMaximumBranchLength(double startingLength) {
+			nm_.findMinimum(startingLength,this);
+			return nm_.minx;
+		}
 
 		public void setup(Connection c, boolean modelChanged) {
 			this.leftFlatConditionalProbabilities_ = c.getLeftFlatConditionalProbabilities(model_, modelChanged);
@@ -2523,6 +3273,12 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 
 			return -calculator_.calculateLogLikelihood(argument,model_,currentPatternInfo_,leftFlatConditionalProbabilities_,rightFlatConditionalProbabilities_, tempStore_);
 		}
+		public double evaluate(double argument, double[] derivatives) {
+			final double logLikelihood = calculator_.calculateLogLikelihoodAndDerivatives(argument,model_,currentPatternInfo_,leftFlatConditionalProbabilities_,rightFlatConditionalProbabilities_, tempStore_, derivatives);
+			derivatives[0] = -derivatives[0];
+			derivatives[1] = -derivatives[1];
+			return -logLikelihood;
+		}
 
 		public double getLowerBound() {	return MINIMUM_BRANCH_LENGTH; }
 		public double getUpperBound() { return MAXIMUM_BRANCH_LENGTH; }
@@ -2712,6 +3468,8 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 
 	private static final class ConstructionTool {
 		private final String[] names_;
+		//The index of each sequence by name (built when first needed)
+		private Hashtable<String,Integer> nameIndices_ = null;
 		private final int[][] sequences_;
 		private final int numberOfStates_;
 		private final int numberOfCategories_;
@@ -2720,6 +3478,10 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		private int nextConnectionIndex_ = 0;
 		private final ArrayList allUNodes_ = new ArrayList();
 		private final LHCalculator.Generator calcGenerator_;
+		private final ConditionalProbabilityStorePool storePool_;
+		//The weights the sites start with (null for one each), and the current weights
+		private final int[] baseSiteWeights_;
+		private int[] siteWeights_;
 		public ConstructionTool(Alignment alignment, int numberOfStates, int numberOfCategories, LHCalculator.Factory calculatorFactory) {
 		  if(alignment!=null) {
 				DataType dt = alignment.getDataType();
@@ -2740,12 +3502,115 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		  	this.names_ = Identifier.getNames(alignment);
 				this.sequences_ = pal.alignment.AlignmentUtils.getAlignedStates( alignment, dt_.getNumStates() );
 				this.calcGenerator_ = calculatorFactory.createSeries(numberOfCategories,dt_);
+				this.storePool_ = createStorePool(calcGenerator_,numberOfCategories,numberOfStates,numberOfSites_,names_.length);
 			} else {
 				this.names_ = null;
 			  this.sequences_ = null;
 				this.calcGenerator_ = null;
+				this.storePool_ = null;
 			}
-
+			this.baseSiteWeights_ = null;
+			this.siteWeights_ = null;
+		}
+		/**
+		 * The pattern constructor, for a tool whose sites are the patterns of a SitePattern (each weighted by the
+		 * pattern weight)
+		 * @param patterns the site patterns
+		 * @param numberOfStates the number of states of the substitution model
+		 * @param numberOfCategories the number of transition categories
+		 * @param calculatorFactory the factory for likelihood calculators
+		 */
+		public ConstructionTool(SitePattern patterns, int numberOfStates, int numberOfCategories, LHCalculator.Factory calculatorFactory) {
+			final DataType dt = patterns.getDataType();
+			if( dt.isAmbiguous() ) {
+				this.dt_ = dt.getAmbiguousVersion().getSpecificDataType();
+			} else {
+				this.dt_ = dt;
+			}
+			final int numberOfPatterns = patterns.getNumberOfPatterns();
+			this.numberOfSites_ = numberOfPatterns;
+			this.numberOfStates_ = numberOfStates;
+			this.numberOfCategories_ = numberOfCategories;
+			this.names_ = Identifier.getNames(patterns);
+			final int unknownState = dt_.getNumStates();
+			this.sequences_ = new int[names_.length][numberOfPatterns];
+			for(int i = 0 ; i < sequences_.length ; i++) {
+				for(int j = 0 ; j < numberOfPatterns ; j++) {
+					final char c = patterns.getPatternData(i,j);
+					sequences_[i][j] = (dt.isUnknownChar(c) ? unknownState : dt.getState(c));
+				}
+			}
+			this.calcGenerator_ = calculatorFactory.createSeries(numberOfCategories,dt_);
+			this.storePool_ = createStorePool(calcGenerator_,numberOfCategories,numberOfStates,numberOfSites_,names_.length);
+			this.baseSiteWeights_ = new int[numberOfPatterns];
+			System.arraycopy(patterns.getSiteWeights(),0,baseSiteWeights_,0,numberOfPatterns);
+			this.siteWeights_ = baseSiteWeights_;
+		}
+		/**
+		 * The incremental constructor, for a tool with some of the sequences of a base tool and some new sequences
+		 * (the states of the base sequences are shared, not rebuilt)
+		 * @param base the tool of the searcher being extended
+		 * @param baseNames the names of the base sequences to keep (the leaves of the base tree)
+		 * @param newSequences the new sequences (of the same length, and number of states, as those of base)
+		 * @param numberOfCategories the number of transition categories
+		 * @param calculatorFactory the factory for likelihood calculators
+		 */
+		public ConstructionTool(ConstructionTool base, String[] baseNames, Alignment newSequences, int numberOfCategories, LHCalculator.Factory calculatorFactory) {
+			if(base.sequences_==null) {
+				throw new IllegalArgumentException("Base searcher has no sequences (a full alignment is needed)");
+			}
+			if(newSequences.getSiteCount()!=base.numberOfSites_) {
+				throw new IllegalArgumentException("New sequences have "+newSequences.getSiteCount()+" sites, expected "+base.numberOfSites_);
+			}
+			final DataType newDataType = newSequences.getDataType();
+			final DataType newSpecific = (newDataType.isAmbiguous() ? newDataType.getAmbiguousVersion().getSpecificDataType() : newDataType);
+			if(newSpecific.getNumStates()!=base.dt_.getNumStates()) {
+				throw new IllegalArgumentException("New sequences do not match base data type:"+newDataType);
+			}
+			this.dt_ = base.dt_;
+			this.numberOfSites_ = base.numberOfSites_;
+			this.numberOfStates_ = base.numberOfStates_;
+			this.numberOfCategories_ = numberOfCategories;
+			final String[] newNames = Identifier.getNames(newSequences);
+			final int[][] newStates = pal.alignment.AlignmentUtils.getAlignedStates( newSequences, dt_.getNumStates() );
+			final int numberOfBase = baseNames.length;
+			this.names_ = new String[numberOfBase+newNames.length];
+			this.sequences_ = new int[names_.length][];
+			//The index of each name (the first, if repeated), so the check for duplicates is not linear in the number of sequences
+			final Hashtable<String,Integer> indices = new Hashtable<String,Integer>();
+			for(int i = 0 ; i < numberOfBase ; i++) {
+				names_[i] = baseNames[i];
+				sequences_[i] = base.getSequence(baseNames[i]);
+			}
+			for(int i = numberOfBase-1 ; i >= 0 ; i--) {
+				indices.put(baseNames[i],Integer.valueOf(i));
+			}
+			for(int i = 0 ; i < newNames.length ; i++) {
+				if(indices.containsKey(newNames[i])) {
+					throw new IllegalArgumentException("Sequence already present:"+newNames[i]);
+				}
+				indices.put(newNames[i],Integer.valueOf(numberOfBase+i));
+				names_[numberOfBase+i] = newNames[i];
+				sequences_[numberOfBase+i] = newStates[i];
+			}
+			this.nameIndices_ = indices;
+			this.calcGenerator_ = calculatorFactory.createSeries(numberOfCategories,dt_);
+			this.storePool_ = createStorePool(calcGenerator_,numberOfCategories,numberOfStates_,numberOfSites_,names_.length);
+			this.baseSiteWeights_ = base.baseSiteWeights_;
+			this.siteWeights_ = (base.siteWeights_==base.baseSiteWeights_ ? baseSiteWeights_ : pal.misc.Utils.getCopy(base.siteWeights_));
+		}
+		/**
+		 * Create the pool of temporary stores, with a budget that can hold the stores of a regraft scoring pass
+		 * over a tree of all the sequences (so the stores released after one pass are reused by the next)
+		 */
+		private static ConditionalProbabilityStorePool createStorePool(LHCalculator.Generator generator, int numberOfCategories, int numberOfStates, int numberOfSites, int numberOfSequences) {
+			final ConditionalProbabilityStorePool pool = new ConditionalProbabilityStorePool(generator,numberOfCategories,numberOfStates,numberOfSites,MINIMUM_STORE_POOL_MEMORY_BUDGET);
+			final long numberOfConnections = Math.max(1,2L*numberOfSequences-3);
+			final long passBudget = STORES_PER_CONNECTION*numberOfConnections*pool.getBytesPerStore();
+			if(passBudget>MINIMUM_STORE_POOL_MEMORY_BUDGET) {
+				pool.setMemoryBudget(passBudget);
+			}
+			return pool;
 		}
 		public boolean hasSequences() { return sequences_!=null&&sequences_.length>0; }
 		public PatternInfo constructFreshPatternInfo(boolean binaryPattern) {
@@ -2754,6 +3619,12 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 		public final ConditionalProbabilityStore newConditionalProbabilityStore(boolean isForLeaf) {
 			return calcGenerator_.createAppropriateConditionalProbabilityStore(isForLeaf);
 		}
+		/**
+		 * @return a pool of (non leaf) stores for temporary use, shared by all users of this tool
+		 */
+		public final ConditionalProbabilityStorePool getStorePool() {
+			return storePool_;
+		}
 		public final int allocateNextConnectionIndex() {
 			return nextConnectionIndex_++;
 		}
@@ -2776,7 +3647,27 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 			return null;
 		}
 		public int build(PatternInfo beingBuilt, PatternInfo left, PatternInfo right) {
-			return beingBuilt.build(left,right,numberOfSites_);
+			return beingBuilt.build(left,right,numberOfSites_,siteWeights_);
+		}
+		public void reweight(PatternInfo pattern) {
+			pattern.reweight(numberOfSites_,siteWeights_);
+		}
+		/**
+		 * Change the site weights
+		 * @param siteWeights the new weights (copied), or null to return to the weights the tool started with
+		 */
+		public void setSiteWeights(int[] siteWeights) {
+			if(siteWeights==null) {
+				this.siteWeights_ = baseSiteWeights_;
+				return;
+			}
+			if(siteWeights.length!=numberOfSites_) {
+				throw new IllegalArgumentException("Expecting "+numberOfSites_+" site weights, not "+siteWeights.length);
+			}
+			if(siteWeights_==null||siteWeights_==baseSiteWeights_) {
+				this.siteWeights_ = new int[numberOfSites_];
+			}
+			System.arraycopy(siteWeights,0,siteWeights_,0,numberOfSites_);
 		}
 		public final int allocateNextUNodeIndex(UNode node) {
 			int index = allUNodes_.size();
@@ -2795,12 +3686,18 @@ public class UnrootedMLSearcher implements Markable, StateProvider, UnrootedTree
 			if(sequences_==null) {
 			  return null;
 			}
-			for(int i = 0 ; i < names_.length ; i++) {
-				if(name.equals(names_[i])) {
-					return sequences_[i];
+			if(nameIndices_==null) {
+				//Built backwards so the first of any repeated name is found
+				nameIndices_ = new Hashtable<String,Integer>();
+				for(int i = names_.length-1 ; i >= 0 ; i--) {
+					nameIndices_.put(names_[i],Integer.valueOf(i));
 				}
 			}
-			throw new IllegalArgumentException("Unknown sequence:"+name);
+			final Integer index = nameIndices_.get(name);
+			if(index==null) {
+				throw new IllegalArgumentException("Unknown sequence:"+name);
+			}
+			return sequences_[index.intValue()];
 		}
 		public int getNumberOfStates() { return numberOfStates_; }
 		public int getNumberOfTransitionCategories() { return numberOfCategories_; }
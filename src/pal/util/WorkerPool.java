@@ -0,0 +1,178 @@
+// WorkerPool.java
+//
+// (c) 1999-2004 PAL Development Core Team
+//
+// This package may be distributed under the
+// terms of the Lesser GNU General Public License (LGPL)
+
+package pal.util;
+
+/**
+ * <p>Title: WorkerPool</p>
+ * <p>Description: A fixed set of (daemon) worker threads for running batches of independent tasks.
+ * A call to execute() blocks until every task in the batch has completed, with the calling
+ * thread also running tasks. Only one batch runs at a time; a call to execute() made from within a
+ * task (or by a thread already executing a batch) runs the tasks in the calling thread, so nested
+ * use of the same pool cannot deadlock.</p>
+ * @author not attributable
+ * @version 1.0
+ */
+
+public final class WorkerPool {
+	private static final java.util.Hashtable<Integer,WorkerPool> SHARED_POOLS = new java.util.Hashtable<Integer,WorkerPool>();
+
+	private final Worker[] workers_;
+	private final Object executionLock_ = new Object();
+
+	private Runnable[] currentTasks_ = null;
+	private int nextTask_ = 0;
+	private int remainingTasks_ = 0;
+	private Throwable failure_ = null;
+	private Thread executingThread_ = null;
+	private boolean isShutdown_ = false;
+
+	/**
+	 * Create a new pool
+	 * @param numberOfThreads the total number of threads used to run a batch (including the calling thread)
+	 */
+	public WorkerPool(int numberOfThreads) {
+		if(numberOfThreads<1) {
+			throw new IllegalArgumentException("Number of threads must be at least one:"+numberOfThreads);
+		}
+		this.workers_ = new Worker[numberOfThreads-1];
+		for(int i = 0 ; i < workers_.length ; i++) {
+			workers_[i] = new Worker(this,i);
+			workers_[i].start();
+		}
+	}
+	/**
+	 * @return the total number of threads used to run a batch (including the calling thread)
+	 */
+	public final int getNumberOfThreads() { return workers_.length+1; }
+
+	/**
+	 * Run a batch of tasks, returning when all have completed.
+	 * @param tasks the tasks to run (each task is run exactly once)
+	 * @throws RuntimeException if a task fails (the first failure is rethrown once all tasks have finished)
+	 */
+	public final void execute(Runnable[] tasks) {
+		if(tasks.length==0) { return; }
+		if(tasks.length==1||workers_.length==0||isExecutingThread(Thread.currentThread())) {
+			for(int i = 0 ; i < tasks.length ; i++) { tasks[i].run(); }
+			return;
+		}
+		synchronized(executionLock_) {
+			synchronized(this) {
+				if(isShutdown_) {	throw new IllegalStateException("Pool has been shutdown");	}
+				this.currentTasks_ = tasks;
+				this.nextTask_ = 0;
+				this.remainingTasks_ = tasks.length;
+				this.failure_ = null;
+				this.executingThread_ = Thread.currentThread();
+				notifyAll();
+			}
+			Runnable task;
+			while((task = getNextTask(false))!=null) {
+				runTask(task);
+			}
+			Throwable failure;
+			synchronized(this) {
+				while(remainingTasks_>0) {
+					try { wait(); } catch(InterruptedException e) { }
+				}
+				failure = failure_;
+				this.currentTasks_ = null;
+				this.failure_ = null;
+				this.executingThread_ = null;
+			}
+			if(failure!=null) {
+				if(failure instanceof RuntimeException) { throw (RuntimeException)failure; }
+				if(failure instanceof Error) { throw (Error)failure; }
+				throw new RuntimeException(failure.toString());
+			}
+		}
+	}
+	/**
+	 * Stop the worker threads. The pool cannot be used for executing batches afterwards.
+	 */
+	public final synchronized void shutdown() {
+		this.isShutdown_ = true;
+		notifyAll();
+	}
+
+	private final synchronized boolean isExecutingThread(Thread t) {
+		if(t==executingThread_) { return true; }
+		return (t instanceof Worker)&&((Worker)t).pool_==this;
+	}
+	/**
+	 * @param wait if true wait for a batch to become available
+	 * @return the next task, or null if there are no tasks (or the pool has been shutdown)
+	 */
+	private final synchronized Runnable getNextTask(boolean wait) {
+		while(true) {
+			if(isShutdown_) { return null; }
+			if(currentTasks_!=null&&nextTask_<currentTasks_.length) {
+				return currentTasks_[nextTask_++];
+			}
+			if(!wait) { return null; }
+			try { wait(); } catch(InterruptedException e) { }
+		}
+	}
+	private final void runTask(Runnable task) {
+		Throwable failure = null;
+		try {
+			task.run();
+		} catch(Throwable t) {
+			failure = t;
+		}
+		synchronized(this) {
+			if(failure!=null&&failure_==null) { this.failure_ = failure; }
+			remainingTasks_--;
+			if(remainingTasks_==0) { notifyAll(); }
+		}
+	}
+// ==========================================================================
+	/**
+	 * Obtain a pool shared by all callers asking for the same number of threads. Shared pools are never shutdown.
+	 * @param numberOfThreads the total number of threads
+	 * @return a shared pool
+	 */
+	public static final WorkerPool getSharedPool(int numberOfThreads) {
+		synchronized(SHARED_POOLS) {
+			Integer key = Integer.valueOf(numberOfThreads);
+			WorkerPool pool = SHARED_POOLS.get(key);
+			if(pool==null) {
+				pool = new WorkerPool(numberOfThreads);
+				SHARED_POOLS.put(key,pool);
+			}
+			return pool;
+		}
+	}
+	/**
+	 * @return a shared pool with one thread per available processor
+	 */
+	public static final WorkerPool getDefaultPool() {
+		return getSharedPool(getDefaultNumberOfThreads());
+	}
+	/**
+	 * @return the number of available processors
+	 */
+	public static final int getDefaultNumberOfThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+// ==========================================================================
+	private static final class Worker extends Thread {
+		private final WorkerPool pool_;
+		public Worker(WorkerPool pool, int id) {
+			super("WorkerPool-"+id);
+			this.pool_ = pool;
+			setDaemon(true);
+		}
+		public void run() {
+			Runnable task;
+			while((task = pool_.getNextTask(true))!=null) {
+				pool_.runTask(task);
+			}
+		}
+	}
+}